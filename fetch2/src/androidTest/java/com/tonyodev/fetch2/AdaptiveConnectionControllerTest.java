@@ -0,0 +1,61 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.AdaptiveConnectionController;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveConnectionControllerTest {
+
+    private static final double BYTES_PER_CONNECTION = 100_000;
+
+    @Test
+    public void rampsUpWhileEveryConnectionAddsThroughput() {
+        final AdaptiveConnectionController controller = new AdaptiveConnectionController(8, 2);
+        assertEquals(2, controller.getConnectionLimit());
+        for (int connections = 2; connections < 8; connections++) {
+            assertEquals(connections + 1, controller.onThroughputSample(
+                    connections * BYTES_PER_CONNECTION, connections, true));
+        }
+        assertEquals(8, controller.onThroughputSample(8 * BYTES_PER_CONNECTION, 8, true));
+        assertEquals(8, controller.onThroughputSample(8 * BYTES_PER_CONNECTION, 8, true));
+    }
+
+    @Test
+    public void backsOffWhenTheAddedConnectionDoesNotPayOff() {
+        final AdaptiveConnectionController controller = new AdaptiveConnectionController(8, 2);
+        assertEquals(3, controller.onThroughputSample(2 * BYTES_PER_CONNECTION, 2, true));
+        // The third connection adds less than half of the throughput of one connection.
+        assertEquals(2, controller.onThroughputSample(2.4 * BYTES_PER_CONNECTION, 3, true));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(2, controller.onThroughputSample(2.4 * BYTES_PER_CONNECTION, 2, true));
+        }
+        assertEquals(3, controller.onThroughputSample(2.4 * BYTES_PER_CONNECTION, 2, true));
+    }
+
+    @Test
+    public void keepsConnectionThatAddsHalfOfAConnection() {
+        final AdaptiveConnectionController controller = new AdaptiveConnectionController(8, 4);
+        assertEquals(5, controller.onThroughputSample(4 * BYTES_PER_CONNECTION, 4, true));
+        assertEquals(6, controller.onThroughputSample(4.5 * BYTES_PER_CONNECTION, 5, true));
+    }
+
+    @Test
+    public void doesNotGrowWithoutPendingWork() {
+        final AdaptiveConnectionController controller = new AdaptiveConnectionController(8, 2);
+        assertEquals(2, controller.onThroughputSample(2 * BYTES_PER_CONNECTION, 2, false));
+        assertEquals(2, controller.onThroughputSample(BYTES_PER_CONNECTION, 2, false));
+    }
+
+    @Test
+    public void initialConnectionsAreCappedByMaxConnections() {
+        assertEquals(1, new AdaptiveConnectionController(1, 2).getConnectionLimit());
+        assertEquals(1, new AdaptiveConnectionController(1, 2).onThroughputSample(BYTES_PER_CONNECTION, 1, true));
+    }
+
+}
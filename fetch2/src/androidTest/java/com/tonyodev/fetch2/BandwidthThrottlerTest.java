@@ -0,0 +1,89 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.TokenBucket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class BandwidthThrottlerTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void tokenBucketWaitsForMissingTokens() {
+        final FakeClock clock = new FakeClock();
+        final TokenBucket tokenBucket = new TokenBucket(1000, clock);
+        assertEquals(SECOND / 2, tokenBucket.reserve(500));
+        clock.advance(SECOND / 2);
+        assertEquals(SECOND, tokenBucket.reserve(1000));
+        clock.advance(2 * SECOND);
+        assertEquals(0, tokenBucket.reserve(1000));
+        assertEquals(SECOND / 1000, tokenBucket.reserve(1));
+        tokenBucket.setBytesPerSecond(2000);
+        assertEquals((SECOND / 1000 * 1000 + 1000 * SECOND) / 2000, tokenBucket.reserve(1000));
+        tokenBucket.setBytesPerSecond(0);
+        assertEquals(0, tokenBucket.reserve(1_000_000));
+    }
+
+    @Test
+    public void idleBucketHoldsAtMostOneSecondOfTokens() {
+        final FakeClock clock = new FakeClock();
+        final TokenBucket tokenBucket = new TokenBucket(1000, clock);
+        clock.advance(60 * SECOND);
+        assertEquals(0, tokenBucket.reserve(1000));
+        assertEquals(SECOND / 10, tokenBucket.reserve(100));
+    }
+
+    @Test
+    public void throttlerWaitsForSlowestBucket() {
+        final FakeClock clock = new FakeClock();
+        final Map<NetworkType, Long> networkTypeLimits = new HashMap<>();
+        networkTypeLimits.put(NetworkType.WIFI_ONLY, 500L);
+        final BandwidthThrottler bandwidthThrottler = new BandwidthThrottler("test", 1000, networkTypeLimits, clock);
+        bandwidthThrottler.registerDownload(1, 0);
+        bandwidthThrottler.setCurrentNetworkType(NetworkType.ALL);
+        assertEquals(SECOND / 10, bandwidthThrottler.reserve(1, 100));
+        clock.advance(SECOND / 10);
+        bandwidthThrottler.setCurrentNetworkType(NetworkType.WIFI_ONLY);
+        assertEquals(3 * SECOND / 10, bandwidthThrottler.reserve(1, 200));
+        bandwidthThrottler.setDownloadBytesPerSecond(1, 100);
+        clock.advance(SECOND);
+        assertEquals(SECOND / 2, bandwidthThrottler.reserve(1, 150));
+        bandwidthThrottler.unregisterDownload(1);
+        assertEquals(0, bandwidthThrottler.reserve(1, 100));
+    }
+
+    @Test
+    public void throttlerWithoutLimitsDoesNotWait() {
+        final BandwidthThrottler bandwidthThrottler = new BandwidthThrottler("test", 0,
+                Collections.<NetworkType, Long>emptyMap(), new FakeClock());
+        bandwidthThrottler.registerDownload(1, 0);
+        assertEquals(0, bandwidthThrottler.reserve(1, Integer.MAX_VALUE));
+    }
+
+    private static class FakeClock implements TokenBucket.Clock {
+
+        private long nanoTime = 0;
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        void advance(long nanos) {
+            nanoTime += nanos;
+        }
+
+    }
+
+}
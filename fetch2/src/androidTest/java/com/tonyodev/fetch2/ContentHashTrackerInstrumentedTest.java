@@ -0,0 +1,223 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.ContentHashTracker;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.ResumableDigest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ContentHashTrackerInstrumentedTest {
+
+    private static final String[] ALGORITHMS = {ResumableDigest.MD5, ResumableDigest.SHA_1, ResumableDigest.SHA_256};
+    private static final int ID = 9001;
+
+    private String fileTempDir;
+    private File dataFile;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        fileTempDir = FetchCoreUtils.getFileTempDir(appContext);
+        new File(fileTempDir).mkdirs();
+        dataFile = new File(appContext.getCacheDir(), "contentHashTrackerTest.data");
+    }
+
+    @After
+    public void cleanup() {
+        dataFile.delete();
+        FetchUtils.deleteAllInFolderForId(ID, fileTempDir);
+    }
+
+    @Test
+    public void resumableDigestMatchesMessageDigest() throws Exception {
+        final Random random = new Random(7);
+        for (final String algorithm : ALGORITHMS) {
+            for (final int length : new int[]{0, 1, 55, 56, 63, 64, 65, 119, 120, 100_000}) {
+                final byte[] data = new byte[length];
+                random.nextBytes(data);
+                ResumableDigest digest = ResumableDigest.getInstance(algorithm);
+                int position = 0;
+                while (position < length) {
+                    final int chunk = Math.min(length - position, random.nextInt(300));
+                    final ResumableDigest restored = ResumableDigest.getInstance(algorithm);
+                    assertTrue(restored.restoreState(digest.saveState()));
+                    digest = restored;
+                    digest.update(data, position, chunk);
+                    position += chunk;
+                }
+                assertArrayEquals(algorithm + " " + length,
+                        MessageDigest.getInstance(algorithm).digest(data), digest.digest());
+            }
+        }
+    }
+
+    @Test
+    public void hashAlgorithmFromHashLength() {
+        assertEquals(ResumableDigest.MD5, FetchCoreUtils.getHashAlgorithm("9e107d9d372bb6826bd81d3542a419d6"));
+        assertEquals(ResumableDigest.SHA_1, FetchCoreUtils.getHashAlgorithm("2fd4e1c67a2d28fced849ee1bb76e7391b93eb12"));
+        assertEquals(ResumableDigest.SHA_256, FetchCoreUtils.getHashAlgorithm(
+                "D7A8FBB307D7809469CA9ABCB0082E4F8D5651E46D3CDB762D02D0BF37C9E592"));
+        assertNull(FetchCoreUtils.getHashAlgorithm("not a hash"));
+    }
+
+    @Test
+    public void outOfOrderWritesAreHashedInFileOrder() throws Exception {
+        final byte[] data = new byte[256 * 1024 + 17];
+        new Random(11).nextBytes(data);
+        for (final String algorithm : ALGORITHMS) {
+            dataFile.delete();
+            final ContentHashTracker contentHashTracker = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, algorithm);
+            contentHashTracker.open(false);
+            final int sliceSize = data.length / 3;
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(dataFile, "rw");
+            for (int offset = 0; offset < sliceSize; offset += 4096) {
+                for (int slice = 2; slice >= 0; slice--) {
+                    final int position = slice * sliceSize + offset;
+                    final int sliceEnd = slice == 2 ? data.length : (slice + 1) * sliceSize;
+                    final int length = Math.min(4096, sliceEnd - position);
+                    if (length > 0) {
+                        randomAccessFile.seek(position);
+                        randomAccessFile.write(data, position, length);
+                        contentHashTracker.onBytesWritten(position, data, position, length);
+                    }
+                }
+            }
+            final int tailStart = 3 * sliceSize;
+            randomAccessFile.seek(tailStart);
+            randomAccessFile.write(data, tailStart, data.length - tailStart);
+            randomAccessFile.close();
+            assertEquals(FetchCoreUtils.getFileHashString(dataFile.getAbsolutePath(), algorithm),
+                    contentHashTracker.finish(data.length));
+            contentHashTracker.deleteSavedState();
+        }
+    }
+
+    @Test
+    public void bufferedWritesAreHashedWithoutReadingTheFile() throws Exception {
+        final byte[] data = new byte[64 * 1024 + 5];
+        new Random(17).nextBytes(data);
+        dataFile.delete();
+        final ContentHashTracker contentHashTracker = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, ResumableDigest.SHA_256);
+        contentHashTracker.open(false);
+        final int sliceSize = data.length / 4;
+        for (int slice = 3; slice >= 0; slice--) {
+            final int position = slice * sliceSize;
+            final int length = slice == 3 ? data.length - position : sliceSize;
+            contentHashTracker.onBytesWritten(position, data, position, length);
+        }
+        // The data file was never written, so every byte must come from the buffered copies.
+        assertFalse(dataFile.exists());
+        assertEquals(getHash(ResumableDigest.SHA_256, data), contentHashTracker.finish(data.length));
+        contentHashTracker.deleteSavedState();
+    }
+
+    @Test
+    public void writesBeyondTheBufferBudgetAreReadBackFromTheFile() throws Exception {
+        final byte[] data = new byte[128 * 1024];
+        new Random(19).nextBytes(data);
+        dataFile.delete();
+        final ContentHashTracker contentHashTracker = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, ResumableDigest.MD5, 8192);
+        contentHashTracker.open(false);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(dataFile, "rw");
+        for (int position = data.length - 4096; position >= 0; position -= 4096) {
+            randomAccessFile.seek(position);
+            randomAccessFile.write(data, position, 4096);
+            contentHashTracker.onBytesWritten(position, data, position, 4096);
+        }
+        randomAccessFile.close();
+        assertEquals(getHash(ResumableDigest.MD5, data), contentHashTracker.finish(data.length));
+        contentHashTracker.deleteSavedState();
+    }
+
+    @Test
+    public void concurrentSliceWritersAreHashedInFileOrder() throws Exception {
+        final byte[] data = new byte[4 * 1024 * 1024 + 3];
+        new Random(23).nextBytes(data);
+        dataFile.delete();
+        final ContentHashTracker contentHashTracker = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, ResumableDigest.SHA_1, 256 * 1024);
+        contentHashTracker.open(false);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(dataFile, "rw");
+        final FileChannel channel = randomAccessFile.getChannel();
+        final int sliceCount = 4;
+        final int sliceSize = data.length / sliceCount;
+        final CountDownLatch doneLatch = new CountDownLatch(sliceCount);
+        for (int slice = 0; slice < sliceCount; slice++) {
+            final int sliceStart = slice * sliceSize;
+            final int sliceEnd = slice == sliceCount - 1 ? data.length : sliceStart + sliceSize;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int position = sliceStart; position < sliceEnd; position += 8192) {
+                            final int length = Math.min(8192, sliceEnd - position);
+                            channel.write(ByteBuffer.wrap(data, position, length), position);
+                            contentHashTracker.onBytesWritten(position, data, position, length);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(doneLatch.await(1, TimeUnit.MINUTES));
+        randomAccessFile.close();
+        assertEquals(getHash(ResumableDigest.SHA_1, data), contentHashTracker.finish(data.length));
+        contentHashTracker.deleteSavedState();
+    }
+
+    @Test
+    public void resumedTrackerContinuesFromSavedState() throws Exception {
+        final byte[] data = new byte[300_000];
+        new Random(13).nextBytes(data);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(dataFile, "rw");
+        randomAccessFile.write(data);
+        randomAccessFile.close();
+        final int pausedPosition = 123_457;
+        final ContentHashTracker firstRun = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, ResumableDigest.SHA_256);
+        firstRun.open(false);
+        firstRun.onBytesWritten(0, data, 0, pausedPosition);
+        firstRun.saveCheckpoint();
+        firstRun.close();
+
+        final ContentHashTracker secondRun = new ContentHashTracker(ID, dataFile.getAbsolutePath(), fileTempDir, ResumableDigest.SHA_256);
+        secondRun.open(true);
+        secondRun.addWrittenRange(0, pausedPosition);
+        secondRun.onBytesWritten(pausedPosition, data, pausedPosition, data.length - pausedPosition);
+        assertEquals(FetchCoreUtils.getFileHashString(dataFile.getAbsolutePath(), ResumableDigest.SHA_256),
+                secondRun.finish(data.length));
+        secondRun.deleteSavedState();
+    }
+
+    private String getHash(String algorithm, byte[] data) {
+        final ResumableDigest digest = ResumableDigest.getInstance(algorithm);
+        digest.update(data, 0, data.length);
+        return digest.digestHex();
+    }
+
+}
@@ -6,6 +6,7 @@ import android.support.test.runner.AndroidJUnit4;
 
 import com.tonyodev.fetch2.database.FetchDatabaseManager;
 import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
 import com.tonyodev.fetch2.database.DownloadDatabase;
 import com.tonyodev.fetch2.database.DownloadInfo;
 import com.tonyodev.fetch2.database.migration.Migration;
@@ -22,6 +23,8 @@ import org.junit.runner.RunWith;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import kotlin.Pair;
@@ -429,6 +432,106 @@ public class DatabaseInstrumentedTest {
         assertEquals(status, downloadInfo1.getStatus());
     }
 
+    @Test
+    public void updateFileBytesInfoAndStatusOnlyMulti() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        final List<DownloadInfo> downloadInfoList = new ArrayList<>();
+        for (Request request : getTestRequestList(10)) {
+            downloadInfoList.add(FetchTypeConverterExtensions.toDownloadInfo(request));
+        }
+        fetchDatabaseManager.insert(downloadInfoList);
+        for (int i = 0; i < downloadInfoList.size(); i++) {
+            final DownloadInfo downloadInfo = downloadInfoList.get(i);
+            downloadInfo.setDownloaded(1000 * i);
+            downloadInfo.setTotal(10_000);
+            downloadInfo.setStatus(Status.DOWNLOADING);
+        }
+        fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfoList);
+        for (int i = 0; i < downloadInfoList.size(); i++) {
+            final DownloadInfo query = fetchDatabaseManager.get(downloadInfoList.get(i).getId());
+            assertNotNull(query);
+            assertEquals(1000 * i, query.getDownloaded());
+            assertEquals(10_000, query.getTotal());
+            assertEquals(Status.DOWNLOADING, query.getStatus());
+        }
+    }
+
+    @Test
+    public void bufferedProgressIsWrittenBeforeReads() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        final FetchDatabaseManagerWrapper fetchDatabaseManagerWrapper = new FetchDatabaseManagerWrapper(fetchDatabaseManager,
+                60_000L, null);
+        final DownloadInfo downloadInfo = FetchTypeConverterExtensions.toDownloadInfo(getTestRequest());
+        fetchDatabaseManagerWrapper.insert(downloadInfo);
+        downloadInfo.setStatus(Status.DOWNLOADING);
+        downloadInfo.setTotal(5000);
+        for (int i = 1; i <= 5; i++) {
+            downloadInfo.setDownloaded(1000 * i);
+            fetchDatabaseManagerWrapper.updateFileBytesInfoAndStatusOnly(downloadInfo);
+        }
+        final DownloadInfo query = fetchDatabaseManagerWrapper.get(downloadInfo.getId());
+        assertNotNull(query);
+        assertEquals(5000, query.getDownloaded());
+        assertEquals(5000, query.getTotal());
+        assertEquals(Status.DOWNLOADING, query.getStatus());
+    }
+
+    @Test
+    public void bulkStatusUpdateOnlyChangesMatchingDownloads() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        final List<DownloadInfo> downloadInfoList = new ArrayList<>();
+        for (Request request : getTestRequestList(4)) {
+            final DownloadInfo downloadInfo = FetchTypeConverterExtensions.toDownloadInfo(request);
+            downloadInfo.setGroup(3);
+            downloadInfo.setDownloaded(100);
+            downloadInfoList.add(downloadInfo);
+        }
+        downloadInfoList.get(0).setStatus(Status.QUEUED);
+        downloadInfoList.get(1).setStatus(Status.DOWNLOADING);
+        downloadInfoList.get(2).setStatus(Status.COMPLETED);
+        downloadInfoList.get(3).setStatus(Status.FAILED);
+        downloadInfoList.get(3).setError(Error.CONNECTION_TIMED_OUT);
+        fetchDatabaseManager.insert(downloadInfoList);
+        final int excludedId = downloadInfoList.get(1).getId();
+        final List<Integer> pausedIds = fetchDatabaseManager.updateStatusInGroup(3,
+                Arrays.asList(Status.QUEUED, Status.DOWNLOADING), Status.PAUSED, false,
+                Collections.singletonList(excludedId));
+        assertEquals(Collections.singletonList(downloadInfoList.get(0).getId()), pausedIds);
+        assertEquals(Status.DOWNLOADING, fetchDatabaseManager.get(excludedId).getStatus());
+        final DownloadInfo paused = fetchDatabaseManager.get(pausedIds.get(0));
+        assertNotNull(paused);
+        assertEquals(Status.PAUSED, paused.getStatus());
+        assertEquals(100, paused.getDownloaded());
+        final List<Integer> retriedIds = fetchDatabaseManager.updateStatus(Arrays.asList(downloadInfoList.get(2).getId(),
+                downloadInfoList.get(3).getId()), Collections.singletonList(Status.FAILED), Status.QUEUED, true);
+        assertEquals(Collections.singletonList(downloadInfoList.get(3).getId()), retriedIds);
+        final DownloadInfo retried = fetchDatabaseManager.get(retriedIds.get(0));
+        assertNotNull(retried);
+        assertEquals(Status.QUEUED, retried.getStatus());
+        assertEquals(Error.NONE, retried.getError());
+        assertEquals(Status.COMPLETED, fetchDatabaseManager.get(downloadInfoList.get(2).getId()).getStatus());
+        // The retried download is already queued, so resuming the group only changes the paused one.
+        final List<Integer> resumedIds = fetchDatabaseManager.updateStatus(Arrays.asList(Status.ADDED,
+                Status.QUEUED, Status.PAUSED), Status.QUEUED, false);
+        assertEquals(Collections.singletonList(downloadInfoList.get(0).getId()), resumedIds);
+    }
+
+    @Test
+    public void bandwidthLimitUpdateOnlyWritesTheLimit() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        final DownloadInfo downloadInfo = FetchTypeConverterExtensions.toDownloadInfo(getTestRequest());
+        downloadInfo.setStatus(Status.DOWNLOADING);
+        downloadInfo.setDownloaded(100);
+        fetchDatabaseManager.insert(downloadInfo);
+        assertTrue(fetchDatabaseManager.updateBandwidthLimit(downloadInfo.getId(), 4096));
+        final DownloadInfo query = fetchDatabaseManager.get(downloadInfo.getId());
+        assertNotNull(query);
+        assertEquals(4096, query.getBandwidthLimit());
+        assertEquals(Status.DOWNLOADING, query.getStatus());
+        assertEquals(100, query.getDownloaded());
+        assertFalse(fetchDatabaseManager.updateBandwidthLimit(downloadInfo.getId() + 1, 4096));
+    }
+
     @Test
     public void closed() throws Exception {
         assertFalse(fetchDatabaseManager.isClosed());
@@ -15,6 +15,8 @@ import com.tonyodev.fetch2.database.migration.Migration;
 import com.tonyodev.fetch2.downloader.DownloadManager;
 import com.tonyodev.fetch2.downloader.DownloadManagerImpl;
 import com.tonyodev.fetch2.downloader.DownloadManagerCoordinator;
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
 import com.tonyodev.fetch2.fetch.ListenerCoordinator;
 import com.tonyodev.fetch2.fetch.LiveSettings;
 import com.tonyodev.fetch2.helper.DownloadInfoUpdater;
@@ -36,6 +38,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -78,7 +81,12 @@ public class DownloadManagerInstrumentedTest {
                 progessInterval, fetchLogger, networkInfoProvider, retryOnNetworkGain,
                 downloadInfoUpdater, downloadManagerCoordinator,
                 listenerCoordinator, serverDownloader, false, storageResolver,
-                appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS);
+                appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS,
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS,
+                new SliceDownloadScheduler(namespace, FetchDefaults.DEFAULT_MAX_TOTAL_CONNECTIONS, fetchLogger),
+                new BandwidthThrottler(namespace, FetchDefaults.DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND,
+                        Collections.<NetworkType, Long>emptyMap()),
+                FetchDefaults.DEFAULT_PREALLOCATE_DOWNLOAD_FILE);
     }
 
     @After
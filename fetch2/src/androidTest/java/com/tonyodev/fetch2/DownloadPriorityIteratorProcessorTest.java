@@ -15,6 +15,8 @@ import com.tonyodev.fetch2.database.migration.Migration;
 import com.tonyodev.fetch2.downloader.DownloadManager;
 import com.tonyodev.fetch2.downloader.DownloadManagerImpl;
 import com.tonyodev.fetch2.downloader.DownloadManagerCoordinator;
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
 import com.tonyodev.fetch2.fetch.LiveSettings;
 import com.tonyodev.fetch2.provider.GroupInfoProvider;
 import com.tonyodev.fetch2core.DefaultStorageResolver;
@@ -37,6 +39,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -44,6 +49,7 @@ import static org.junit.Assert.assertTrue;
 public class DownloadPriorityIteratorProcessorTest {
 
     private PriorityListProcessor<Download> priorityListProcessorImpl;
+    private DownloadManager downloadManager;
 
     @Before
     public void useAppContext() throws Exception {
@@ -72,10 +78,15 @@ public class DownloadPriorityIteratorProcessorTest {
         final GroupInfoProvider groupInfoProvider = new GroupInfoProvider(namespace, downloadProvider);
         final ListenerCoordinator listenerCoordinator = new ListenerCoordinator(namespace, groupInfoProvider, downloadProvider, uiHandler);
         final DefaultStorageResolver storageResolver = new DefaultStorageResolver(appContext, tempDir);
-        final DownloadManager downloadManager = new DownloadManagerImpl(client, concurrentLimit,
+        downloadManager = new DownloadManagerImpl(client, concurrentLimit,
                 progessInterval, fetchLogger, networkInfoProvider, retryOnNetworkGain,
                  downloadInfoUpdater, downloadManagerCoordinator,
-                listenerCoordinator, serverDownloader, false, storageResolver, appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS);
+                listenerCoordinator, serverDownloader, false, storageResolver, appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS,
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS,
+                new SliceDownloadScheduler(namespace, FetchDefaults.DEFAULT_MAX_TOTAL_CONNECTIONS, fetchLogger),
+                new BandwidthThrottler(namespace, FetchDefaults.DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND,
+                        Collections.<NetworkType, Long>emptyMap()),
+                FetchDefaults.DEFAULT_PREALLOCATE_DOWNLOAD_FILE);
         priorityListProcessorImpl = new PriorityListProcessorImpl(
                 new HandlerWrapper(namespace, null),
                 new DownloadProvider(databaseManagerWrapper),
@@ -84,7 +95,6 @@ public class DownloadPriorityIteratorProcessorTest {
                 fetchLogger,
                 listenerCoordinator,
                 concurrentLimit,
-                appContext,
                 namespace,
                 PrioritySort.ASC);
     }
@@ -121,6 +131,57 @@ public class DownloadPriorityIteratorProcessorTest {
         assertTrue(priorityListProcessorImpl.isStopped());
     }
 
+    @Test
+    public void idlePollsAreNotCountedAsWakeUps() throws Exception {
+        priorityListProcessorImpl.start();
+        // Let the network callback that fires on registration settle first.
+        Thread.sleep(300);
+        final long wakeUpCount = getWakeUpCount();
+        // Covers the idle polls at 500 and 1000 milliseconds.
+        Thread.sleep(1600);
+        assertEquals(wakeUpCount, getWakeUpCount());
+    }
+
+    @Test
+    public void wakeUpRunsAPassRightAway() throws Exception {
+        priorityListProcessorImpl.start();
+        final long wakeUpCount = getWakeUpCount();
+        priorityListProcessorImpl.wakeUp();
+        awaitWakeUpCount(wakeUpCount + 1);
+        assertTrue(priorityListProcessorImpl.getSchedulingLatencyStats().getSchedulingLatency().getLastLatencyMillis() < 500);
+    }
+
+    @Test
+    public void freedDownloadSlotWakesUpTheQueue() throws Exception {
+        priorityListProcessorImpl.start();
+        final long wakeUpCount = getWakeUpCount();
+        downloadManager.getDelegate().onDownloadSlotFreed();
+        awaitWakeUpCount(wakeUpCount + 1);
+    }
+
+    @Test
+    public void pausedQueueIgnoresWakeUps() throws Exception {
+        priorityListProcessorImpl.start();
+        priorityListProcessorImpl.pause();
+        final long wakeUpCount = getWakeUpCount();
+        priorityListProcessorImpl.wakeUp();
+        downloadManager.getDelegate().onDownloadSlotFreed();
+        Thread.sleep(500);
+        assertEquals(wakeUpCount, getWakeUpCount());
+    }
+
+    private long getWakeUpCount() {
+        return priorityListProcessorImpl.getSchedulingLatencyStats().getSchedulingLatency().getWakeUpCount();
+    }
+
+    private void awaitWakeUpCount(long wakeUpCount) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (getWakeUpCount() < wakeUpCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(getWakeUpCount() >= wakeUpCount);
+    }
+
     @After
     public void cleanup() throws Exception {
         priorityListProcessorImpl.stop();
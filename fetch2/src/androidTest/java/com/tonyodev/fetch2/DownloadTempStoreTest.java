@@ -0,0 +1,140 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.DownloadTempStore;
+import com.tonyodev.fetch2.downloader.SliceCheckpointJournal;
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FileSliceInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DownloadTempStoreTest {
+
+    private File legacyDir;
+    private DownloadTempStore tempStore;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        legacyDir = new File(appContext.getCacheDir(), "downloadTempStoreTest");
+        legacyDir.mkdirs();
+        tempStore = new DownloadTempStore(new File(legacyDir, "namespace").getAbsolutePath());
+    }
+
+    @After
+    public void cleanup() {
+        deleteDir(legacyDir);
+    }
+
+    @Test
+    public void deleteOnlyRemovesFilesOfDownload() throws Exception {
+        final File first = FetchCoreUtils.getFile(tempStore.getFilePath(12, DownloadTempStore.JOURNAL_FILE_NAME));
+        final File second = FetchCoreUtils.getFile(tempStore.getFilePath(123, DownloadTempStore.JOURNAL_FILE_NAME));
+        final File third = FetchCoreUtils.getFile(tempStore.getFilePath(12 + 256, DownloadTempStore.HASH_STATE_FILE_NAME));
+        final File negative = FetchCoreUtils.getFile(tempStore.getFilePath(-12, DownloadTempStore.HASH_STATE_FILE_NAME));
+        assertEquals(first.getParentFile().getParentFile(), third.getParentFile().getParentFile());
+        assertNotEquals(first.getParentFile(), third.getParentFile());
+        tempStore.delete(12);
+        assertFalse(first.exists());
+        assertFalse(tempStore.getDownloadDir(12).exists());
+        assertTrue(second.exists());
+        assertTrue(third.exists());
+        assertTrue(negative.exists());
+    }
+
+    @Test
+    public void legacyFilesAreMovedIntoDownloadDirectory() throws Exception {
+        final File legacyJournal = new File(legacyDir, "7." + DownloadTempStore.JOURNAL_FILE_NAME);
+        final File otherJournal = new File(legacyDir, "8." + DownloadTempStore.JOURNAL_FILE_NAME);
+        assertTrue(legacyJournal.createNewFile());
+        assertTrue(otherJournal.createNewFile());
+        tempStore.migrateLegacyFiles(7, legacyDir.getAbsolutePath());
+        assertFalse(legacyJournal.exists());
+        assertTrue(new File(tempStore.getFilePath(7, DownloadTempStore.JOURNAL_FILE_NAME)).exists());
+        assertTrue(otherJournal.exists());
+    }
+
+    @Test
+    public void legacySliceProgressIsImportedIntoJournal() throws Exception {
+        final File metaFile = new File(legacyDir, "9.meta.data");
+        final File firstSliceFile = new File(legacyDir, "9.1.data");
+        final File secondSliceFile = new File(legacyDir, "9.2.data");
+        assertTrue(metaFile.createNewFile());
+        assertTrue(firstSliceFile.createNewFile());
+        assertTrue(secondSliceFile.createNewFile());
+        FetchCoreUtils.writeLongToFile(metaFile.getAbsolutePath(), 2);
+        FetchCoreUtils.writeLongToFile(firstSliceFile.getAbsolutePath(), 1024);
+        FetchCoreUtils.writeLongToFile(secondSliceFile.getAbsolutePath(), 2048);
+        tempStore.migrateLegacyFiles(9, legacyDir.getAbsolutePath());
+        assertFalse(metaFile.exists());
+        assertFalse(firstSliceFile.exists());
+        assertFalse(secondSliceFile.exists());
+        assertEquals(2, FetchUtils.getPreviousSliceCount(9, tempStore.getRootDir()));
+        assertEquals(1024, FetchUtils.getSavedDownloadedInfo(9, 1, tempStore.getRootDir()));
+        assertEquals(2048, FetchUtils.getSavedDownloadedInfo(9, 2, tempStore.getRootDir()));
+        assertEquals(SliceCheckpointJournal.getLegacyFileSliceInfo(2, 10_001),
+                SliceCheckpointJournal.readSavedFileSliceInfo(9, tempStore.getRootDir(), 10_001));
+        final SliceCheckpointJournal journal = new SliceCheckpointJournal(9, tempStore.getRootDir(),
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS);
+        assertTrue(journal.open(new FileSliceInfo(6, 1667), 10_001));
+        assertEquals(new FileSliceInfo(2, 5001), journal.getFileSliceInfo());
+        assertEquals(2048, journal.getDownloaded(2));
+        journal.close();
+    }
+
+    @Test
+    public void garbageCollectionKeepsLiveAndNewDownloads() throws Exception {
+        FetchCoreUtils.getFile(tempStore.getFilePath(1, DownloadTempStore.JOURNAL_FILE_NAME));
+        FetchCoreUtils.getFile(tempStore.getFilePath(2, DownloadTempStore.JOURNAL_FILE_NAME));
+        final File foreignDir = new File(tempStore.getRootDir(), "foreign");
+        assertTrue(foreignDir.mkdirs());
+        assertEquals(0, tempStore.collectGarbage(Collections.singleton(1), 0));
+        assertEquals(1, tempStore.collectGarbage(Collections.singleton(1), Long.MAX_VALUE));
+        assertTrue(tempStore.getDownloadDir(1).exists());
+        assertFalse(tempStore.getDownloadDir(2).exists());
+        assertTrue(foreignDir.exists());
+    }
+
+    @Test
+    public void legacyGarbageCollectionKeepsLiveRecentAndForeignFiles() throws Exception {
+        final File liveFile = new File(legacyDir, "1.1.data");
+        final File removedFile = new File(legacyDir, "2.meta.data");
+        final File foreignFile = new File(legacyDir, "2.data");
+        assertTrue(liveFile.createNewFile());
+        assertTrue(removedFile.createNewFile());
+        assertTrue(foreignFile.createNewFile());
+        assertEquals(0, tempStore.collectLegacyGarbage(legacyDir.getAbsolutePath(), Collections.singleton(1), 0));
+        assertEquals(1, tempStore.collectLegacyGarbage(legacyDir.getAbsolutePath(), Collections.singleton(1), Long.MAX_VALUE));
+        assertTrue(liveFile.exists());
+        assertFalse(removedFile.exists());
+        assertTrue(foreignFile.exists());
+    }
+
+    private void deleteDir(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDir(file);
+            }
+        }
+        dir.delete();
+    }
+
+}
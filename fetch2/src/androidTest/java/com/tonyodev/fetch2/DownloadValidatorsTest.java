@@ -0,0 +1,100 @@
+package com.tonyodev.fetch2;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.Downloader;
+import com.tonyodev.fetch2core.Extras;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DownloadValidatorsTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @Test
+    public void completedDownloadIsRevalidated() {
+        final DownloadInfo downloadInfo = getDownloadInfo(100, 100);
+        assertTrue(FetchUtils.canRevalidateDownload(downloadInfo));
+        final Downloader.ServerRequest request = FetchUtils.addValidatorHeaders(
+                getServerRequest("bytes=0-"), downloadInfo, true);
+        assertEquals(ETAG, request.getHeaders().get(FetchDefaults.HEADER_IF_NONE_MATCH));
+        assertEquals(LAST_MODIFIED, request.getHeaders().get(FetchDefaults.HEADER_IF_MODIFIED_SINCE));
+        assertNull(request.getHeaders().get(FetchDefaults.HEADER_IF_RANGE));
+    }
+
+    @Test
+    public void resumedRangeCarriesStrongValidator() {
+        final DownloadInfo downloadInfo = getDownloadInfo(50, 100);
+        assertFalse(FetchUtils.canRevalidateDownload(downloadInfo));
+        Downloader.ServerRequest request = FetchUtils.addValidatorHeaders(
+                getServerRequest("bytes=50-"), downloadInfo, false);
+        assertEquals(ETAG, request.getHeaders().get(FetchDefaults.HEADER_IF_RANGE));
+        assertNull(request.getHeaders().get(FetchDefaults.HEADER_IF_NONE_MATCH));
+
+        downloadInfo.setEtag("W/" + ETAG);
+        request = FetchUtils.addValidatorHeaders(getServerRequest("bytes=50-"), downloadInfo, false);
+        assertEquals(LAST_MODIFIED, request.getHeaders().get(FetchDefaults.HEADER_IF_RANGE));
+
+        downloadInfo.setEtag("");
+        downloadInfo.setLastModified("");
+        final Downloader.ServerRequest serverRequest = getServerRequest("bytes=50-");
+        assertSame(serverRequest, FetchUtils.addValidatorHeaders(serverRequest, downloadInfo, false));
+    }
+
+    @Test
+    public void validatorsAreComparedWithResponse() {
+        final DownloadInfo downloadInfo = getDownloadInfo(50, 100);
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put("etag", Collections.singletonList(ETAG));
+        assertFalse(FetchUtils.hasContentChanged(downloadInfo, getResponse(headers)));
+        headers.put("etag", Collections.singletonList("\"v2\""));
+        final Downloader.Response response = getResponse(headers);
+        assertTrue(FetchUtils.hasContentChanged(downloadInfo, response));
+
+        FetchUtils.updateDownloadValidators(downloadInfo, response);
+        assertEquals("\"v2\"", downloadInfo.getEtag());
+        assertEquals("", downloadInfo.getLastModified());
+    }
+
+    private DownloadInfo getDownloadInfo(long downloaded, long total) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(1);
+        downloadInfo.setUrl("http://www.example.com/file.txt");
+        downloadInfo.setFile("/tmp/file.txt");
+        downloadInfo.setDownloaded(downloaded);
+        downloadInfo.setTotal(total);
+        downloadInfo.setEtag(ETAG);
+        downloadInfo.setLastModified(LAST_MODIFIED);
+        return downloadInfo;
+    }
+
+    private Downloader.ServerRequest getServerRequest(String range) {
+        return new Downloader.ServerRequest(1, "http://www.example.com/file.txt",
+                Collections.singletonMap("Range", range), "/tmp/file.txt", Uri.parse("/tmp/file.txt"),
+                null, 0, "GET", new Extras(Collections.<String, String>emptyMap()), false, "");
+    }
+
+    private Downloader.Response getResponse(Map<String, List<String>> headers) {
+        return new Downloader.Response(206, true, 50, null, getServerRequest("bytes=50-"),
+                "", headers, true, null);
+    }
+
+}
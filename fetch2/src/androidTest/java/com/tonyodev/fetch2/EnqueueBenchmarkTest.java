@@ -0,0 +1,165 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.FetchDatabaseManager;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.DownloadManager;
+import com.tonyodev.fetch2.downloader.DownloadManagerCoordinator;
+import com.tonyodev.fetch2.downloader.DownloadManagerImpl;
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
+import com.tonyodev.fetch2.fetch.FetchHandler;
+import com.tonyodev.fetch2.fetch.FetchHandlerImpl;
+import com.tonyodev.fetch2.fetch.ListenerCoordinator;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.helper.DownloadInfoUpdater;
+import com.tonyodev.fetch2.helper.PriorityListProcessor;
+import com.tonyodev.fetch2.helper.PriorityListProcessorImpl;
+import com.tonyodev.fetch2.provider.DownloadProvider;
+import com.tonyodev.fetch2.provider.GroupInfoProvider;
+import com.tonyodev.fetch2.provider.NetworkInfoProvider;
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.Downloader;
+import com.tonyodev.fetch2core.FetchCoreDefaults;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+import com.tonyodev.fetch2core.FileServerDownloader;
+import com.tonyodev.fetch2core.HandlerWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Pair;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures enqueue throughput of FetchHandlerImpl for new downloads and for downloads that
+ * update existing downloads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EnqueueBenchmarkTest {
+
+    private static final String TAG = "EnqueueBenchmark";
+    private static final int[] REQUEST_COUNTS = {1_000, 10_000, 100_000};
+
+    private Context appContext;
+    private FetchDatabaseManager fetchDatabaseManager;
+    private FetchHandler fetchHandler;
+
+    @Before
+    public void setUp() throws Exception {
+        appContext = InstrumentationRegistry.getTargetContext();
+        final String namespace = "fetch2EnqueueBenchmark";
+        final FetchLogger fetchLogger = new FetchLogger(false, namespace);
+        final String tempDir = FetchCoreUtils.getFileTempDir(appContext);
+        final DefaultStorageResolver storageResolver = new DefaultStorageResolver(appContext, tempDir);
+        fetchDatabaseManager = new FetchDatabaseManagerImpl(appContext, namespace, DownloadDatabase.getMigrations(),
+                new LiveSettings(namespace), false, storageResolver);
+        final FetchDatabaseManagerWrapper databaseManagerWrapper = new FetchDatabaseManagerWrapper(fetchDatabaseManager);
+        final int concurrentLimit = FetchDefaults.DEFAULT_CONCURRENT_LIMIT;
+        final HandlerWrapper handlerWrapper = new HandlerWrapper(namespace, null);
+        final Downloader client = FetchDefaults.getDefaultDownloader();
+        final FileServerDownloader serverDownloader = FetchDefaults.getDefaultFileServerDownloader();
+        final NetworkInfoProvider networkInfoProvider = new NetworkInfoProvider(appContext, null);
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
+        final DownloadProvider downloadProvider = new DownloadProvider(databaseManagerWrapper);
+        final GroupInfoProvider groupInfoProvider = new GroupInfoProvider(namespace, downloadProvider);
+        final ListenerCoordinator listenerCoordinator = new ListenerCoordinator(namespace, groupInfoProvider, downloadProvider, uiHandler);
+        final DownloadManager downloadManager = new DownloadManagerImpl(client, concurrentLimit,
+                FetchCoreDefaults.DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS, fetchLogger, networkInfoProvider,
+                false, new DownloadInfoUpdater(databaseManagerWrapper), new DownloadManagerCoordinator(namespace),
+                listenerCoordinator, serverDownloader, false, storageResolver, appContext, namespace, groupInfoProvider,
+                FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES,
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS,
+                new SliceDownloadScheduler(namespace, FetchDefaults.DEFAULT_MAX_TOTAL_CONNECTIONS, fetchLogger),
+                new BandwidthThrottler(namespace, FetchDefaults.DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND,
+                        Collections.<NetworkType, Long>emptyMap()),
+                FetchDefaults.DEFAULT_PREALLOCATE_DOWNLOAD_FILE);
+        final PriorityListProcessor<Download> priorityListProcessor = new PriorityListProcessorImpl(handlerWrapper,
+                downloadProvider, downloadManager, networkInfoProvider, fetchLogger, listenerCoordinator,
+                concurrentLimit, namespace, PrioritySort.ASC);
+        fetchHandler = new FetchHandlerImpl(namespace, databaseManagerWrapper, downloadManager,
+                priorityListProcessor, fetchLogger, false, client, serverDownloader, listenerCoordinator,
+                uiHandler, storageResolver, null, groupInfoProvider, PrioritySort.ASC, false, handlerWrapper, appContext);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        fetchDatabaseManager.deleteAll();
+        fetchHandler.close();
+        deleteDir(getDir());
+    }
+
+    @Test
+    public void enqueueThroughput() throws Exception {
+        for (final int requestCount : REQUEST_COUNTS) {
+            fetchDatabaseManager.deleteAll();
+            final List<Request> requests = getRequests(requestCount);
+            long startTime = System.nanoTime();
+            assertNoErrors(fetchHandler.enqueue(requests));
+            long elapsedNanos = System.nanoTime() - startTime;
+            Log.i(TAG, String.format("insert %d requests: %d ms, %d requests per second", requestCount,
+                    elapsedNanos / 1_000_000L, requestCount * 1_000_000_000L / Math.max(1L, elapsedNanos)));
+            startTime = System.nanoTime();
+            assertNoErrors(fetchHandler.enqueue(requests));
+            elapsedNanos = System.nanoTime() - startTime;
+            Log.i(TAG, String.format("update %d requests: %d ms, %d requests per second", requestCount,
+                    elapsedNanos / 1_000_000L, requestCount * 1_000_000_000L / Math.max(1L, elapsedNanos)));
+            assertEquals(requestCount, fetchDatabaseManager.get().size());
+        }
+    }
+
+    private List<Request> getRequests(int count) {
+        final String url = "http://www.example.com/test.txt";
+        final String dir = getDir().getAbsolutePath() + "/";
+        final List<Request> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Request request = new Request(url, dir + "test" + i + ".txt");
+            request.setDownloadOnEnqueue(false);
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private File getDir() {
+        return new File(appContext.getFilesDir(), "enqueueBenchmark");
+    }
+
+    private void deleteDir(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    private void assertNoErrors(List<Pair<Download, Error>> results) {
+        for (Pair<Download, Error> result : results) {
+            assertEquals(Error.NONE, result.getSecond());
+        }
+    }
+
+}
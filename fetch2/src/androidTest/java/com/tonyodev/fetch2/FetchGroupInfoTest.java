@@ -0,0 +1,103 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.model.FetchGroupInfo;
+import com.tonyodev.fetch2core.Reason;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FetchGroupInfoTest {
+
+    private static final int GROUP = 7;
+
+    @Test
+    public void emptyGroupHasNoProgress() {
+        final FetchGroupInfo fetchGroupInfo = new FetchGroupInfo(GROUP, "test");
+        fetchGroupInfo.update(Collections.<Download>emptyList(), null, Reason.OBSERVER_ATTACHED);
+        assertEquals(0, fetchGroupInfo.getGroupDownloadProgress());
+        assertTrue(fetchGroupInfo.getDownloads().isEmpty());
+    }
+
+    @Test
+    public void singleDownloadUpdatesKeepTotals() {
+        final FetchGroupInfo fetchGroupInfo = new FetchGroupInfo(GROUP, "test");
+        final DownloadInfo first = getDownloadInfo(1, Status.QUEUED, 0, 100);
+        final DownloadInfo second = getDownloadInfo(2, Status.QUEUED, 0, -1);
+        fetchGroupInfo.update(Arrays.<Download>asList(first, second), null, Reason.OBSERVER_ATTACHED);
+        assertEquals(2, fetchGroupInfo.getQueuedDownloads().size());
+        assertEquals(100, fetchGroupInfo.getGroupTotalBytes());
+
+        first.setStatus(Status.DOWNLOADING);
+        first.setDownloaded(50);
+        fetchGroupInfo.update(first, Reason.DOWNLOAD_PROGRESS_CHANGED);
+        first.setDownloaded(100);
+        first.setStatus(Status.COMPLETED);
+        fetchGroupInfo.update(first, Reason.DOWNLOAD_COMPLETED);
+        assertEquals(1, fetchGroupInfo.getQueuedDownloads().size());
+        assertEquals(0, fetchGroupInfo.getDownloadingDownloads().size());
+        assertEquals(Collections.<Download>singletonList(first), fetchGroupInfo.getCompletedDownloads());
+        assertEquals(1, fetchGroupInfo.getDownloadCount(Status.COMPLETED));
+        assertEquals(100, fetchGroupInfo.getGroupDownloadedBytes());
+        assertEquals(50, fetchGroupInfo.getGroupDownloadProgress());
+
+        fetchGroupInfo.update(second, Reason.DOWNLOAD_REMOVED);
+        assertEquals(Collections.<Download>singletonList(first), fetchGroupInfo.getDownloads());
+        assertTrue(fetchGroupInfo.getQueuedDownloads().isEmpty());
+        assertEquals(100, fetchGroupInfo.getGroupDownloadProgress());
+
+        final DownloadInfo third = getDownloadInfo(3, Status.ADDED, 0, 300);
+        fetchGroupInfo.update(third, Reason.DOWNLOAD_ADDED);
+        assertEquals(Arrays.<Download>asList(first, third), fetchGroupInfo.getDownloads());
+        assertEquals(400, fetchGroupInfo.getGroupTotalBytes());
+    }
+
+    @Test
+    public void outOfOrderProgressDoesNotRegressTheGroup() {
+        final FetchGroupInfo fetchGroupInfo = new FetchGroupInfo(GROUP, "test");
+        fetchGroupInfo.update(Collections.<Download>singletonList(getDownloadInfo(1, Status.QUEUED, 0, 100)),
+                null, Reason.OBSERVER_ATTACHED);
+        fetchGroupInfo.update(getDownloadInfo(1, Status.DOWNLOADING, 60, 100), Reason.DOWNLOAD_PROGRESS_CHANGED);
+        // A snapshot taken before the last one arrives late.
+        fetchGroupInfo.update(getDownloadInfo(1, Status.DOWNLOADING, 40, 100), Reason.DOWNLOAD_PROGRESS_CHANGED);
+        assertEquals(60, fetchGroupInfo.getGroupDownloadedBytes());
+
+        final DownloadInfo completed = getDownloadInfo(1, Status.COMPLETED, 100, 100);
+        fetchGroupInfo.update(completed, Reason.DOWNLOAD_COMPLETED);
+        // Progress taken before the completion arrives after it.
+        fetchGroupInfo.update(getDownloadInfo(1, Status.DOWNLOADING, 80, 100), Reason.DOWNLOAD_PROGRESS_CHANGED);
+        fetchGroupInfo.update(getDownloadInfo(1, Status.DOWNLOADING, 80, 100), Reason.DOWNLOAD_BLOCK_UPDATED);
+        assertEquals(Collections.<Download>singletonList(completed), fetchGroupInfo.getCompletedDownloads());
+        assertTrue(fetchGroupInfo.getDownloadingDownloads().isEmpty());
+        assertEquals(100, fetchGroupInfo.getGroupDownloadedBytes());
+        assertEquals(100, fetchGroupInfo.getGroupDownloadProgress());
+
+        // A status change may still move the download back, for example when it is retried.
+        fetchGroupInfo.update(getDownloadInfo(1, Status.QUEUED, 0, 100), Reason.DOWNLOAD_QUEUED);
+        assertEquals(1, fetchGroupInfo.getQueuedDownloads().size());
+        assertEquals(0, fetchGroupInfo.getGroupDownloadedBytes());
+        fetchGroupInfo.update(getDownloadInfo(1, Status.DOWNLOADING, 10, 100), Reason.DOWNLOAD_PROGRESS_CHANGED);
+        assertEquals(1, fetchGroupInfo.getDownloadingDownloads().size());
+        assertEquals(10, fetchGroupInfo.getGroupDownloadedBytes());
+    }
+
+    private DownloadInfo getDownloadInfo(int id, Status status, long downloaded, long total) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(id);
+        downloadInfo.setGroup(GROUP);
+        downloadInfo.setStatus(status);
+        downloadInfo.setDownloaded(downloaded);
+        downloadInfo.setTotal(total);
+        return downloadInfo;
+    }
+
+}
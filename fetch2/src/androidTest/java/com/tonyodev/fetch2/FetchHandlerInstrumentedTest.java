@@ -16,6 +16,8 @@ import com.tonyodev.fetch2.database.migration.Migration;
 import com.tonyodev.fetch2.downloader.DownloadManager;
 import com.tonyodev.fetch2.downloader.DownloadManagerImpl;
 import com.tonyodev.fetch2.downloader.DownloadManagerCoordinator;
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
 import com.tonyodev.fetch2.fetch.FetchHandler;
 import com.tonyodev.fetch2.fetch.FetchHandlerImpl;
 import com.tonyodev.fetch2.fetch.LiveSettings;
@@ -42,6 +44,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import kotlin.Pair;
@@ -92,7 +95,12 @@ public class FetchHandlerInstrumentedTest {
         final DownloadManager downloadManager = new DownloadManagerImpl(client, concurrentLimit,
                 progessInterval, fetchLogger, networkInfoProvider, retryOnNetworkGain,
                 downloadInfoUpdater, downloadManagerCoordinator,
-                listenerCoordinator, serverDownloader, false, storageResolver, appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS);
+                listenerCoordinator, serverDownloader, false, storageResolver, appContext, namespace, groupInfoProvider, FetchDefaults.DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS,
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS,
+                new SliceDownloadScheduler(namespace, FetchDefaults.DEFAULT_MAX_TOTAL_CONNECTIONS, fetchLogger),
+                new BandwidthThrottler(namespace, FetchDefaults.DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND,
+                        Collections.<NetworkType, Long>emptyMap()),
+                FetchDefaults.DEFAULT_PREALLOCATE_DOWNLOAD_FILE);
         priorityListProcessorImpl = new PriorityListProcessorImpl(
                 handlerWrapper,
                 new DownloadProvider(databaseManagerWrapper),
@@ -101,13 +109,13 @@ public class FetchHandlerInstrumentedTest {
                 fetchLogger,
                 listenerCoordinator,
                 concurrentLimit,
-                appContext,
                 namespace,
                 PrioritySort.ASC);
         fetchHandler = new FetchHandlerImpl(namespace, databaseManagerWrapper, downloadManager,
                 priorityListProcessorImpl, fetchLogger, autoStart,
                 client, serverClient, listenerCoordinator, uiHandler, storageResolver, null,
-                groupInfoProvider, PrioritySort.ASC, FetchDefaults.DEFAULT_CREATE_FILE_ON_ENQUEUE);
+                groupInfoProvider, PrioritySort.ASC, FetchDefaults.DEFAULT_CREATE_FILE_ON_ENQUEUE,
+                handlerWrapper, appContext);
     }
 
     @Test
@@ -0,0 +1,142 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2core.FetchCoreDefaults;
+import com.tonyodev.fetch2core.FileOutputMode;
+import com.tonyodev.fetch2core.OutputResourceWrapper;
+import com.tonyodev.fetch2core.StorageResolverHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how fast parallel file slices are written into a local file with each FileOutputMode.
+ * Slices are written the way ParallelFileDownloaderImpl writes them: positional writes without a
+ * lock when the output supports them, seek and write under a shared lock otherwise, and a flush
+ * at every slice checkpoint.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileOutputModeBenchmarkTest {
+
+    private static final String TAG = "FileOutputModeBenchmark";
+    private static final long[] FILE_SIZES = {16L * 1024 * 1024, 128L * 1024 * 1024};
+    private static final int SLICE_COUNT = 4;
+
+    private File file;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getFilesDir(), "fileOutputModeBenchmark.data");
+        executor = Executors.newFixedThreadPool(SLICE_COUNT);
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    @Test
+    public void writeThroughput() throws Exception {
+        for (final long fileSize : FILE_SIZES) {
+            for (final FileOutputMode fileOutputMode : FileOutputMode.values()) {
+                file.delete();
+                file.createNewFile();
+                final OutputResourceWrapper outputResourceWrapper = StorageResolverHelper.getOutputResourceWrapper(file, fileOutputMode);
+                final long startTime = System.nanoTime();
+                if (outputResourceWrapper.getRequiresPreallocation()) {
+                    outputResourceWrapper.preallocate(fileSize);
+                }
+                writeSlices(outputResourceWrapper, fileSize);
+                outputResourceWrapper.close();
+                final long elapsedNanos = System.nanoTime() - startTime;
+                Log.i(TAG, String.format("%s %d MB: %d ms, %d MB per second", fileOutputMode,
+                        fileSize / (1024 * 1024), elapsedNanos / 1_000_000L,
+                        fileSize * 1_000L / Math.max(1L, elapsedNanos)));
+                assertEquals(fileSize, file.length());
+                assertSliceBytes(fileSize);
+            }
+        }
+    }
+
+    private void writeSlices(final OutputResourceWrapper outputResourceWrapper, final long fileSize) throws Exception {
+        final boolean positionalWrites = outputResourceWrapper.getSupportsPositionalWrites();
+        final Object lock = new Object();
+        final long sliceSize = fileSize / SLICE_COUNT;
+        final List<Future<Void>> futures = new ArrayList<>();
+        for (int slice = 0; slice < SLICE_COUNT; slice++) {
+            final long startBytes = slice * sliceSize;
+            final long endBytes = slice == SLICE_COUNT - 1 ? fileSize : startBytes + sliceSize;
+            final byte sliceByte = (byte) (slice + 1);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final byte[] buffer = new byte[FetchCoreDefaults.DEFAULT_BUFFER_SIZE];
+                    for (int i = 0; i < buffer.length; i++) {
+                        buffer[i] = sliceByte;
+                    }
+                    long position = startBytes;
+                    long checkpointBytes = 0;
+                    while (position < endBytes) {
+                        final int length = (int) Math.min(buffer.length, endBytes - position);
+                        if (positionalWrites) {
+                            outputResourceWrapper.write(position, buffer, 0, length);
+                        } else {
+                            synchronized (lock) {
+                                outputResourceWrapper.setWriteOffset(position);
+                                outputResourceWrapper.write(buffer, 0, length);
+                            }
+                        }
+                        position += length;
+                        checkpointBytes += length;
+                        if (checkpointBytes >= FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES) {
+                            outputResourceWrapper.flush();
+                            checkpointBytes = 0;
+                        }
+                    }
+                    outputResourceWrapper.flush();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+
+    private void assertSliceBytes(long fileSize) throws Exception {
+        final long sliceSize = fileSize / SLICE_COUNT;
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            for (int slice = 0; slice < SLICE_COUNT; slice++) {
+                randomAccessFile.seek(slice * sliceSize);
+                assertEquals(slice + 1, randomAccessFile.read());
+                randomAccessFile.seek((slice + 1) * sliceSize - 1);
+                assertEquals(slice + 1, randomAccessFile.read());
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+}
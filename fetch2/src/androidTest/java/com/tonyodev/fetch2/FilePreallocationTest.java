@@ -0,0 +1,145 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.exception.FetchException;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.OutputResourceWrapper;
+import com.tonyodev.fetch2core.StorageResolverHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class FilePreallocationTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getCacheDir(), "filePreallocationTest.data");
+        file.delete();
+        assertTrue(file.createNewFile());
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void preallocateReservesLengthAndNeverShrinks() throws Exception {
+        final OutputResourceWrapper wrapper = StorageResolverHelper.getOutputResourceWrapper(file);
+        assertTrue(wrapper.getSupportsPreallocation());
+        assertTrue(wrapper.getAvailableBytes() != 0);
+        FetchUtils.preallocateOutput(wrapper, 1024 * 1024, 0);
+        assertEquals(1024 * 1024, file.length());
+        wrapper.preallocate(1024);
+        assertEquals(1024 * 1024, file.length());
+        wrapper.close();
+    }
+
+    @Test
+    public void unknownTotalIsNotPreallocated() throws Exception {
+        final OutputResourceWrapper wrapper = StorageResolverHelper.getOutputResourceWrapper(file);
+        FetchUtils.preallocateOutput(wrapper, -1, 0);
+        assertEquals(0, file.length());
+        wrapper.close();
+    }
+
+    @Test
+    public void insufficientStorageFailsBeforePreallocation() throws Exception {
+        final FakeOutputResourceWrapper wrapper = new FakeOutputResourceWrapper(100, 0);
+        FetchUtils.preallocateOutput(wrapper, 150, 50);
+        assertTrue(wrapper.preallocated);
+        wrapper.preallocated = false;
+        try {
+            FetchUtils.preallocateOutput(wrapper, 150, 49);
+            fail();
+        } catch (FetchException e) {
+            assertEquals(Error.INSUFFICIENT_STORAGE, FetchErrorUtils.getErrorFromThrowable(e));
+        }
+        assertFalse(wrapper.preallocated);
+    }
+
+    @Test
+    public void resumeOnlyRequiresBytesThatAreNotAllocated() throws Exception {
+        final FakeOutputResourceWrapper reservedWrapper = new FakeOutputResourceWrapper(10, 150);
+        FetchUtils.preallocateOutput(reservedWrapper, 150, 20);
+        assertTrue(reservedWrapper.preallocated);
+        final FakeOutputResourceWrapper partlyReservedWrapper = new FakeOutputResourceWrapper(10, 130);
+        try {
+            FetchUtils.preallocateOutput(partlyReservedWrapper, 150, 20);
+            fail();
+        } catch (FetchException e) {
+            assertEquals(Error.INSUFFICIENT_STORAGE, FetchErrorUtils.getErrorFromThrowable(e));
+        }
+    }
+
+    private static class FakeOutputResourceWrapper extends OutputResourceWrapper {
+
+        private final long availableBytes;
+        private final long allocatedBytes;
+        private boolean preallocated = false;
+
+        FakeOutputResourceWrapper(long availableBytes, long allocatedBytes) {
+            this.availableBytes = availableBytes;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        @Override
+        public void write(byte[] byteArray, int offSet, int length) {
+
+        }
+
+        @Override
+        public void setWriteOffset(long offset) {
+
+        }
+
+        @Override
+        public boolean getSupportsPreallocation() {
+            return true;
+        }
+
+        @Override
+        public void preallocate(long length) {
+            preallocated = true;
+        }
+
+        @Override
+        public long getAvailableBytes() {
+            return availableBytes;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() throws IOException {
+
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.InterruptMonitor;
+import com.tonyodev.fetch2core.server.FetchFileResourceTransporter;
+import com.tonyodev.fetch2core.server.FileResourceTransporterPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FileResourceTransporterPoolTest {
+
+    private static final long IDLE_TIMEOUT_IN_MILLISECONDS = 200;
+
+    private ServerSocket serverSocket;
+    private InetSocketAddress socketAddress;
+    private final InterruptMonitor notInterrupted = new InterruptMonitor() {
+        @Override
+        public boolean isInterrupted() {
+            return false;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        // Connections complete in the backlog, the test never needs to accept them.
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        socketAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void reusableConnectionIsHandedOutAgain() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(2, 60_000);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        pool.release(transporter, true);
+        assertSame(transporter, pool.acquire(socketAddress, notInterrupted));
+        assertTrue(transporter.isConnected());
+        pool.evictAll();
+    }
+
+    @Test
+    public void connectionThatIsNotReusableIsClosed() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(2, 60_000);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        pool.release(transporter, false);
+        assertTrue(transporter.isClosed());
+        final FetchFileResourceTransporter nextTransporter = pool.acquire(socketAddress, notInterrupted);
+        assertNotSame(transporter, nextTransporter);
+        assertFalse(nextTransporter.isConnected());
+    }
+
+    @Test
+    public void idleConnectionIsEvictedAfterIdleTimeout() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(2, IDLE_TIMEOUT_IN_MILLISECONDS);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        pool.release(transporter, true);
+        Thread.sleep(IDLE_TIMEOUT_IN_MILLISECONDS * 2);
+        final FetchFileResourceTransporter nextTransporter = pool.acquire(socketAddress, notInterrupted);
+        assertNotSame(transporter, nextTransporter);
+        assertTrue(transporter.isClosed());
+    }
+
+    @Test
+    public void evictAllClosesIdleConnections() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(2, 60_000);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        pool.release(transporter, true);
+        pool.evictAll();
+        assertTrue(transporter.isClosed());
+        assertNotSame(transporter, pool.acquire(socketAddress, notInterrupted));
+    }
+
+    @Test
+    public void acquireWaitsForReleaseWhenLimitIsReached() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(1, 60_000);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        final CountDownLatch acquiredLatch = new CountDownLatch(1);
+        final AtomicReference<FetchFileResourceTransporter> acquired = new AtomicReference<>();
+        new Thread() {
+            @Override
+            public void run() {
+                acquired.set(pool.acquire(socketAddress, notInterrupted));
+                acquiredLatch.countDown();
+            }
+        }.start();
+        assertFalse(acquiredLatch.await(300, TimeUnit.MILLISECONDS));
+        pool.release(transporter, true);
+        assertTrue(acquiredLatch.await(5, TimeUnit.SECONDS));
+        assertSame(transporter, acquired.get());
+        pool.evictAll();
+    }
+
+    @Test
+    public void interruptedAcquireReturnsNull() throws Exception {
+        final FileResourceTransporterPool pool = new FileResourceTransporterPool(1, 60_000);
+        final FetchFileResourceTransporter transporter = acquireConnected(pool);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        final CountDownLatch acquiredLatch = new CountDownLatch(1);
+        final AtomicReference<FetchFileResourceTransporter> acquired = new AtomicReference<>(transporter);
+        new Thread() {
+            @Override
+            public void run() {
+                acquired.set(pool.acquire(socketAddress, new InterruptMonitor() {
+                    @Override
+                    public boolean isInterrupted() {
+                        return interrupted.get();
+                    }
+                }));
+                acquiredLatch.countDown();
+            }
+        }.start();
+        interrupted.set(true);
+        assertTrue(acquiredLatch.await(5, TimeUnit.SECONDS));
+        assertNull(acquired.get());
+        pool.release(transporter, false);
+    }
+
+    private FetchFileResourceTransporter acquireConnected(FileResourceTransporterPool pool) throws Exception {
+        final FetchFileResourceTransporter transporter = pool.acquire(socketAddress, notInterrupted);
+        assertNotNull(transporter);
+        transporter.connect(socketAddress);
+        return transporter;
+    }
+
+}
@@ -0,0 +1,341 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManager;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.fetch.ListenerCoordinator;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.provider.DownloadProvider;
+import com.tonyodev.fetch2.provider.GroupInfoProvider;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.Reason;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures listener registration and event fan-out of ListenerCoordinator against the lock based
+ * registry it replaced. Several downloader threads report events while another thread keeps
+ * adding and removing listeners.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListenerCoordinatorBenchmarkTest {
+
+    private static final String TAG = "ListenerCoordinatorBenchmark";
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int EVENTS_PER_THREAD = 20_000;
+    private static final int STATUS_EVENTS_PER_THREAD = 500;
+    private static final int REGISTRATIONS = 100_000;
+    private static final int LISTENER_COUNT = 8;
+
+    private FetchDatabaseManager fetchDatabaseManager;
+    private ListenerCoordinator listenerCoordinator;
+    private LockedListenerRegistry lockedListenerRegistry;
+    private Registry[] registries;
+    private final List<FetchListener> listeners = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final String namespace = "fetch2ListenerCoordinatorBenchmark";
+        fetchDatabaseManager = new FetchDatabaseManagerImpl(appContext, namespace, DownloadDatabase.getMigrations(),
+                new LiveSettings(namespace), false,
+                new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext)));
+        final DownloadProvider downloadProvider = new DownloadProvider(new FetchDatabaseManagerWrapper(fetchDatabaseManager));
+        final GroupInfoProvider groupInfoProvider = new GroupInfoProvider(namespace, downloadProvider);
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
+        listenerCoordinator = new ListenerCoordinator(namespace, groupInfoProvider, downloadProvider, uiHandler);
+        lockedListenerRegistry = new LockedListenerRegistry(groupInfoProvider, uiHandler);
+        registries = new Registry[]{new CoordinatorRegistry(listenerCoordinator), lockedListenerRegistry};
+        for (Registry registry : registries) {
+            for (int i = 0; i < LISTENER_COUNT; i++) {
+                final FetchListener fetchListener = new AbstractFetchListener() {
+                };
+                listeners.add(fetchListener);
+                registry.addListener(i, fetchListener);
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        listenerCoordinator.clearAll();
+        lockedListenerRegistry.close();
+        fetchDatabaseManager.close();
+    }
+
+    @Test
+    public void addAndRemoveListener() {
+        for (Registry registry : registries) {
+            final FetchListener fetchListener = new AbstractFetchListener() {
+            };
+            final long startTime = System.nanoTime();
+            for (int i = 0; i < REGISTRATIONS; i++) {
+                registry.addListener(LISTENER_COUNT, fetchListener);
+                registry.removeListener(LISTENER_COUNT, fetchListener);
+            }
+            Log.i(TAG, String.format("%s add and remove with %d listeners: %d ns per pair", registry.getName(),
+                    LISTENER_COUNT, (System.nanoTime() - startTime) / REGISTRATIONS));
+        }
+    }
+
+    @Test
+    public void progressFanOutUnderContention() throws Exception {
+        for (Registry registry : registries) {
+            for (final int threadCount : THREAD_COUNTS) {
+                final long elapsedNanos = runThreads(registry, threadCount, EVENTS_PER_THREAD, false);
+                Log.i(TAG, String.format("%s onProgress %d threads: %d ns per event", registry.getName(),
+                        threadCount, elapsedNanos / ((long) threadCount * EVENTS_PER_THREAD)));
+            }
+        }
+    }
+
+    @Test
+    public void statusFanOutUnderContention() throws Exception {
+        for (Registry registry : registries) {
+            for (final int threadCount : THREAD_COUNTS) {
+                final long elapsedNanos = runThreads(registry, threadCount, STATUS_EVENTS_PER_THREAD, true);
+                Log.i(TAG, String.format("%s onWaitingNetwork %d threads, %d listeners: %d ns per event",
+                        registry.getName(), threadCount, LISTENER_COUNT,
+                        elapsedNanos / ((long) threadCount * STATUS_EVENTS_PER_THREAD)));
+            }
+        }
+    }
+
+    private long runThreads(final Registry registry, final int threadCount, final int eventsPerThread,
+                            final boolean statusEvents) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+        final AtomicBoolean churning = new AtomicBoolean(true);
+        final Thread churnThread = new Thread() {
+            @Override
+            public void run() {
+                final FetchListener fetchListener = new AbstractFetchListener() {
+                };
+                while (churning.get()) {
+                    registry.addListener(LISTENER_COUNT, fetchListener);
+                    registry.removeListener(LISTENER_COUNT, fetchListener);
+                }
+            }
+        };
+        for (int t = 0; t < threadCount; t++) {
+            final DownloadInfo downloadInfo = new DownloadInfo();
+            downloadInfo.setId(t + 1);
+            downloadInfo.setStatus(Status.DOWNLOADING);
+            downloadInfo.setTotal(eventsPerThread);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < eventsPerThread; i++) {
+                            downloadInfo.setDownloaded(i);
+                            if (statusEvents) {
+                                registry.onWaitingNetwork(downloadInfo);
+                            } else {
+                                registry.onProgress(downloadInfo);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }.start();
+        }
+        churnThread.start();
+        final long startTime = System.nanoTime();
+        startLatch.countDown();
+        assertTrue(doneLatch.await(120, TimeUnit.SECONDS));
+        final long elapsedNanos = System.nanoTime() - startTime;
+        churning.set(false);
+        churnThread.join();
+        return elapsedNanos;
+    }
+
+    private interface Registry {
+
+        String getName();
+
+        void addListener(int id, FetchListener fetchListener);
+
+        void removeListener(int id, FetchListener fetchListener);
+
+        void onProgress(Download download);
+
+        void onWaitingNetwork(Download download);
+
+    }
+
+    private static class CoordinatorRegistry implements Registry {
+
+        private final ListenerCoordinator listenerCoordinator;
+
+        CoordinatorRegistry(ListenerCoordinator listenerCoordinator) {
+            this.listenerCoordinator = listenerCoordinator;
+        }
+
+        @Override
+        public String getName() {
+            return "ListenerCoordinator";
+        }
+
+        @Override
+        public void addListener(int id, FetchListener fetchListener) {
+            listenerCoordinator.addListener(id, fetchListener);
+        }
+
+        @Override
+        public void removeListener(int id, FetchListener fetchListener) {
+            listenerCoordinator.removeListener(id, fetchListener);
+        }
+
+        @Override
+        public void onProgress(Download download) {
+            listenerCoordinator.getMainListener().onProgress(download, 1000L, 1024L);
+        }
+
+        @Override
+        public void onWaitingNetwork(Download download) {
+            listenerCoordinator.getMainListener().onWaitingNetwork(download);
+        }
+
+    }
+
+    /**
+     * The listener registry ListenerCoordinator used before listeners were published as immutable
+     * snapshots: one lock guards the listener sets, registration and every event. Events are
+     * posted per listener as they arrive.
+     */
+    private static class LockedListenerRegistry implements Registry {
+
+        private final Object lock = new Object();
+        private final Map<Integer, Set<WeakReference<FetchListener>>> fetchListenerMap = new HashMap<>();
+        private final GroupInfoProvider groupInfoProvider;
+        private final Handler uiHandler;
+        private final HandlerThread notificationThread = new HandlerThread("LockedListenerRegistry");
+        private final Handler notificationHandler;
+
+        LockedListenerRegistry(GroupInfoProvider groupInfoProvider, Handler uiHandler) {
+            this.groupInfoProvider = groupInfoProvider;
+            this.uiHandler = uiHandler;
+            notificationThread.start();
+            notificationHandler = new Handler(notificationThread.getLooper());
+        }
+
+        void close() {
+            notificationThread.quit();
+        }
+
+        @Override
+        public String getName() {
+            return "LockedListenerRegistry";
+        }
+
+        @Override
+        public void addListener(int id, FetchListener fetchListener) {
+            synchronized (lock) {
+                Set<WeakReference<FetchListener>> set = fetchListenerMap.get(id);
+                if (set == null) {
+                    set = new LinkedHashSet<>();
+                }
+                set.add(new WeakReference<>(fetchListener));
+                fetchListenerMap.put(id, set);
+            }
+        }
+
+        @Override
+        public void removeListener(int id, FetchListener fetchListener) {
+            synchronized (lock) {
+                final Set<WeakReference<FetchListener>> set = fetchListenerMap.get(id);
+                if (set != null) {
+                    final Iterator<WeakReference<FetchListener>> iterator = set.iterator();
+                    while (iterator.hasNext()) {
+                        if (iterator.next().get() == fetchListener) {
+                            iterator.remove();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(final Download download) {
+            synchronized (lock) {
+                notificationHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // No notification manager is attached, the lock is still taken like before.
+                        synchronized (lock) {
+                            download.getProgress();
+                        }
+                    }
+                });
+                post(download, true);
+                groupInfoProvider.postGroupReplace(download.getGroup(), download, Reason.DOWNLOAD_PROGRESS_CHANGED);
+            }
+        }
+
+        @Override
+        public void onWaitingNetwork(Download download) {
+            synchronized (lock) {
+                post(download, false);
+                groupInfoProvider.postGroupReplace(download.getGroup(), download, Reason.DOWNLOAD_WAITING_ON_NETWORK);
+            }
+        }
+
+        private void post(final Download download, final boolean progress) {
+            for (Set<WeakReference<FetchListener>> set : fetchListenerMap.values()) {
+                final Iterator<WeakReference<FetchListener>> iterator = set.iterator();
+                while (iterator.hasNext()) {
+                    final FetchListener fetchListener = iterator.next().get();
+                    if (fetchListener == null) {
+                        iterator.remove();
+                    } else {
+                        uiHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (progress) {
+                                    fetchListener.onProgress(download, 1000L, 1024L);
+                                } else {
+                                    fetchListener.onWaitingNetwork(download);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadDatabase;
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.FetchDatabaseManager;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerImpl;
+import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper;
+import com.tonyodev.fetch2.fetch.ListenerCoordinator;
+import com.tonyodev.fetch2.fetch.LiveSettings;
+import com.tonyodev.fetch2.provider.DownloadProvider;
+import com.tonyodev.fetch2.provider.GroupInfoProvider;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ListenerCoordinatorTest {
+
+    private static final int GROUP = 7;
+    private static final int PROGRESS_EVENTS = 2000;
+    private static final int PROGRESS_EVENTS_PER_STATUS_EVENT = 100;
+
+    private FetchDatabaseManager fetchDatabaseManager;
+    private ListenerCoordinator listenerCoordinator;
+    private final List<Event> listenerEvents = Collections.synchronizedList(new ArrayList<Event>());
+    private final List<Event> groupListenerEvents = Collections.synchronizedList(new ArrayList<Event>());
+    private final FetchListener fetchListener = new AbstractFetchListener() {
+
+        @Override
+        public void onProgress(Download download, long etaInMilliSeconds, long downloadedBytesPerSecond) {
+            listenerEvents.add(new Event(false, download.getDownloaded()));
+        }
+
+        @Override
+        public void onPaused(Download download) {
+            listenerEvents.add(new Event(true, download.getDownloaded()));
+        }
+
+        @Override
+        public void onCompleted(Download download) {
+            listenerEvents.add(new Event(true, download.getDownloaded()));
+        }
+
+    };
+    private final FetchGroupListener fetchGroupListener = new AbstractFetchGroupListener() {
+
+        @Override
+        public void onProgress(int groupId, Download download, long etaInMilliSeconds,
+                               long downloadedBytesPerSecond, FetchGroup fetchGroup) {
+            groupListenerEvents.add(new Event(false, download.getDownloaded()));
+        }
+
+        @Override
+        public void onPaused(int groupId, Download download, FetchGroup fetchGroup) {
+            groupListenerEvents.add(new Event(true, download.getDownloaded()));
+        }
+
+        @Override
+        public void onCompleted(int groupId, Download download, FetchGroup fetchGroup) {
+            groupListenerEvents.add(new Event(true, download.getDownloaded()));
+        }
+
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        final String namespace = "fetch2ListenerCoordinatorTest";
+        fetchDatabaseManager = new FetchDatabaseManagerImpl(appContext, namespace, DownloadDatabase.getMigrations(),
+                new LiveSettings(namespace), false,
+                new DefaultStorageResolver(appContext, FetchCoreUtils.getFileTempDir(appContext)));
+        final DownloadProvider downloadProvider = new DownloadProvider(new FetchDatabaseManagerWrapper(fetchDatabaseManager));
+        final GroupInfoProvider groupInfoProvider = new GroupInfoProvider(namespace, downloadProvider);
+        listenerCoordinator = new ListenerCoordinator(namespace, groupInfoProvider, downloadProvider,
+                new Handler(Looper.getMainLooper()));
+        listenerCoordinator.addListener(1, fetchListener);
+        listenerCoordinator.addListener(2, fetchGroupListener);
+    }
+
+    @After
+    public void cleanup() {
+        listenerCoordinator.clearAll();
+        fetchDatabaseManager.close();
+    }
+
+    @Test
+    public void progressIsNeverDeliveredAfterALaterStatusChange() throws Exception {
+        final FetchListener mainListener = listenerCoordinator.getMainListener();
+        for (int i = 0; i < PROGRESS_EVENTS; i++) {
+            mainListener.onProgress(getDownloadInfo(Status.DOWNLOADING, i), 1000L, 1024L);
+            if (i % PROGRESS_EVENTS_PER_STATUS_EVENT == PROGRESS_EVENTS_PER_STATUS_EVENT - 1) {
+                // Gives a progress dispatch the chance to run concurrently with the status change.
+                Thread.sleep(1);
+                if (i == PROGRESS_EVENTS - 1) {
+                    mainListener.onCompleted(getDownloadInfo(Status.COMPLETED, i));
+                } else {
+                    mainListener.onPaused(getDownloadInfo(Status.PAUSED, i));
+                }
+            }
+        }
+        awaitDispatchedEvents();
+        assertInOrder(listenerEvents);
+        assertInOrder(groupListenerEvents);
+    }
+
+    /** Every progress event must be newer than the status events delivered before it and the
+     * completion must be the last event.*/
+    private void assertInOrder(List<Event> events) {
+        assertFalse(events.isEmpty());
+        long lastStatusDownloaded = -1;
+        synchronized (events) {
+            for (Event event : events) {
+                if (event.status) {
+                    assertTrue(event.downloaded > lastStatusDownloaded);
+                    lastStatusDownloaded = event.downloaded;
+                } else {
+                    assertTrue("progress " + event.downloaded + " after status " + lastStatusDownloaded,
+                            event.downloaded > lastStatusDownloaded);
+                }
+            }
+            final Event lastEvent = events.get(events.size() - 1);
+            assertTrue(lastEvent.status);
+            assertEquals(PROGRESS_EVENTS - 1, lastEvent.downloaded);
+        }
+    }
+
+    /** Waits for the progress dispatch on the notification thread and for the ui handler.*/
+    private void awaitDispatchedEvents() throws InterruptedException {
+        Thread.sleep(500);
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private DownloadInfo getDownloadInfo(Status status, long downloaded) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(1);
+        downloadInfo.setGroup(GROUP);
+        downloadInfo.setStatus(status);
+        downloadInfo.setDownloaded(downloaded);
+        downloadInfo.setTotal(PROGRESS_EVENTS);
+        return downloadInfo;
+    }
+
+    private static class Event {
+
+        private final boolean status;
+        private final long downloaded;
+
+        Event(boolean status, long downloaded) {
+            this.status = status;
+            this.downloaded = downloaded;
+        }
+
+    }
+
+}
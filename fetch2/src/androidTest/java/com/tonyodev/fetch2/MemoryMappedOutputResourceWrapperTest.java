@@ -0,0 +1,70 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.MemoryMappedOutputResourceWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MemoryMappedOutputResourceWrapperTest {
+
+    private static final int WINDOW_SIZE = 4096;
+    private static final int WINDOW_COUNT = 8;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getCacheDir(), "memoryMappedOutputResourceWrapperTest.data");
+        file.delete();
+        assertTrue(file.createNewFile());
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void droppedWindowsKeepTheirBytes() throws Exception {
+        final MemoryMappedOutputResourceWrapper wrapper = new MemoryMappedOutputResourceWrapper(
+                new RandomAccessFile(file, "rw"), WINDOW_SIZE, 1);
+        wrapper.preallocate(WINDOW_SIZE * WINDOW_COUNT);
+        final byte[] buffer = new byte[WINDOW_SIZE / 2];
+        for (int window = 0; window < WINDOW_COUNT; window++) {
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = (byte) (window + 1);
+            }
+            wrapper.write((long) window * WINDOW_SIZE, buffer, 0, buffer.length);
+            wrapper.write((long) window * WINDOW_SIZE + buffer.length, buffer, 0, buffer.length);
+        }
+        wrapper.flush();
+        wrapper.close();
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(WINDOW_SIZE * WINDOW_COUNT, randomAccessFile.length());
+            for (int window = 0; window < WINDOW_COUNT; window++) {
+                randomAccessFile.seek((long) window * WINDOW_SIZE);
+                assertEquals(window + 1, randomAccessFile.read());
+                randomAccessFile.seek((long) (window + 1) * WINDOW_SIZE - 1);
+                assertEquals(window + 1, randomAccessFile.read());
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+}
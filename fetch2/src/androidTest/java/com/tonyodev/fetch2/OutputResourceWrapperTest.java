@@ -0,0 +1,114 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.OutputResourceWrapper;
+import com.tonyodev.fetch2core.StorageResolverHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class OutputResourceWrapperTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getCacheDir(), "outputResourceWrapperTest.data");
+        file.delete();
+        assertTrue(file.createNewFile());
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void positionalWritesDoNotMoveWriteOffset() throws Exception {
+        final OutputResourceWrapper wrapper = StorageResolverHelper.getOutputResourceWrapper(
+                new FileOutputStream(file));
+        assertTrue(wrapper.getSupportsPositionalWrites());
+        wrapper.write(8, new byte[]{2, 2}, 0, 2);
+        wrapper.write(new byte[]{1, 1}, 0, 2);
+        wrapper.close();
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(10, randomAccessFile.length());
+            assertEquals(1, randomAccessFile.read());
+            randomAccessFile.seek(8);
+            assertEquals(2, randomAccessFile.read());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void pipeDoesNotClaimPositionalWritesOrPreallocation() throws Exception {
+        final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        try {
+            final OutputResourceWrapper wrapper = StorageResolverHelper.getOutputResourceWrapper(pipe[1]);
+            assertFalse(wrapper.getSupportsPositionalWrites());
+            assertFalse(wrapper.getSupportsPreallocation());
+            wrapper.preallocate(1024);
+            wrapper.close();
+        } finally {
+            pipe[0].close();
+        }
+    }
+
+    @Test
+    public void defaultPreallocateAndPositionalWriteAreSafe() throws Exception {
+        final OffsetRecordingOutputResourceWrapper wrapper = new OffsetRecordingOutputResourceWrapper();
+        assertFalse(wrapper.getSupportsPreallocation());
+        wrapper.preallocate(1024);
+        assertFalse(wrapper.getSupportsPositionalWrites());
+        wrapper.write(512, new byte[16], 0, 16);
+        assertEquals(512, wrapper.writeOffset);
+        assertEquals(16, wrapper.writtenBytes);
+    }
+
+    private static class OffsetRecordingOutputResourceWrapper extends OutputResourceWrapper {
+
+        private long writeOffset = 0;
+        private long writtenBytes = 0;
+
+        @Override
+        public void write(byte[] byteArray, int offSet, int length) {
+            writtenBytes += length;
+        }
+
+        @Override
+        public void setWriteOffset(long offset) {
+            writeOffset = offset;
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() throws IOException {
+
+        }
+
+    }
+
+}
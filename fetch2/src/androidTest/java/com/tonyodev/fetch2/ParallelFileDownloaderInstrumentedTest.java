@@ -0,0 +1,193 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.downloader.BandwidthThrottler;
+import com.tonyodev.fetch2.downloader.ParallelFileDownloaderImpl;
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
+import com.tonyodev.fetch2.provider.NetworkInfoProvider;
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.DefaultStorageResolver;
+import com.tonyodev.fetch2core.FetchCoreDefaults;
+import com.tonyodev.fetch2core.Downloader;
+import com.tonyodev.fetch2core.FetchCoreUtils;
+import com.tonyodev.fetch2core.FetchLogger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a parallel download reads the first slice from the opening response instead of
+ * requesting the same bytes again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelFileDownloaderInstrumentedTest {
+
+    /** 4 slices of 384KB. The bounded opening probe covers the first 256KB of the first slice.*/
+    private static final int FILE_SIZE = 1536 * 1024;
+    private static final int SLICES = 4;
+    private static final int OPENING_RANGE_BYTES = 256 * 1024;
+
+    private Context appContext;
+    private MockWebServer server;
+    private byte[] data;
+    private File file;
+    private String fileTempDir;
+    private SliceDownloadScheduler sliceDownloadScheduler;
+    private final List<long[]> requestedRanges = Collections.synchronizedList(new ArrayList<long[]>());
+
+    @Before
+    public void setUp() throws Exception {
+        appContext = InstrumentationRegistry.getTargetContext();
+        data = new byte[FILE_SIZE];
+        new Random(20).nextBytes(data);
+        file = new File(appContext.getFilesDir(), "parallelFileDownloaderTest.data");
+        file.delete();
+        fileTempDir = FetchCoreUtils.getFileTempDir(appContext) + "/parallelFileDownloaderTest";
+        sliceDownloadScheduler = new SliceDownloadScheduler("parallelFileDownloaderTest",
+                FetchDefaults.DEFAULT_MAX_TOTAL_CONNECTIONS, new FetchLogger(false, "parallelFileDownloaderTest"));
+        server = new MockWebServer();
+        server.setDispatcher(new RangeDispatcher());
+        server.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.shutdown();
+        sliceDownloadScheduler.close();
+        file.delete();
+        FetchUtils.deleteAllInFolderForId(1, fileTempDir);
+    }
+
+    @Test
+    public void firstSliceContinuesAfterTheOpeningPrefix() throws Exception {
+        download(-1);
+        // The opening probe, one request for the rest of the first slice and one per other slice.
+        assertEquals(SLICES + 1, requestedRanges.size());
+        assertRangesDoNotOverlap();
+        assertEquals(OPENING_RANGE_BYTES - 1, getRangeStartingAt(0)[1]);
+        assertEquals(FILE_SIZE / SLICES - 1, getRangeStartingAt(OPENING_RANGE_BYTES)[1]);
+        assertArrayEquals(data, readFile());
+    }
+
+    @Test
+    public void firstSliceReadsTheOpeningResponseWhenTheTotalIsKnown() throws Exception {
+        download(FILE_SIZE);
+        // The opening request asks for the whole first slice and becomes its only request.
+        assertEquals(SLICES, requestedRanges.size());
+        assertRangesDoNotOverlap();
+        assertEquals(FILE_SIZE / SLICES - 1, getRangeStartingAt(0)[1]);
+        assertArrayEquals(data, readFile());
+    }
+
+    private void download(long total) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(1);
+        downloadInfo.setNamespace("parallelFileDownloaderTest");
+        downloadInfo.setUrl(server.url("/file").toString());
+        downloadInfo.setFile(file.getAbsolutePath());
+        downloadInfo.setStatus(Status.DOWNLOADING);
+        downloadInfo.setTotal(total);
+        final FetchLogger logger = new FetchLogger(false, "parallelFileDownloaderTest");
+        final ParallelFileDownloaderImpl fileDownloader = new ParallelFileDownloaderImpl(downloadInfo,
+                new HttpUrlConnectionDownloader(Downloader.FileDownloaderType.PARALLEL),
+                FetchCoreDefaults.DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS, logger,
+                new NetworkInfoProvider(appContext, null), false, fileTempDir, false,
+                new DefaultStorageResolver(appContext, fileTempDir),
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS,
+                sliceDownloadScheduler,
+                new BandwidthThrottler("parallelFileDownloaderTest", 0, Collections.<NetworkType, Long>emptyMap()),
+                false, false);
+        fileDownloader.run();
+        assertTrue(fileDownloader.getCompletedDownload());
+    }
+
+    private void assertRangesDoNotOverlap() {
+        final List<long[]> ranges = new ArrayList<>(requestedRanges);
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] first, long[] second) {
+                return first[0] < second[0] ? -1 : (first[0] == second[0] ? 0 : 1);
+            }
+        });
+        long nextStart = 0;
+        for (long[] range : ranges) {
+            assertEquals(nextStart, range[0]);
+            nextStart = range[1] + 1;
+        }
+        assertEquals(FILE_SIZE, nextStart);
+    }
+
+    private long[] getRangeStartingAt(long start) {
+        synchronized (requestedRanges) {
+            for (long[] range : requestedRanges) {
+                if (range[0] == start) {
+                    return range;
+                }
+            }
+        }
+        throw new AssertionError("no request starts at " + start);
+    }
+
+    private byte[] readFile() throws Exception {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /** Serves byte ranges of data and records the range of every request.*/
+    private class RangeDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            final String range = request.getHeader("Range");
+            long start = 0;
+            long end = FILE_SIZE - 1;
+            if (range != null && range.startsWith("bytes=")) {
+                final String[] values = range.substring("bytes=".length()).split("-", -1);
+                start = Long.parseLong(values[0]);
+                if (!values[1].isEmpty()) {
+                    end = Math.min(Long.parseLong(values[1]), FILE_SIZE - 1);
+                }
+            }
+            requestedRanges.add(new long[]{start, end});
+            return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader("Accept-Ranges", "bytes")
+                    .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + FILE_SIZE)
+                    .setBody(new Buffer().write(Arrays.copyOfRange(data, (int) start, (int) end + 1)));
+        }
+
+    }
+
+}
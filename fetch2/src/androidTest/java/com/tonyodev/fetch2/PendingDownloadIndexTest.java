@@ -0,0 +1,78 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.database.DownloadInfo;
+import com.tonyodev.fetch2.database.PendingDownloadIndex;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PendingDownloadIndexTest {
+
+    @Test
+    public void idsAreOrderedByPriorityThenCreated() {
+        final PendingDownloadIndex pendingDownloadIndex = new PendingDownloadIndex();
+        pendingDownloadIndex.load(Arrays.asList(
+                getDownloadInfo(1, Priority.NORMAL, 100),
+                getDownloadInfo(2, Priority.HIGH, 300),
+                getDownloadInfo(3, Priority.LOW, 50),
+                getDownloadInfo(4, Priority.NORMAL, 200),
+                getDownloadInfo(5, Priority.HIGH, 100)));
+        assertEquals(Arrays.asList(5, 2, 1, 4, 3), pendingDownloadIndex.getIds(PrioritySort.ASC, null, 10));
+        assertEquals(Arrays.asList(2, 5, 4, 1, 3), pendingDownloadIndex.getIds(PrioritySort.DESC, null, 10));
+    }
+
+    @Test
+    public void pagesContinueAfterPreviousPage() {
+        final PendingDownloadIndex pendingDownloadIndex = new PendingDownloadIndex();
+        final List<DownloadInfo> downloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            downloads.add(getDownloadInfo(i, i % 2 == 0 ? Priority.HIGH : Priority.NORMAL, i));
+        }
+        pendingDownloadIndex.load(downloads);
+        assertEquals(Arrays.asList(0, 2, 4), pendingDownloadIndex.getIds(PrioritySort.ASC, null, 3));
+        assertEquals(Arrays.asList(6, 8, 1), pendingDownloadIndex.getIds(PrioritySort.ASC, downloads.get(4), 3));
+        final DownloadInfo started = downloads.get(6);
+        started.setStatus(Status.DOWNLOADING);
+        pendingDownloadIndex.update(started);
+        assertEquals(Arrays.asList(8, 1, 3), pendingDownloadIndex.getIds(PrioritySort.ASC, started, 3));
+        assertEquals(Arrays.asList(9, 7, 5, 3, 1), pendingDownloadIndex.getIds(PrioritySort.DESC, downloads.get(0), 10));
+    }
+
+    @Test
+    public void indexFollowsStatusAndPriorityChanges() {
+        final PendingDownloadIndex pendingDownloadIndex = new PendingDownloadIndex();
+        final DownloadInfo first = getDownloadInfo(1, Priority.NORMAL, 100);
+        final DownloadInfo second = getDownloadInfo(2, Priority.NORMAL, 200);
+        pendingDownloadIndex.update(first);
+        assertTrue(pendingDownloadIndex.getIds(PrioritySort.ASC, null, 10).isEmpty());
+        pendingDownloadIndex.load(Arrays.asList(first, second));
+        second.setPriority(Priority.HIGH);
+        pendingDownloadIndex.update(second);
+        assertEquals(Arrays.asList(2, 1), pendingDownloadIndex.getIds(PrioritySort.ASC, null, 10));
+        first.setStatus(Status.PAUSED);
+        pendingDownloadIndex.update(first);
+        assertEquals(Arrays.asList(2), pendingDownloadIndex.getIds(PrioritySort.ASC, null, 10));
+        pendingDownloadIndex.remove(2);
+        assertTrue(pendingDownloadIndex.getIds(PrioritySort.ASC, null, 10).isEmpty());
+    }
+
+    private DownloadInfo getDownloadInfo(int id, Priority priority, long created) {
+        final DownloadInfo downloadInfo = new DownloadInfo();
+        downloadInfo.setId(id);
+        downloadInfo.setPriority(priority);
+        downloadInfo.setCreated(created);
+        downloadInfo.setStatus(Status.QUEUED);
+        return downloadInfo;
+    }
+
+}
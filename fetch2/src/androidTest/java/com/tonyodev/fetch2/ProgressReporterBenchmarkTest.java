@@ -0,0 +1,212 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Process;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tonyodev.fetch2core.Downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the CPU time Fetch uses per downloaded GB for a parallel download from a local HTTP
+ * server. The CPU time of the server threads is measured with Debug.threadCpuTimeNanos and
+ * subtracted from the CPU time of the process, so the result covers the downloader threads,
+ * including the progress reporting thread of ParallelFileDownloaderImpl. Run it on both sides of a
+ * change to the downloader to compare them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProgressReporterBenchmarkTest {
+
+    private static final String TAG = "ProgressReporterBenchmark";
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private File file;
+    private RangeServer server;
+    private Fetch fetch;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        file = new File(appContext.getFilesDir(), "progressReporterBenchmark.data");
+        file.delete();
+        server = new RangeServer(FILE_SIZE);
+        server.start();
+        final FetchConfiguration fetchConfiguration = new FetchConfiguration.Builder(appContext)
+                .setNamespace("fetch2ProgressReporterBenchmark")
+                .setHttpDownloader(new HttpUrlConnectionDownloader(Downloader.FileDownloaderType.PARALLEL))
+                .setDownloadConcurrentLimit(1)
+                .enableLogging(false)
+                .build();
+        fetch = Fetch.Impl.getInstance(fetchConfiguration);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        fetch.close();
+        server.close();
+        file.delete();
+    }
+
+    @Test
+    public void cpuTimePerGb() throws Exception {
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        final AtomicReference<Error> error = new AtomicReference<>();
+        fetch.addListener(new AbstractFetchListener() {
+            @Override
+            public void onCompleted(Download download) {
+                doneLatch.countDown();
+            }
+
+            @Override
+            public void onError(Download download, Error e, Throwable throwable) {
+                error.set(e);
+                doneLatch.countDown();
+            }
+        });
+        final Request request = new Request(server.getUrl(), file.getAbsolutePath());
+        final long startCpuMillis = Process.getElapsedCpuTime();
+        final long startTime = System.nanoTime();
+        fetch.enqueue(request, null, null);
+        assertTrue(doneLatch.await(10, TimeUnit.MINUTES));
+        final long elapsedNanos = System.nanoTime() - startTime;
+        final long processCpuNanos = (Process.getElapsedCpuTime() - startCpuMillis) * 1_000_000L;
+        final long downloaderCpuNanos = Math.max(0L, processCpuNanos - server.getCpuNanos());
+        assertNull(error.get());
+        assertEquals(FILE_SIZE, file.length());
+        Log.i(TAG, String.format("%d ms downloader cpu per GB, %d ms server cpu per GB, %d ms elapsed",
+                downloaderCpuNanos * (GB / FILE_SIZE) / 1_000_000L,
+                server.getCpuNanos() * (GB / FILE_SIZE) / 1_000_000L,
+                elapsedNanos / 1_000_000L));
+        fetch.remove(request.getId());
+    }
+
+    /** Serves fileSize zero bytes for every path and honours single byte ranges. */
+    private static class RangeServer extends Thread {
+
+        private final long fileSize;
+        private final ServerSocket serverSocket;
+        private final AtomicLong cpuNanos = new AtomicLong();
+
+        RangeServer(long fileSize) throws IOException {
+            super("ProgressReporterBenchmarkServer");
+            this.fileSize = fileSize;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/file.data";
+        }
+
+        long getCpuNanos() {
+            return cpuNanos.get();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }.start();
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            final long cpuStartTime = Debug.threadCpuTimeNanos();
+            try {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                final String requestLine = reader.readLine();
+                if (requestLine == null) {
+                    return;
+                }
+                long rangeStart = -1;
+                long rangeEnd = fileSize - 1;
+                String line = reader.readLine();
+                while (line != null && !line.isEmpty()) {
+                    if (line.toLowerCase().startsWith("range: bytes=")) {
+                        final String range = line.substring("range: bytes=".length()).trim();
+                        final int dash = range.indexOf('-');
+                        rangeStart = Long.parseLong(range.substring(0, dash));
+                        if (dash < range.length() - 1) {
+                            rangeEnd = Math.min(fileSize - 1, Long.parseLong(range.substring(dash + 1)));
+                        }
+                    }
+                    line = reader.readLine();
+                }
+                final long start = rangeStart < 0 ? 0 : rangeStart;
+                final long length = rangeEnd - start + 1;
+                final StringBuilder headers = new StringBuilder();
+                if (rangeStart < 0) {
+                    headers.append("HTTP/1.1 200 OK\r\n");
+                } else {
+                    headers.append("HTTP/1.1 206 Partial Content\r\n")
+                            .append("Content-Range: bytes ").append(start).append('-').append(rangeEnd)
+                            .append('/').append(fileSize).append("\r\n");
+                }
+                headers.append("Accept-Ranges: bytes\r\n")
+                        .append("Content-Length: ").append(length).append("\r\n")
+                        .append("Connection: close\r\n\r\n");
+                final OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(headers.toString().getBytes("US-ASCII"));
+                if (!requestLine.startsWith("HEAD")) {
+                    final byte[] buffer = new byte[CHUNK_SIZE];
+                    long remaining = length;
+                    while (remaining > 0) {
+                        final int count = (int) Math.min(buffer.length, remaining);
+                        outputStream.write(buffer, 0, count);
+                        remaining -= count;
+                    }
+                }
+                outputStream.flush();
+            } catch (IOException e) {
+                Log.d(TAG, "connection closed", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "close failed", e);
+                }
+                cpuNanos.addAndGet(Debug.threadCpuTimeNanos() - cpuStartTime);
+            }
+        }
+
+    }
+
+}
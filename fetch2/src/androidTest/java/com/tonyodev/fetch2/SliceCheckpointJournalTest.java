@@ -0,0 +1,103 @@
+package com.tonyodev.fetch2;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.SliceCheckpointJournal;
+import com.tonyodev.fetch2.util.FetchDefaults;
+import com.tonyodev.fetch2.util.FetchUtils;
+import com.tonyodev.fetch2core.FileSliceInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SliceCheckpointJournalTest {
+
+    private static final int ID = 42;
+    private static final long TOTAL = 8 * 1024;
+
+    private String fileTempDir;
+
+    @Before
+    public void setUp() {
+        final Context appContext = InstrumentationRegistry.getTargetContext();
+        fileTempDir = new File(appContext.getCacheDir(), "sliceCheckpointJournalTest").getAbsolutePath();
+        FetchUtils.deleteAllInFolderForId(ID, fileTempDir);
+    }
+
+    @After
+    public void cleanup() {
+        FetchUtils.deleteAllInFolderForId(ID, fileTempDir);
+    }
+
+    @Test
+    public void progressOfFirstSliceIsKeptBeforeLastSliceCheckpoints() {
+        final SliceCheckpointJournal journal = newJournal();
+        assertFalse(journal.open(new FileSliceInfo(8, 1024), TOTAL));
+        journal.checkpoint(1, 1024);
+        journal.close();
+        assertEquals(8, FetchUtils.getPreviousSliceCount(ID, fileTempDir));
+        assertEquals(1024, FetchUtils.getSavedDownloadedInfo(ID, 1, fileTempDir));
+        final SliceCheckpointJournal reopenedJournal = newJournal();
+        assertTrue(reopenedJournal.open(new FileSliceInfo(8, 1024), TOTAL));
+        assertEquals(1024, reopenedJournal.getDownloaded(1));
+        assertEquals(0, reopenedJournal.getDownloaded(8));
+        reopenedJournal.close();
+    }
+
+    @Test
+    public void savedLayoutIsKeptWhenPlannedLayoutChanges() {
+        final SliceCheckpointJournal journal = newJournal();
+        journal.open(new FileSliceInfo(4, 2048), TOTAL);
+        journal.checkpoint(2, 512);
+        journal.close();
+        assertEquals(new FileSliceInfo(4, 2048), SliceCheckpointJournal.readSavedFileSliceInfo(ID, fileTempDir, TOTAL));
+        final SliceCheckpointJournal reopenedJournal = newJournal();
+        assertTrue(reopenedJournal.open(new FileSliceInfo(2, 4096), TOTAL));
+        assertEquals(new FileSliceInfo(4, 2048), reopenedJournal.getFileSliceInfo());
+        assertEquals(512, reopenedJournal.getDownloaded(2));
+        reopenedJournal.close();
+    }
+
+    @Test
+    public void differentSliceCountResetsProgressWhenLayoutIsNotKept() {
+        final SliceCheckpointJournal journal = newJournal();
+        journal.open(new FileSliceInfo(4, 2048), TOTAL);
+        journal.checkpoint(1, 1024);
+        journal.close();
+        final SliceCheckpointJournal reopenedJournal = newJournal();
+        assertFalse(reopenedJournal.open(new FileSliceInfo(1, TOTAL), TOTAL, false));
+        assertEquals(new FileSliceInfo(1, TOTAL), reopenedJournal.getFileSliceInfo());
+        assertEquals(0, reopenedJournal.getDownloaded(1));
+        reopenedJournal.close();
+    }
+
+    @Test
+    public void layoutThatDoesNotFitTotalResetsProgress() {
+        final SliceCheckpointJournal journal = newJournal();
+        journal.open(new FileSliceInfo(4, 2048), TOTAL);
+        journal.checkpoint(1, 1024);
+        journal.close();
+        final SliceCheckpointJournal reopenedJournal = newJournal();
+        assertFalse(reopenedJournal.open(new FileSliceInfo(2, 512), 1024));
+        assertEquals(new FileSliceInfo(2, 512), reopenedJournal.getFileSliceInfo());
+        assertEquals(0, reopenedJournal.getDownloaded(1));
+        reopenedJournal.close();
+    }
+
+    private SliceCheckpointJournal newJournal() {
+        return new SliceCheckpointJournal(ID, fileTempDir, FetchDefaults.DEFAULT_SLICE_CHECKPOINT_BYTES,
+                FetchDefaults.DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS);
+    }
+
+}
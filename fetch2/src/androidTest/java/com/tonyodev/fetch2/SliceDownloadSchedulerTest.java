@@ -0,0 +1,119 @@
+package com.tonyodev.fetch2;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler;
+import com.tonyodev.fetch2core.FetchLogger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SliceDownloadSchedulerTest {
+
+    private SliceDownloadScheduler scheduler;
+    private CountDownLatch blockerStarted;
+    private CountDownLatch releaseBlocker;
+    private List<String> ranSlices;
+
+    @Before
+    public void setUp() {
+        scheduler = new SliceDownloadScheduler("sliceDownloadSchedulerTest", 1,
+                new FetchLogger(false, "sliceDownloadSchedulerTest"));
+        blockerStarted = new CountDownLatch(1);
+        releaseBlocker = new CountDownLatch(1);
+        ranSlices = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void cleanup() {
+        releaseBlocker.countDown();
+        scheduler.close();
+    }
+
+    @Test
+    public void pendingSlicesArePickedRoundRobinAcrossDownloads() throws Exception {
+        occupyConnection();
+        final CountDownLatch doneLatch = new CountDownLatch(5);
+        scheduler.submit(1, newSlice("1a", doneLatch));
+        scheduler.submit(1, newSlice("1b", doneLatch));
+        scheduler.submit(1, newSlice("1c", doneLatch));
+        scheduler.submit(2, newSlice("2a", doneLatch));
+        scheduler.submit(2, newSlice("2b", doneLatch));
+        releaseBlocker.countDown();
+        assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1a", "2a", "1b", "2b", "1c"), ranSlices);
+    }
+
+    @Test
+    public void cancelOnlyRemovesThePassedInSlice() throws Exception {
+        occupyConnection();
+        final CountDownLatch doneLatch = new CountDownLatch(2);
+        final Runnable cancelledSlice = newSlice("cancelled", doneLatch);
+        final Runnable keptSlice = newSlice("kept", doneLatch);
+        final Runnable otherDownloadSlice = newSlice("other", doneLatch);
+        scheduler.submit(1, cancelledSlice);
+        scheduler.submit(1, keptSlice);
+        scheduler.submit(2, otherDownloadSlice);
+        assertTrue(scheduler.cancel(1, cancelledSlice));
+        assertFalse(scheduler.cancel(2, cancelledSlice));
+        releaseBlocker.countDown();
+        assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        assertFalse(scheduler.cancel(1, keptSlice));
+        assertEquals(Arrays.asList("kept", "other"), ranSlices);
+    }
+
+    @Test
+    public void failingSliceReleasesItsConnection() throws Exception {
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        scheduler.submit(1, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("slice failed");
+            }
+        });
+        scheduler.submit(2, newSlice("next", doneLatch));
+        assertTrue(doneLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("next"), ranSlices);
+    }
+
+    /** Runs a slice that holds the only connection until releaseBlocker is counted down.*/
+    private void occupyConnection() throws InterruptedException {
+        scheduler.submit(0, new Runnable() {
+            @Override
+            public void run() {
+                blockerStarted.countDown();
+                try {
+                    releaseBlocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blockerStarted.await(10, TimeUnit.SECONDS));
+    }
+
+    private Runnable newSlice(final String name, final CountDownLatch doneLatch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ranSlices.add(name);
+                doneLatch.countDown();
+            }
+        };
+    }
+
+}
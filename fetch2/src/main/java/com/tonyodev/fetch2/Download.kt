@@ -128,4 +128,22 @@ interface Download : Parcelable, Serializable {
      * */
     val autoRetryAttempts: Int
 
+    /**
+     * The maximum number of bytes per second this download may download.
+     * The default is 0 which means no limit.
+     * */
+    val bandwidthLimit: Long
+
+    /**
+     * The ETag the server returned with the downloaded content. Empty if the server did not
+     * return one. Used to revalidate and resume the download.
+     * */
+    val etag: String
+
+    /**
+     * The Last-Modified date the server returned with the downloaded content. Empty if the
+     * server did not return one. Used to revalidate and resume the download.
+     * */
+    val lastModified: String
+
 }
\ No newline at end of file
@@ -27,7 +27,16 @@ enum class EnqueueAction(val value: Int) {
      * Note: If download is existing, Fetch will update the old request/download with the new settings on
      * from the request object.
      * */
-    UPDATE_ACCORDINGLY(3);
+    UPDATE_ACCORDINGLY(3),
+
+    /** Same as UPDATE_ACCORDINGLY, except when the existing download is completed and its file
+     * still exists. Fetch then queues the download again and asks the server whether the content
+     * changed, using the ETag and Last-Modified date saved with the download. If the server answers
+     * 304 Not Modified, the download completes without transferring the content again. Otherwise the
+     * new content is downloaded. If no ETag or Last-Modified date is saved, this action is the same
+     * as UPDATE_ACCORDINGLY.
+     * */
+    UPDATE_IF_MODIFIED(4);
 
     companion object {
 
@@ -37,6 +46,7 @@ enum class EnqueueAction(val value: Int) {
                 1 -> INCREMENT_FILE_NAME
                 2 -> DO_NOT_ENQUEUE_IF_EXISTING
                 3 -> UPDATE_ACCORDINGLY
+                4 -> UPDATE_IF_MODIFIED
                 else -> REPLACE_EXISTING
             }
         }
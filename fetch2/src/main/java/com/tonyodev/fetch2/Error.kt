@@ -125,7 +125,12 @@ enum class Error constructor(
     /**
      * Indicates that the operation to rename the file failed for some reason.
      * */
-    FAILED_TO_RENAME_FILE(29);
+    FAILED_TO_RENAME_FILE(29),
+
+    /** Indicates that the storage volume does not have enough free space for the remaining bytes
+     * of the download. Reported before any bytes are written when file preallocation is enabled.
+     * See FetchConfiguration.Builder.preallocateDownloadFile.*/
+    INSUFFICIENT_STORAGE(30);
 
     companion object {
 
@@ -160,6 +165,7 @@ enum class Error constructor(
                 27 -> ENQUEUED_REQUESTS_ARE_NOT_DISTINCT
                 28 -> FAILED_TO_RENAME_INCOMPLETE_DOWNLOAD_FILE
                 29 -> FAILED_TO_RENAME_FILE
+                30 -> INSUFFICIENT_STORAGE
                 else -> UNKNOWN
             }
         }
@@ -828,6 +828,50 @@ interface Fetch {
      * */
     fun setDownloadConcurrentLimit(downloadConcurrentLimit: Int): Fetch
 
+    /**
+     * Sets the maximum number of bytes per second all downloads of this namespace may download together.
+     * Running downloads and their slices pick up the new limit right away.
+     * @param bytesPerSecond limit in bytes per second. 0 removes the limit.
+     * @throws FetchException if the passed in value is less than 0 or Fetch instance has been closed.
+     * @return Instance
+     * */
+    fun setGlobalBandwidthLimit(bytesPerSecond: Long): Fetch
+
+    /**
+     * Sets the maximum number of bytes per second all downloads of this namespace may download together
+     * while the device is on the passed in network type. The NetworkType.WIFI_ONLY limit applies while
+     * the device is on an unmetered network like Wi-Fi, the NetworkType.ALL limit applies while the
+     * device is on a metered network.
+     * Running downloads pick up the new limit right away.
+     * @param networkType network type. NetworkType.GLOBAL_OFF is not allowed.
+     * @param bytesPerSecond limit in bytes per second. 0 removes the limit.
+     * @throws FetchException if the passed in value is less than 0, the network type is GLOBAL_OFF
+     * or Fetch instance has been closed.
+     * @return Instance
+     * */
+    fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long): Fetch
+
+    /**
+     * Sets the maximum number of bytes per second a download may download. The limit is saved with
+     * the download. If the download is running, the new limit applies right away without restarting it.
+     * @param id Id of existing request/download
+     * @param bytesPerSecond limit in bytes per second. 0 removes the limit.
+     * @param func Successful callback that the download will be returned on.
+     * @param func2 Failed callback that the error will be returned on.
+     * @throws FetchException if the passed in value is less than 0 or Fetch instance has been closed.
+     * @return Instance
+     * */
+    fun setDownloadBandwidthLimit(id: Int, bytesPerSecond: Long, func: Func<Download>? = null, func2: Func<Error>? = null): Fetch
+
+    /**
+     * Gets the latency between the signals that wake up the download queue, e.g. enqueued downloads
+     * or a freed download slot, and the start of the queue pass that handles them.
+     * @param func callback that the results will be returned on.
+     * @throws FetchException if this instance of Fetch has been closed.
+     * @return Instance
+     * */
+    fun getSchedulingLatency(func: Func<SchedulingLatency>): Fetch
+
     /** Releases held resources and the namespace used by this Fetch instance.
      * Once closed this instance cannot be reused but the namespace can be reused
      * by a new instance of Fetch.
@@ -33,7 +33,14 @@ class FetchConfiguration private constructor(val appContext: Context,
                                              val internetCheckUrl: String?,
                                              val activeDownloadsCheckInterval: Long,
                                              val createFileOnEnqueue: Boolean,
-                                             val maxAutoRetryAttempts: Int) {
+                                             val preallocateDownloadFile: Boolean,
+                                             val maxAutoRetryAttempts: Int,
+                                             val sliceCheckpointBytes: Long,
+                                             val sliceCheckpointIntervalMillis: Long,
+                                             val maxTotalConnections: Int,
+                                             val progressFlushIntervalMillis: Long,
+                                             val globalBandwidthLimit: Long,
+                                             val networkTypeBandwidthLimits: Map<NetworkType, Long>) {
 
     /* Creates a new Instance of Fetch with this object's configuration settings. Convenience method
     * for Fetch.Impl.getInstance(fetchConfiguration)
@@ -67,7 +74,14 @@ class FetchConfiguration private constructor(val appContext: Context,
         private var internetCheckUrl: String? = null
         private var activeDownloadCheckInterval = DEFAULT_HAS_ACTIVE_DOWNLOADS_INTERVAL_IN_MILLISECONDS
         private var createFileOnEnqueue = DEFAULT_CREATE_FILE_ON_ENQUEUE
+        private var preallocateDownloadFile = DEFAULT_PREALLOCATE_DOWNLOAD_FILE
         private var maxAutoRetryAttempts = DEFAULT_GLOBAL_AUTO_RETRY_ATTEMPTS
+        private var sliceCheckpointBytes = DEFAULT_SLICE_CHECKPOINT_BYTES
+        private var sliceCheckpointIntervalMillis = DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS
+        private var maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS
+        private var progressFlushIntervalMillis = DEFAULT_PROGRESS_FLUSH_INTERVAL_IN_MILLISECONDS
+        private var globalBandwidthLimit = DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND
+        private val networkTypeBandwidthLimits = mutableMapOf<NetworkType, Long>()
 
         /** Sets the namespace which Fetch operates in. Fetch uses
          * a namespace to create a database that the instance will use. Downloads
@@ -324,6 +338,21 @@ class FetchConfiguration private constructor(val appContext: Context,
             this.createFileOnEnqueue = create
             return this
         }
+
+        /**
+         * Enable or disable reserving the full size of the download file on storage once the
+         * total size of the download is known. When enabled, Fetch checks that the storage volume
+         * has room for the remaining bytes before any bytes are written and fails the download
+         * with Error.INSUFFICIENT_STORAGE if it does not. The file is then preallocated, which
+         * keeps large parallel downloads from fragmenting the file as slices are written at far
+         * offsets. On file systems that do not support preallocation the file is extended sparsely.
+         * @param preallocate true or false. The default is false
+         * @return Builder
+         * */
+        fun preallocateDownloadFile(preallocate: Boolean): Builder {
+            this.preallocateDownloadFile = preallocate
+            return this
+        }
         /**
          * The Global maximum number of times Fetch will auto retry a failed download. If set,
          * the autoRetryMaxAttempts on the individual download is overridden.
@@ -337,6 +366,105 @@ class FetchConfiguration private constructor(val appContext: Context,
             return this
         }
 
+        /**
+         * Sets how often downloads using the FileDownloaderType.PARALLEL type checkpoint the
+         * progress of each file slice to the download's checkpoint journal. A slice is checkpointed
+         * when either the byte or the time threshold has been reached since its last checkpoint.
+         * Larger values reduce disk writes but more bytes may be downloaded again after the app is killed.
+         * The defaults are 1MB and 1 second.
+         * @param checkpointBytes bytes downloaded by a slice between checkpoints. Has to be greater than 0.
+         * @param checkpointIntervalMillis time in milliseconds between checkpoints. Has to be greater than -1.
+         * @throws FetchException if the passed in values are out of range.
+         * @return Builder
+         * */
+        fun setSliceCheckpointCadence(checkpointBytes: Long, checkpointIntervalMillis: Long): Builder {
+            if (checkpointBytes < 1) {
+                throw FetchException("checkpointBytes cannot be less than 1")
+            }
+            if (checkpointIntervalMillis < 0) {
+                throw FetchException("checkpointIntervalMillis cannot be less than 0")
+            }
+            this.sliceCheckpointBytes = checkpointBytes
+            this.sliceCheckpointIntervalMillis = checkpointIntervalMillis
+            return this
+        }
+
+        /**
+         * Sets the maximum number of file slice connections that can be in flight at any given time
+         * across all downloads of the namespace that use the FileDownloaderType.PARALLEL type.
+         * Slices of all active downloads share one worker pool of this size and are scheduled
+         * round robin. The value of the first Fetch instance created for a namespace is used.
+         * Default value is 24.
+         * @param maxTotalConnections maximum number of in flight slice connections. Has to be greater than 0.
+         * @throws FetchException if the passed in value is less than 1.
+         * @return Builder
+         * */
+        fun setMaxTotalConnections(maxTotalConnections: Int): Builder {
+            if (maxTotalConnections < 1) {
+                throw FetchException("maxTotalConnections cannot be less than 1")
+            }
+            this.maxTotalConnections = maxTotalConnections
+            return this
+        }
+
+        /**
+         * Sets how often the saved progress of downloading downloads is written to the database.
+         * Progress saves of all active downloads are buffered and written together in one transaction
+         * at this interval. Pending progress is always written before a download is paused, completes,
+         * fails, before any other database operation and when the namespace is closed. A value of 0
+         * writes every progress save right away. The value of the first Fetch instance created for a
+         * namespace is used. Default value is 1 second.
+         * @param progressFlushIntervalMillis time in milliseconds. Has to be greater than -1.
+         * @throws FetchException if the passed in value is less than 0.
+         * @return Builder
+         * */
+        fun setProgressFlushInterval(progressFlushIntervalMillis: Long): Builder {
+            if (progressFlushIntervalMillis < 0) {
+                throw FetchException("progressFlushIntervalMillis cannot be less than 0")
+            }
+            this.progressFlushIntervalMillis = progressFlushIntervalMillis
+            return this
+        }
+
+        /**
+         * Sets the maximum number of bytes per second all downloads of the namespace may download
+         * together. Slices of parallel downloads share the limit. The limit can be changed later
+         * with Fetch.setGlobalBandwidthLimit. The value of the first Fetch instance created for a
+         * namespace is used. Default value is 0 which means no limit.
+         * @param bytesPerSecond limit in bytes per second. 0 removes the limit.
+         * @throws FetchException if the passed in value is less than 0.
+         * @return Builder
+         * */
+        fun setGlobalBandwidthLimit(bytesPerSecond: Long): Builder {
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            this.globalBandwidthLimit = bytesPerSecond
+            return this
+        }
+
+        /**
+         * Sets the maximum number of bytes per second all downloads of the namespace may download
+         * together while the device is on the passed in network type. The NetworkType.WIFI_ONLY limit
+         * applies while the device is on an unmetered network like Wi-Fi, the NetworkType.ALL limit
+         * applies while the device is on a metered network, e.g. a mobile network. The limit can be changed later
+         * with Fetch.setNetworkTypeBandwidthLimit. Default value is 0 which means no limit.
+         * @param networkType network type. NetworkType.GLOBAL_OFF is not allowed.
+         * @param bytesPerSecond limit in bytes per second. 0 removes the limit.
+         * @throws FetchException if the passed in value is less than 0 or the network type is GLOBAL_OFF.
+         * @return Builder
+         * */
+        fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long): Builder {
+            if (networkType == NetworkType.GLOBAL_OFF) {
+                throw FetchException("bandwidth limit cannot be set for NetworkType.GLOBAL_OFF")
+            }
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            this.networkTypeBandwidthLimits[networkType] = bytesPerSecond
+            return this
+        }
+
         /**
          * Build FetchConfiguration instance.
          * @return new FetchConfiguration instance.
@@ -373,7 +501,14 @@ class FetchConfiguration private constructor(val appContext: Context,
                     internetCheckUrl = internetCheckUrl,
                     activeDownloadsCheckInterval = activeDownloadCheckInterval,
                     createFileOnEnqueue = createFileOnEnqueue,
-                    maxAutoRetryAttempts = maxAutoRetryAttempts)
+                    preallocateDownloadFile = preallocateDownloadFile,
+                    maxAutoRetryAttempts = maxAutoRetryAttempts,
+                    sliceCheckpointBytes = sliceCheckpointBytes,
+                    sliceCheckpointIntervalMillis = sliceCheckpointIntervalMillis,
+                    maxTotalConnections = maxTotalConnections,
+                    progressFlushIntervalMillis = progressFlushIntervalMillis,
+                    globalBandwidthLimit = globalBandwidthLimit,
+                    networkTypeBandwidthLimits = networkTypeBandwidthLimits.toMap())
         }
 
     }
@@ -403,7 +538,14 @@ class FetchConfiguration private constructor(val appContext: Context,
         if (internetCheckUrl != other.internetCheckUrl) return false
         if (activeDownloadsCheckInterval != other.activeDownloadsCheckInterval) return false
         if (createFileOnEnqueue != other.createFileOnEnqueue) return false
+        if (preallocateDownloadFile != other.preallocateDownloadFile) return false
         if (maxAutoRetryAttempts != other.maxAutoRetryAttempts) return false
+        if (sliceCheckpointBytes != other.sliceCheckpointBytes) return false
+        if (sliceCheckpointIntervalMillis != other.sliceCheckpointIntervalMillis) return false
+        if (maxTotalConnections != other.maxTotalConnections) return false
+        if (progressFlushIntervalMillis != other.progressFlushIntervalMillis) return false
+        if (globalBandwidthLimit != other.globalBandwidthLimit) return false
+        if (networkTypeBandwidthLimits != other.networkTypeBandwidthLimits) return false
         return true
     }
 
@@ -437,7 +579,14 @@ class FetchConfiguration private constructor(val appContext: Context,
         }
         result = 31 * result + activeDownloadsCheckInterval.hashCode()
         result = 31 * result + createFileOnEnqueue.hashCode()
+        result = 31 * result + preallocateDownloadFile.hashCode()
         result = 31 * result + maxAutoRetryAttempts.hashCode()
+        result = 31 * result + sliceCheckpointBytes.hashCode()
+        result = 31 * result + sliceCheckpointIntervalMillis.hashCode()
+        result = 31 * result + maxTotalConnections
+        result = 31 * result + progressFlushIntervalMillis.hashCode()
+        result = 31 * result + globalBandwidthLimit.hashCode()
+        result = 31 * result + networkTypeBandwidthLimits.hashCode()
         return result
     }
 
@@ -451,7 +600,10 @@ class FetchConfiguration private constructor(val appContext: Context,
                 "fetchNotificationManager=$fetchNotificationManager, fetchDatabaseManager=$fetchDatabaseManager," +
                 " backgroundHandler=$backgroundHandler, prioritySort=$prioritySort, internetCheckUrl=$internetCheckUrl," +
                 " activeDownloadsCheckInterval=$activeDownloadsCheckInterval, createFileOnEnqueue=$createFileOnEnqueue, " +
-                "maxAutoRetryAttempts=$maxAutoRetryAttempts)"
+                "preallocateDownloadFile=$preallocateDownloadFile, maxAutoRetryAttempts=$maxAutoRetryAttempts, sliceCheckpointBytes=$sliceCheckpointBytes, " +
+                "sliceCheckpointIntervalMillis=$sliceCheckpointIntervalMillis, maxTotalConnections=$maxTotalConnections, " +
+                "progressFlushIntervalMillis=$progressFlushIntervalMillis, globalBandwidthLimit=$globalBandwidthLimit, " +
+                "networkTypeBandwidthLimits=$networkTypeBandwidthLimits)"
     }
 
 }
\ No newline at end of file
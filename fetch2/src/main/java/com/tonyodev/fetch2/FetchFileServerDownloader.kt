@@ -5,9 +5,11 @@ import com.tonyodev.fetch2core.*
 import com.tonyodev.fetch2core.server.FileRequest.CREATOR.TYPE_FILE
 import com.tonyodev.fetch2core.server.FetchFileResourceTransporter
 import com.tonyodev.fetch2core.server.FileRequest
+import com.tonyodev.fetch2core.server.FileResourceTransporterPool
 import com.tonyodev.fetch2core.server.FileResponse
 import org.json.JSONArray
 import org.json.JSONObject
+import java.io.InputStream
 import java.io.InputStreamReader
 
 import java.net.HttpURLConnection
@@ -28,10 +30,25 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
         private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL,
 
         /** The timeout value in milliseconds when trying to connect to the server. Default is 20_000 milliseconds. */
-        private val timeout: Long = 20_000) : FileServerDownloader {
+        private val timeout: Long = 20_000,
+
+        /** The maximum number of connections open to a single Fetch File Server at the same time.
+         * Requests wait for a connection once the limit is reached. Default is 8. */
+        maxConnectionsPerHost: Int = DEFAULT_FILE_SERVER_DOWNLOADER_MAX_CONNECTIONS_PER_HOST,
+
+        /** Time in milliseconds a persistent connection is kept open for reuse after its last
+         * response was read. Default is 30_000 milliseconds. */
+        idleConnectionTimeout: Long = DEFAULT_FILE_SERVER_DOWNLOADER_IDLE_CONNECTION_TIMEOUT_IN_MILLISECONDS) : FileServerDownloader {
 
     protected val connections: MutableMap<Downloader.Response, FetchFileResourceTransporter> = Collections.synchronizedMap(HashMap<Downloader.Response, FetchFileResourceTransporter>())
 
+    /** Persistent connections that are reused across requests and file slices to the same server.*/
+    protected val transporterPool = FileResourceTransporterPool(maxConnectionsPerHost, idleConnectionTimeout)
+
+    /** Responses whose file request asked the server not to persist the connection. Their
+     * transporters are closed on disconnect instead of being returned to the pool.*/
+    private val nonPersistentResponses: MutableSet<Downloader.Response> = Collections.synchronizedSet(HashSet<Downloader.Response>())
+
     override fun onPreClientExecute(client: FetchFileResourceTransporter, request: Downloader.ServerRequest): FileServerDownloader.TransporterRequest {
         val headers = request.headers
         val range = getRangeForFetchFileServerRequest(headers["Range"] ?: "bytes=0-")
@@ -57,16 +74,41 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
                         ?: 0,
                 size = headers[FileRequest.FIELD_SIZE]?.toIntOrNull()
                         ?: 0,
-                persistConnection = false)
+                persistConnection = headers[FileRequest.FIELD_PERSIST_CONNECTION]?.toBoolean()
+                        ?: true)
         return transporterRequest
     }
 
     override fun execute(request: Downloader.ServerRequest, interruptMonitor: InterruptMonitor): Downloader.Response? {
-        val transporter = FetchFileResourceTransporter()
+        val socketAddress = InetSocketAddress(getFetchFileServerHostAddress(request.url), getFetchFileServerPort(request.url))
+        while (!interruptMonitor.isInterrupted) {
+            val transporter = transporterPool.acquire(socketAddress, interruptMonitor) ?: return null
+            val reused = transporter.isConnected
+            try {
+                val response = execute(transporter, request, interruptMonitor)
+                if (response == null) {
+                    transporterPool.release(transporter, false)
+                }
+                return response
+            } catch (e: Exception) {
+                transporterPool.release(transporter, false)
+                if (!reused) {
+                    throw e
+                }
+                // The server closed the idle connection. Retry on the next connection.
+            }
+        }
+        return null
+    }
+
+    private fun execute(transporter: FetchFileResourceTransporter, request: Downloader.ServerRequest,
+                        interruptMonitor: InterruptMonitor): Downloader.Response? {
         var timeoutStop: Long
         val timeoutStart = System.nanoTime()
         val transporterRequest = onPreClientExecute(transporter, request)
-        transporter.connect(transporterRequest.inetSocketAddress)
+        if (!transporter.isConnected) {
+            transporter.connect(transporterRequest.inetSocketAddress)
+        }
         transporter.sendFileRequest(transporterRequest.fileRequest)
         while (!interruptMonitor.isInterrupted) {
             val serverResponse = transporter.receiveFileResponse()
@@ -81,18 +123,7 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
                 } else {
                     null
                 }
-                val responseHeaders = mutableMapOf<String, List<String>>()
-                try {
-                    val json = JSONObject(serverResponse.toJsonString)
-                    json.keys().forEach {
-                        responseHeaders[it] = listOf(json.get(it).toString())
-                    }
-                } catch (e: Exception) {
-
-                }
-                if (!responseHeaders.containsKey("Content-MD5")) {
-                    responseHeaders["Content-MD5"] = listOf(serverResponse.md5)
-                }
+                val responseHeaders = getResponseHeaders(serverResponse)
                 val hash = getContentHash(responseHeaders)
                 val acceptsRanges = code == HttpURLConnection.HTTP_PARTIAL ||
                         responseHeaders["Accept-Ranges"]?.firstOrNull() == "bytes"
@@ -112,13 +143,20 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
                         code = code,
                         isSuccessful = isSuccessful,
                         contentLength = contentLength,
-                        byteStream = inputStream,
+                        byteStream = if (isSuccessful && contentLength >= 0) {
+                            ResponseBodyInputStream(inputStream, contentLength)
+                        } else {
+                            inputStream
+                        },
                         request = request,
                         hash = hash,
                         responseHeaders = responseHeaders,
                         acceptsRanges = acceptsRanges,
                         errorResponse = errorResponse)
 
+                if (!transporterRequest.fileRequest.persistConnection) {
+                    nonPersistentResponses.add(response)
+                }
                 connections[response] = transporter
                 return response
             }
@@ -130,20 +168,42 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
         return null
     }
 
+    /** Exposes the fields of the server response as headers under the same names as in the json
+     * form of the response, plus Content-MD5.*/
+    private fun getResponseHeaders(serverResponse: FileResponse): MutableMap<String, List<String>> {
+        val responseHeaders = HashMap<String, List<String>>(12)
+        responseHeaders[FileResponse.FIELD_STATUS] = listOf(serverResponse.status.toString())
+        responseHeaders[FileResponse.FIELD_MD5] = listOf(serverResponse.md5)
+        responseHeaders[FileResponse.FIELD_CONNECTION] = listOf(serverResponse.connection.toString())
+        responseHeaders[FileResponse.FIELD_DATE] = listOf(serverResponse.date.toString())
+        responseHeaders[FileResponse.FIELD_CONTENT_LENGTH] = listOf(serverResponse.contentLength.toString())
+        responseHeaders[FileResponse.FIELD_TYPE] = listOf(serverResponse.type.toString())
+        responseHeaders[FileResponse.FIELD_SESSION_ID] = listOf(serverResponse.sessionId)
+        responseHeaders[FileResponse.FIELD_PROTOCOL_VERSION] = listOf(serverResponse.protocolVersion.toString())
+        responseHeaders["Content-MD5"] = listOf(serverResponse.md5)
+        return responseHeaders
+    }
+
     override fun disconnect(response: Downloader.Response) {
         if (connections.contains(response)) {
             val transporter = connections[response]
             connections.remove(response)
-            transporter?.close()
+            val persistent = !nonPersistentResponses.remove(response)
+            if (transporter != null) {
+                val responseBody = response.byteStream as? ResponseBodyInputStream
+                transporterPool.release(transporter, persistent && response.isSuccessful && responseBody?.isExhausted == true)
+            }
         }
     }
 
     override fun close() {
         try {
             connections.entries.forEach {
-                it.value.close()
+                transporterPool.release(it.value, false)
             }
             connections.clear()
+            nonPersistentResponses.clear()
+            transporterPool.evictAll()
         } catch (e: Exception) {
 
         }
@@ -161,8 +221,8 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
         if (hash.isEmpty()) {
             return true
         }
-        val fileMd5 = getFileMd5String(request.file)
-        return fileMd5?.contentEquals(hash) ?: true
+        val fileHash = getFileHashString(request.file, getHashAlgorithm(hash) ?: ResumableDigest.MD5)
+        return fileHash?.equals(hash, true) ?: true
     }
 
     override fun getContentHash(responseHeaders: MutableMap<String, List<String>>): String {
@@ -255,4 +315,46 @@ open class FetchFileServerDownloader @JvmOverloads constructor(
         }
     }
 
+    /** Response body stream of a persistent connection. Ends after contentLength bytes so the
+     * connection can be reused for the next request. Closing it does not close the connection.*/
+    private class ResponseBodyInputStream(private val inputStream: InputStream,
+                                          private var remainingBytes: Long) : InputStream() {
+
+        val isExhausted: Boolean
+            get() {
+                return remainingBytes == 0L
+            }
+
+        override fun read(): Int {
+            if (remainingBytes <= 0L) {
+                return -1
+            }
+            val byte = inputStream.read()
+            if (byte != -1) {
+                remainingBytes -= 1
+            }
+            return byte
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (remainingBytes <= 0L) {
+                return -1
+            }
+            val read = inputStream.read(b, off, Math.min(len.toLong(), remainingBytes).toInt())
+            if (read > 0) {
+                remainingBytes -= read
+            }
+            return read
+        }
+
+        override fun available(): Int {
+            return Math.min(inputStream.available().toLong(), remainingBytes).toInt()
+        }
+
+        override fun close() {
+
+        }
+
+    }
+
 }
\ No newline at end of file
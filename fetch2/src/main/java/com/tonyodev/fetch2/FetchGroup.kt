@@ -73,6 +73,17 @@ interface FetchGroup {
      * */
     val groupDownloadProgress: Int
 
+    /**
+     * The sum of the downloaded bytes of all downloads belonging to this group.
+     * */
+    val groupDownloadedBytes: Long
+
+    /**
+     * The sum of the content lengths of all downloads belonging to this group.
+     * Downloads with an unknown content length are not counted.
+     * */
+    val groupTotalBytes: Long
+
     /**
      * The set of FetchObservers attached to this FetchGroup.
      * */
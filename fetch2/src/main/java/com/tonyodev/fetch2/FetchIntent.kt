@@ -4,6 +4,7 @@ package com.tonyodev.fetch2
 
 const val ACTION_NOTIFICATION_ACTION = "com.tonyodev.fetch2.action.NOTIFICATION_ACTION"
 const val ACTION_NOTIFICATION_CHECK = "com.tonyodev.fetch2.action.NOTIFICATION_CHECK"
+@Deprecated("Fetch no longer sends or listens for this broadcast. The download queue is woken up directly.")
 const val ACTION_QUEUE_BACKOFF_RESET = "com.tonyodev.fetch2.action.QUEUE_BACKOFF_RESET"
 
 const val ACTION_TYPE_INVALID = -1
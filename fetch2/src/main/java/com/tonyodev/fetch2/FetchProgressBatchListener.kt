@@ -0,0 +1,18 @@
+package com.tonyodev.fetch2
+
+/**
+ * Listener used by Fetch to report the progress of several downloads at once. Fetch coalesces
+ * progress updates per download and delivers the latest update of every download that made
+ * progress in one callback per display frame, instead of calling onProgress for every update.
+ * All other callbacks of FetchListener are called as usual.
+ * */
+interface FetchProgressBatchListener : FetchListener {
+
+    /** Called on the main thread, at most once per display frame, with the latest progress of
+     * every download that made progress since the last call. Replaces the onProgress callback
+     * for this listener.
+     * @param progressSnapshots latest progress of each download, one snapshot per download.
+     * */
+    fun onProgressBatch(progressSnapshots: List<ProgressSnapshot>)
+
+}
@@ -158,8 +158,8 @@ open class HttpUrlConnectionDownloader @JvmOverloads constructor(
         if (hash.isEmpty()) {
             return true
         }
-        val fileHash = getFileMd5String(request.file)
-        return fileHash?.contentEquals(hash) ?: true
+        val fileHash = getFileHashString(request.file, getHashAlgorithm(hash) ?: ResumableDigest.MD5)
+        return fileHash?.equals(hash, true) ?: true
     }
 
     override fun onServerResponse(request: Downloader.ServerRequest, response: Downloader.Response) {
@@ -0,0 +1,12 @@
+package com.tonyodev.fetch2
+
+/**
+ * Progress of a download reported to FetchProgressBatchListener.onProgressBatch.
+ * @param download An immutable object which contains a current snapshot of all the information
+ * about a specific download managed by Fetch.
+ * @param etaInMilliSeconds Estimated time remaining in milliseconds for the download to complete.
+ * @param downloadedBytesPerSecond Average downloaded bytes per second.
+ * */
+data class ProgressSnapshot(val download: Download,
+                            val etaInMilliSeconds: Long,
+                            val downloadedBytesPerSecond: Long)
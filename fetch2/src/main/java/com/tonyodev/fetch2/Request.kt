@@ -74,6 +74,7 @@ open class Request constructor(
         dest?.writeInt(if (downloadOnEnqueue) 1 else 0)
         dest?.writeSerializable(HashMap(extras.map))
         dest?.writeInt(autoRetryMaxAttempts)
+        dest?.writeLong(bandwidthLimit)
     }
 
     override fun describeContents(): Int {
@@ -96,6 +97,7 @@ open class Request constructor(
             val downloadOnEnqueue = input.readInt() == 1
             val extras = input.readSerializable() as Map<String, String>
             val autoRetryMaxAttempts = input.readInt()
+            val bandwidthLimit = input.readLong()
             val autoRetryAttempts = input.readInt()
             val request = Request(url, file)
             request.identifier = identifier
@@ -110,6 +112,7 @@ open class Request constructor(
             request.downloadOnEnqueue = downloadOnEnqueue
             request.extras = Extras(extras)
             request.autoRetryMaxAttempts = autoRetryMaxAttempts
+            request.bandwidthLimit = bandwidthLimit
             return request
         }
 
@@ -70,6 +70,19 @@ open class RequestInfo : Serializable {
             field = value
         }
 
+    /**
+     * The maximum number of bytes per second this download may download. Global and network type
+     * limits set on Fetch apply as well. The default is 0 which means no limit.
+     * @throws IllegalArgumentException if value passed in is less than 0
+     * */
+    var bandwidthLimit = DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND
+        set(value) {
+            if (value < 0) {
+                throw IllegalArgumentException("The bandwidth limit cannot be less than 0")
+            }
+            field = value
+        }
+
     /**
      * Set or get the extras for this request. Use this to
      * save and get custom key/value data for the request.
@@ -94,6 +107,7 @@ open class RequestInfo : Serializable {
         if (downloadOnEnqueue != other.downloadOnEnqueue) return false
         if (extras != other.extras) return false
         if (autoRetryMaxAttempts != other.autoRetryMaxAttempts) return false
+        if (bandwidthLimit != other.bandwidthLimit) return false
         return true
     }
 
@@ -108,6 +122,7 @@ open class RequestInfo : Serializable {
         result = 31 * result + downloadOnEnqueue.hashCode()
         result = 31 * result + extras.hashCode()
         result = 31 * result + autoRetryMaxAttempts
+        result = 31 * result + bandwidthLimit.hashCode()
         return result
     }
 
@@ -115,7 +130,7 @@ open class RequestInfo : Serializable {
         return "RequestInfo(identifier=$identifier, groupId=$groupId," +
                 " headers=$headers, priority=$priority, networkType=$networkType," +
                 " tag=$tag, enqueueAction=$enqueueAction, downloadOnEnqueue=$downloadOnEnqueue, " +
-                "autoRetryMaxAttempts=$autoRetryMaxAttempts, extras=$extras)"
+                "autoRetryMaxAttempts=$autoRetryMaxAttempts, bandwidthLimit=$bandwidthLimit, extras=$extras)"
     }
 
 }
\ No newline at end of file
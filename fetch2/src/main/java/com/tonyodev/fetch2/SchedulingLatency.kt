@@ -0,0 +1,14 @@
+package com.tonyodev.fetch2
+
+/**
+ * Latency between a wake up signal sent to the download queue of Fetch, e.g. after downloads
+ * were enqueued or a download slot was freed, and the start of the queue pass that handles it.
+ * @param wakeUpCount Number of handled wake up signals. Signals sent before the pass started are counted once.
+ * @param averageLatencyMillis Average latency in milliseconds.
+ * @param maxLatencyMillis Highest latency in milliseconds.
+ * @param lastLatencyMillis Latency of the last handled wake up signal in milliseconds.
+ * */
+data class SchedulingLatency(val wakeUpCount: Long,
+                             val averageLatencyMillis: Double,
+                             val maxLatencyMillis: Double,
+                             val lastLatencyMillis: Double)
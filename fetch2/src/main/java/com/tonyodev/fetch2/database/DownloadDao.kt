@@ -1,8 +1,11 @@
 package com.tonyodev.fetch2.database
 
 import android.arch.persistence.room.*
+import com.tonyodev.fetch2.Error
 import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_BANDWIDTH_LIMIT
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_CREATED
+import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_ERROR
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_FILE
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_GROUP
 import com.tonyodev.fetch2.database.DownloadDatabase.Companion.COLUMN_ID
@@ -21,6 +24,9 @@ interface DownloadDao {
     @Insert(onConflict = OnConflictStrategy.ABORT)
     fun insert(downloadInfoList: List<DownloadInfo>): List<Long>
 
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertOrIgnore(downloadInfoList: List<DownloadInfo>): List<Long>
+
     @Delete
     fun delete(downloadInfo: DownloadInfo)
 
@@ -39,6 +45,9 @@ interface DownloadDao {
     @Query("SELECT * FROM $TABLE_NAME")
     fun get(): List<DownloadInfo>
 
+    @Query("SELECT $COLUMN_ID FROM $TABLE_NAME")
+    fun getAllIds(): List<Int>
+
     @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_ID = :id")
     fun get(id: Int): DownloadInfo?
 
@@ -48,6 +57,9 @@ interface DownloadDao {
     @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_FILE = :file")
     fun getByFile(file: String): DownloadInfo?
 
+    @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_FILE IN (:files)")
+    fun getByFiles(files: List<String>): List<DownloadInfo>
+
     @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_STATUS = :status")
     fun getByStatus(status: Status): List<DownloadInfo>
 
@@ -66,4 +78,34 @@ interface DownloadDao {
     @Query("SELECT * FROM $TABLE_NAME WHERE $COLUMN_IDENTIFIER = :identifier")
     fun getDownloadsByRequestIdentifier(identifier: Long): List<DownloadInfo>
 
+    @Query("SELECT $COLUMN_ID FROM $TABLE_NAME WHERE $COLUMN_ID IN (:ids) AND $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus")
+    fun getIdsWithStatus(ids: List<Int>, statuses: MutableList<Status>, newStatus: Status): List<Int>
+
+    @Query("SELECT $COLUMN_ID FROM $TABLE_NAME WHERE $COLUMN_GROUP = :group AND $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus AND $COLUMN_ID NOT IN (:excludedIds)")
+    fun getIdsInGroupWithStatus(group: Int, statuses: MutableList<Status>, newStatus: Status, excludedIds: List<Int>): List<Int>
+
+    @Query("SELECT $COLUMN_ID FROM $TABLE_NAME WHERE $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus")
+    fun getIdsWithStatus(statuses: MutableList<Status>, newStatus: Status): List<Int>
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_BANDWIDTH_LIMIT = :bytesPerSecond WHERE $COLUMN_ID = :id")
+    fun updateBandwidthLimit(id: Int, bytesPerSecond: Long): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus WHERE $COLUMN_ID IN (:ids) AND $COLUMN_STATUS != :newStatus")
+    fun updateStatus(ids: List<Int>, newStatus: Status): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus, $COLUMN_ERROR = :error WHERE $COLUMN_ID IN (:ids) AND $COLUMN_STATUS != :newStatus")
+    fun updateStatusAndError(ids: List<Int>, newStatus: Status, error: Error): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus WHERE $COLUMN_GROUP = :group AND $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus AND $COLUMN_ID NOT IN (:excludedIds)")
+    fun updateStatusInGroup(group: Int, statuses: MutableList<Status>, excludedIds: List<Int>, newStatus: Status): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus, $COLUMN_ERROR = :error WHERE $COLUMN_GROUP = :group AND $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus AND $COLUMN_ID NOT IN (:excludedIds)")
+    fun updateStatusAndErrorInGroup(group: Int, statuses: MutableList<Status>, excludedIds: List<Int>, newStatus: Status, error: Error): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus WHERE $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus")
+    fun updateStatusWithStatus(statuses: MutableList<Status>, newStatus: Status): Int
+
+    @Query("UPDATE $TABLE_NAME SET $COLUMN_STATUS = :newStatus, $COLUMN_ERROR = :error WHERE $COLUMN_STATUS IN (:statuses) AND $COLUMN_STATUS != :newStatus")
+    fun updateStatusAndErrorWithStatus(statuses: MutableList<Status>, newStatus: Status, error: Error): Int
+
 }
\ No newline at end of file
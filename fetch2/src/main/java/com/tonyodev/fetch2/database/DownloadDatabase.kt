@@ -18,6 +18,8 @@ abstract class DownloadDatabase : RoomDatabase() {
 
     companion object {
         const val TABLE_NAME = "requests"
+        /** Max number of ids bound to a single IN clause. Stays below the SQLite variable limit.*/
+        const val MAX_QUERY_IDS = 500
         const val COLUMN_ID = "_id"
         const val COLUMN_NAMESPACE = "_namespace"
         const val COLUMN_URL = "_url"
@@ -38,13 +40,17 @@ abstract class DownloadDatabase : RoomDatabase() {
         const val COLUMN_EXTRAS = "_extras"
         const val COLUMN_AUTO_RETRY_MAX_ATTEMPTS = "_auto_retry_max_attempts"
         const val COLUMN_AUTO_RETRY_ATTEMPTS = "_auto_retry_attempts"
-        const val OLD_DATABASE_VERSION = 6
-        const val DATABASE_VERSION = 7
+        const val COLUMN_BANDWIDTH_LIMIT = "_bandwidth_limit"
+        const val COLUMN_ETAG = "_etag"
+        const val COLUMN_LAST_MODIFIED = "_last_modified"
+        const val OLD_DATABASE_VERSION = 8
+        const val DATABASE_VERSION = 9
 
         @JvmStatic
         fun getMigrations(): Array<Migration> {
             return arrayOf(MigrationOneToTwo(), MigrationTwoToThree(), MigrationThreeToFour(),
-                    MigrationFourToFive(), MigrationFiveToSix(), MigrationSixToSeven())
+                    MigrationFourToFive(), MigrationFiveToSix(), MigrationSixToSeven(), MigrationSevenToEight(),
+                    MigrationEightToNine())
         }
 
     }
@@ -81,6 +81,15 @@ open class DownloadInfo : Download {
     @ColumnInfo(name = DownloadDatabase.COLUMN_AUTO_RETRY_ATTEMPTS, typeAffinity = ColumnInfo.INTEGER)
     override var autoRetryAttempts: Int = DEFAULT_AUTO_RETRY_ATTEMPTS
 
+    @ColumnInfo(name = DownloadDatabase.COLUMN_BANDWIDTH_LIMIT, typeAffinity = ColumnInfo.INTEGER)
+    override var bandwidthLimit: Long = DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_ETAG, typeAffinity = ColumnInfo.TEXT)
+    override var etag: String = ""
+
+    @ColumnInfo(name = DownloadDatabase.COLUMN_LAST_MODIFIED, typeAffinity = ColumnInfo.TEXT)
+    override var lastModified: String = ""
+
     @Ignore
     override var etaInMilliSeconds: Long = -1L
 
@@ -109,6 +118,7 @@ open class DownloadInfo : Download {
             request.downloadOnEnqueue = downloadOnEnqueue
             request.extras = extras
             request.autoRetryMaxAttempts = autoRetryMaxAttempts
+            request.bandwidthLimit = bandwidthLimit
             return request
         }
 
@@ -142,6 +152,9 @@ open class DownloadInfo : Download {
         if (downloadedBytesPerSecond != other.downloadedBytesPerSecond) return false
         if (autoRetryMaxAttempts != other.autoRetryMaxAttempts) return false
         if (autoRetryAttempts != other.autoRetryAttempts) return false
+        if (bandwidthLimit != other.bandwidthLimit) return false
+        if (etag != other.etag) return false
+        if (lastModified != other.lastModified) return false
         return true
     }
 
@@ -168,6 +181,9 @@ open class DownloadInfo : Download {
         result = 31 * result + downloadedBytesPerSecond.hashCode()
         result = 31 * result + autoRetryMaxAttempts.hashCode()
         result = 31 * result + autoRetryAttempts.hashCode()
+        result = 31 * result + bandwidthLimit.hashCode()
+        result = 31 * result + etag.hashCode()
+        result = 31 * result + lastModified.hashCode()
         return result
     }
 
@@ -196,6 +212,9 @@ open class DownloadInfo : Download {
         dest.writeSerializable(HashMap(extras.map))
         dest.writeInt(autoRetryMaxAttempts)
         dest.writeInt(autoRetryAttempts)
+        dest.writeLong(bandwidthLimit)
+        dest.writeString(etag)
+        dest.writeString(lastModified)
     }
 
     override fun describeContents(): Int {
@@ -209,6 +228,7 @@ open class DownloadInfo : Download {
                 "created=$created, tag=$tag, enqueueAction=$enqueueAction, identifier=$identifier," +
                 " downloadOnEnqueue=$downloadOnEnqueue, extras=$extras, " +
                 "autoRetryMaxAttempts=$autoRetryMaxAttempts, autoRetryAttempts=$autoRetryAttempts," +
+                " bandwidthLimit=$bandwidthLimit, etag='$etag', lastModified='$lastModified'," +
                 " etaInMilliSeconds=$etaInMilliSeconds, downloadedBytesPerSecond=$downloadedBytesPerSecond)"
     }
 
@@ -238,6 +258,9 @@ open class DownloadInfo : Download {
             val extras = source.readSerializable() as Map<String, String>
             val autoRetryMaxAttempts = source.readInt()
             val autoRetryAttempts = source.readInt()
+            val bandwidthLimit = source.readLong()
+            val etag = source.readString() ?: ""
+            val lastModified = source.readString() ?: ""
 
             val downloadInfo = DownloadInfo()
             downloadInfo.id = id
@@ -262,6 +285,9 @@ open class DownloadInfo : Download {
             downloadInfo.extras = Extras(extras)
             downloadInfo.autoRetryMaxAttempts = autoRetryMaxAttempts
             downloadInfo.autoRetryAttempts = autoRetryAttempts
+            downloadInfo.bandwidthLimit = bandwidthLimit
+            downloadInfo.etag = etag
+            downloadInfo.lastModified = lastModified
             return downloadInfo
         }
 
@@ -75,11 +75,23 @@ interface FetchDatabaseManager : Closeable {
      * */
     fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo)
 
+    /**
+     * Updates only the file bytes and status of a list of downloads in the database
+     * in a single transaction.
+     * @param downloadInfoList list of downloads.
+     * */
+    fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>)
+
     /**
      * Gets a list of all the downloads in the database.
      * */
     fun get(): List<DownloadInfo>
 
+    /**
+     * Gets the ids of all the downloads in the database without reading the downloads.
+     * */
+    fun getAllIds(): List<Int>
+
     /**
      * Gets a download from the database by id if it exists.
      * @param the download id.
@@ -102,6 +114,22 @@ interface FetchDatabaseManager : Closeable {
      * */
     fun getByFile(file: String): DownloadInfo?
 
+    /**
+     * Gets the downloads of the passed in files that exist.
+     * @param files the files
+     * @return the existing downloads in no particular order.
+     * */
+    fun getByFiles(files: List<String>): List<DownloadInfo>
+
+    /**
+     * Inserts and updates downloads in a single transaction. A download that cannot be inserted
+     * because a download with the same id or file exists is skipped and does not fail the others.
+     * @param insertList downloads to insert.
+     * @param updateList downloads to update.
+     * @return for every download in insertList if it was inserted.
+     * */
+    fun insertAndUpdate(insertList: List<DownloadInfo>, updateList: List<DownloadInfo>): List<Boolean>
+
     /**
      * Get all downloads by the specified status.
      * @param status the query status.
@@ -153,6 +181,14 @@ interface FetchDatabaseManager : Closeable {
      * */
     fun updateExtras(id: Int, extras: Extras): DownloadInfo?
 
+    /**
+     * Sets the bandwidth limit of a download. Only the bandwidth limit column is written.
+     * @param id the download id.
+     * @param bytesPerSecond the new limit. 0 removes the limit.
+     * @return true if the download exists.
+     * */
+    fun updateBandwidthLimit(id: Int, bytesPerSecond: Long): Boolean
+
     /**
      * Gets the count/sum of all downloads with the status of Queued and Downloading combined.
      * @param includeAddedDownloads if to include downloads with the status of Added.
@@ -161,6 +197,43 @@ interface FetchDatabaseManager : Closeable {
      * */
     fun getPendingCount(includeAddedDownloads: Boolean): Long
 
+    /**
+     * Sets the status of the downloads with the passed in ids that currently have one of the
+     * passed in statuses. Downloads that already have the new status are not changed. Only the
+     * status and error columns are written.
+     * @param ids download ids
+     * @param fromStatuses statuses a download must have to be changed.
+     * @param status the new status.
+     * @param clearError if to reset the error of the changed downloads.
+     * @return ids of the changed downloads.
+     * */
+    fun updateStatus(ids: List<Int>, fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int>
+
+    /**
+     * Sets the status of the downloads in the group that currently have one of the passed in
+     * statuses with a single update statement. Downloads that already have the new status are not
+     * changed. Only the status and error columns are written.
+     * @param group the group id
+     * @param fromStatuses statuses a download must have to be changed.
+     * @param status the new status.
+     * @param clearError if to reset the error of the changed downloads.
+     * @param excludedIds ids of downloads in the group that are not changed.
+     * @return ids of the changed downloads.
+     * */
+    fun updateStatusInGroup(group: Int, fromStatuses: List<Status>, status: Status, clearError: Boolean,
+                            excludedIds: List<Int>): List<Int>
+
+    /**
+     * Sets the status of all downloads that currently have one of the passed in statuses with a
+     * single update statement. Downloads that already have the new status are not changed. Only
+     * the status and error columns are written.
+     * @param fromStatuses statuses a download must have to be changed.
+     * @param status the new status.
+     * @param clearError if to reset the error of the changed downloads.
+     * @return ids of the changed downloads.
+     * */
+    fun updateStatus(fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int>
+
     /**
      * Interface used for the DownloadManager's delegate.
      * */
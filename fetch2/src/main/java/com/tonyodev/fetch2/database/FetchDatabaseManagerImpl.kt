@@ -1,6 +1,7 @@
 package com.tonyodev.fetch2.database
 
 import android.arch.persistence.db.SupportSQLiteDatabase
+import android.arch.persistence.db.SupportSQLiteStatement
 import android.arch.persistence.room.Room
 import android.content.Context
 import android.database.Cursor
@@ -31,6 +32,13 @@ class FetchDatabaseManagerImpl constructor(context: Context,
     override var delegate: FetchDatabaseManager.Delegate? = null
     private val requestDatabase: DownloadDatabase
     private val database: SupportSQLiteDatabase
+    private val updateFileBytesInfoAndStatusStatement: SupportSQLiteStatement by lazy {
+        database.compileStatement("UPDATE ${DownloadDatabase.TABLE_NAME} SET "
+                + "${DownloadDatabase.COLUMN_DOWNLOADED} = ?, "
+                + "${DownloadDatabase.COLUMN_TOTAL} = ?, "
+                + "${DownloadDatabase.COLUMN_STATUS} = ? "
+                + "WHERE ${DownloadDatabase.COLUMN_ID} = ?")
+    }
 
     init {
         val builder = Room.databaseBuilder(context, DownloadDatabase::class.java, "$namespace.db")
@@ -79,14 +87,24 @@ class FetchDatabaseManagerImpl constructor(context: Context,
     }
 
     override fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo) {
+        updateFileBytesInfoAndStatusOnly(listOf(downloadInfo))
+    }
+
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>) {
         throwExceptionIfClosed()
+        if (downloadInfoList.isEmpty()) {
+            return
+        }
         try {
             database.beginTransaction()
-            database.execSQL("UPDATE ${DownloadDatabase.TABLE_NAME} SET "
-                    + "${DownloadDatabase.COLUMN_DOWNLOADED} = ${downloadInfo.downloaded}, "
-                    + "${DownloadDatabase.COLUMN_TOTAL} = ${downloadInfo.total}, "
-                    + "${DownloadDatabase.COLUMN_STATUS} = ${downloadInfo.status.value} "
-                    + "WHERE ${DownloadDatabase.COLUMN_ID} = ${downloadInfo.id}")
+            val statement = updateFileBytesInfoAndStatusStatement
+            for (downloadInfo in downloadInfoList) {
+                statement.bindLong(1, downloadInfo.downloaded)
+                statement.bindLong(2, downloadInfo.total)
+                statement.bindLong(3, downloadInfo.status.value.toLong())
+                statement.bindLong(4, downloadInfo.id.toLong())
+                statement.executeUpdateDelete()
+            }
             database.setTransactionSuccessful()
         } catch (e: SQLiteException) {
 
@@ -111,6 +129,88 @@ class FetchDatabaseManagerImpl constructor(context: Context,
         return download
     }
 
+    override fun updateBandwidthLimit(id: Int, bytesPerSecond: Long): Boolean {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().updateBandwidthLimit(id, bytesPerSecond) > 0
+    }
+
+    override fun updateStatus(ids: List<Int>, fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int> {
+        throwExceptionIfClosed()
+        if (ids.isEmpty() || fromStatuses.isEmpty()) {
+            return listOf()
+        }
+        val dao = requestDatabase.requestDao()
+        val statuses = fromStatuses.toMutableList()
+        val changedIds = mutableListOf<Int>()
+        database.beginTransaction()
+        try {
+            for (chunk in ids.chunked(DownloadDatabase.MAX_QUERY_IDS)) {
+                val chunkIds = dao.getIdsWithStatus(chunk, statuses, status)
+                if (chunkIds.isNotEmpty()) {
+                    if (clearError) {
+                        dao.updateStatusAndError(chunkIds, status, defaultNoError)
+                    } else {
+                        dao.updateStatus(chunkIds, status)
+                    }
+                    changedIds.addAll(chunkIds)
+                }
+            }
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+        return changedIds
+    }
+
+    override fun updateStatusInGroup(group: Int, fromStatuses: List<Status>, status: Status, clearError: Boolean,
+                                     excludedIds: List<Int>): List<Int> {
+        throwExceptionIfClosed()
+        if (fromStatuses.isEmpty()) {
+            return listOf()
+        }
+        val dao = requestDatabase.requestDao()
+        val statuses = fromStatuses.toMutableList()
+        database.beginTransaction()
+        try {
+            val changedIds = dao.getIdsInGroupWithStatus(group, statuses, status, excludedIds)
+            if (changedIds.isNotEmpty()) {
+                if (clearError) {
+                    dao.updateStatusAndErrorInGroup(group, statuses, excludedIds, status, defaultNoError)
+                } else {
+                    dao.updateStatusInGroup(group, statuses, excludedIds, status)
+                }
+            }
+            database.setTransactionSuccessful()
+            return changedIds
+        } finally {
+            database.endTransaction()
+        }
+    }
+
+    override fun updateStatus(fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int> {
+        throwExceptionIfClosed()
+        if (fromStatuses.isEmpty()) {
+            return listOf()
+        }
+        val dao = requestDatabase.requestDao()
+        val statuses = fromStatuses.toMutableList()
+        database.beginTransaction()
+        try {
+            val changedIds = dao.getIdsWithStatus(statuses, status)
+            if (changedIds.isNotEmpty()) {
+                if (clearError) {
+                    dao.updateStatusAndErrorWithStatus(statuses, status, defaultNoError)
+                } else {
+                    dao.updateStatusWithStatus(statuses, status)
+                }
+            }
+            database.setTransactionSuccessful()
+            return changedIds
+        } finally {
+            database.endTransaction()
+        }
+    }
+
     override fun get(): List<DownloadInfo> {
         throwExceptionIfClosed()
         val downloads = requestDatabase.requestDao().get()
@@ -118,6 +218,11 @@ class FetchDatabaseManagerImpl constructor(context: Context,
         return downloads
     }
 
+    override fun getAllIds(): List<Int> {
+        throwExceptionIfClosed()
+        return requestDatabase.requestDao().getAllIds()
+    }
+
     override fun get(id: Int): DownloadInfo? {
         throwExceptionIfClosed()
         val download = requestDatabase.requestDao().get(id)
@@ -139,6 +244,35 @@ class FetchDatabaseManagerImpl constructor(context: Context,
         return download
     }
 
+    override fun getByFiles(files: List<String>): List<DownloadInfo> {
+        throwExceptionIfClosed()
+        val downloads = mutableListOf<DownloadInfo>()
+        for (chunk in files.chunked(DownloadDatabase.MAX_QUERY_IDS)) {
+            downloads.addAll(requestDatabase.requestDao().getByFiles(chunk))
+        }
+        sanitize(downloads)
+        return downloads
+    }
+
+    override fun insertAndUpdate(insertList: List<DownloadInfo>, updateList: List<DownloadInfo>): List<Boolean> {
+        throwExceptionIfClosed()
+        if (insertList.isEmpty() && updateList.isEmpty()) {
+            return listOf()
+        }
+        val dao = requestDatabase.requestDao()
+        database.beginTransaction()
+        try {
+            val rowsList = if (insertList.isEmpty()) listOf() else dao.insertOrIgnore(insertList)
+            if (updateList.isNotEmpty()) {
+                dao.update(updateList)
+            }
+            database.setTransactionSuccessful()
+            return rowsList.map { requestDatabase.wasRowInserted(it) }
+        } finally {
+            database.endTransaction()
+        }
+    }
+
     override fun getByStatus(status: Status): List<DownloadInfo> {
         throwExceptionIfClosed()
         var downloads = requestDatabase.requestDao().getByStatus(status)
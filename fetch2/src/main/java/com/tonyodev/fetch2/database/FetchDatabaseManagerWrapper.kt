@@ -1,10 +1,37 @@
 package com.tonyodev.fetch2.database
 
+import com.tonyodev.fetch2.Download
 import com.tonyodev.fetch2.PrioritySort
 import com.tonyodev.fetch2.Status
 import com.tonyodev.fetch2core.Extras
+import com.tonyodev.fetch2core.HandlerWrapper
 
-class FetchDatabaseManagerWrapper(private val fetchDatabaseManager: FetchDatabaseManager): FetchDatabaseManager {
+/**
+ * Serializes access to the FetchDatabaseManager. Progress saves passed to
+ * updateFileBytesInfoAndStatusOnly are buffered per download and written together in one
+ * transaction every progressFlushIntervalMillis. Buffered progress is written before any other
+ * database operation runs, so reads always see the latest progress and status updates for paused,
+ * completed or failed downloads are never overwritten by an older progress save. A progressFlushIntervalMillis
+ * of 0 writes every progress save right away.
+ * The wrapper also keeps the PendingDownloadIndex of queued downloads in sync with every write,
+ * so getPendingDownloadsSorted with a limit only reads the downloads it returns.
+ * */
+class FetchDatabaseManagerWrapper @JvmOverloads constructor(private val fetchDatabaseManager: FetchDatabaseManager,
+                                                            private val progressFlushIntervalMillis: Long = 0L,
+                                                            private val handlerWrapper: HandlerWrapper? = null) : FetchDatabaseManager {
+
+    private val pendingDownloadIndex = PendingDownloadIndex()
+    private val progressLock = Any()
+    private var pendingProgress = LinkedHashMap<Int, DownloadInfo>()
+    private var progressFlushScheduled = false
+    @Volatile
+    private var lastProgressFlushTime = System.nanoTime()
+    private val progressFlushRunnable = Runnable {
+        synchronized(progressLock) {
+            progressFlushScheduled = false
+        }
+        flushPendingProgress()
+    }
 
     override val isClosed: Boolean
         get() {
@@ -27,127 +54,384 @@ class FetchDatabaseManagerWrapper(private val fetchDatabaseManager: FetchDatabas
 
     override fun insert(downloadInfo: DownloadInfo): Pair<DownloadInfo, Boolean> {
         return synchronized(fetchDatabaseManager) {
-            fetchDatabaseManager.insert(downloadInfo)
+            flushPendingProgressNoLock()
+            val result = fetchDatabaseManager.insert(downloadInfo)
+            if (result.second) {
+                pendingDownloadIndex.update(result.first)
+            }
+            result
         }
     }
 
     override fun insert(downloadInfoList: List<DownloadInfo>): List<Pair<DownloadInfo, Boolean>> {
         return synchronized(fetchDatabaseManager) {
-            fetchDatabaseManager.insert(downloadInfoList)
+            flushPendingProgressNoLock()
+            val results = fetchDatabaseManager.insert(downloadInfoList)
+            for (result in results) {
+                if (result.second) {
+                    pendingDownloadIndex.update(result.first)
+                }
+            }
+            results
         }
     }
 
     override fun delete(downloadInfo: DownloadInfo) {
         synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.delete(downloadInfo)
+            pendingDownloadIndex.remove(downloadInfo.id)
         }
     }
 
     override fun delete(downloadInfoList: List<DownloadInfo>) {
         synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.delete(downloadInfoList)
+            pendingDownloadIndex.remove(downloadInfoList)
         }
     }
 
     override fun deleteAll() {
         synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.deleteAll()
+            pendingDownloadIndex.clear()
         }
     }
 
     override fun update(downloadInfo: DownloadInfo) {
         synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.update(downloadInfo)
+            pendingDownloadIndex.update(downloadInfo)
         }
     }
 
     override fun update(downloadInfoList: List<DownloadInfo>) {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.update(downloadInfoList)
+            pendingDownloadIndex.update(downloadInfoList)
         }
     }
 
     override fun updateFileBytesInfoAndStatusOnly(downloadInfo: DownloadInfo) {
-        return synchronized(fetchDatabaseManager) {
-            fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo)
+        if (progressFlushIntervalMillis < 1) {
+            synchronized(fetchDatabaseManager) {
+                flushPendingProgressNoLock()
+                fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfo)
+                pendingDownloadIndex.update(downloadInfo)
+            }
+            return
+        }
+        val flushNow = (System.nanoTime() - lastProgressFlushTime) / 1_000_000L >= progressFlushIntervalMillis
+        val scheduleFlush = synchronized(progressLock) {
+            val progress = pendingProgress[downloadInfo.id] ?: DownloadInfo()
+            progress.id = downloadInfo.id
+            progress.downloaded = downloadInfo.downloaded
+            progress.total = downloadInfo.total
+            progress.status = downloadInfo.status
+            pendingProgress[downloadInfo.id] = progress
+            pendingDownloadIndex.update(downloadInfo)
+            if (!flushNow && !progressFlushScheduled && handlerWrapper != null) {
+                progressFlushScheduled = true
+                true
+            } else {
+                false
+            }
+        }
+        if (flushNow) {
+            flushPendingProgress()
+        } else if (scheduleFlush) {
+            handlerWrapper?.postDelayed(progressFlushRunnable, progressFlushIntervalMillis)
+        }
+    }
+
+    override fun updateFileBytesInfoAndStatusOnly(downloadInfoList: List<DownloadInfo>) {
+        synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(downloadInfoList)
+            pendingDownloadIndex.update(downloadInfoList)
+        }
+    }
+
+    /** Writes all buffered progress saves to the database in one transaction.*/
+    fun flushPendingProgress() {
+        synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+        }
+    }
+
+    private fun flushPendingProgressNoLock() {
+        val progressList = synchronized(progressLock) {
+            if (pendingProgress.isEmpty()) {
+                return
+            }
+            val progressList = pendingProgress.values.toList()
+            pendingProgress = LinkedHashMap()
+            progressList
+        }
+        lastProgressFlushTime = System.nanoTime()
+        if (!fetchDatabaseManager.isClosed) {
+            fetchDatabaseManager.updateFileBytesInfoAndStatusOnly(progressList)
         }
     }
 
     override fun get(): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.get()
         }
     }
 
+    override fun getAllIds(): List<Int> {
+        return synchronized(fetchDatabaseManager) {
+            fetchDatabaseManager.getAllIds()
+        }
+    }
+
     override fun get(id: Int): DownloadInfo? {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.get(id)
         }
     }
 
     override fun get(ids: List<Int>): List<DownloadInfo?> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.get(ids)
         }
     }
 
     override fun getByFile(file: String): DownloadInfo? {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getByFile(file)
         }
     }
 
+    override fun getByFiles(files: List<String>): List<DownloadInfo> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            fetchDatabaseManager.getByFiles(files)
+        }
+    }
+
+    override fun insertAndUpdate(insertList: List<DownloadInfo>, updateList: List<DownloadInfo>): List<Boolean> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            val insertedList = fetchDatabaseManager.insertAndUpdate(insertList, updateList)
+            for (index in insertedList.indices) {
+                if (insertedList[index]) {
+                    pendingDownloadIndex.update(insertList[index])
+                }
+            }
+            pendingDownloadIndex.update(updateList)
+            insertedList
+        }
+    }
+
     override fun getByStatus(status: Status): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getByStatus(status)
         }
     }
 
     override fun getByGroup(group: Int): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getByGroup(group)
         }
     }
 
     override fun getDownloadsInGroupWithStatus(groupId: Int, statuses: List<Status>): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getDownloadsInGroupWithStatus(groupId, statuses)
         }
     }
 
     override fun getDownloadsByRequestIdentifier(identifier: Long): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getDownloadsByRequestIdentifier(identifier)
         }
     }
 
     override fun getPendingDownloadsSorted(prioritySort: PrioritySort): List<DownloadInfo> {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getPendingDownloadsSorted(prioritySort)
         }
     }
 
+    /** Returns queued downloads in priority order, read through the PendingDownloadIndex.
+     * Only the downloads in the requested range are read from the database. The index is loaded
+     * from the database on first use.
+     * @param prioritySort order of downloads with the same priority
+     * @param after only downloads ordered after this download are returned. Pass null to start
+     * with the first queued download.
+     * @param limit max number of downloads returned
+     * */
+    fun getPendingDownloadsSorted(prioritySort: PrioritySort, after: Download?, limit: Int): List<DownloadInfo> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            if (!pendingDownloadIndex.isLoaded) {
+                pendingDownloadIndex.load(fetchDatabaseManager.getPendingDownloadsSorted(prioritySort))
+            }
+            val ids = pendingDownloadIndex.getIds(prioritySort, after, limit)
+            if (ids.isEmpty()) {
+                listOf()
+            } else {
+                val downloadsMap = HashMap<Int, DownloadInfo>(ids.size)
+                for (downloadInfo in fetchDatabaseManager.get(ids)) {
+                    if (downloadInfo != null) {
+                        downloadsMap[downloadInfo.id] = downloadInfo
+                    }
+                }
+                val downloads = ArrayList<DownloadInfo>(ids.size)
+                for (id in ids) {
+                    val downloadInfo = downloadsMap[id]
+                    if (downloadInfo != null && downloadInfo.status == Status.QUEUED) {
+                        downloads.add(downloadInfo)
+                    } else {
+                        pendingDownloadIndex.remove(id)
+                    }
+                }
+                downloads
+            }
+        }
+    }
+
+    override fun updateStatus(ids: List<Int>, fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            val changedIds = fetchDatabaseManager.updateStatus(ids, fromStatuses, status, clearError)
+            updatePendingDownloadIndexNoLock(changedIds, status)
+            changedIds
+        }
+    }
+
+    override fun updateStatusInGroup(group: Int, fromStatuses: List<Status>, status: Status, clearError: Boolean,
+                                     excludedIds: List<Int>): List<Int> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            val changedIds = fetchDatabaseManager.updateStatusInGroup(group, fromStatuses, status, clearError, excludedIds)
+            updatePendingDownloadIndexNoLock(changedIds, status)
+            changedIds
+        }
+    }
+
+    override fun updateStatus(fromStatuses: List<Status>, status: Status, clearError: Boolean): List<Int> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            val changedIds = fetchDatabaseManager.updateStatus(fromStatuses, status, clearError)
+            updatePendingDownloadIndexNoLock(changedIds, status)
+            changedIds
+        }
+    }
+
+    /** Same as updateStatus but reads and returns the changed downloads. Unchanged downloads
+     * are not read.*/
+    fun updateStatusAndGet(ids: List<Int>, fromStatuses: List<Status>, status: Status, clearError: Boolean): List<DownloadInfo> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            getChangedDownloadsNoLock(fetchDatabaseManager.updateStatus(ids, fromStatuses, status, clearError))
+        }
+    }
+
+    /** Same as updateStatusInGroup but reads and returns the changed downloads. Unchanged downloads
+     * are not read.*/
+    fun updateStatusInGroupAndGet(group: Int, fromStatuses: List<Status>, status: Status, clearError: Boolean,
+                                  excludedIds: List<Int>): List<DownloadInfo> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            getChangedDownloadsNoLock(fetchDatabaseManager.updateStatusInGroup(group, fromStatuses, status, clearError, excludedIds))
+        }
+    }
+
+    /** Same as updateStatus for all downloads but reads and returns the changed downloads.
+     * Unchanged downloads are not read.*/
+    fun updateStatusAndGet(fromStatuses: List<Status>, status: Status, clearError: Boolean): List<DownloadInfo> {
+        return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
+            getChangedDownloadsNoLock(fetchDatabaseManager.updateStatus(fromStatuses, status, clearError))
+        }
+    }
+
+    private fun getChangedDownloadsNoLock(changedIds: List<Int>): List<DownloadInfo> {
+        if (changedIds.isEmpty()) {
+            return listOf()
+        }
+        val downloads = ArrayList<DownloadInfo>(changedIds.size)
+        for (chunk in changedIds.chunked(DownloadDatabase.MAX_QUERY_IDS)) {
+            for (downloadInfo in fetchDatabaseManager.get(chunk)) {
+                if (downloadInfo != null) {
+                    downloads.add(downloadInfo)
+                }
+            }
+        }
+        pendingDownloadIndex.update(downloads)
+        return downloads
+    }
+
+    /** Queued downloads need their priority and created time to be indexed. These are not read
+     * by the status updates, so the index is loaded again on next use.*/
+    private fun updatePendingDownloadIndexNoLock(changedIds: List<Int>, status: Status) {
+        if (changedIds.isEmpty()) {
+            return
+        }
+        if (status == Status.QUEUED) {
+            pendingDownloadIndex.invalidate()
+        } else {
+            for (id in changedIds) {
+                pendingDownloadIndex.remove(id)
+            }
+        }
+    }
+
     override fun sanitizeOnFirstEntry() {
        synchronized(fetchDatabaseManager) {
+           flushPendingProgressNoLock()
            fetchDatabaseManager.sanitizeOnFirstEntry()
+           pendingDownloadIndex.invalidate()
        }
     }
 
     override fun updateExtras(id: Int, extras: Extras): DownloadInfo? {
        return synchronized(fetchDatabaseManager) {
+           flushPendingProgressNoLock()
            fetchDatabaseManager.updateExtras(id, extras)
        }
     }
 
+    /** Does not flush pending progress, which never writes the bandwidth limit column.*/
+    override fun updateBandwidthLimit(id: Int, bytesPerSecond: Long): Boolean {
+        return synchronized(fetchDatabaseManager) {
+            fetchDatabaseManager.updateBandwidthLimit(id, bytesPerSecond)
+        }
+    }
+
     override fun getPendingCount(includeAddedDownloads: Boolean): Long {
         return synchronized(fetchDatabaseManager) {
+            flushPendingProgressNoLock()
             fetchDatabaseManager.getPendingCount(includeAddedDownloads)
         }
     }
 
     override fun close() {
+        handlerWrapper?.removeCallbacks(progressFlushRunnable)
         synchronized(fetchDatabaseManager) {
+            try {
+                flushPendingProgressNoLock()
+            } catch (e: Exception) {
+
+            }
             fetchDatabaseManager.close()
+            pendingDownloadIndex.invalidate()
         }
     }
 
@@ -0,0 +1,157 @@
+package com.tonyodev.fetch2.database
+
+import com.tonyodev.fetch2.Download
+import com.tonyodev.fetch2.PrioritySort
+import com.tonyodev.fetch2.Status
+import java.util.*
+
+/**
+ * In memory index of the queued downloads ordered the same way as
+ * FetchDatabaseManager.getPendingDownloadsSorted: by priority, highest first, then by created time.
+ * Only download ids are kept, so the priority list processor can find the next downloads to start
+ * without reading every queued download from the database. The index is loaded once from the
+ * database and is then kept in sync by FetchDatabaseManagerWrapper.
+ * */
+class PendingDownloadIndex {
+
+    private val lock = Any()
+    private val entries = HashMap<Int, Entry>()
+    private val priorityBuckets = TreeMap<Int, TreeSet<Entry>>(Collections.reverseOrder())
+    @Volatile
+    var isLoaded = false
+        private set
+
+    /** Replaces the content of the index with the passed in downloads.*/
+    fun load(downloadInfoList: List<DownloadInfo>) {
+        synchronized(lock) {
+            clearNoLock()
+            for (downloadInfo in downloadInfoList) {
+                updateNoLock(downloadInfo)
+            }
+            isLoaded = true
+        }
+    }
+
+    /** Drops the content of the index. The index has to be loaded again before it is used.*/
+    fun invalidate() {
+        synchronized(lock) {
+            clearNoLock()
+            isLoaded = false
+        }
+    }
+
+    /** Adds the download if it is queued, otherwise removes it from the index.*/
+    fun update(downloadInfo: DownloadInfo) {
+        synchronized(lock) {
+            if (isLoaded) {
+                updateNoLock(downloadInfo)
+            }
+        }
+    }
+
+    fun update(downloadInfoList: List<DownloadInfo>) {
+        synchronized(lock) {
+            if (isLoaded) {
+                for (downloadInfo in downloadInfoList) {
+                    updateNoLock(downloadInfo)
+                }
+            }
+        }
+    }
+
+    fun remove(id: Int) {
+        synchronized(lock) {
+            removeNoLock(id)
+        }
+    }
+
+    fun remove(downloadInfoList: List<DownloadInfo>) {
+        synchronized(lock) {
+            for (downloadInfo in downloadInfoList) {
+                removeNoLock(downloadInfo.id)
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(lock) {
+            clearNoLock()
+        }
+    }
+
+    /** Returns the ids of the queued downloads in priority order.
+     * @param prioritySort order of downloads with the same priority
+     * @param after only ids ordered after this download are returned. The download does not
+     * have to be in the index. Pass null to start with the first queued download.
+     * @param limit max number of ids returned
+     * */
+    fun getIds(prioritySort: PrioritySort, after: Download?, limit: Int): List<Int> {
+        synchronized(lock) {
+            val ids = ArrayList<Int>(Math.min(limit, entries.size))
+            val afterEntry = if (after != null) Entry(after.id, after.priority.value, after.created) else null
+            val buckets = if (afterEntry != null) {
+                priorityBuckets.tailMap(afterEntry.priority, true)
+            } else {
+                priorityBuckets
+            }
+            for (bucket in buckets.values) {
+                val sortedBucket = if (prioritySort == PrioritySort.ASC) bucket else bucket.descendingSet()
+                val remainingEntries = if (afterEntry != null && afterEntry.priority == bucket.first().priority) {
+                    sortedBucket.tailSet(afterEntry, false)
+                } else {
+                    sortedBucket
+                }
+                for (entry in remainingEntries) {
+                    if (ids.size >= limit) {
+                        return ids
+                    }
+                    ids.add(entry.id)
+                }
+            }
+            return ids
+        }
+    }
+
+    private fun updateNoLock(downloadInfo: DownloadInfo) {
+        if (downloadInfo.status != Status.QUEUED) {
+            removeNoLock(downloadInfo.id)
+            return
+        }
+        val oldEntry = entries[downloadInfo.id]
+        if (oldEntry != null && oldEntry.priority == downloadInfo.priority.value && oldEntry.created == downloadInfo.created) {
+            return
+        }
+        removeNoLock(downloadInfo.id)
+        val entry = Entry(downloadInfo.id, downloadInfo.priority.value, downloadInfo.created)
+        entries[entry.id] = entry
+        val bucket = priorityBuckets[entry.priority] ?: TreeSet()
+        bucket.add(entry)
+        priorityBuckets[entry.priority] = bucket
+    }
+
+    private fun removeNoLock(id: Int) {
+        val entry = entries.remove(id) ?: return
+        val bucket = priorityBuckets[entry.priority] ?: return
+        bucket.remove(entry)
+        if (bucket.isEmpty()) {
+            priorityBuckets.remove(entry.priority)
+        }
+    }
+
+    private fun clearNoLock() {
+        entries.clear()
+        priorityBuckets.clear()
+    }
+
+    private class Entry(val id: Int,
+                        val priority: Int,
+                        val created: Long) : Comparable<Entry> {
+
+        override fun compareTo(other: Entry): Int {
+            val createdCompare = created.compareTo(other.created)
+            return if (createdCompare != 0) createdCompare else id.compareTo(other.id)
+        }
+
+    }
+
+}
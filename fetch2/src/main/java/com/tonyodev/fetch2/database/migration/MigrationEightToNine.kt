@@ -0,0 +1,15 @@
+package com.tonyodev.fetch2.database.migration
+
+import android.arch.persistence.db.SupportSQLiteDatabase
+import com.tonyodev.fetch2.database.DownloadDatabase
+
+class MigrationEightToNine : Migration(8, 9) {
+
+    override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("ALTER TABLE '${DownloadDatabase.TABLE_NAME}' "
+                + "ADD COLUMN '${DownloadDatabase.COLUMN_ETAG}' TEXT NOT NULL DEFAULT ''")
+        database.execSQL("ALTER TABLE '${DownloadDatabase.TABLE_NAME}' "
+                + "ADD COLUMN '${DownloadDatabase.COLUMN_LAST_MODIFIED}' TEXT NOT NULL DEFAULT ''")
+    }
+
+}
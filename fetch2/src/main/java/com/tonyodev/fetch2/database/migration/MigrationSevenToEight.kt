@@ -0,0 +1,14 @@
+package com.tonyodev.fetch2.database.migration
+
+import android.arch.persistence.db.SupportSQLiteDatabase
+import com.tonyodev.fetch2.database.DownloadDatabase
+import com.tonyodev.fetch2.util.DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND
+
+class MigrationSevenToEight : Migration(7, 8) {
+
+    override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("ALTER TABLE '${DownloadDatabase.TABLE_NAME}' "
+                + "ADD COLUMN '${DownloadDatabase.COLUMN_BANDWIDTH_LIMIT}' INTEGER NOT NULL DEFAULT '$DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND'")
+    }
+
+}
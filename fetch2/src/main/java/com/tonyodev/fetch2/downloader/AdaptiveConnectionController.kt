@@ -0,0 +1,64 @@
+package com.tonyodev.fetch2.downloader
+
+/**
+ * Hill climbing controller for the connection count of an adaptive parallel download. It is fed
+ * one throughput sample per download speed interval. While work remains it adds a connection and
+ * keeps it only if the new connection raised the throughput of the download by at least
+ * MIN_CONNECTION_GAIN of the throughput per connection measured before it was added. Otherwise
+ * the connection is given back and the count is held for HOLD_EVALUATIONS samples.
+ * Comparing against the throughput per connection instead of the total keeps the test equally
+ * strict for 2 and for 16 connections. Not thread safe, callers synchronize.
+ * @param maxConnections upper bound for the connection count.
+ * @param initialConnections connection count the download starts with.
+ * */
+class AdaptiveConnectionController(val maxConnections: Int,
+                                   initialConnections: Int) {
+
+    /** Number of connections the download may use.*/
+    var connectionLimit = Math.max(1, Math.min(initialConnections, maxConnections))
+        private set
+
+    private var lastBytesPerSecond = 0.0
+    private var lastConnections = 0
+    private var grew = false
+    private var holdEvaluations = 0
+
+    /** Evaluates a throughput sample.
+     * @param bytesPerSecond throughput of the whole download.
+     * @param activeConnections connections that were downloading during the sample.
+     * @param hasPendingWork true if a new connection would find bytes to download.
+     * @return the new connection limit.
+     * */
+    fun onThroughputSample(bytesPerSecond: Double, activeConnections: Int, hasPendingWork: Boolean): Int {
+        when {
+            holdEvaluations > 0 -> holdEvaluations -= 1
+            grew && !hasConnectionPaidOff(bytesPerSecond) -> {
+                connectionLimit = Math.max(1, connectionLimit - 1)
+                grew = false
+                holdEvaluations = HOLD_EVALUATIONS
+            }
+            hasPendingWork && connectionLimit < maxConnections -> {
+                connectionLimit += 1
+                grew = true
+            }
+            else -> grew = false
+        }
+        lastBytesPerSecond = bytesPerSecond
+        lastConnections = activeConnections
+        return connectionLimit
+    }
+
+    private fun hasConnectionPaidOff(bytesPerSecond: Double): Boolean {
+        if (lastConnections < 1) {
+            return true
+        }
+        val bytesPerSecondPerConnection = lastBytesPerSecond / lastConnections
+        return bytesPerSecond - lastBytesPerSecond >= bytesPerSecondPerConnection * MIN_CONNECTION_GAIN
+    }
+
+    private companion object {
+        const val MIN_CONNECTION_GAIN = 0.5
+        const val HOLD_EVALUATIONS = 5
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.tonyodev.fetch2.downloader
+
+import com.tonyodev.fetch2.NetworkType
+import com.tonyodev.fetch2core.InterruptMonitor
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Namespace wide bandwidth limits shared by all downloads and slices. Every read from a
+ * download connection is charged against the global bucket, the bucket of the network type the
+ * device is currently on and the bucket of the download. The caller waits for the slowest of them.
+ * A limit less than 1 disables the bucket. All limits can be changed while downloads are running.
+ * */
+class BandwidthThrottler @JvmOverloads constructor(val namespace: String,
+                                                   globalBytesPerSecond: Long,
+                                                   networkTypeBytesPerSecond: Map<NetworkType, Long>,
+                                                   private val clock: TokenBucket.Clock = TokenBucket.Clock.SYSTEM) {
+
+    private val lock = Any()
+    private val globalBucket = TokenBucket(globalBytesPerSecond, clock)
+    private val networkTypeBuckets = EnumMap<NetworkType, TokenBucket>(NetworkType::class.java)
+    private val downloadBuckets = ConcurrentHashMap<Int, TokenBucket>()
+    @Volatile
+    private var limited = false
+
+    /** The network type the device is currently on. WIFI_ONLY while on an unmetered network,
+     * ALL while on a metered network.*/
+    @Volatile
+    var currentNetworkType: NetworkType = NetworkType.ALL
+
+    init {
+        for (networkType in NetworkType.values()) {
+            networkTypeBuckets[networkType] = TokenBucket(networkTypeBytesPerSecond[networkType]
+                    ?: 0L, clock)
+        }
+        updateLimitedNoLock()
+    }
+
+    val globalBytesPerSecond: Long
+        get() {
+            return globalBucket.bytesPerSecond
+        }
+
+    fun setGlobalBytesPerSecond(bytesPerSecond: Long) {
+        synchronized(lock) {
+            globalBucket.setBytesPerSecond(bytesPerSecond)
+            updateLimitedNoLock()
+        }
+    }
+
+    fun getNetworkTypeBytesPerSecond(networkType: NetworkType): Long {
+        return networkTypeBuckets[networkType]?.bytesPerSecond ?: 0L
+    }
+
+    fun setNetworkTypeBytesPerSecond(networkType: NetworkType, bytesPerSecond: Long) {
+        synchronized(lock) {
+            networkTypeBuckets[networkType]?.setBytesPerSecond(bytesPerSecond)
+            updateLimitedNoLock()
+        }
+    }
+
+    /** Starts tracking the limit of a running download.*/
+    fun registerDownload(downloadId: Int, bytesPerSecond: Long) {
+        synchronized(lock) {
+            val bucket = downloadBuckets[downloadId]
+            if (bucket == null) {
+                downloadBuckets[downloadId] = TokenBucket(bytesPerSecond, clock)
+            } else {
+                bucket.setBytesPerSecond(bytesPerSecond)
+            }
+            updateLimitedNoLock()
+        }
+    }
+
+    /** Changes the limit of a running download. Does nothing if the download is not running.*/
+    fun setDownloadBytesPerSecond(downloadId: Int, bytesPerSecond: Long) {
+        synchronized(lock) {
+            downloadBuckets[downloadId]?.setBytesPerSecond(bytesPerSecond)
+            updateLimitedNoLock()
+        }
+    }
+
+    /** @return the current limit of a running download or null if the download is not running.*/
+    fun getDownloadBytesPerSecond(downloadId: Int): Long? {
+        return downloadBuckets[downloadId]?.bytesPerSecond
+    }
+
+    fun unregisterDownload(downloadId: Int) {
+        synchronized(lock) {
+            downloadBuckets.remove(downloadId)
+            updateLimitedNoLock()
+        }
+    }
+
+    /** Reserves the bytes in all buckets that apply to the download.
+     * @return the time in nanoseconds the caller has to wait before transferring the bytes.
+     * */
+    fun reserve(downloadId: Int, bytes: Int): Long {
+        if (!limited || bytes < 1) {
+            return 0L
+        }
+        var waitNanos = globalBucket.reserve(bytes)
+        val networkTypeBucket = networkTypeBuckets[currentNetworkType]
+        if (networkTypeBucket != null) {
+            waitNanos = Math.max(waitNanos, networkTypeBucket.reserve(bytes))
+        }
+        val downloadBucket = downloadBuckets[downloadId]
+        if (downloadBucket != null) {
+            waitNanos = Math.max(waitNanos, downloadBucket.reserve(bytes))
+        }
+        return waitNanos
+    }
+
+    /** Reserves the bytes and blocks the calling thread until they may be transferred or the
+     * download is interrupted.*/
+    fun acquire(downloadId: Int, bytes: Int, interruptMonitor: InterruptMonitor) {
+        var waitNanos = reserve(downloadId, bytes)
+        while (waitNanos > 0 && !interruptMonitor.isInterrupted) {
+            val sleepNanos = Math.min(waitNanos, MAX_SLEEP_NANOS)
+            try {
+                Thread.sleep(sleepNanos / NANOS_PER_MILLI, (sleepNanos % NANOS_PER_MILLI).toInt())
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return
+            }
+            waitNanos -= sleepNanos
+        }
+    }
+
+    private fun updateLimitedNoLock() {
+        limited = globalBucket.bytesPerSecond > 0
+                || networkTypeBuckets.values.any { it.bytesPerSecond > 0 }
+                || downloadBuckets.values.any { it.bytesPerSecond > 0 }
+    }
+
+    companion object {
+
+        private const val NANOS_PER_MILLI = 1_000_000L
+        /** Sleeping threads check for interruption at least this often.*/
+        private const val MAX_SLEEP_NANOS = 50 * NANOS_PER_MILLI
+
+    }
+
+}
@@ -0,0 +1,374 @@
+package com.tonyodev.fetch2.downloader
+
+import com.tonyodev.fetch2.util.getContentHashStateFilePath
+import com.tonyodev.fetch2core.ResumableDigest
+import com.tonyodev.fetch2core.getFile
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.TreeMap
+import java.util.zip.CRC32
+
+/**
+ * Hashes the content of a download while it is written, so hash checking does not need to read
+ * the completed file again. Content is hashed in file order. The writer whose bytes start at the
+ * hashed position takes over the digest and hashes them without holding the lock, so the other
+ * slices of a parallel download keep writing meanwhile. Bytes written further ahead are copied into
+ * memory, up to maxBufferedBytes, and hashed in file order by the writer that closes the gap. Only
+ * bytes beyond that budget and bytes downloaded before the download was resumed are read back from
+ * the file. The digest state is saved next to the download checkpoints, so a resumed download
+ * continues hashing at the saved position.
+ * */
+class ContentHashTracker @JvmOverloads constructor(private val id: Int,
+                                                   private val file: String,
+                                                   private val fileTempDir: String,
+                                                   algorithm: String,
+                                                   /** Most bytes written ahead of the hashed position that are kept in memory.*/
+                                                   private val maxBufferedBytes: Long = DEFAULT_MAX_BUFFERED_BYTES) : Closeable {
+
+    private val lock = Any()
+    /** Only used by the writer that set hashing, or under the lock while hashing is false.*/
+    private val digest = ResumableDigest.getInstance(algorithm)
+    /** Copies of bytes written ahead of the hashed position keyed by their file position.*/
+    private val bufferedRanges = TreeMap<Long, ByteArray>()
+    private var bufferedBytes = 0L
+    /** Ranges written ahead of the hashed position that have to be read back from the file.*/
+    private val writtenRanges = TreeMap<Long, Long>()
+    /** End of the bytes that are hashed or taken over by the writer that hashes.*/
+    private var hashedPosition = 0L
+    private var hashing = false
+    private var inputFile: RandomAccessFile? = null
+    private var stateFile: RandomAccessFile? = null
+    private val readBuffer by lazy { ByteBuffer.allocate(READ_BUFFER_SIZE) }
+
+    /** Set when content could not be read back from the file. The download has to fall back to
+     * Downloader.verifyContentHash.*/
+    @Volatile
+    var failed = false
+        private set
+
+    /** Resets the digest.
+     * @param restoreSavedState continue from the digest state saved for the download if one exists.
+     * Only pass true if the data file kept the content that was downloaded before.
+     * */
+    fun open(restoreSavedState: Boolean) {
+        synchronized(lock) {
+            digest.reset()
+            clearPendingRangesNoLock()
+            hashedPosition = 0L
+            hashing = false
+            if (restoreSavedState) {
+                val savedState = readSavedState()
+                if (savedState != null && digest.restoreState(savedState)) {
+                    hashedPosition = digest.byteCount
+                }
+            } else {
+                try {
+                    File(getContentHashStateFilePath(id, fileTempDir)).delete()
+                } catch (e: Exception) {
+
+                }
+            }
+        }
+    }
+
+    /** Marks a range of the data file that already holds downloaded content, e.g. the bytes
+     * downloaded before the download was resumed.
+     * @param start first byte of the range
+     * @param end end of the range, exclusive
+     * */
+    fun addWrittenRange(start: Long, end: Long) {
+        synchronized(lock) {
+            if (end > hashedPosition) {
+                addWrittenRangeNoLock(Math.max(start, hashedPosition), end)
+            }
+        }
+    }
+
+    /** Called after the bytes were written to the data file at the passed in position.*/
+    fun onBytesWritten(position: Long, byteArray: ByteArray, offset: Int, length: Int) {
+        if (failed || length < 1) {
+            return
+        }
+        var hashedBytes = -1
+        synchronized(lock) {
+            val end = position + length
+            if (end <= hashedPosition) {
+                return
+            }
+            if (!hashing && position <= hashedPosition) {
+                hashedBytes = (hashedPosition - position).toInt()
+                hashedPosition = end
+            } else {
+                addPendingRangeNoLock(position, byteArray, offset, length)
+                if (hashing || !hasPendingRangeAtHashedPositionNoLock()) {
+                    return
+                }
+            }
+            hashing = true
+        }
+        if (hashedBytes > -1) {
+            digest.update(byteArray, offset + hashedBytes, length - hashedBytes)
+        }
+        hashPendingRanges()
+    }
+
+    /** Saves the digest state so a resumed download can continue hashing. Only call this after
+     * the hashed bytes were written to the data file.*/
+    fun saveCheckpoint() {
+        if (failed) {
+            return
+        }
+        synchronized(lock) {
+            if (hashing) {
+                return
+            }
+            try {
+                val state = digest.saveState()
+                val byteBuffer = ByteBuffer.allocate(HEADER_SIZE + state.size + CHECKSUM_SIZE)
+                byteBuffer.putInt(MAGIC)
+                byteBuffer.putInt(state.size)
+                byteBuffer.put(state)
+                byteBuffer.putInt(getChecksum(byteBuffer.array(), HEADER_SIZE + state.size))
+                val randomAccessFile = stateFile
+                        ?: RandomAccessFile(getFile(getContentHashStateFilePath(id, fileTempDir)), "rw")
+                stateFile = randomAccessFile
+                randomAccessFile.seek(0)
+                randomAccessFile.write(byteBuffer.array())
+                randomAccessFile.setLength(byteBuffer.capacity().toLong())
+            } catch (e: Exception) {
+
+            }
+        }
+    }
+
+    /** Hashes the content that was not hashed yet up to contentLength. Only call this after all
+     * writers are done.
+     * @return the lower case hex digest of the content or null if the content could not be read.
+     * */
+    fun finish(contentLength: Long): String? {
+        synchronized(lock) {
+            if (failed || hashing || hashedPosition > contentLength) {
+                return null
+            }
+            hashing = true
+        }
+        hashPendingRanges()
+        synchronized(lock) {
+            if (failed || hashing || hashedPosition > contentLength) {
+                return null
+            }
+            return try {
+                if (hashedPosition < contentLength) {
+                    hashFileRange(hashedPosition, contentLength)
+                    hashedPosition = contentLength
+                }
+                clearPendingRangesNoLock()
+                digest.digestHex()
+            } catch (e: Exception) {
+                failed = true
+                null
+            }
+        }
+    }
+
+    /** Closes the tracker and deletes the saved digest state.*/
+    fun deleteSavedState() {
+        close()
+        try {
+            File(getContentHashStateFilePath(id, fileTempDir)).delete()
+        } catch (e: Exception) {
+
+        }
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            try {
+                inputFile?.close()
+            } catch (e: Exception) {
+
+            }
+            try {
+                stateFile?.close()
+            } catch (e: Exception) {
+
+            }
+            inputFile = null
+            stateFile = null
+        }
+    }
+
+    /** Hashes the pending ranges that continue at the hashed position in file order. Only called
+     * by the writer that set hashing. Clears hashing once no pending range continues at the hashed
+     * position.*/
+    private fun hashPendingRanges() {
+        var pendingRange = synchronized(lock) {
+            takePendingRangeNoLock()
+        }
+        while (pendingRange != null) {
+            try {
+                val bytes = pendingRange.bytes
+                if (bytes != null) {
+                    digest.update(bytes, (pendingRange.start - pendingRange.bytesStart).toInt(),
+                            (pendingRange.end - pendingRange.start).toInt())
+                } else {
+                    hashFileRange(pendingRange.start, pendingRange.end)
+                }
+            } catch (e: Exception) {
+                failed = true
+                synchronized(lock) {
+                    clearPendingRangesNoLock()
+                    hashing = false
+                }
+                return
+            }
+            pendingRange = synchronized(lock) {
+                takePendingRangeNoLock()
+            }
+        }
+    }
+
+    /** @return the next pending range that continues at the hashed position and moves the hashed
+     * position to its end. If null is returned, hashing is cleared.*/
+    private fun takePendingRangeNoLock(): PendingRange? {
+        while (true) {
+            val bufferedRange = bufferedRanges.firstEntry()
+            val writtenRange = writtenRanges.firstEntry()
+            if (bufferedRange != null && bufferedRange.key <= hashedPosition) {
+                bufferedRanges.remove(bufferedRange.key)
+                bufferedBytes -= bufferedRange.value.size
+                val end = bufferedRange.key + bufferedRange.value.size
+                if (end > hashedPosition) {
+                    val pendingRange = PendingRange(hashedPosition, end, bufferedRange.key, bufferedRange.value)
+                    hashedPosition = end
+                    return pendingRange
+                }
+            } else if (writtenRange != null && writtenRange.key <= hashedPosition) {
+                writtenRanges.remove(writtenRange.key)
+                if (writtenRange.value > hashedPosition) {
+                    val pendingRange = PendingRange(hashedPosition, writtenRange.value, writtenRange.key, null)
+                    hashedPosition = writtenRange.value
+                    return pendingRange
+                }
+            } else {
+                hashing = false
+                return null
+            }
+        }
+    }
+
+    private fun hasPendingRangeAtHashedPositionNoLock(): Boolean {
+        return (bufferedRanges.isNotEmpty() && bufferedRanges.firstKey() <= hashedPosition)
+                || (writtenRanges.isNotEmpty() && writtenRanges.firstKey() <= hashedPosition)
+    }
+
+    /** Keeps a copy of the bytes if they fit into maxBufferedBytes. Otherwise they are read back
+     * from the file once the hashed position reaches them.*/
+    private fun addPendingRangeNoLock(position: Long, byteArray: ByteArray, offset: Int, length: Int) {
+        val start = Math.max(position, hashedPosition)
+        val skippedBytes = (start - position).toInt()
+        val count = length - skippedBytes
+        val bufferedRange = bufferedRanges[start]
+        val replacedBytes = bufferedRange?.size ?: 0
+        if (count <= replacedBytes) {
+            return
+        }
+        if (bufferedBytes - replacedBytes + count <= maxBufferedBytes) {
+            bufferedRanges[start] = byteArray.copyOfRange(offset + skippedBytes, offset + length)
+            bufferedBytes += count - replacedBytes
+        } else {
+            addWrittenRangeNoLock(start, position + length)
+        }
+    }
+
+    private fun clearPendingRangesNoLock() {
+        bufferedRanges.clear()
+        bufferedBytes = 0L
+        writtenRanges.clear()
+    }
+
+    private fun addWrittenRangeNoLock(start: Long, end: Long) {
+        var rangeStart = start
+        var rangeEnd = end
+        val previousRange = writtenRanges.floorEntry(start)
+        if (previousRange != null && previousRange.value >= start) {
+            rangeStart = previousRange.key
+            rangeEnd = Math.max(rangeEnd, previousRange.value)
+            writtenRanges.remove(previousRange.key)
+        }
+        var nextRange = writtenRanges.ceilingEntry(rangeStart)
+        while (nextRange != null && nextRange.key <= rangeEnd) {
+            rangeEnd = Math.max(rangeEnd, nextRange.value)
+            writtenRanges.remove(nextRange.key)
+            nextRange = writtenRanges.ceilingEntry(rangeStart)
+        }
+        writtenRanges[rangeStart] = rangeEnd
+    }
+
+    /** Only called by the writer that set hashing, or in finish.*/
+    private fun hashFileRange(start: Long, end: Long) {
+        val randomAccessFile = inputFile ?: RandomAccessFile(file, "r")
+        inputFile = randomAccessFile
+        val channel = randomAccessFile.channel
+        var position = start
+        while (position < end) {
+            readBuffer.clear()
+            readBuffer.limit(Math.min(READ_BUFFER_SIZE.toLong(), end - position).toInt())
+            val read = channel.read(readBuffer, position)
+            if (read == -1) {
+                throw IOException("Content hash range $start-$end exceeds file $file")
+            }
+            digest.update(readBuffer.array(), 0, read)
+            position += read
+        }
+    }
+
+    private fun readSavedState(): ByteArray? {
+        val savedStateFile = File(getContentHashStateFilePath(id, fileTempDir))
+        if (!savedStateFile.exists()) {
+            return null
+        }
+        return try {
+            val bytes = savedStateFile.readBytes()
+            val byteBuffer = ByteBuffer.wrap(bytes)
+            if (bytes.size < HEADER_SIZE + CHECKSUM_SIZE || byteBuffer.int != MAGIC) {
+                return null
+            }
+            val stateSize = byteBuffer.int
+            if (stateSize < 0 || bytes.size != HEADER_SIZE + stateSize + CHECKSUM_SIZE
+                    || byteBuffer.getInt(HEADER_SIZE + stateSize) != getChecksum(bytes, HEADER_SIZE + stateSize)) {
+                return null
+            }
+            bytes.copyOfRange(HEADER_SIZE, HEADER_SIZE + stateSize)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private fun getChecksum(bytes: ByteArray, length: Int): Int {
+        val crc32 = CRC32()
+        crc32.update(bytes, 0, length)
+        return crc32.value.toInt()
+    }
+
+    /** Range from start to end that is next to be hashed. Bytes holds the buffered copy that
+     * starts at bytesStart, or null if the range is read back from the file.*/
+    private class PendingRange(val start: Long,
+                               val end: Long,
+                               val bytesStart: Long,
+                               val bytes: ByteArray?)
+
+    companion object {
+
+        const val DEFAULT_MAX_BUFFERED_BYTES = 4L * 1024 * 1024
+        private const val MAGIC = 0x46434831
+        private const val HEADER_SIZE = 8
+        private const val CHECKSUM_SIZE = 4
+        private const val READ_BUFFER_SIZE = 64 * 1024
+
+    }
+
+}
@@ -7,6 +7,8 @@ interface DownloadManager : Closeable {
 
     val isClosed: Boolean
     var concurrentLimit: Int
+    var delegate: Delegate?
+    val bandwidthThrottler: BandwidthThrottler
 
     fun start(download: Download): Boolean
     fun cancel(downloadId: Int): Boolean
@@ -19,5 +21,14 @@ interface DownloadManager : Closeable {
     fun getNewFileDownloaderForDownload(download: Download): FileDownloader?
     fun getFileDownloaderDelegate(): FileDownloader.Delegate
     fun getDownloadFileTempDir(download: Download): String
+    fun setDownloadBandwidthLimit(downloadId: Int, bytesPerSecond: Long)
+
+    interface Delegate {
+
+        /** Called on the download thread after a download stopped running and its slot can
+         * be used by another download.*/
+        fun onDownloadSlotFreed()
+
+    }
 
 }
\ No newline at end of file
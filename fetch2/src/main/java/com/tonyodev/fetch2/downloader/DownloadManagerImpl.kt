@@ -1,8 +1,8 @@
 package com.tonyodev.fetch2.downloader
 
 import android.content.Context
-import android.content.Intent
 import com.tonyodev.fetch2.*
+import com.tonyodev.fetch2.database.DownloadInfo
 import com.tonyodev.fetch2.exception.FetchException
 import com.tonyodev.fetch2.helper.DownloadInfoUpdater
 import com.tonyodev.fetch2.helper.FileDownloaderDelegate
@@ -10,9 +10,11 @@ import com.tonyodev.fetch2.fetch.ListenerCoordinator
 import com.tonyodev.fetch2.provider.GroupInfoProvider
 import com.tonyodev.fetch2.provider.NetworkInfoProvider
 import com.tonyodev.fetch2.util.getRequestForDownload
+import com.tonyodev.fetch2.util.getNamespaceTempDir
 import com.tonyodev.fetch2core.*
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.ThreadPoolExecutor
 
 class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                           concurrentLimit: Int,
@@ -29,7 +31,12 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                           private val context: Context,
                           private val namespace: String,
                           private val groupInfoProvider: GroupInfoProvider,
-                          private val globalAutoRetryMaxAttempts: Int) : DownloadManager {
+                          private val globalAutoRetryMaxAttempts: Int,
+                          private val sliceCheckpointBytes: Long,
+                          private val sliceCheckpointIntervalMillis: Long,
+                          private val sliceDownloadScheduler: SliceDownloadScheduler,
+                          override val bandwidthThrottler: BandwidthThrottler,
+                          private val preallocateDownloadFile: Boolean) : DownloadManager {
 
     private val lock = Any()
     private var executor: ExecutorService? = getNewDownloadExecutorService(concurrentLimit)
@@ -43,15 +50,28 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                     }
                 } catch (e: Exception) {
                 }
-                try {
-                    executor?.shutdown()
-                } catch (e: Exception) {
+                val currentExecutor = executor
+                if (currentExecutor is ThreadPoolExecutor && !currentExecutor.isShutdown && value > 0) {
+                    if (value > currentExecutor.maximumPoolSize) {
+                        currentExecutor.maximumPoolSize = value
+                        currentExecutor.corePoolSize = value
+                    } else {
+                        currentExecutor.corePoolSize = value
+                        currentExecutor.maximumPoolSize = value
+                    }
+                } else {
+                    try {
+                        executor?.shutdown()
+                    } catch (e: Exception) {
+                    }
+                    executor = getNewDownloadExecutorService(value)
                 }
-                executor = getNewDownloadExecutorService(value)
                 field = value
                 logger.d("DownloadManager concurrentLimit changed from $field to $value")
             }
         }
+    @Volatile
+    override var delegate: DownloadManager.Delegate? = null
     private val currentDownloadsMap = hashMapOf<Int, FileDownloader?>()
     @Volatile
     private var downloadCounter = 0
@@ -99,6 +119,7 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                             }
                         }
                         if (runDownload) {
+                            bandwidthThrottler.registerDownload(download.id, fileDownloader.download.bandwidthLimit)
                             fileDownloader.run()
                         }
                         removeDownloadMappings(download)
@@ -106,10 +127,9 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                     } catch (e: Exception) {
 
                     } finally {
+                        bandwidthThrottler.unregisterDownload(download.id)
                         removeDownloadMappings(download)
-                        val intent = Intent(ACTION_QUEUE_BACKOFF_RESET)
-                        intent.putExtra(EXTRA_NAMESPACE, namespace)
-                        context.sendBroadcast(intent)
+                        delegate?.onDownloadSlotFreed()
                     }
                 }
                 return true
@@ -258,7 +278,8 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
     private fun getFileDownloader(download: Download, downloader: Downloader<*, *>): FileDownloader {
         val request = getRequestForDownload(download)
         val supportedDownloadTypes = downloader.getRequestSupportedFileDownloaderTypes(request)
-        return if (downloader.getRequestFileDownloaderType(request, supportedDownloadTypes) == Downloader.FileDownloaderType.SEQUENTIAL) {
+        val fileDownloaderType = downloader.getRequestFileDownloaderType(request, supportedDownloadTypes)
+        return if (fileDownloaderType == Downloader.FileDownloaderType.SEQUENTIAL) {
             SequentialFileDownloaderImpl(
                     initialDownload = download,
                     downloader = downloader,
@@ -266,8 +287,11 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                     logger = logger,
                     networkInfoProvider = networkInfoProvider,
                     retryOnNetworkGain = retryOnNetworkGain,
+                    fileTempDir = getNamespaceTempDir(storageResolver.getDirectoryForFileDownloaderTypeParallel(request), namespace),
                     hashCheckingEnabled = hashCheckingEnabled,
-                    storageResolver = storageResolver)
+                    storageResolver = storageResolver,
+                    bandwidthThrottler = bandwidthThrottler,
+                    preallocateDownloadFile = preallocateDownloadFile)
         } else {
             ParallelFileDownloaderImpl(
                     initialDownload = download,
@@ -276,9 +300,15 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
                     logger = logger,
                     networkInfoProvider = networkInfoProvider,
                     retryOnNetworkGain = retryOnNetworkGain,
-                    fileTempDir = storageResolver.getDirectoryForFileDownloaderTypeParallel(request),
+                    fileTempDir = getNamespaceTempDir(storageResolver.getDirectoryForFileDownloaderTypeParallel(request), namespace),
                     hashCheckingEnabled = hashCheckingEnabled,
-                    storageResolver = storageResolver)
+                    storageResolver = storageResolver,
+                    sliceCheckpointBytes = sliceCheckpointBytes,
+                    sliceCheckpointIntervalMillis = sliceCheckpointIntervalMillis,
+                    sliceDownloadScheduler = sliceDownloadScheduler,
+                    bandwidthThrottler = bandwidthThrottler,
+                    preallocateDownloadFile = preallocateDownloadFile,
+                    adaptiveSlicing = downloader.getAdaptiveSlicingEnabled(request))
         }
     }
 
@@ -292,7 +322,17 @@ class DownloadManagerImpl(private val httpDownloader: Downloader<*, *>,
 
     override fun getDownloadFileTempDir(download: Download): String {
         val request = getRequestForDownload(download)
-        return storageResolver.getDirectoryForFileDownloaderTypeParallel(request)
+        return getNamespaceTempDir(storageResolver.getDirectoryForFileDownloaderTypeParallel(request), namespace)
+    }
+
+    override fun setDownloadBandwidthLimit(downloadId: Int, bytesPerSecond: Long) {
+        synchronized(lock) {
+            val fileDownloader = currentDownloadsMap[downloadId]
+            if (fileDownloader != null) {
+                (fileDownloader.download as? DownloadInfo)?.bandwidthLimit = bytesPerSecond
+            }
+            bandwidthThrottler.setDownloadBytesPerSecond(downloadId, bytesPerSecond)
+        }
     }
 
     private fun getNewDownloadExecutorService(concurrentLimit: Int): ExecutorService? {
@@ -0,0 +1,156 @@
+package com.tonyodev.fetch2.downloader
+
+import java.io.File
+
+/**
+ * Keeps the temp files of every download in its own directory: <rootDir>/<shard>/<id>/. The shard
+ * is taken from the low bits of the id, so no directory grows with the number of downloads and
+ * the files of a download are found or removed without listing the files of other downloads.
+ * @param rootDir temp directory of a single namespace.
+ * */
+class DownloadTempStore(val rootDir: String) {
+
+    fun getDownloadDir(id: Int): File {
+        return File(getDownloadDirPath(id))
+    }
+
+    fun getFilePath(id: Int, fileName: String): String {
+        return "${getDownloadDirPath(id)}/$fileName"
+    }
+
+    /** Deletes all temp files of the download.*/
+    fun delete(id: Int) {
+        try {
+            deleteDir(getDownloadDir(id))
+        } catch (e: Exception) {
+
+        }
+    }
+
+    /** Moves the temp files a download wrote into the flat layout of older versions into its
+     * directory, so the download can resume from its saved checkpoints. Per slice progress files
+     * are imported into the slice checkpoint journal. Files of other downloads in the old directory
+     * are not touched.*/
+    fun migrateLegacyFiles(id: Int, legacyDir: String) {
+        try {
+            for (fileName in LEGACY_FILE_NAMES) {
+                val legacyFile = File(legacyDir, "$id.$fileName")
+                if (legacyFile.isFile) {
+                    val file = File(getFilePath(id, fileName))
+                    if (file.exists()) {
+                        legacyFile.delete()
+                    } else {
+                        file.parentFile?.mkdirs()
+                        if (!legacyFile.renameTo(file)) {
+                            legacyFile.delete()
+                        }
+                    }
+                }
+            }
+            SliceCheckpointJournal.importLegacyProgress(id, legacyDir, rootDir)
+        } catch (e: Exception) {
+
+        }
+    }
+
+    /** Deletes the directories of downloads that no longer exist.
+     * @param liveIds ids of all downloads of the namespace.
+     * @param startedMillis directories modified after this time are kept, because they may belong
+     * to downloads added while the ids were collected.
+     * @return number of deleted download directories.
+     * */
+    fun collectGarbage(liveIds: Set<Int>, startedMillis: Long): Int {
+        var deleted = 0
+        try {
+            val shardDirs = File(rootDir).listFiles() ?: return 0
+            for (shardDir in shardDirs) {
+                if (!shardDir.isDirectory || !isShardName(shardDir.name)) {
+                    continue
+                }
+                val downloadDirs = shardDir.listFiles() ?: continue
+                for (downloadDir in downloadDirs) {
+                    val id = downloadDir.name.toIntOrNull() ?: continue
+                    if (!liveIds.contains(id) && downloadDir.lastModified() < startedMillis) {
+                        deleteDir(downloadDir)
+                        deleted++
+                    }
+                }
+            }
+        } catch (e: Exception) {
+
+        }
+        return deleted
+    }
+
+    /** Deletes the files <id>.*.data that older versions left in the flat legacy directory for
+     * downloads that no longer exist. Files of existing downloads are moved when the download
+     * resumes. See migrateLegacyFiles.
+     * @param legacyDir directory returned by the storage resolver for parallel downloads. It is
+     * shared by all namespaces and the file names do not contain the namespace, so this must only
+     * be called while no other namespace exists.
+     * @param liveIds ids of all downloads of the namespace.
+     * @param modifiedBeforeMillis only files modified before this time are deleted. Leaves time
+     * for paused downloads restored from a backup to resume and move their files.
+     * @return number of deleted files.
+     * */
+    fun collectLegacyGarbage(legacyDir: String, liveIds: Set<Int>, modifiedBeforeMillis: Long): Int {
+        var deleted = 0
+        try {
+            val files = File(legacyDir).listFiles() ?: return 0
+            for (file in files) {
+                val name = file.name
+                val idEnd = name.indexOf('.')
+                if (!file.isFile || idEnd < 1 || !name.endsWith(LEGACY_FILE_SUFFIX)
+                        || name.length <= idEnd + LEGACY_FILE_SUFFIX.length) {
+                    continue
+                }
+                val id = name.substring(0, idEnd).toIntOrNull() ?: continue
+                if (!liveIds.contains(id) && file.lastModified() < modifiedBeforeMillis && file.delete()) {
+                    deleted++
+                }
+            }
+        } catch (e: Exception) {
+
+        }
+        return deleted
+    }
+
+    private fun getDownloadDirPath(id: Int): String {
+        return "$rootDir/${getShardName(id)}/$id"
+    }
+
+    private fun deleteDir(dir: File) {
+        val files = dir.listFiles()
+        if (files != null) {
+            for (file in files) {
+                if (file.isDirectory) {
+                    deleteDir(file)
+                } else {
+                    file.delete()
+                }
+            }
+        }
+        dir.delete()
+    }
+
+    companion object {
+
+        const val JOURNAL_FILE_NAME = "journal.data"
+        const val HASH_STATE_FILE_NAME = "hash.data"
+        private val LEGACY_FILE_NAMES = arrayOf(JOURNAL_FILE_NAME, HASH_STATE_FILE_NAME)
+        private const val LEGACY_FILE_SUFFIX = ".data"
+        /** Must be a power of two.*/
+        private const val SHARD_COUNT = 256
+
+        private fun getShardName(id: Int): String {
+            val shard = Integer.toHexString(id and (SHARD_COUNT - 1))
+            return if (shard.length < 2) "0$shard" else shard
+        }
+
+        private fun isShardName(name: String): Boolean {
+            return name.length == 2 && name.all { Character.digit(it, 16) >= 0 && !it.isUpperCase() }
+        }
+
+    }
+
+}
@@ -12,8 +12,8 @@ import com.tonyodev.fetch2.provider.NetworkInfoProvider
 import com.tonyodev.fetch2.util.*
 import com.tonyodev.fetch2core.*
 import java.io.*
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
+import java.net.HttpURLConnection
+import java.util.ArrayDeque
 import kotlin.math.ceil
 
 class ParallelFileDownloaderImpl(private val initialDownload: Download,
@@ -24,7 +24,13 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                                  private val retryOnNetworkGain: Boolean,
                                  private val fileTempDir: String,
                                  private val hashCheckingEnabled: Boolean,
-                                 private val storageResolver: StorageResolver) : FileDownloader {
+                                 private val storageResolver: StorageResolver,
+                                 private val sliceCheckpointBytes: Long,
+                                 private val sliceCheckpointIntervalMillis: Long,
+                                 private val sliceDownloadScheduler: SliceDownloadScheduler,
+                                 private val bandwidthThrottler: BandwidthThrottler,
+                                 private val preallocateDownloadFile: Boolean = false,
+                                 private val adaptiveSlicing: Boolean = false) : FileDownloader {
 
     @Volatile
     override var interrupted = false
@@ -71,8 +77,6 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
 
     private var estimatedTimeRemainingInMilliseconds: Long = -1
 
-    private var executorService: ExecutorService? = null
-
     @Volatile
     private var actionsCounter = 0
 
@@ -85,40 +89,101 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
 
     private var fileSlices = emptyList<FileSlice>()
 
+    /** Slices this downloader submitted to the scheduler. Guarded by lock.*/
+    private val submittedSlices = mutableListOf<Runnable>()
+
     private var outputResourceWrapper: OutputResourceWrapper? = null
 
+    private val sliceCheckpointJournal = SliceCheckpointJournal(
+            id = initialDownload.id,
+            fileTempDir = fileTempDir,
+            checkpointBytes = sliceCheckpointBytes,
+            checkpointIntervalMillis = sliceCheckpointIntervalMillis)
+
     private var totalDownloadBlocks = 0
 
+    private var contentHashTracker: ContentHashTracker? = null
+
+    private val adaptiveLock = Any()
+
+    private val pendingAdaptiveParts = ArrayDeque<AdaptivePart>()
+
+    private val activeAdaptiveParts = mutableListOf<AdaptivePart>()
+
+    private var adaptiveActiveWorkers = 0
+
+    private var adaptiveConnectionController: AdaptiveConnectionController? = null
+
+    /** The opening response while its body has not been taken over by the first slice.*/
+    private var reusableOpeningResponse: Downloader.Response? = null
+
+    /** The opening response if its body holds only the start of the first slice. The bytes are
+     * written before the first slice requests the rest of its range.*/
+    private var openingPrefixResponse: Downloader.Response? = null
+
+    /** True if this run continues bytes downloaded by an earlier run. Range requests then carry
+     * If-Range, so a content change on the server cannot mix old and new bytes.*/
+    private val resumed = initialDownload.downloaded > 0
+
     override fun run() {
         var openingResponse: Downloader.Response? = null
+        var notModified = false
         try {
             downloaded = initialDownload.downloaded
             total = initialDownload.total
             downloadInfo.downloaded = downloaded
             downloadInfo.total = total
-            val openingRequest = if (downloader.getHeadRequestMethodSupported(getRequestForDownload(initialDownload))) {
-                getRequestForDownload(initialDownload, HEAD_REQUEST_METHOD)
-            } else {
-                getRequestForDownload(initialDownload)
-            }
+            val revalidating = canRevalidateDownload(initialDownload)
+            val openingRangeEnd = getOpeningRangeEnd()
+            var openingRequest = addValidatorHeaders(getRequestForDownload(initialDownload, 0, openingRangeEnd),
+                    initialDownload, revalidating)
             openingResponse = downloader.execute(openingRequest, interruptMonitor)
+            if (openingRangeEnd > -1 && openingResponse != null && !interrupted && !terminated
+                    && openingResponse.code == HttpURLConnection.HTTP_PARTIAL
+                    && (getContentRange(openingResponse)?.total ?: -1L) < 1) {
+                // Without the total in Content-Range the length of a bounded response is not the
+                // length of the file. Ask for all bytes instead.
+                disconnectOpeningResponse(openingResponse)
+                openingRequest = addValidatorHeaders(getRequestForDownload(initialDownload), initialDownload, revalidating)
+                openingResponse = downloader.execute(openingRequest, interruptMonitor)
+            }
             if (openingResponse != null) {
                 setIsTotalUnknown(openingResponse)
             }
-            if (!interrupted && !terminated && openingResponse?.isSuccessful == true) {
-                total = openingResponse.contentLength
+            if (!interrupted && !terminated && revalidating
+                    && openingResponse?.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified = true
+                logger.d("FileDownloader content not modified for Download $download")
+            } else if (!interrupted && !terminated && openingResponse?.isSuccessful == true) {
+                if (resumed && (revalidating || hasContentChanged(initialDownload, openingResponse))) {
+                    logger.d("FileDownloader content changed, restarting Download $download")
+                    deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+                    storageResolver.deleteFile(openingRequest.file)
+                }
+                updateDownloadValidators(downloadInfo, openingResponse)
+                val contentRange = getContentRange(openingResponse)
+                total = if (contentRange != null && contentRange.total > 0) {
+                    contentRange.total
+                } else {
+                    openingResponse.contentLength
+                }
                 if (totalUnknown || total > 0) {
                     downloaded = 0
                     downloadInfo.downloaded = downloaded
                     downloadInfo.total = total
                     fileSlices = getFileSliceList(openingResponse.acceptsRanges, openingRequest)
                     totalDownloadBlocks = fileSlices.size
-                    try {
-                        downloader.disconnect(openingResponse)
-                    } catch (e: Exception) {
-                        logger.e("FileDownloader", e)
+                    if (hashCheckingEnabled) {
+                        contentHashTracker = getContentHashTracker(openingResponse)
                     }
                     val sliceFileDownloadsList = fileSlices.filter { !it.isDownloaded }
+                    if (canReuseOpeningResponse(openingResponse, contentRange, sliceFileDownloadsList)) {
+                        reusableOpeningResponse = openingResponse
+                    } else if (isOpeningPrefixResponse(openingResponse, contentRange, sliceFileDownloadsList)) {
+                        openingPrefixResponse = openingResponse
+                    } else {
+                        disconnectOpeningResponse(openingResponse)
+                    }
                     if (!interrupted && !terminated) {
                         downloadInfo.downloaded = downloaded
                         downloadInfo.total = total
@@ -142,10 +207,11 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                                 delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
                             }
                         }
-                        if (sliceFileDownloadsList.isNotEmpty()) {
-                            executorService = Executors.newFixedThreadPool(sliceFileDownloadsList.size)
+                        if (adaptiveSlicing && fileSlices.size > 1) {
+                            downloadAdaptiveRanges(openingRequest, sliceFileDownloadsList)
+                        } else {
+                            downloadSliceFiles(openingRequest, sliceFileDownloadsList)
                         }
-                        downloadSliceFiles(openingRequest, sliceFileDownloadsList)
                         waitAndPerformProgressReporting()
                         downloadInfo.downloaded = downloaded
                         downloadInfo.total = total
@@ -172,7 +238,7 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                         etaInMilliSeconds = downloadInfo.etaInMilliSeconds,
                         downloadedBytesPerSecond = downloadInfo.downloadedBytesPerSecond)
             } else if (!interrupted && !terminated && isDownloadComplete()) {
-                if (!totalUnknown) {
+                if (!totalUnknown && !notModified) {
                     var fileSlicesTotal = 0L
                     fileSlices.forEach {
                         fileSlicesTotal += it.downloaded
@@ -189,8 +255,8 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                 if (!terminated && !interrupted) {
                     delegate?.saveDownloadProgress(downloadInfo)
                 }
-                if (hashCheckingEnabled) {
-                    if (openingResponse != null && downloader.verifyContentHash(openingResponse.request, openingResponse.hash)) {
+                if (hashCheckingEnabled && !notModified) {
+                    if (openingResponse != null && isContentHashValid(openingResponse)) {
                         deleteAllInFolderForId(downloadInfo.id, fileTempDir)
                         if (!interrupted && !terminated) {
                             downloadInfo.etaInMilliSeconds = estimatedTimeRemainingInMilliseconds
@@ -260,16 +326,14 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                 }
             }
         } finally {
-            try {
-                executorService?.shutdown()
-            } catch (e: Exception) {
-                logger.e("FileDownloader", e)
-            }
+            cancelSubmittedSlices()
             try {
                 outputResourceWrapper?.close()
             } catch (e: Exception) {
                 logger.e("FileDownloader", e)
             }
+            sliceCheckpointJournal.close()
+            contentHashTracker?.close()
             if (openingResponse != null) {
                 try {
                     downloader.disconnect(openingResponse)
@@ -282,16 +346,21 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
     }
 
     private fun getFileSliceList(acceptsRanges: Boolean, request: Downloader.ServerRequest): List<FileSlice> {
+        if (resumed && !File(getSliceCheckpointJournalFilePath(downloadInfo.id, fileTempDir)).exists()) {
+            DownloadTempStore(fileTempDir).migrateLegacyFiles(downloadInfo.id,
+                    storageResolver.getDirectoryForFileDownloaderTypeParallel(request))
+        }
         if (!storageResolver.fileExists(downloadInfo.file)) {
             deleteAllInFolderForId(downloadInfo.id, fileTempDir)
         }
-        val previousSliceSize = getPreviousSliceCount(downloadInfo.id, fileTempDir)
         return if (acceptsRanges && !totalUnknown) {
-            val fileSliceInfo = getChuckInfo(request)
-            if (previousSliceSize != fileSliceInfo.slicingCount) {
+            val plannedFileSliceInfo = getPlannedFileSliceInfo(request)
+            if (!sliceCheckpointJournal.open(plannedFileSliceInfo, total)) {
                 deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+                sliceCheckpointJournal.open(plannedFileSliceInfo, total)
             }
-            saveCurrentSliceCount(downloadInfo.id, fileSliceInfo.slicingCount, fileTempDir)
+            // Saved progress is only valid for the slice boundaries it was written with.
+            val fileSliceInfo = sliceCheckpointJournal.fileSliceInfo
             var counterBytes = 0L
             val fileSlices = mutableListOf<FileSlice>()
             for (position in 1..fileSliceInfo.slicingCount) {
@@ -308,7 +377,7 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                             position = position,
                             startBytes = startBytes,
                             endBytes = endBytes,
-                            downloaded = getSavedDownloadedInfo(downloadInfo.id, position, fileTempDir)
+                            downloaded = sliceCheckpointJournal.getDownloaded(position)
                     )
                     downloaded += fileSlice.downloaded
                     fileSlices.add(fileSlice)
@@ -318,21 +387,86 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
             }
             fileSlices
         } else {
-            if (previousSliceSize != 1) {
+            val fileSliceInfo = FileSliceInfo(1, total)
+            if (!sliceCheckpointJournal.open(fileSliceInfo, total, false)) {
                 deleteAllInFolderForId(downloadInfo.id, fileTempDir)
+                sliceCheckpointJournal.open(fileSliceInfo, total, false)
             }
-            saveCurrentSliceCount(downloadInfo.id, 1, fileTempDir)
             val fileSlice = FileSlice(
                     id = downloadInfo.id,
                     position = 1,
                     startBytes = 0,
                     endBytes = total,
-                    downloaded = getSavedDownloadedInfo(downloadInfo.id, 1, fileTempDir))
+                    downloaded = sliceCheckpointJournal.getDownloaded(1))
             downloaded += fileSlice.downloaded
             listOf(fileSlice)
         }
     }
 
+    private fun getContentHashTracker(response: Downloader.Response): ContentHashTracker? {
+        val hashAlgorithm = if (response.hash.isNotEmpty() && downloader.getInlineContentHashEnabled(response.request)) {
+            downloader.getContentHashAlgorithm(response.request, response.hash)
+        } else {
+            null
+        }
+        return if (hashAlgorithm != null && ResumableDigest.isSupported(hashAlgorithm)) {
+            val contentHashTracker = ContentHashTracker(
+                    id = downloadInfo.id,
+                    file = downloadInfo.file,
+                    fileTempDir = fileTempDir,
+                    algorithm = hashAlgorithm)
+            contentHashTracker.open(true)
+            fileSlices.forEach {
+                contentHashTracker.addWrittenRange(it.startBytes, it.startBytes + it.downloaded)
+            }
+            contentHashTracker
+        } else {
+            null
+        }
+    }
+
+    private fun isContentHashValid(response: Downloader.Response): Boolean {
+        val contentHash = contentHashTracker?.finish(total)
+        return if (contentHash != null) {
+            contentHash.equals(response.hash, true)
+        } else {
+            downloader.verifyContentHash(response.request, response.hash)
+        }
+    }
+
+    private fun getPlannedFileSliceInfo(request: Downloader.ServerRequest): FileSliceInfo {
+        return if (adaptiveSlicing) {
+            getFileSliceInfo(getAdaptiveRangeCount(total), total)
+        } else {
+            getChuckInfo(request)
+        }
+    }
+
+    /** The last byte the opening request asks for. If the total is known from an earlier run, the
+     * opening response covers the first slice of the slice plan and is read by that slice. If the
+     * first slice already continues from saved progress, a single byte is enough for the headers.
+     * Otherwise a bounded range probes the server. Fetch file server responses do not carry the
+     * total, so the opening request to a file server stays open ended.*/
+    private fun getOpeningRangeEnd(): Long {
+        if (downloader is FileServerDownloader) {
+            return -1
+        }
+        val savedDownloaded = SliceCheckpointJournal.readSavedDownloaded(initialDownload.id, fileTempDir)
+        if (resumed && savedDownloaded.isNotEmpty() && savedDownloaded[0] > 0) {
+            return 0
+        }
+        if (total > 0) {
+            val fileSliceInfo = SliceCheckpointJournal.readSavedFileSliceInfo(initialDownload.id, fileTempDir, total)
+                    ?: getPlannedFileSliceInfo(getRequestForDownload(initialDownload))
+            return if (fileSliceInfo.slicingCount > 1) {
+                Math.min(fileSliceInfo.bytesPerFileSlice, total) - 1
+            } else {
+                total - 1
+            }
+        }
+        return DEFAULT_OPENING_RANGE_BYTES - 1
+    }
+
     private fun getChuckInfo(request: Downloader.ServerRequest): FileSliceInfo {
         val fileSliceSize = downloader.getFileSlicingCount(request, total)
                 ?: DEFAULT_FILE_SLICE_NO_LIMIT_SET
@@ -352,7 +486,19 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         var downloadedBytesPerSecond = downloaded
         var reportingStartTime = System.nanoTime()
         var downloadSpeedStartTime = System.nanoTime()
+        val waitIntervalMillis = Math.max(1L, Math.min(progressReportingIntervalMillis,
+                DEFAULT_DOWNLOAD_SPEED_REPORTING_INTERVAL_IN_MILLISECONDS))
         while (actionsCounter != actionsTotal && !interrupted && !terminated) {
+            try {
+                synchronized(lock) {
+                    if (actionsCounter != actionsTotal) {
+                        lock.wait(waitIntervalMillis)
+                    }
+                }
+            } catch (e: InterruptedException) {
+                logger.e("FileDownloader", e)
+                break
+            }
             downloadInfo.downloaded = downloaded
             downloadInfo.total = total
             downloadSpeedStopTime = System.nanoTime()
@@ -369,6 +515,9 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                         totalBytes = total,
                         downloadedBytesPerSecond = getAverageDownloadedBytesPerSecond())
                 downloadedBytesPerSecond = downloaded
+                if (adaptiveSlicing) {
+                    adjustAdaptiveConnectionCount(averageDownloadedBytesPerSecond)
+                }
             }
             reportingStopTime = System.nanoTime()
             val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
@@ -395,6 +544,13 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
+    private fun preallocateOutputIfEnabled() {
+        val wrapper = outputResourceWrapper
+        if (wrapper != null && !totalUnknown && (preallocateDownloadFile || wrapper.requiresPreallocation)) {
+            preallocateOutput(wrapper, total, downloaded)
+        }
+    }
+
     private fun downloadSliceFiles(request: Downloader.ServerRequest, fileSlicesDownloadsList: List<FileSlice>) {
         actionsCounter = 0
         actionsTotal = fileSlicesDownloadsList.size
@@ -402,10 +558,13 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
             storageResolver.createFile(request.file, initialDownload.enqueueAction == EnqueueAction.INCREMENT_FILE_NAME)
         }
         outputResourceWrapper = storageResolver.getRequestOutputResourceWrapper(request)
+        preallocateOutputIfEnabled()
         outputResourceWrapper?.setWriteOffset(0)
+        writeOpeningPrefix(fileSlicesDownloadsList)
+        val positionalWrites = outputResourceWrapper?.supportsPositionalWrites == true
         for (fileSlice in fileSlicesDownloadsList) {
             if (!interrupted && !terminated) {
-                executorService?.execute {
+                submitSlice(Runnable {
                     try {
                         Thread.currentThread().name = "${downloadInfo.namespace}-${downloadInfo.id}-Slice-${fileSlice.position}"
                     } catch (e: Exception) {
@@ -417,13 +576,16 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                     downloadBlock.downloadedBytes = fileSlice.downloaded
                     downloadBlock.startByte = fileSlice.startBytes
                     downloadBlock.endByte = fileSlice.endBytes
-                    val downloadRequest = getRequestForDownload(downloadInfo, fileSlice.startBytes + fileSlice.downloaded)
-                    var downloadResponse: Downloader.Response? = null
-                    var saveRandomAccessFile: RandomAccessFile? = null
+                    val rangeStart = fileSlice.startBytes + fileSlice.downloaded
+                    val downloadRequest = getSliceRequest(rangeStart)
+                    var downloadResponse: Downloader.Response? = takeReusableOpeningResponse(rangeStart)
                     try {
-                        val file = getFile(getDownloadedInfoFilePath(fileSlice.id, fileSlice.position, fileTempDir))
-                        saveRandomAccessFile = RandomAccessFile(file, "rw")
-                        downloadResponse = downloader.execute(downloadRequest, interruptMonitor)
+                        if (downloadResponse == null && !interrupted && !terminated) {
+                            downloadResponse = downloader.execute(downloadRequest, interruptMonitor)
+                            if (downloadResponse != null && isRangeRejected(rangeStart, downloadRequest, downloadResponse)) {
+                                throw FetchException(RESPONSE_NOT_SUCCESSFUL)
+                            }
+                        }
                         if (!terminated && !interrupted && downloadResponse?.isSuccessful == true) {
                             var reportingStopTime: Long
                             val bufferSize = downloader.getRequestBufferSize(downloadRequest)
@@ -443,16 +605,28 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                                     remainderBytes.toInt()
                                 }
                                 seekPosition = fileSlice.startBytes + fileSlice.downloaded
+                                bandwidthThrottler.acquire(downloadInfo.id, streamBytes, interruptMonitor)
+                                if (positionalWrites && !interrupted && !terminated) {
+                                    outputResourceWrapper?.write(seekPosition, buffer, 0, streamBytes)
+                                    contentHashTracker?.onBytesWritten(seekPosition, buffer, 0, streamBytes)
+                                    if (!interrupted && !terminated) {
+                                        fileSlice.downloaded += streamBytes
+                                        checkpointFileSliceIfDue(fileSlice)
+                                    }
+                                }
                                 synchronized(lock) {
                                     if (!interrupted && !terminated) {
-                                        outputResourceWrapper?.setWriteOffset(seekPosition)
-                                        outputResourceWrapper?.write(buffer, 0, streamBytes)
-                                        if (!interrupted && !terminated) {
-                                            fileSlice.downloaded += streamBytes
-                                            saveRandomAccessFile.seek(0)
-                                            saveRandomAccessFile.setLength(0)
-                                            saveRandomAccessFile.writeLong(fileSlice.downloaded)
+                                        if (positionalWrites) {
                                             downloaded += streamBytes
+                                        } else {
+                                            outputResourceWrapper?.setWriteOffset(seekPosition)
+                                            outputResourceWrapper?.write(buffer, 0, streamBytes)
+                                            contentHashTracker?.onBytesWritten(seekPosition, buffer, 0, streamBytes)
+                                            if (!interrupted && !terminated) {
+                                                fileSlice.downloaded += streamBytes
+                                                checkpointFileSliceIfDue(fileSlice)
+                                                downloaded += streamBytes
+                                            }
                                         }
                                         reportingStopTime = System.nanoTime()
                                         val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
@@ -492,22 +666,187 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
                             logger.e("FileDownloader", e)
                         }
                         try {
-                            saveRandomAccessFile?.close()
+                            outputResourceWrapper?.sync()
+                            sliceCheckpointJournal.checkpoint(fileSlice.position, fileSlice.downloaded)
+                            contentHashTracker?.saveCheckpoint()
                         } catch (e: Exception) {
                             logger.e("FileDownloader", e)
                         }
                         incrementActionCompletedCount()
                     }
-                }
+                })
             } else {
                 break
             }
         }
     }
 
+    private fun submitSlice(slice: Runnable) {
+        synchronized(lock) {
+            submittedSlices.add(slice)
+        }
+        sliceDownloadScheduler.submit(downloadInfo.id, slice)
+    }
+
+    private fun cancelSubmittedSlices() {
+        val slices = synchronized(lock) {
+            val slices = submittedSlices.toList()
+            submittedSlices.clear()
+            slices
+        }
+        for (slice in slices) {
+            sliceDownloadScheduler.cancel(downloadInfo.id, slice)
+        }
+    }
+
+    private fun checkpointFileSliceIfDue(fileSlice: FileSlice) {
+        if (sliceCheckpointJournal.isCheckpointDue(fileSlice.position, fileSlice.downloaded)) {
+            outputResourceWrapper?.sync()
+            sliceCheckpointJournal.checkpoint(fileSlice.position, fileSlice.downloaded)
+            contentHashTracker?.saveCheckpoint()
+        }
+    }
+
+    /** The opening request asks for the bytes of the first slice. If the first slice to download
+     * also starts at 0, its bytes are read from the opening response instead of a new request.*/
+    private fun canReuseOpeningResponse(response: Downloader.Response,
+                                        contentRange: ContentRange?,
+                                        sliceFileDownloadsList: List<FileSlice>): Boolean {
+        val firstSlice = sliceFileDownloadsList.firstOrNull() ?: return false
+        if (response.byteStream == null || firstSlice.startBytes + firstSlice.downloaded != 0L) {
+            return false
+        }
+        if (response.code != HttpURLConnection.HTTP_PARTIAL || totalUnknown) {
+            return true
+        }
+        val rangeEnd = contentRange?.end ?: response.contentLength - 1
+        return rangeEnd + 1 >= firstSlice.endBytes
+    }
+
+    /** True if the opening response is a partial response that starts the first slice but ends
+     * before it, e.g. the bounded probe sent when the total was not known yet.*/
+    private fun isOpeningPrefixResponse(response: Downloader.Response,
+                                        contentRange: ContentRange?,
+                                        sliceFileDownloadsList: List<FileSlice>): Boolean {
+        val firstSlice = sliceFileDownloadsList.firstOrNull() ?: return false
+        return response.byteStream != null && response.code == HttpURLConnection.HTTP_PARTIAL
+                && !totalUnknown && contentRange != null && contentRange.start == 0L
+                && firstSlice.startBytes + firstSlice.downloaded == 0L
+    }
+
+    /** Writes the body of the opening prefix response into the first slice. The first slice then
+     * requests only the bytes after it. If reading fails, those bytes are requested again.*/
+    private fun writeOpeningPrefix(fileSlicesDownloadsList: List<FileSlice>) {
+        val response = synchronized(lock) {
+            val prefixResponse = openingPrefixResponse
+            openingPrefixResponse = null
+            prefixResponse
+        } ?: return
+        val fileSlice = fileSlicesDownloadsList.firstOrNull()
+        try {
+            val byteStream = response.byteStream
+            if (fileSlice != null && byteStream != null) {
+                val bufferSize = downloader.getRequestBufferSize(response.request)
+                val buffer = ByteArray(bufferSize)
+                var read = byteStream.read(buffer, 0, bufferSize)
+                while (read != -1 && !interrupted && !terminated) {
+                    val streamBytes = Math.min(read.toLong(),
+                            fileSlice.endBytes - fileSlice.startBytes - fileSlice.downloaded).toInt()
+                    if (streamBytes < 1) {
+                        break
+                    }
+                    bandwidthThrottler.acquire(downloadInfo.id, streamBytes, interruptMonitor)
+                    writeSliceBytes(fileSlice.startBytes + fileSlice.downloaded, buffer, streamBytes)
+                    fileSlice.downloaded += streamBytes
+                    checkpointFileSliceIfDue(fileSlice)
+                    synchronized(lock) {
+                        downloaded += streamBytes
+                    }
+                    read = byteStream.read(buffer, 0, bufferSize)
+                }
+            }
+        } catch (e: Exception) {
+            logger.e("FileDownloader", e)
+        } finally {
+            disconnectOpeningResponse(response)
+        }
+    }
+
+    /** Reads the rest of a short bounded opening response before disconnecting, so the connection
+     * can be reused by the slice requests.*/
+    private fun disconnectOpeningResponse(response: Downloader.Response) {
+        try {
+            val byteStream = response.byteStream
+            if (byteStream != null && response.code == HttpURLConnection.HTTP_PARTIAL
+                    && response.contentLength in 0..DEFAULT_OPENING_RANGE_BYTES) {
+                val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                while (byteStream.read(buffer, 0, buffer.size) != -1) {
+                    if (interrupted || terminated) {
+                        break
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            logger.e("FileDownloader", e)
+        }
+        try {
+            downloader.disconnect(response)
+        } catch (e: Exception) {
+            logger.e("FileDownloader", e)
+        }
+    }
+
+    private fun takeReusableOpeningResponse(rangeStart: Long): Downloader.Response? {
+        if (rangeStart != 0L) {
+            return null
+        }
+        synchronized(lock) {
+            val response = reusableOpeningResponse
+            reusableOpeningResponse = null
+            return response
+        }
+    }
+
+    /** Parses the Content-Range header of a partial response, e.g. "bytes 0-1023/4096".
+     * The total is -1 if the server did not send it.*/
+    private fun getContentRange(response: Downloader.Response): ContentRange? {
+        if (response.code != HttpURLConnection.HTTP_PARTIAL) {
+            return null
+        }
+        val value = getResponseHeader(response, "Content-Range") ?: return null
+        return try {
+            val range = value.trim().removePrefix("bytes").trim()
+            val slash = range.indexOf('/')
+            val dash = range.indexOf('-')
+            if (slash < 0 || dash < 0 || dash > slash) {
+                return null
+            }
+            val totalString = range.substring(slash + 1).trim()
+            ContentRange(
+                    start = range.substring(0, dash).trim().toLong(),
+                    end = range.substring(dash + 1, slash).trim().toLong(),
+                    total = if (totalString == "*") -1L else totalString.toLong())
+        } catch (e: NumberFormatException) {
+            null
+        }
+    }
+
+    private fun getSliceRequest(rangeStart: Long, rangeEnd: Long = -1): Downloader.ServerRequest {
+        val request = getRequestForDownload(downloadInfo, rangeStart, rangeEnd)
+        return if (resumed) addValidatorHeaders(request, downloadInfo, false) else request
+    }
+
+    /** True if the server ignored the range of a request because the If-Range validator no longer
+     * matches. The response then holds the whole new content, which must not be written into a slice.*/
+    private fun isRangeRejected(rangeStart: Long, request: Downloader.ServerRequest, response: Downloader.Response): Boolean {
+        return response.isSuccessful && response.code != HttpURLConnection.HTTP_PARTIAL
+                && request.headers.containsKey(HEADER_IF_RANGE) && (rangeStart > 0 || totalDownloadBlocks > 1)
+    }
+
     private fun incrementActionCompletedCount() {
         synchronized(lock) {
             actionsCounter += 1
+            lock.notifyAll()
         }
     }
 
@@ -521,6 +860,261 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
+    private fun downloadAdaptiveRanges(request: Downloader.ServerRequest, fileSlicesDownloadsList: List<FileSlice>) {
+        actionsCounter = 0
+        actionsTotal = 0
+        if (!storageResolver.fileExists(request.file)) {
+            storageResolver.createFile(request.file, initialDownload.enqueueAction == EnqueueAction.INCREMENT_FILE_NAME)
+        }
+        outputResourceWrapper = storageResolver.getRequestOutputResourceWrapper(request)
+        preallocateOutputIfEnabled()
+        outputResourceWrapper?.setWriteOffset(0)
+        writeOpeningPrefix(fileSlicesDownloadsList)
+        synchronized(adaptiveLock) {
+            fileSlicesDownloadsList.forEach { fileSlice ->
+                val adaptiveRange = AdaptiveRange(fileSlice)
+                adaptiveRange.openParts = 1
+                pendingAdaptiveParts.add(AdaptivePart(adaptiveRange, true,
+                        fileSlice.startBytes + fileSlice.downloaded, fileSlice.endBytes))
+            }
+            val adaptiveMaxConnections = Math.max(1, downloader.getFileSlicingCount(request, total)
+                    ?: DEFAULT_ADAPTIVE_MAX_CONNECTIONS)
+            val connectionController = AdaptiveConnectionController(adaptiveMaxConnections,
+                    DEFAULT_ADAPTIVE_INITIAL_CONNECTIONS)
+            adaptiveConnectionController = connectionController
+            for (i in 1..Math.min(connectionController.connectionLimit, fileSlicesDownloadsList.size)) {
+                if (!interrupted && !terminated) {
+                    startAdaptiveWorkerNoLock()
+                }
+            }
+        }
+    }
+
+    private fun startAdaptiveWorkerNoLock() {
+        adaptiveActiveWorkers += 1
+        val workerNumber = synchronized(lock) {
+            actionsTotal += 1
+            actionsTotal
+        }
+        submitSlice(Runnable {
+            try {
+                Thread.currentThread().name = "${downloadInfo.namespace}-${downloadInfo.id}-Connection-$workerNumber"
+            } catch (e: Exception) {
+
+            }
+            var adaptivePart: AdaptivePart? = null
+            try {
+                adaptivePart = takeNextAdaptivePart()
+                while (adaptivePart != null) {
+                    downloadAdaptivePart(adaptivePart)
+                    if (throwable != null || interrupted || terminated) {
+                        break
+                    }
+                    adaptivePart = takeNextAdaptivePart()
+                }
+            } finally {
+                if (adaptivePart != null) {
+                    synchronized(adaptiveLock) {
+                        adaptiveActiveWorkers -= 1
+                    }
+                }
+                incrementActionCompletedCount()
+            }
+        })
+    }
+
+    /** @return the next part for the calling connection. If null is returned the connection
+     * slot was released and the connection has to stop.*/
+    private fun takeNextAdaptivePart(): AdaptivePart? {
+        synchronized(adaptiveLock) {
+            val connectionLimit = adaptiveConnectionController?.connectionLimit ?: 0
+            val adaptivePart = if (interrupted || terminated || adaptiveActiveWorkers > connectionLimit) {
+                null
+            } else {
+                pendingAdaptiveParts.poll() ?: stealAdaptivePartNoLock()
+            }
+            if (adaptivePart != null) {
+                activeAdaptiveParts.add(adaptivePart)
+            } else {
+                adaptiveActiveWorkers -= 1
+            }
+            return adaptivePart
+        }
+    }
+
+    private fun stealAdaptivePartNoLock(): AdaptivePart? {
+        var victim: AdaptivePart? = null
+        var victimRemainingBytes = 0L
+        activeAdaptiveParts.forEach { adaptivePart ->
+            val remainingBytes = synchronized(adaptivePart.range) {
+                adaptivePart.limitBytes - adaptivePart.claimedBytes
+            }
+            if (remainingBytes > victimRemainingBytes) {
+                victim = adaptivePart
+                victimRemainingBytes = remainingBytes
+            }
+        }
+        val victimPart = victim ?: return null
+        return synchronized(victimPart.range) {
+            val remainingBytes = victimPart.limitBytes - victimPart.claimedBytes
+            if (remainingBytes >= DEFAULT_ADAPTIVE_MIN_STEAL_BYTES * 2) {
+                val splitBytes = victimPart.claimedBytes + (remainingBytes / 2)
+                val stolenPart = AdaptivePart(victimPart.range, false, splitBytes, victimPart.limitBytes)
+                victimPart.limitBytes = splitBytes
+                victimPart.range.openParts += 1
+                stolenPart
+            } else {
+                null
+            }
+        }
+    }
+
+    private fun downloadAdaptivePart(adaptivePart: AdaptivePart) {
+        val fileSlice = adaptivePart.range.fileSlice
+        val downloadBlock = DownloadBlockInfo()
+        downloadBlock.downloadId = fileSlice.id
+        downloadBlock.blockPosition = fileSlice.position
+        downloadBlock.downloadedBytes = fileSlice.downloaded
+        downloadBlock.startByte = fileSlice.startBytes
+        downloadBlock.endByte = fileSlice.endBytes
+        val rangeStart = adaptivePart.claimedBytes
+        val downloadRequest = getSliceRequest(rangeStart, adaptivePart.limitBytes - 1)
+        var downloadResponse: Downloader.Response? = takeReusableOpeningResponse(rangeStart)
+        var completed = false
+        try {
+            if (downloadResponse == null && !interrupted && !terminated) {
+                downloadResponse = downloader.execute(downloadRequest, interruptMonitor)
+                if (downloadResponse != null && isRangeRejected(rangeStart, downloadRequest, downloadResponse)) {
+                    throw FetchException(RESPONSE_NOT_SUCCESSFUL)
+                }
+            }
+            if (!terminated && !interrupted && downloadResponse?.isSuccessful == true) {
+                val bufferSize = downloader.getRequestBufferSize(downloadRequest)
+                val buffer = ByteArray(bufferSize)
+                var read: Int = downloadResponse.byteStream?.read(buffer, 0, bufferSize) ?: -1
+                var reportingStartTime = System.nanoTime()
+                var streamBytes = 0
+                var writePosition = 0L
+                while (read != -1 && !interrupted && !terminated) {
+                    synchronized(adaptivePart.range) {
+                        writePosition = adaptivePart.claimedBytes
+                        streamBytes = Math.min(read.toLong(), adaptivePart.limitBytes - writePosition).toInt()
+                        adaptivePart.claimedBytes += streamBytes
+                    }
+                    if (streamBytes > 0) {
+                        bandwidthThrottler.acquire(downloadInfo.id, streamBytes, interruptMonitor)
+                        writeSliceBytes(writePosition, buffer, streamBytes)
+                        if (adaptivePart.owner) {
+                            fileSlice.downloaded += streamBytes
+                            checkpointFileSliceIfDue(fileSlice)
+                        }
+                        synchronized(lock) {
+                            if (!interrupted && !terminated) {
+                                downloaded += streamBytes
+                            }
+                        }
+                        if (adaptivePart.owner && hasIntervalTimeElapsed(reportingStartTime,
+                                        System.nanoTime(), progressReportingIntervalMillis)) {
+                            if (!interrupted && !terminated) {
+                                downloadBlock.downloadedBytes = fileSlice.downloaded
+                                delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
+                            }
+                            reportingStartTime = System.nanoTime()
+                        }
+                    }
+                    read = if (streamBytes < read) {
+                        -1
+                    } else {
+                        downloadResponse.byteStream?.read(buffer, 0, bufferSize) ?: -1
+                    }
+                }
+                completed = synchronized(adaptivePart.range) {
+                    adaptivePart.claimedBytes >= adaptivePart.limitBytes
+                }
+            } else if (downloadResponse == null && !interrupted && !terminated) {
+                throw FetchException(EMPTY_RESPONSE_BODY)
+            } else if (downloadResponse?.isSuccessful == false && !interrupted && !terminated) {
+                throw FetchException(RESPONSE_NOT_SUCCESSFUL)
+            } else if (!interrupted && !terminated) {
+                throw FetchException(UNKNOWN_ERROR)
+            }
+        } catch (e: Exception) {
+            logger.e("FileDownloader downloads slice $fileSlice", e)
+            throwable = e
+        } finally {
+            try {
+                if (downloadResponse != null) {
+                    downloader.disconnect(downloadResponse)
+                }
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+            }
+            try {
+                if (adaptivePart.owner) {
+                    outputResourceWrapper?.sync()
+                    sliceCheckpointJournal.checkpoint(fileSlice.position, fileSlice.downloaded)
+                    contentHashTracker?.saveCheckpoint()
+                }
+            } catch (e: Exception) {
+                logger.e("FileDownloader", e)
+            }
+            synchronized(adaptiveLock) {
+                activeAdaptiveParts.remove(adaptivePart)
+            }
+            val rangeCompleted = synchronized(adaptivePart.range) {
+                adaptivePart.range.openParts -= 1
+                if (!completed) {
+                    adaptivePart.range.failed = true
+                }
+                adaptivePart.range.openParts == 0 && !adaptivePart.range.failed
+            }
+            if (rangeCompleted && !interrupted && !terminated) {
+                try {
+                    fileSlice.downloaded = fileSlice.endBytes - fileSlice.startBytes
+                    outputResourceWrapper?.sync()
+                    sliceCheckpointJournal.checkpoint(fileSlice.position, fileSlice.downloaded)
+                    contentHashTracker?.saveCheckpoint()
+                    downloadBlock.downloadedBytes = fileSlice.downloaded
+                    delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
+                } catch (e: Exception) {
+                    logger.e("FileDownloader", e)
+                }
+            }
+        }
+    }
+
+    private fun adjustAdaptiveConnectionCount(bytesPerSecond: Double) {
+        synchronized(adaptiveLock) {
+            val connectionController = adaptiveConnectionController
+            if (connectionController == null || interrupted || terminated) {
+                return
+            }
+            val hasPendingWork = pendingAdaptiveParts.isNotEmpty() || activeAdaptiveParts.any {
+                synchronized(it.range) {
+                    it.limitBytes - it.claimedBytes >= DEFAULT_ADAPTIVE_MIN_STEAL_BYTES * 2
+                }
+            }
+            val connectionLimit = connectionController.onThroughputSample(bytesPerSecond,
+                    activeAdaptiveParts.size, hasPendingWork)
+            if (hasPendingWork && adaptiveActiveWorkers < connectionLimit) {
+                startAdaptiveWorkerNoLock()
+            }
+        }
+    }
+
+    private fun writeSliceBytes(position: Long, buffer: ByteArray, length: Int) {
+        val resourceWrapper = outputResourceWrapper ?: return
+        if (resourceWrapper.supportsPositionalWrites) {
+            resourceWrapper.write(position, buffer, 0, length)
+        } else {
+            synchronized(lock) {
+                resourceWrapper.setWriteOffset(position)
+                resourceWrapper.write(buffer, 0, length)
+            }
+        }
+        contentHashTracker?.onBytesWritten(position, buffer, 0, length)
+    }
+
     private val interruptMonitor = object : InterruptMonitor {
         override val isInterrupted: Boolean
             get() {
@@ -535,4 +1129,21 @@ class ParallelFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
-}
\ No newline at end of file
+    /** A fixed byte range of the file. Its file slice holds the downloaded prefix of the range.*/
+    private class AdaptiveRange(val fileSlice: FileSlice) {
+        var openParts = 0
+        var failed = false
+    }
+
+    /** Part of an AdaptiveRange downloaded by one connection. The owner part downloads the range
+     * from the saved prefix. Idle connections steal the upper half of the remaining bytes of a part.*/
+    private class AdaptivePart(val range: AdaptiveRange,
+                               val owner: Boolean,
+                               var claimedBytes: Long,
+                               var limitBytes: Long)
+
+    private class ContentRange(val start: Long,
+                               val end: Long,
+                               val total: Long)
+
+}
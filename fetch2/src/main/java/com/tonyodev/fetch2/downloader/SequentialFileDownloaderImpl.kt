@@ -16,8 +16,11 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                                    private val logger: Logger,
                                    private val networkInfoProvider: NetworkInfoProvider,
                                    private val retryOnNetworkGain: Boolean,
+                                   private val fileTempDir: String,
                                    private val hashCheckingEnabled: Boolean,
-                                   private val storageResolver: StorageResolver) : FileDownloader {
+                                   private val storageResolver: StorageResolver,
+                                   private val bandwidthThrottler: BandwidthThrottler,
+                                   private val preallocateDownloadFile: Boolean = false) : FileDownloader {
 
     @Volatile
     override var interrupted = false
@@ -55,6 +58,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         downloadBlock
     }()
     private val totalDownloadBlocks = 1
+    private var contentHashTracker: ContentHashTracker? = null
 
     override val download: Download
         get () {
@@ -73,18 +77,30 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
             downloadInfo.downloaded = downloaded
             downloadInfo.total = total
             if (!interrupted && !terminated) {
-                val request = getRequest()
+                val revalidating = canRevalidateDownload(initialDownload)
+                val rangeStart = if (revalidating) 0L else downloaded
+                val request = getRequest(rangeStart, revalidating)
                 response = downloader.execute(request, interruptMonitor)
                 if (response != null) {
                     setIsTotalUnknown(response)
                 }
                 val isResponseSuccessful = response?.isSuccessful ?: false
-                if (!interrupted && !terminated && response != null && isResponseSuccessful) {
-                    downloaded = if (response.code == HttpURLConnection.HTTP_PARTIAL || response.acceptsRanges) {
-                        initialDownload.downloaded
+                if (!interrupted && !terminated && response != null && revalidating
+                        && response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    logger.d("FileDownloader content not modified for Download $download")
+                } else if (!interrupted && !terminated && response != null && isResponseSuccessful) {
+                    val rangeHonored = response.code == HttpURLConnection.HTTP_PARTIAL
+                            || (response.acceptsRanges && !request.headers.containsKey(HEADER_IF_RANGE))
+                    downloaded = if (rangeHonored) {
+                        rangeStart
                     } else {
                         0
                     }
+                    if (downloaded == 0L && initialDownload.downloaded > 0) {
+                        logger.d("FileDownloader content changed, restarting Download $download")
+                        storageResolver.deleteFile(request.file)
+                    }
+                    updateDownloadValidators(downloadInfo, response)
                     total = if (response.contentLength == -1L) {
                         -1L
                     } else {
@@ -99,10 +115,17 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                     }
                     downloadInfo.downloaded = downloaded
                     downloadInfo.total = total
-                    if (!storageResolver.fileExists(request.file)) {
+                    val fileExists = storageResolver.fileExists(request.file)
+                    if (!fileExists) {
                         storageResolver.createFile(request.file, initialDownload.enqueueAction == EnqueueAction.INCREMENT_FILE_NAME)
                     }
+                    if (hashCheckingEnabled) {
+                        contentHashTracker = getContentHashTracker(response, seekPosition, fileExists)
+                    }
                     outputResourceWrapper = storageResolver.getRequestOutputResourceWrapper(request)
+                    if (preallocateDownloadFile || outputResourceWrapper.requiresPreallocation) {
+                        preallocateOutput(outputResourceWrapper, total, downloaded)
+                    }
                     outputResourceWrapper.setWriteOffset(seekPosition)
                     if (!interrupted && !terminated) {
                         val bufferSize = downloader.getRequestBufferSize(request)
@@ -121,7 +144,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                                     totalBlocks = totalDownloadBlocks)
                             delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
                         }
-                        writeToOutput(input, outputResourceWrapper, bufferSize)
+                        writeToOutput(input, outputResourceWrapper, bufferSize, seekPosition)
                     }
                 } else if (response == null && !interrupted && !terminated && !isDownloadComplete()) {
                     throw FetchException(EMPTY_RESPONSE_BODY)
@@ -137,6 +160,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                 downloadBlock.downloadedBytes = downloaded
                 downloadBlock.endByte = total
                 if (!terminated && !interrupted) {
+                    contentHashTracker?.saveCheckpoint()
                     delegate?.saveDownloadProgress(downloadInfo)
                     delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
                     downloadInfo.etaInMilliSeconds = estimatedTimeRemainingInMilliseconds
@@ -204,6 +228,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
             } catch (e: Exception) {
                 logger.e("FileDownloader", e)
             }
+            contentHashTracker?.close()
             terminated = true
         }
     }
@@ -218,9 +243,31 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
+    private fun getContentHashTracker(response: Downloader.Response, seekPosition: Long, fileExists: Boolean): ContentHashTracker? {
+        val hashAlgorithm = if (response.hash.isNotEmpty() && downloader.getInlineContentHashEnabled(response.request)) {
+            downloader.getContentHashAlgorithm(response.request, response.hash)
+        } else {
+            null
+        }
+        return if (hashAlgorithm != null && ResumableDigest.isSupported(hashAlgorithm)) {
+            val contentHashTracker = ContentHashTracker(
+                    id = initialDownload.id,
+                    file = initialDownload.file,
+                    fileTempDir = fileTempDir,
+                    algorithm = hashAlgorithm)
+            contentHashTracker.open(seekPosition > 0 && fileExists)
+            contentHashTracker.addWrittenRange(0, seekPosition)
+            contentHashTracker
+        } else {
+            null
+        }
+    }
+
     private fun writeToOutput(input: BufferedInputStream,
                               outputResourceWrapper: OutputResourceWrapper?,
-                              bufferSize: Int) {
+                              bufferSize: Int,
+                              seekPosition: Long) {
+        var writePosition = seekPosition
         var reportingStopTime: Long
         var downloadSpeedStopTime: Long
         var downloadedBytesPerSecond = downloaded
@@ -229,7 +276,10 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         var downloadSpeedStartTime = System.nanoTime()
         var read = input.read(buffer, 0, bufferSize)
         while (!interrupted && !terminated && read != -1) {
+            bandwidthThrottler.acquire(downloadInfo.id, read, interruptMonitor)
             outputResourceWrapper?.write(buffer, 0, read)
+            contentHashTracker?.onBytesWritten(writePosition, buffer, 0, read)
+            writePosition += read
             if (!terminated && !interrupted) {
                 downloaded += read
                 downloadInfo.downloaded = downloaded
@@ -259,6 +309,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                 if (hasReportingTimeElapsed) {
                     downloadBlock.downloadedBytes = downloaded
                     if (!terminated && !interrupted) {
+                        contentHashTracker?.saveCheckpoint()
                         delegate?.saveDownloadProgress(downloadInfo)
                         delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
                         downloadInfo.etaInMilliSeconds = estimatedTimeRemainingInMilliseconds
@@ -287,7 +338,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
             downloadBlock.downloadedBytes = downloaded
             downloadBlock.endByte = total
             if (hashCheckingEnabled) {
-                if (downloader.verifyContentHash(response.request, response.hash)) {
+                if (isContentHashValid(response)) {
                     if (!terminated && !interrupted) {
                         delegate?.saveDownloadProgress(downloadInfo)
                         delegate?.onDownloadBlockUpdated(downloadInfo, downloadBlock, totalDownloadBlocks)
@@ -324,10 +375,21 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
         }
     }
 
-    private fun getRequest(): Downloader.ServerRequest {
+    private fun isContentHashValid(response: Downloader.Response): Boolean {
+        val contentHashTracker = contentHashTracker
+        val contentHash = contentHashTracker?.finish(total)
+        contentHashTracker?.deleteSavedState()
+        return if (contentHash != null) {
+            contentHash.equals(response.hash, true)
+        } else {
+            downloader.verifyContentHash(response.request, response.hash)
+        }
+    }
+
+    private fun getRequest(rangeStart: Long, revalidate: Boolean): Downloader.ServerRequest {
         val headers = initialDownload.headers.toMutableMap()
-        headers["Range"] = "bytes=$downloaded-"
-        return Downloader.ServerRequest(
+        headers["Range"] = "bytes=$rangeStart-"
+        return addValidatorHeaders(Downloader.ServerRequest(
                 id = initialDownload.id,
                 url = initialDownload.url,
                 headers = headers,
@@ -338,7 +400,7 @@ class SequentialFileDownloaderImpl(private val initialDownload: Download,
                 requestMethod = GET_REQUEST_METHOD,
                 extras = initialDownload.extras,
                 redirected = false,
-                redirectUrl = "")
+                redirectUrl = ""), initialDownload, revalidate)
     }
 
     private fun getAverageDownloadedBytesPerSecond(): Long {
@@ -0,0 +1,319 @@
+package com.tonyodev.fetch2.downloader
+
+import com.tonyodev.fetch2.util.getSliceCheckpointJournalFilePath
+import com.tonyodev.fetch2core.FileSliceInfo
+import com.tonyodev.fetch2core.getFile
+import com.tonyodev.fetch2core.getLongDataFromFile
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Single fixed size checkpoint file per parallel download that holds the slice layout and the
+ * downloaded byte count of every file slice. Each slice owns an 8 byte record at a fixed position
+ * in the file which is overwritten in place with a positional write and forced to storage, so
+ * slices can checkpoint concurrently without truncating or seeking a shared file.
+ * Records are only written after the matching bytes were synced to the output resource, so
+ * after a process kill or power loss a slice resumes at or before the last byte that reached
+ * the data file.
+ * */
+class SliceCheckpointJournal(private val id: Int,
+                             private val fileTempDir: String,
+                             private val checkpointBytes: Long,
+                             private val checkpointIntervalMillis: Long) : Closeable {
+
+    private val lock = Any()
+    private var randomAccessFile: RandomAccessFile? = null
+    private var fileChannel: FileChannel? = null
+    private var savedDownloaded = LongArray(0)
+    private var lastCheckpointBytes = LongArray(0)
+    private var lastCheckpointTimes = LongArray(0)
+
+    @Volatile
+    var fileSliceInfo = FileSliceInfo(0, 0)
+        private set
+
+    val sliceCount: Int
+        get() = fileSliceInfo.slicingCount
+
+    /** Opens the journal. If the journal on disk holds a layout that fits the total, the saved
+     * layout and checkpoints are kept, even if the passed in layout differs, because the saved
+     * bytes are only valid for the slice boundaries they were written with. Otherwise the journal
+     * is reset to the passed in layout and every slice starts at zero. The layout in use is
+     * available from fileSliceInfo.
+     * @param fileSliceInfo layout for a new journal.
+     * @param total total bytes of the download. Used to check and resolve the saved layout.
+     * @param keepSavedLayout false if a saved layout is only kept when it has the slice count of
+     * fileSliceInfo, e.g. because the server does not accept ranges.
+     * @return true if the saved checkpoints were kept, otherwise false.
+     * */
+    @JvmOverloads
+    fun open(fileSliceInfo: FileSliceInfo, total: Long, keepSavedLayout: Boolean = true): Boolean {
+        synchronized(lock) {
+            closeNoLock()
+            val file = getFile(getSliceCheckpointJournalFilePath(id, fileTempDir))
+            val journalFile = RandomAccessFile(file, "rw")
+            val channel = journalFile.channel
+            val savedFileSliceInfo = readFileSliceInfo(journalFile, total)
+            val restored = savedFileSliceInfo != null
+                    && (keepSavedLayout || savedFileSliceInfo.slicingCount == fileSliceInfo.slicingCount)
+            val layout = if (restored && keepSavedLayout && savedFileSliceInfo != null) savedFileSliceInfo else fileSliceInfo
+            val sliceCount = layout.slicingCount
+            val downloaded = LongArray(sliceCount)
+            if (restored) {
+                val byteBuffer = ByteBuffer.allocate(RECORD_SIZE * sliceCount)
+                readFully(channel, byteBuffer, HEADER_SIZE)
+                byteBuffer.flip()
+                for (index in 0 until sliceCount) {
+                    downloaded[index] = byteBuffer.long
+                }
+            } else {
+                journalFile.setLength(0)
+                val byteBuffer = ByteBuffer.allocate((HEADER_SIZE + sliceCount * RECORD_SIZE).toInt())
+                byteBuffer.putInt(MAGIC)
+                byteBuffer.putInt(sliceCount)
+                byteBuffer.putLong(layout.bytesPerFileSlice)
+                // Writes the zeroed records too, so the journal has its full length before any slice checkpoints.
+                byteBuffer.rewind()
+                writeFully(channel, byteBuffer, 0)
+                channel.force(true)
+            }
+            randomAccessFile = journalFile
+            fileChannel = channel
+            savedDownloaded = downloaded
+            lastCheckpointBytes = downloaded.copyOf()
+            lastCheckpointTimes = LongArray(sliceCount) { System.nanoTime() }
+            this.fileSliceInfo = layout
+            return restored
+        }
+    }
+
+    /** @return the last checkpointed downloaded bytes for the slice at the passed in position.*/
+    fun getDownloaded(position: Int): Long {
+        val index = position - 1
+        return if (index >= 0 && index < savedDownloaded.size) savedDownloaded[index] else 0L
+    }
+
+    /** @return true if the configured byte or time cadence has elapsed since the last checkpoint
+     * of the slice at the passed in position.
+     * */
+    fun isCheckpointDue(position: Int, downloaded: Long): Boolean {
+        val index = position - 1
+        if (index < 0 || index >= lastCheckpointBytes.size) {
+            return false
+        }
+        return downloaded - lastCheckpointBytes[index] >= checkpointBytes
+                || (System.nanoTime() - lastCheckpointTimes[index]) / 1_000_000L >= checkpointIntervalMillis
+    }
+
+    /** Writes the checkpoint record for the slice at the passed in position and forces it to
+     * storage. Only call this after the data up to downloaded was synced to the output resource
+     * with OutputResourceWrapper.sync().
+     * */
+    fun checkpoint(position: Int, downloaded: Long) {
+        val index = position - 1
+        val channel = fileChannel
+        if (channel == null || index < 0 || index >= lastCheckpointBytes.size) {
+            return
+        }
+        val byteBuffer = ByteBuffer.allocate(RECORD_SIZE)
+        byteBuffer.putLong(downloaded)
+        byteBuffer.flip()
+        writeFully(channel, byteBuffer, HEADER_SIZE + (index * RECORD_SIZE).toLong())
+        channel.force(false)
+        lastCheckpointBytes[index] = downloaded
+        lastCheckpointTimes[index] = System.nanoTime()
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            closeNoLock()
+        }
+    }
+
+    private fun closeNoLock() {
+        try {
+            randomAccessFile?.close()
+        } catch (e: Exception) {
+
+        }
+        randomAccessFile = null
+        fileChannel = null
+    }
+
+    private fun readFully(channel: FileChannel, byteBuffer: ByteBuffer, position: Long) {
+        var readPosition = position
+        while (byteBuffer.hasRemaining()) {
+            val read = channel.read(byteBuffer, readPosition)
+            if (read == -1) {
+                break
+            }
+            readPosition += read
+        }
+    }
+
+    companion object {
+
+        private const val MAGIC = 0x46435032
+        private const val HEADER_SIZE = 16L
+        private const val RECORD_SIZE = 8
+        /** Bytes per slice saved for progress imported from older versions. The layout is
+         * resolved from the total with getLegacyFileSliceInfo when the journal is read.*/
+        private const val LEGACY_BYTES_PER_FILE_SLICE = 0L
+        /** Guards against a corrupt slice count in the files of older versions.*/
+        private const val MAX_LEGACY_SLICE_COUNT = 10_000
+
+        private fun writeFully(channel: FileChannel, byteBuffer: ByteBuffer, position: Long) {
+            var writePosition = position
+            while (byteBuffer.hasRemaining()) {
+                writePosition += channel.write(byteBuffer, writePosition)
+            }
+        }
+
+        /** Imports the slice progress that older versions saved as <id>.meta.data and one
+         * <id>.<position>.data file per slice into a new journal, so downloads that were in progress
+         * before an upgrade resume where they stopped. Does nothing to an existing journal.
+         * The old files are deleted.
+         * @return true if progress was imported.
+         * */
+        @JvmStatic
+        fun importLegacyProgress(id: Int, legacyDir: String, fileTempDir: String): Boolean {
+            val metaFile = File(legacyDir, "$id.meta.data")
+            if (!metaFile.exists()) {
+                return false
+            }
+            val sliceCount = try {
+                getLongDataFromFile(metaFile.absolutePath)?.toInt() ?: -1
+            } catch (e: Exception) {
+                -1
+            }
+            val legacySliceCount = if (sliceCount in 1..MAX_LEGACY_SLICE_COUNT) sliceCount else 0
+            var imported = false
+            val journalPath = getSliceCheckpointJournalFilePath(id, fileTempDir)
+            if (legacySliceCount > 0 && !File(journalPath).exists()) {
+                try {
+                    val byteBuffer = ByteBuffer.allocate((HEADER_SIZE + legacySliceCount * RECORD_SIZE).toInt())
+                    byteBuffer.putInt(MAGIC)
+                    byteBuffer.putInt(legacySliceCount)
+                    byteBuffer.putLong(LEGACY_BYTES_PER_FILE_SLICE)
+                    for (position in 1..legacySliceCount) {
+                        val downloaded = try {
+                            getLongDataFromFile(File(legacyDir, "$id.$position.data").absolutePath) ?: 0L
+                        } catch (e: Exception) {
+                            0L
+                        }
+                        byteBuffer.putLong(downloaded)
+                    }
+                    byteBuffer.flip()
+                    RandomAccessFile(getFile(journalPath), "rw").use { journalFile ->
+                        writeFully(journalFile.channel, byteBuffer, 0)
+                        journalFile.channel.force(true)
+                    }
+                    imported = true
+                } catch (e: Exception) {
+                    File(journalPath).delete()
+                }
+            }
+            for (position in 1..legacySliceCount) {
+                File(legacyDir, "$id.$position.data").delete()
+            }
+            metaFile.delete()
+            return imported
+        }
+
+        /** Reads the slice count and checkpointed bytes of a download without opening the journal for writing.
+         * @return the saved downloaded bytes indexed by slice position - 1. Empty if no journal exists.
+         * */
+        @JvmStatic
+        fun readSavedDownloaded(id: Int, fileTempDir: String): LongArray {
+            val file = File(getSliceCheckpointJournalFilePath(id, fileTempDir))
+            if (!file.exists()) {
+                return LongArray(0)
+            }
+            return try {
+                RandomAccessFile(file, "r").use { journalFile ->
+                    val sliceCount = readSliceCount(journalFile)
+                    if (sliceCount < 1) {
+                        LongArray(0)
+                    } else {
+                        journalFile.seek(HEADER_SIZE)
+                        LongArray(sliceCount) { journalFile.readLong() }
+                    }
+                }
+            } catch (e: Exception) {
+                LongArray(0)
+            }
+        }
+
+        /** Reads the slice layout a download was started with.
+         * @param total total bytes of the download.
+         * @return the saved layout or null if no journal exists or the saved layout does not fit the total.
+         * */
+        @JvmStatic
+        fun readSavedFileSliceInfo(id: Int, fileTempDir: String, total: Long): FileSliceInfo? {
+            val file = File(getSliceCheckpointJournalFilePath(id, fileTempDir))
+            if (!file.exists()) {
+                return null
+            }
+            return try {
+                RandomAccessFile(file, "r").use { readFileSliceInfo(it, total) }
+            } catch (e: Exception) {
+                null
+            }
+        }
+
+        /** Older versions split a download into slices of ceil(total / count) bytes computed in
+         * float precision. Progress imported from them is only valid for the same boundaries.*/
+        @JvmStatic
+        fun getLegacyFileSliceInfo(sliceCount: Int, total: Long): FileSliceInfo {
+            return FileSliceInfo(sliceCount, Math.ceil((total.toFloat() / sliceCount.toFloat()).toDouble()).toLong())
+        }
+
+        /** @return the slice count of a well formed journal, otherwise -1.*/
+        private fun readSliceCount(journalFile: RandomAccessFile): Int {
+            return try {
+                if (journalFile.length() >= HEADER_SIZE) {
+                    journalFile.seek(0)
+                    val magic = journalFile.readInt()
+                    val sliceCount = journalFile.readInt()
+                    if (magic == MAGIC && sliceCount > 0
+                            && journalFile.length() == HEADER_SIZE + (sliceCount * RECORD_SIZE).toLong()) {
+                        sliceCount
+                    } else {
+                        -1
+                    }
+                } else {
+                    -1
+                }
+            } catch (e: Exception) {
+                -1
+            }
+        }
+
+        private fun readFileSliceInfo(journalFile: RandomAccessFile, total: Long): FileSliceInfo? {
+            val sliceCount = readSliceCount(journalFile)
+            if (sliceCount < 1) {
+                return null
+            }
+            journalFile.seek(8)
+            val bytesPerFileSlice = journalFile.readLong()
+            val fileSliceInfo = when {
+                sliceCount == 1 -> FileSliceInfo(1, Math.max(total, bytesPerFileSlice))
+                total < 1 -> return null
+                bytesPerFileSlice == LEGACY_BYTES_PER_FILE_SLICE -> getLegacyFileSliceInfo(sliceCount, total)
+                else -> FileSliceInfo(sliceCount, bytesPerFileSlice)
+            }
+            // Every slice starts at or before the total.
+            return if (sliceCount == 1 || (fileSliceInfo.bytesPerFileSlice > 0
+                            && fileSliceInfo.bytesPerFileSlice * (sliceCount - 1) <= total)) {
+                fileSliceInfo
+            } else {
+                null
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.tonyodev.fetch2.downloader
+
+import com.tonyodev.fetch2core.Logger
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Namespace wide scheduler that runs the file slices of all active parallel downloads on a
+ * shared pool of worker threads. At most maxConnections slices run at the same time. Pending
+ * slices are picked round robin across downloads so a download with many slices cannot
+ * starve the others.
+ * */
+class SliceDownloadScheduler(val namespace: String,
+                             val maxConnections: Int,
+                             private val logger: Logger) {
+
+    private val lock = Any()
+    private val pendingSlicesMap = LinkedHashMap<Int, ArrayDeque<Runnable>>()
+    private val executor: ExecutorService = Executors.newCachedThreadPool()
+    private var runningCount = 0
+    @Volatile
+    private var closed = false
+
+    /** Queues a slice of the download. The slice runs as soon as a connection is available.*/
+    fun submit(downloadId: Int, slice: Runnable) {
+        synchronized(lock) {
+            if (closed) {
+                return
+            }
+            val pendingSlices = pendingSlicesMap[downloadId] ?: ArrayDeque()
+            pendingSlices.add(slice)
+            pendingSlicesMap[downloadId] = pendingSlices
+            startPendingSlicesNoLock()
+        }
+    }
+
+    /** Removes the slice of the download if it has not started yet. Only the passed in slice is
+     * removed, so a downloader that stops does not cancel slices a newer downloader submitted
+     * for the same download id.
+     * @return true if the slice was removed before it started.
+     * */
+    fun cancel(downloadId: Int, slice: Runnable): Boolean {
+        synchronized(lock) {
+            val pendingSlices = pendingSlicesMap[downloadId] ?: return false
+            val removed = pendingSlices.remove(slice)
+            if (pendingSlices.isEmpty()) {
+                pendingSlicesMap.remove(downloadId)
+            }
+            return removed
+        }
+    }
+
+    fun close() {
+        synchronized(lock) {
+            if (closed) {
+                return
+            }
+            closed = true
+            pendingSlicesMap.clear()
+            try {
+                executor.shutdown()
+            } catch (e: Exception) {
+
+            }
+        }
+    }
+
+    private fun startPendingSlicesNoLock() {
+        while (!closed && runningCount < maxConnections) {
+            val slice = pollNextSliceNoLock() ?: break
+            runningCount += 1
+            executor.execute {
+                var nextSlice: Runnable? = slice
+                try {
+                    while (nextSlice != null) {
+                        try {
+                            nextSlice.run()
+                        } catch (e: Exception) {
+                            logger.e("SliceDownloadScheduler slice of namespace $namespace failed", e)
+                        }
+                        nextSlice = synchronized(lock) {
+                            if (!closed) pollNextSliceNoLock() else null
+                        }
+                    }
+                } finally {
+                    synchronized(lock) {
+                        runningCount -= 1
+                        // Picks up slices submitted while this worker was about to stop.
+                        startPendingSlicesNoLock()
+                    }
+                }
+            }
+        }
+    }
+
+    private fun pollNextSliceNoLock(): Runnable? {
+        val iterator = pendingSlicesMap.entries.iterator()
+        if (!iterator.hasNext()) {
+            return null
+        }
+        val entry = iterator.next()
+        iterator.remove()
+        val slice = entry.value.poll()
+        if (entry.value.isNotEmpty()) {
+            pendingSlicesMap[entry.key] = entry.value
+        }
+        return slice
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.tonyodev.fetch2.downloader
+
+/**
+ * Token bucket rate limiter where one token is one byte. The bucket holds at most one second
+ * worth of tokens and starts empty. Callers reserve the bytes they are about to transfer and wait for the returned
+ * time. Reservations may drive the bucket into debt, so the wait time of later callers includes
+ * the bytes reserved before them. Tokens are kept in nano units so refilling is exact.
+ * @param bytesPerSecond the rate of the bucket. A value less than 1 disables limiting.
+ * @param clock time source. Tests can pass a fake clock.
+ * */
+class TokenBucket @JvmOverloads constructor(bytesPerSecond: Long,
+                                            private val clock: Clock = Clock.SYSTEM) {
+
+    private val lock = Any()
+    private var rate = 0L
+    private var nanoTokens = 0L
+    private var lastRefillNanos = clock.nanoTime()
+
+    init {
+        setBytesPerSecond(bytesPerSecond)
+    }
+
+    /** The current rate in bytes per second. A value less than 1 means unlimited.*/
+    val bytesPerSecond: Long
+        get() {
+            return synchronized(lock) {
+                rate
+            }
+        }
+
+    /** Changes the rate of the bucket. Tokens collected at the old rate are kept up to the
+     * capacity of the new rate. Debt is kept as well.*/
+    fun setBytesPerSecond(bytesPerSecond: Long) {
+        synchronized(lock) {
+            refillNoLock()
+            rate = if (bytesPerSecond > 0) Math.min(bytesPerSecond, MAX_BYTES_PER_SECOND) else 0L
+            if (rate > 0) {
+                nanoTokens = Math.min(nanoTokens, rate * NANOS_PER_SECOND)
+            } else {
+                nanoTokens = 0L
+            }
+        }
+    }
+
+    /** Reserves the passed in number of bytes.
+     * @return the time in nanoseconds the caller has to wait before transferring the bytes.
+     * */
+    fun reserve(bytes: Int): Long {
+        synchronized(lock) {
+            if (rate < 1 || bytes < 1) {
+                return 0L
+            }
+            refillNoLock()
+            nanoTokens -= bytes * NANOS_PER_SECOND
+            return if (nanoTokens >= 0) {
+                0L
+            } else {
+                (-nanoTokens + rate - 1) / rate
+            }
+        }
+    }
+
+    private fun refillNoLock() {
+        val now = clock.nanoTime()
+        val elapsedNanos = now - lastRefillNanos
+        lastRefillNanos = now
+        if (rate < 1 || elapsedNanos < 1) {
+            return
+        }
+        val capacity = rate * NANOS_PER_SECOND
+        val missingNanoTokens = capacity - nanoTokens
+        nanoTokens = if (elapsedNanos >= (missingNanoTokens + rate - 1) / rate) {
+            capacity
+        } else {
+            nanoTokens + elapsedNanos * rate
+        }
+    }
+
+    /** Time source used by the bucket.*/
+    interface Clock {
+
+        /** @return a monotonic time in nanoseconds.*/
+        fun nanoTime(): Long
+
+        companion object {
+
+            @JvmField
+            val SYSTEM: Clock = object : Clock {
+                override fun nanoTime(): Long {
+                    return System.nanoTime()
+                }
+            }
+
+        }
+
+    }
+
+    companion object {
+
+        private const val NANOS_PER_SECOND = 1_000_000_000L
+        /** Keeps the token count in nano units inside the Long range.*/
+        private const val MAX_BYTES_PER_SECOND = 1_000_000_000L
+
+    }
+
+}
@@ -60,4 +60,8 @@ interface FetchHandler : Closeable {
     fun addFetchObserversForDownload(downloadId: Int, vararg  fetchObservers: FetchObserver<Download>)
     fun removeFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>)
     fun resetAutoRetryAttempts(downloadId: Int, retryDownload: Boolean): Download?
+    fun setGlobalBandwidthLimit(bytesPerSecond: Long)
+    fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long)
+    fun setDownloadBandwidthLimit(id: Int, bytesPerSecond: Long): Download
+    fun getSchedulingLatency(): SchedulingLatency
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package com.tonyodev.fetch2.fetch
 
+import android.content.Context
 import android.os.Handler
 import android.os.Looper
 import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.database.DownloadInfo
 import com.tonyodev.fetch2.database.FetchDatabaseManagerWrapper
 import com.tonyodev.fetch2.downloader.DownloadManager
+import com.tonyodev.fetch2.downloader.DownloadTempStore
+import com.tonyodev.fetch2.downloader.SliceCheckpointJournal
 import com.tonyodev.fetch2.exception.FetchException
 import com.tonyodev.fetch2.helper.PriorityListProcessor
 import com.tonyodev.fetch2.provider.GroupInfoProvider
@@ -13,6 +16,12 @@ import com.tonyodev.fetch2.util.*
 import com.tonyodev.fetch2core.*
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 
 /**
  * This handlerWrapper class handles all tasks and operations of Fetch.
@@ -31,10 +40,19 @@ class FetchHandlerImpl(private val namespace: String,
                        private val fetchNotificationManager: FetchNotificationManager?,
                        private val groupInfoProvider: GroupInfoProvider,
                        private val prioritySort: PrioritySort,
-                       private val createFileOnEnqueue: Boolean) : FetchHandler {
+                       private val createFileOnEnqueue: Boolean,
+                       private val handlerWrapper: HandlerWrapper,
+                       private val context: Context) : FetchHandler {
 
     private val listenerId = UUID.randomUUID().hashCode()
     private val listenerSet = mutableSetOf<FetchListener>()
+    /** Creates the files of large enqueue batches. Idle threads time out, so the executor holds
+     * no threads between batches.*/
+    private val fileCreationExecutor: ExecutorService = ThreadPoolExecutor(FILE_CREATION_THREADS,
+            FILE_CREATION_THREADS, FILE_CREATION_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+            LinkedBlockingQueue<Runnable>()).apply {
+        allowCoreThreadTimeOut(true)
+    }
 
     @Volatile
     private var isTerminating = false
@@ -44,11 +62,61 @@ class FetchHandlerImpl(private val namespace: String,
             listenerCoordinator.addNotificationManager(fetchNotificationManager)
         }
         fetchDatabaseManagerWrapper.sanitizeOnFirstEntry()
+        startTempStoreJanitor()
         if (autoStart) {
             priorityListProcessor.start()
         }
     }
 
+    /** Deletes the temp directories of downloads that no longer exist and the files older versions
+     * left in the flat legacy directory for them on the worker task thread. Only the ids of the
+     * downloads are read. Temp files of existing downloads in the flat layout are moved when the
+     * download resumes. The flat legacy directory is shared by all namespaces and its file names
+     * do not tell the namespace apart, so it is only cleaned while no other namespace exists.*/
+    private fun startTempStoreJanitor() {
+        val startedMillis = System.currentTimeMillis()
+        handlerWrapper.executeWorkerTask {
+            try {
+                val collectLegacyGarbage = isOnlyDatabase(context, namespace)
+                val liveIds = HashSet<Int>(fetchDatabaseManagerWrapper.getAllIds())
+                val tempDirs = getTempStoreDirs()
+                for ((tempDir, legacyDir) in tempDirs) {
+                    val tempStore = DownloadTempStore(tempDir)
+                    val deleted = tempStore.collectGarbage(liveIds, startedMillis)
+                    if (deleted > 0) {
+                        logger.d("Deleted temp files of $deleted removed downloads in ${tempStore.rootDir}")
+                    }
+                    if (collectLegacyGarbage) {
+                        val deletedLegacyFiles = tempStore.collectLegacyGarbage(legacyDir, liveIds,
+                                startedMillis - DEFAULT_LEGACY_TEMP_FILE_MAX_AGE_IN_MILLISECONDS)
+                        if (deletedLegacyFiles > 0) {
+                            logger.d("Deleted $deletedLegacyFiles legacy temp files of removed downloads in $legacyDir")
+                        }
+                    }
+                }
+            } catch (e: Exception) {
+                logger.e("Temp store janitor failed", e)
+            }
+        }
+    }
+
+    /** @return the namespace temp directories of the downloads mapped to the flat legacy directories
+     * they are in. The DefaultStorageResolver uses one directory for all requests, so the downloads
+     * are only read for other storage resolvers.*/
+    private fun getTempStoreDirs(): Map<String, String> {
+        val tempDirs = mutableMapOf<String, String>()
+        val downloads = if (storageResolver.javaClass == DefaultStorageResolver::class.java) {
+            listOf(DownloadInfo())
+        } else {
+            fetchDatabaseManagerWrapper.get()
+        }
+        for (download in downloads) {
+            val legacyDir = storageResolver.getDirectoryForFileDownloaderTypeParallel(getRequestForDownload(download))
+            tempDirs[getNamespaceTempDir(legacyDir, namespace)] = legacyDir
+        }
+        return tempDirs
+    }
+
     override fun enqueue(request: Request): Pair<Download, Error> {
         return enqueueRequests(listOf(request)).first()
     }
@@ -57,66 +125,215 @@ class FetchHandlerImpl(private val namespace: String,
         return enqueueRequests(requests)
     }
 
+    /**
+     * Enqueues the requests as one batch. Existing downloads of all request files are read with
+     * a single query, files are created in parallel and all inserts and updates are written in one
+     * transaction. A request for a file that already appeared earlier in the same call is
+     * enqueued on its own after the downloads before it were written, so it sees their state.
+     * */
     private fun enqueueRequests(requests: List<Request>): List<Pair<Download, Error>> {
-        val results = mutableListOf<Pair<Download, Error>>()
-        requests.forEach {
-            val downloadInfo = it.toDownloadInfo()
+        val results = arrayOfNulls<Pair<Download, Error>>(requests.size)
+        val downloadInfoList = ArrayList<DownloadInfo>(requests.size)
+        for (request in requests) {
+            val downloadInfo = request.toDownloadInfo()
             downloadInfo.namespace = namespace
+            downloadInfoList.add(downloadInfo)
+        }
+        cancelDownloadsIfDownloading(downloadInfoList)
+        val existingDownloads = HashMap<String, DownloadInfo>()
+        try {
+            for (existingDownload in fetchDatabaseManagerWrapper.getByFiles(downloadInfoList.map { it.file }.distinct())) {
+                existingDownloads[existingDownload.file] = existingDownload
+            }
+            val cancelledDownloads = cancelDownloadsIfDownloading(existingDownloads.values.toList())
+            if (cancelledDownloads.isNotEmpty()) {
+                // Cancelling wrote the state of the running downloads, so read them again.
+                for (existingDownload in fetchDatabaseManagerWrapper.getByFiles(cancelledDownloads.map { it.file })) {
+                    existingDownloads[existingDownload.file] = existingDownload
+                }
+            }
+        } catch (e: Exception) {
+            val error = getErrorFromThrowable(e)
+            error.throwable = e
+            return downloadInfoList.map { Pair<Download, Error>(it, error) }
+        }
+        val batch = mutableListOf<EnqueueEntry>()
+        val batchFiles = HashSet<String>(requests.size)
+        for (index in requests.indices) {
+            val request = requests[index]
+            val downloadInfo = downloadInfoList[index]
             try {
-                val existing = prepareDownloadInfoForEnqueue(downloadInfo)
-                if (downloadInfo.status != Status.COMPLETED) {
-                    downloadInfo.status = if (it.downloadOnEnqueue) {
-                        Status.QUEUED
-                    } else {
-                        Status.ADDED
-                    }
-                    if (!existing) {
-                        val downloadPair = fetchDatabaseManagerWrapper.insert(downloadInfo)
-                        logger.d("Enqueued download ${downloadPair.first}")
-                        results.add(Pair(downloadPair.first, Error.NONE))
-                        startPriorityQueueIfNotStarted()
+                if (batchFiles.add(downloadInfo.file)) {
+                    val filesToCreate = mutableListOf<String>()
+                    val existing = prepareDownloadInfoForEnqueue(downloadInfo,
+                            existingDownloads[downloadInfo.file], filesToCreate)
+                    if (downloadInfo.status != Status.COMPLETED) {
+                        downloadInfo.status = if (request.downloadOnEnqueue) Status.QUEUED else Status.ADDED
+                        batch.add(EnqueueEntry(index, downloadInfo, existing, filesToCreate))
                     } else {
-                        fetchDatabaseManagerWrapper.update(downloadInfo)
-                        logger.d("Updated download $downloadInfo")
-                        results.add(Pair(downloadInfo, Error.NONE))
+                        results[index] = Pair(downloadInfo, Error.NONE)
                     }
                 } else {
-                    results.add(Pair(downloadInfo, Error.NONE))
-                }
-                if (prioritySort == PrioritySort.DESC && !downloadManager.canAccommodateNewDownload()) {
-                    priorityListProcessor.pause()
+                    writeEnqueueBatch(batch, results)
+                    results[index] = enqueueRequest(request, downloadInfo)
                 }
             } catch (e: Exception) {
                 val error = getErrorFromThrowable(e)
                 error.throwable = e
-                results.add(Pair(downloadInfo, error))
+                results[index] = Pair(downloadInfo, error)
             }
         }
+        writeEnqueueBatch(batch, results)
         startPriorityQueueIfNotStarted()
-        return results
+        return results.mapIndexed { index, result -> result ?: Pair<Download, Error>(downloadInfoList[index], Error.UNKNOWN) }
     }
 
-    private fun prepareDownloadInfoForEnqueue(downloadInfo: DownloadInfo): Boolean {
+    private fun enqueueRequest(request: Request, downloadInfo: DownloadInfo): Pair<Download, Error> {
         cancelDownloadsIfDownloading(listOf(downloadInfo))
         var existingDownload = fetchDatabaseManagerWrapper.getByFile(downloadInfo.file)
+        if (existingDownload != null) {
+            cancelDownloadsIfDownloading(listOf(existingDownload))
+            existingDownload = fetchDatabaseManagerWrapper.getByFile(downloadInfo.file)
+        }
+        val existing = prepareDownloadInfoForEnqueue(downloadInfo, existingDownload, null)
+        val result = if (downloadInfo.status != Status.COMPLETED) {
+            downloadInfo.status = if (request.downloadOnEnqueue) Status.QUEUED else Status.ADDED
+            if (!existing) {
+                val downloadPair = fetchDatabaseManagerWrapper.insert(downloadInfo)
+                logger.d("Enqueued download ${downloadPair.first}")
+                startPriorityQueueIfNotStarted()
+                Pair<Download, Error>(downloadPair.first, Error.NONE)
+            } else {
+                fetchDatabaseManagerWrapper.update(downloadInfo)
+                logger.d("Updated download $downloadInfo")
+                Pair<Download, Error>(downloadInfo, Error.NONE)
+            }
+        } else {
+            Pair<Download, Error>(downloadInfo, Error.NONE)
+        }
+        if (prioritySort == PrioritySort.DESC && !downloadManager.canAccommodateNewDownload()) {
+            priorityListProcessor.pause()
+        }
+        return result
+    }
+
+    /** Creates the files of the batch, writes all downloads whose files could be created in one
+     * transaction and stores the result of every download of the batch. Clears the batch.*/
+    private fun writeEnqueueBatch(batch: MutableList<EnqueueEntry>, results: Array<Pair<Download, Error>?>) {
+        if (batch.isEmpty()) {
+            return
+        }
+        createEnqueueFiles(batch, results)
+        val entries = batch.filter { results[it.index] == null }
+        batch.clear()
+        val insertList = mutableListOf<DownloadInfo>()
+        val updateList = mutableListOf<DownloadInfo>()
+        for (entry in entries) {
+            if (entry.existing) {
+                updateList.add(entry.downloadInfo)
+            } else {
+                insertList.add(entry.downloadInfo)
+            }
+        }
+        try {
+            val insertedList = fetchDatabaseManagerWrapper.insertAndUpdate(insertList, updateList)
+            var insertIndex = 0
+            for (entry in entries) {
+                val inserted = if (entry.existing) true else insertedList[insertIndex++]
+                results[entry.index] = Pair(entry.downloadInfo, if (inserted) Error.NONE else Error.REQUEST_WITH_ID_ALREADY_EXIST)
+            }
+            logger.d("Enqueued ${insertedList.count { it }} downloads and updated ${updateList.size} downloads")
+        } catch (e: Exception) {
+            val error = getErrorFromThrowable(e)
+            error.throwable = e
+            for (entry in entries) {
+                results[entry.index] = Pair(entry.downloadInfo, error)
+            }
+        }
+        startPriorityQueueIfNotStarted()
+        if (prioritySort == PrioritySort.DESC && !downloadManager.canAccommodateNewDownload()) {
+            priorityListProcessor.pause()
+        }
+    }
+
+    /** Creates the files requested by the batch entries. Large batches create files on several
+     * threads. The result of an entry whose file could not be created is set to the error.*/
+    private fun createEnqueueFiles(batch: List<EnqueueEntry>, results: Array<Pair<Download, Error>?>) {
+        val entries = batch.filter { it.filesToCreate.isNotEmpty() }
+        if (entries.isEmpty()) {
+            return
+        }
+        val exceptions = arrayOfNulls<Exception>(entries.size)
+        if (entries.size < PARALLEL_FILE_CREATION_THRESHOLD) {
+            for (index in entries.indices) {
+                exceptions[index] = createEnqueueEntryFiles(entries[index])
+            }
+        } else {
+            val futures = entries.map { entry ->
+                fileCreationExecutor.submit(Callable<Exception?> { createEnqueueEntryFiles(entry) })
+            }
+            for (index in futures.indices) {
+                exceptions[index] = try {
+                    futures[index].get()
+                } catch (e: ExecutionException) {
+                    e.cause as? Exception ?: e
+                }
+            }
+        }
+        for (index in entries.indices) {
+            val exception = exceptions[index]
+            if (exception != null) {
+                val error = getErrorFromThrowable(exception)
+                error.throwable = exception
+                results[entries[index].index] = Pair(entries[index].downloadInfo, error)
+            }
+        }
+    }
+
+    private fun createEnqueueEntryFiles(entry: EnqueueEntry): Exception? {
+        return try {
+            for (file in entry.filesToCreate) {
+                storageResolver.createFile(file)
+            }
+            null
+        } catch (e: Exception) {
+            e
+        }
+    }
+
+    /**
+     * Resolves the download against the existing download with the same file.
+     * @param filesToCreate files to create before the download is written are added to this list.
+     * Pass null to create them right away.
+     * @return true if the download updates the existing download, false if it is inserted.
+     * */
+    private fun prepareDownloadInfoForEnqueue(downloadInfo: DownloadInfo, existingDownloadInfo: DownloadInfo?,
+                                              filesToCreate: MutableList<String>?): Boolean {
+        var existingDownload = existingDownloadInfo
+        val createEnqueueFile = { file: String ->
+            if (filesToCreate != null) {
+                filesToCreate.add(file)
+            } else {
+                storageResolver.createFile(file)
+            }
+        }
         if (existingDownload == null) {
             if (downloadInfo.enqueueAction != EnqueueAction.INCREMENT_FILE_NAME) {
                 if (createFileOnEnqueue) {
-                    storageResolver.createFile(downloadInfo.file)
+                    createEnqueueFile(downloadInfo.file)
                 }
             }
         } else {
-            cancelDownloadsIfDownloading(listOf(existingDownload))
-            existingDownload = fetchDatabaseManagerWrapper.getByFile(downloadInfo.file)
-            if (existingDownload != null && existingDownload.status == Status.DOWNLOADING) {
+            if (existingDownload.status == Status.DOWNLOADING) {
                 existingDownload.status = Status.QUEUED
                 try {
                     fetchDatabaseManagerWrapper.update(existingDownload)
                 } catch (e: Exception) {
 
                 }
-            } else if (existingDownload?.status == Status.COMPLETED
-                    && downloadInfo.enqueueAction == EnqueueAction.UPDATE_ACCORDINGLY) {
+            } else if (existingDownload.status == Status.COMPLETED
+                    && (downloadInfo.enqueueAction == EnqueueAction.UPDATE_ACCORDINGLY
+                            || downloadInfo.enqueueAction == EnqueueAction.UPDATE_IF_MODIFIED)) {
                 if (!storageResolver.fileExists(existingDownload.file)) {
                     try {
                         fetchDatabaseManagerWrapper.delete(existingDownload)
@@ -125,26 +342,32 @@ class FetchHandlerImpl(private val namespace: String,
                     existingDownload = null
                     if (downloadInfo.enqueueAction != EnqueueAction.INCREMENT_FILE_NAME) {
                         if (createFileOnEnqueue) {
-                            storageResolver.createFile(downloadInfo.file)
+                            createEnqueueFile(downloadInfo.file)
                         }
                     }
                 }
             }
         }
         return when (downloadInfo.enqueueAction) {
-            EnqueueAction.UPDATE_ACCORDINGLY -> {
+            EnqueueAction.UPDATE_ACCORDINGLY, EnqueueAction.UPDATE_IF_MODIFIED -> {
                 if (existingDownload != null) {
                     downloadInfo.downloaded = existingDownload.downloaded
                     downloadInfo.total = existingDownload.total
                     downloadInfo.error = existingDownload.error
                     downloadInfo.status = existingDownload.status
+                    downloadInfo.etag = existingDownload.etag
+                    downloadInfo.lastModified = existingDownload.lastModified
                     if (downloadInfo.status != Status.COMPLETED) {
                         downloadInfo.status = Status.QUEUED
                         downloadInfo.error = defaultNoError
+                    } else if (downloadInfo.enqueueAction == EnqueueAction.UPDATE_IF_MODIFIED
+                            && canRevalidateDownload(downloadInfo)
+                            && storageResolver.fileExists(downloadInfo.file)) {
+                        downloadInfo.status = Status.QUEUED
                     }
                     if (downloadInfo.status == Status.COMPLETED && !storageResolver.fileExists(downloadInfo.file)) {
                         if (createFileOnEnqueue) {
-                            storageResolver.createFile(downloadInfo.file)
+                            createEnqueueFile(downloadInfo.file)
                         }
                         downloadInfo.downloaded = 0L
                         downloadInfo.total = -1L
@@ -205,24 +428,13 @@ class FetchHandlerImpl(private val namespace: String,
     }
 
     override fun pause(ids: List<Int>): List<Download> {
-        return pauseDownloads(fetchDatabaseManagerWrapper.get(ids).filterNotNull())
+        cancelDownloadIdsIfDownloading(ids)
+        return fetchDatabaseManagerWrapper.updateStatusAndGet(ids, pausableStatuses, Status.PAUSED, false)
     }
 
     override fun pausedGroup(id: Int): List<Download> {
-        return pauseDownloads(fetchDatabaseManagerWrapper.getByGroup(id))
-    }
-
-    private fun pauseDownloads(downloads: List<DownloadInfo>): List<Download> {
-        cancelDownloadsIfDownloading(downloads)
-        val pausedDownloads = mutableListOf<DownloadInfo>()
-        downloads.forEach {
-            if (canPauseDownload(it)) {
-                it.status = Status.PAUSED
-                pausedDownloads.add(it)
-            }
-        }
-        fetchDatabaseManagerWrapper.update(pausedDownloads)
-        return pausedDownloads
+        cancelGroupDownloadsIfDownloading(id)
+        return fetchDatabaseManagerWrapper.updateStatusInGroupAndGet(id, pausableStatuses, Status.PAUSED, false, listOf())
     }
 
     override fun freeze() {
@@ -235,23 +447,16 @@ class FetchHandlerImpl(private val namespace: String,
     }
 
     override fun resume(ids: List<Int>): List<Download> {
-        return resumeDownloads(ids)
+        val resumeIds = ids.filter { !downloadManager.contains(it) }
+        val resumedDownloads = fetchDatabaseManagerWrapper.updateStatusAndGet(resumeIds, resumableStatuses,
+                Status.QUEUED, false)
+        startPriorityQueueIfNotStarted()
+        return resumedDownloads
     }
 
     override fun resumeGroup(id: Int): List<Download> {
-        return resumeDownloads(fetchDatabaseManagerWrapper.getByGroup(id).map { it.id })
-    }
-
-    private fun resumeDownloads(downloadIds: List<Int>): List<Download> {
-        val downloads = fetchDatabaseManagerWrapper.get(downloadIds).filterNotNull()
-        val resumedDownloads = mutableListOf<DownloadInfo>()
-        downloads.forEach {
-            if (!downloadManager.contains(it.id) && canResumeDownload(it)) {
-                it.status = Status.QUEUED
-                resumedDownloads.add(it)
-            }
-        }
-        fetchDatabaseManagerWrapper.update(resumedDownloads)
+        val resumedDownloads = fetchDatabaseManagerWrapper.updateStatusInGroupAndGet(id, resumableStatuses,
+                Status.QUEUED, false, downloadManager.getActiveDownloadsIds())
         startPriorityQueueIfNotStarted()
         return resumedDownloads
     }
@@ -318,42 +523,22 @@ class FetchHandlerImpl(private val namespace: String,
     }
 
     override fun cancel(ids: List<Int>): List<Download> {
-        return cancelDownloads(fetchDatabaseManagerWrapper.get(ids).filterNotNull())
+        cancelDownloadIdsIfDownloading(ids)
+        return fetchDatabaseManagerWrapper.updateStatusAndGet(ids, cancellableStatuses, Status.CANCELLED, true)
     }
 
     override fun cancelGroup(id: Int): List<Download> {
-        return cancelDownloads(fetchDatabaseManagerWrapper.getByGroup(id))
+        cancelGroupDownloadsIfDownloading(id)
+        return fetchDatabaseManagerWrapper.updateStatusInGroupAndGet(id, cancellableStatuses, Status.CANCELLED, true, listOf())
     }
 
     override fun cancelAll(): List<Download> {
-        return cancelDownloads(fetchDatabaseManagerWrapper.get())
-    }
-
-    private fun cancelDownloads(downloads: List<DownloadInfo>): List<Download> {
-        cancelDownloadsIfDownloading(downloads)
-        val cancelledDownloads = mutableListOf<DownloadInfo>()
-        downloads.forEach {
-            if (canCancelDownload(it)) {
-                it.status = Status.CANCELLED
-                it.error = defaultNoError
-                cancelledDownloads.add(it)
-            }
-        }
-        fetchDatabaseManagerWrapper.update(cancelledDownloads)
-        return cancelledDownloads
+        cancelDownloadIdsIfDownloading(downloadManager.getActiveDownloadsIds())
+        return fetchDatabaseManagerWrapper.updateStatusAndGet(cancellableStatuses, Status.CANCELLED, true)
     }
 
     override fun retry(ids: List<Int>): List<Download> {
-        val downloadInfoList = fetchDatabaseManagerWrapper.get(ids).filterNotNull()
-        val retryDownloads = mutableListOf<DownloadInfo>()
-        downloadInfoList.forEach {
-            if (canRetryDownload(it)) {
-                it.status = Status.QUEUED
-                it.error = defaultNoError
-                retryDownloads.add(it)
-            }
-        }
-        fetchDatabaseManagerWrapper.update(retryDownloads)
+        val retryDownloads = fetchDatabaseManagerWrapper.updateStatusAndGet(ids, retryableStatuses, Status.QUEUED, true)
         startPriorityQueueIfNotStarted()
         return retryDownloads
     }
@@ -373,6 +558,32 @@ class FetchHandlerImpl(private val namespace: String,
         return download
     }
 
+    override fun setGlobalBandwidthLimit(bytesPerSecond: Long) {
+        downloadManager.bandwidthThrottler.setGlobalBytesPerSecond(bytesPerSecond)
+        logger.d("Global bandwidth limit set to $bytesPerSecond bytes per second")
+    }
+
+    override fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long) {
+        downloadManager.bandwidthThrottler.setNetworkTypeBytesPerSecond(networkType, bytesPerSecond)
+        logger.d("$networkType bandwidth limit set to $bytesPerSecond bytes per second")
+    }
+
+    override fun setDownloadBandwidthLimit(id: Int, bytesPerSecond: Long): Download {
+        val download = fetchDatabaseManagerWrapper.get(id) ?: throw FetchException(REQUEST_DOES_NOT_EXIST)
+        // The running download is changed first, so the next full write of its row by the
+        // downloader does not bring back the old limit.
+        downloadManager.setDownloadBandwidthLimit(id, bytesPerSecond)
+        if (!fetchDatabaseManagerWrapper.updateBandwidthLimit(id, bytesPerSecond)) {
+            throw FetchException(REQUEST_DOES_NOT_EXIST)
+        }
+        download.bandwidthLimit = bytesPerSecond
+        return download
+    }
+
+    override fun getSchedulingLatency(): SchedulingLatency {
+        return priorityListProcessor.schedulingLatencyStats.getSchedulingLatency()
+    }
+
     override fun updateRequest(requestId: Int, newRequest: Request): Pair<Download, Boolean> {
         var oldDownloadInfo = fetchDatabaseManagerWrapper.get(requestId)
         if (oldDownloadInfo != null) {
@@ -478,7 +689,14 @@ class FetchHandlerImpl(private val namespace: String,
         val download = fetchDatabaseManagerWrapper.get(id)
         return if (download != null) {
             val fileTempDir = downloadManager.getDownloadFileTempDir(download)
-            val fileSliceInfo = getFileSliceInfo(getPreviousSliceCount(download.id, fileTempDir), download.total)
+            var savedDownloaded = SliceCheckpointJournal.readSavedDownloaded(download.id, fileTempDir)
+            if (savedDownloaded.isEmpty() && download.downloaded > 0) {
+                DownloadTempStore(fileTempDir).migrateLegacyFiles(download.id,
+                        storageResolver.getDirectoryForFileDownloaderTypeParallel(getRequestForDownload(download)))
+                savedDownloaded = SliceCheckpointJournal.readSavedDownloaded(download.id, fileTempDir)
+            }
+            val fileSliceInfo = SliceCheckpointJournal.readSavedFileSliceInfo(download.id, fileTempDir, download.total)
+                    ?: getFileSliceInfo(DEFAULT_FILE_SLICE_NO_LIMIT_SET, download.total)
             when {
                 download.total < 1 -> listOf()
                 fileSliceInfo.slicingCount < 2 -> {
@@ -506,7 +724,7 @@ class FetchHandlerImpl(private val namespace: String,
                         downloadBlockInfo.blockPosition = position
                         downloadBlockInfo.startByte = startBytes
                         downloadBlockInfo.endByte = endBytes
-                        downloadBlockInfo.downloadedBytes = getSavedDownloadedInfo(download.id, position, fileTempDir)
+                        downloadBlockInfo.downloadedBytes = if (position <= savedDownloaded.size) savedDownloaded[position - 1] else 0L
                         downloadBlocksList.add(downloadBlockInfo)
                     }
                     downloadBlocksList
@@ -583,6 +801,7 @@ class FetchHandlerImpl(private val namespace: String,
         priorityListProcessor.stop()
         priorityListProcessor.close()
         downloadManager.close()
+        fileCreationExecutor.shutdown()
         FetchModulesBuilder.removeNamespaceInstanceReference(namespace)
     }
 
@@ -714,16 +933,36 @@ class FetchHandlerImpl(private val namespace: String,
         return fetchDatabaseManagerWrapper.getPendingCount(false)
     }
 
-    private fun cancelDownloadsIfDownloading(downloads: List<DownloadInfo>) {
+    /** @return the downloads that were running and got cancelled.*/
+    private fun cancelDownloadsIfDownloading(downloads: List<DownloadInfo>): List<DownloadInfo> {
+        val cancelledDownloads = mutableListOf<DownloadInfo>()
         for (download in downloads) {
             if (downloadManager.contains(download.id)) {
                 downloadManager.cancel(download.id)
+                cancelledDownloads.add(download)
+            }
+        }
+        return cancelledDownloads
+    }
+
+    private fun cancelDownloadIdsIfDownloading(ids: List<Int>) {
+        for (id in ids) {
+            if (downloadManager.contains(id)) {
+                downloadManager.cancel(id)
+            }
+        }
+    }
+
+    private fun cancelGroupDownloadsIfDownloading(group: Int) {
+        for (download in downloadManager.getActiveDownloads()) {
+            if (download.group == group) {
+                downloadManager.cancel(download.id)
             }
         }
     }
 
     private fun startPriorityQueueIfNotStarted() {
-        priorityListProcessor.sendBackOffResetSignal()
+        priorityListProcessor.wakeUp()
         if (priorityListProcessor.isStopped && !isTerminating) {
             priorityListProcessor.start()
         }
@@ -744,4 +983,23 @@ class FetchHandlerImpl(private val namespace: String,
         listenerCoordinator.removeFetchObserversForDownload(downloadId, *fetchObservers)
     }
 
+    /** A download of an enqueue batch waiting to be written.
+     * @param index position of the request in the enqueued list.
+     * @param existing true if the download updates an existing download.
+     * @param filesToCreate files created before the download is written.
+     * */
+    private class EnqueueEntry(val index: Int,
+                               val downloadInfo: DownloadInfo,
+                               val existing: Boolean,
+                               val filesToCreate: List<String>)
+
+    companion object {
+
+        /** Batches with fewer files to create create them on the calling thread.*/
+        private const val PARALLEL_FILE_CREATION_THRESHOLD = 64
+        private const val FILE_CREATION_THREADS = 4
+        private const val FILE_CREATION_THREAD_KEEP_ALIVE_IN_SECONDS = 30L
+
+    }
+
 }
\ No newline at end of file
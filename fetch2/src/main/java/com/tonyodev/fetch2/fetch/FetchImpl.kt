@@ -1082,6 +1082,77 @@ open class FetchImpl constructor(override val namespace: String,
         }
     }
 
+    override fun setGlobalBandwidthLimit(bytesPerSecond: Long): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            handlerWrapper.post {
+                fetchHandler.setGlobalBandwidthLimit(bytesPerSecond)
+            }
+            return this
+        }
+    }
+
+    override fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            if (networkType == NetworkType.GLOBAL_OFF) {
+                throw FetchException("bandwidth limit cannot be set for NetworkType.GLOBAL_OFF")
+            }
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            handlerWrapper.post {
+                fetchHandler.setNetworkTypeBandwidthLimit(networkType, bytesPerSecond)
+            }
+            return this
+        }
+    }
+
+    override fun setDownloadBandwidthLimit(id: Int, bytesPerSecond: Long, func: Func<Download>?, func2: Func<Error>?): Fetch {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            handlerWrapper.post {
+                try {
+                    val download = fetchHandler.setDownloadBandwidthLimit(id, bytesPerSecond)
+                    if (func != null) {
+                        uiHandler.post {
+                            func.call(download)
+                        }
+                    }
+                } catch (e: Exception) {
+                    logger.e("Failed to set bandwidth limit on download with id $id", e)
+                    val error = getErrorFromMessage(e.message)
+                    error.throwable = e
+                    if (func2 != null) {
+                        uiHandler.post {
+                            func2.call(error)
+                        }
+                    }
+                }
+            }
+            this
+        }
+    }
+
+    override fun getSchedulingLatency(func: Func<SchedulingLatency>): Fetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            handlerWrapper.post {
+                val schedulingLatency = fetchHandler.getSchedulingLatency()
+                uiHandler.post {
+                    func.call(schedulingLatency)
+                }
+            }
+        }
+        return this
+    }
+
     override fun enableLogging(enabled: Boolean): Fetch {
         synchronized(lock) {
             throwExceptionIfClosed()
@@ -5,9 +5,11 @@ import android.os.Looper
 import com.tonyodev.fetch2.Download
 import com.tonyodev.fetch2.FetchConfiguration
 import com.tonyodev.fetch2.database.*
+import com.tonyodev.fetch2.downloader.BandwidthThrottler
 import com.tonyodev.fetch2.downloader.DownloadManager
 import com.tonyodev.fetch2.downloader.DownloadManagerCoordinator
 import com.tonyodev.fetch2.downloader.DownloadManagerImpl
+import com.tonyodev.fetch2.downloader.SliceDownloadScheduler
 import com.tonyodev.fetch2.helper.DownloadInfoUpdater
 import com.tonyodev.fetch2.helper.PriorityListProcessor
 import com.tonyodev.fetch2.helper.PriorityListProcessorImpl
@@ -15,7 +17,6 @@ import com.tonyodev.fetch2.provider.DownloadProvider
 import com.tonyodev.fetch2.provider.GroupInfoProvider
 import com.tonyodev.fetch2.provider.NetworkInfoProvider
 import com.tonyodev.fetch2.util.deleteAllInFolderForId
-import com.tonyodev.fetch2.util.getRequestForDownload
 import com.tonyodev.fetch2core.DefaultStorageResolver
 import com.tonyodev.fetch2core.HandlerWrapper
 import com.tonyodev.fetch2core.getFileTempDir
@@ -31,7 +32,8 @@ object FetchModulesBuilder {
             val holder = holderMap[fetchConfiguration.namespace]
             val modules = if (holder != null) {
                 Modules(fetchConfiguration, holder.handlerWrapper, holder.fetchDatabaseManagerWrapper, holder.downloadProvider,
-                        holder.groupInfoProvider, holder.uiHandler, holder.downloadManagerCoordinator, holder.listenerCoordinator)
+                        holder.groupInfoProvider, holder.uiHandler, holder.downloadManagerCoordinator, holder.listenerCoordinator,
+                        holder.sliceDownloadScheduler, holder.bandwidthThrottler)
             } else {
                 val newHandlerWrapper = HandlerWrapper(fetchConfiguration.namespace, fetchConfiguration.backgroundHandler)
                 val liveSettings = LiveSettings(fetchConfiguration.namespace)
@@ -43,15 +45,20 @@ object FetchModulesBuilder {
                         fileExistChecksEnabled = fetchConfiguration.fileExistChecksEnabled,
                         defaultStorageResolver = DefaultStorageResolver(fetchConfiguration.appContext,
                                 getFileTempDir(fetchConfiguration.appContext)))
-                val databaseManagerWrapper = FetchDatabaseManagerWrapper(newDatabaseManager)
+                val databaseManagerWrapper = FetchDatabaseManagerWrapper(newDatabaseManager,
+                        fetchConfiguration.progressFlushIntervalMillis, newHandlerWrapper)
                 val downloadProvider = DownloadProvider(databaseManagerWrapper)
                 val downloadManagerCoordinator = DownloadManagerCoordinator(fetchConfiguration.namespace)
                 val groupInfoProvider = GroupInfoProvider(fetchConfiguration.namespace, downloadProvider)
                 val listenerCoordinator = ListenerCoordinator(fetchConfiguration.namespace, groupInfoProvider, downloadProvider, mainUIHandler)
+                val sliceDownloadScheduler = SliceDownloadScheduler(fetchConfiguration.namespace, fetchConfiguration.maxTotalConnections,
+                        fetchConfiguration.logger)
+                val bandwidthThrottler = BandwidthThrottler(fetchConfiguration.namespace, fetchConfiguration.globalBandwidthLimit,
+                        fetchConfiguration.networkTypeBandwidthLimits)
                 val newModules = Modules(fetchConfiguration, newHandlerWrapper, databaseManagerWrapper, downloadProvider, groupInfoProvider, mainUIHandler,
-                        downloadManagerCoordinator, listenerCoordinator)
+                        downloadManagerCoordinator, listenerCoordinator, sliceDownloadScheduler, bandwidthThrottler)
                 holderMap[fetchConfiguration.namespace] = Holder(newHandlerWrapper, databaseManagerWrapper, downloadProvider, groupInfoProvider, mainUIHandler,
-                        downloadManagerCoordinator, listenerCoordinator, newModules.networkInfoProvider)
+                        downloadManagerCoordinator, listenerCoordinator, newModules.networkInfoProvider, sliceDownloadScheduler, bandwidthThrottler)
                 newModules
             }
             modules.handlerWrapper.incrementUsageCounter()
@@ -71,6 +78,7 @@ object FetchModulesBuilder {
                     holder.fetchDatabaseManagerWrapper.close()
                     holder.downloadManagerCoordinator.clearAll()
                     holder.networkInfoProvider.unregisterAllNetworkChangeListeners()
+                    holder.sliceDownloadScheduler.close()
                     holderMap.remove(namespace)
                 }
             }
@@ -84,7 +92,9 @@ object FetchModulesBuilder {
                       val uiHandler: Handler,
                       val downloadManagerCoordinator: DownloadManagerCoordinator,
                       val listenerCoordinator: ListenerCoordinator,
-                      val networkInfoProvider: NetworkInfoProvider)
+                      val networkInfoProvider: NetworkInfoProvider,
+                      val sliceDownloadScheduler: SliceDownloadScheduler,
+                      val bandwidthThrottler: BandwidthThrottler)
 
     class Modules constructor(val fetchConfiguration: FetchConfiguration,
                               val handlerWrapper: HandlerWrapper,
@@ -93,7 +103,9 @@ object FetchModulesBuilder {
                               val groupInfoProvider: GroupInfoProvider,
                               val uiHandler: Handler,
                               downloadManagerCoordinator: DownloadManagerCoordinator,
-                              val listenerCoordinator: ListenerCoordinator) {
+                              val listenerCoordinator: ListenerCoordinator,
+                              sliceDownloadScheduler: SliceDownloadScheduler,
+                              bandwidthThrottler: BandwidthThrottler) {
 
         val downloadManager: DownloadManager
         val priorityListProcessor: PriorityListProcessor<Download>
@@ -118,7 +130,12 @@ object FetchModulesBuilder {
                     context = fetchConfiguration.appContext,
                     namespace = fetchConfiguration.namespace,
                     groupInfoProvider = groupInfoProvider,
-                    globalAutoRetryMaxAttempts = fetchConfiguration.maxAutoRetryAttempts)
+                    globalAutoRetryMaxAttempts = fetchConfiguration.maxAutoRetryAttempts,
+                    sliceCheckpointBytes = fetchConfiguration.sliceCheckpointBytes,
+                    sliceCheckpointIntervalMillis = fetchConfiguration.sliceCheckpointIntervalMillis,
+                    sliceDownloadScheduler = sliceDownloadScheduler,
+                    bandwidthThrottler = bandwidthThrottler,
+                    preallocateDownloadFile = fetchConfiguration.preallocateDownloadFile)
             priorityListProcessor = PriorityListProcessorImpl(
                     handlerWrapper = handlerWrapper,
                     downloadProvider = downloadProvider,
@@ -127,7 +144,6 @@ object FetchModulesBuilder {
                     logger = fetchConfiguration.logger,
                     listenerCoordinator = listenerCoordinator,
                     downloadConcurrentLimit = fetchConfiguration.concurrentLimit,
-                    context = fetchConfiguration.appContext,
                     namespace = fetchConfiguration.namespace,
                     prioritySort = fetchConfiguration.prioritySort)
             priorityListProcessor.globalNetworkType = fetchConfiguration.globalNetworkType
@@ -146,14 +162,20 @@ object FetchModulesBuilder {
                     fetchNotificationManager = fetchConfiguration.fetchNotificationManager,
                     groupInfoProvider = groupInfoProvider,
                     prioritySort = fetchConfiguration.prioritySort,
-                    createFileOnEnqueue = fetchConfiguration.createFileOnEnqueue)
+                    createFileOnEnqueue = fetchConfiguration.createFileOnEnqueue,
+                    handlerWrapper = handlerWrapper,
+                    context = fetchConfiguration.appContext)
             fetchDatabaseManagerWrapper.delegate = object : FetchDatabaseManager.Delegate {
                 override fun deleteTempFilesForDownload(downloadInfo: DownloadInfo) {
-                    val tempDir = fetchConfiguration.storageResolver
-                            .getDirectoryForFileDownloaderTypeParallel(getRequestForDownload(downloadInfo))
-                    deleteAllInFolderForId(downloadInfo.id, tempDir)
+                    deleteAllInFolderForId(downloadInfo.id, downloadManager.getDownloadFileTempDir(downloadInfo))
                 }
             }
+            bandwidthThrottler.currentNetworkType = networkInfoProvider.currentNetworkType
+            networkInfoProvider.registerNetworkChangeListener(object : NetworkInfoProvider.NetworkChangeListener {
+                override fun onNetworkChanged() {
+                    bandwidthThrottler.currentNetworkType = networkInfoProvider.currentNetworkType
+                }
+            })
             fetchConfiguration.fetchNotificationManager?.progressReportingIntervalInMillis =
                     fetchConfiguration.progressReportingIntervalMillis
         }
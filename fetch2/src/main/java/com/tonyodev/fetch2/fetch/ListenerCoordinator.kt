@@ -2,769 +2,559 @@ package com.tonyodev.fetch2.fetch
 
 import android.os.Handler
 import android.os.HandlerThread
+import android.os.SystemClock
 import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.provider.DownloadProvider
 import com.tonyodev.fetch2.provider.GroupInfoProvider
+import com.tonyodev.fetch2.util.DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLISECONDS
 import com.tonyodev.fetch2core.DownloadBlock
 import com.tonyodev.fetch2core.FetchObserver
 import com.tonyodev.fetch2core.Reason
 import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
+/**
+ * Fans out download events to the attached listeners, group listeners, observers and notification
+ * managers. The attached listeners are kept in an immutable ListenerRegistry. Adding or removing a
+ * listener publishes a new registry, so downloader threads read the current registry without
+ * taking a lock and never wait on listener registration or notification manager calls.
+ * Progress is coalesced in one slot per download and reported without taking a lock as well.
+ * */
 class ListenerCoordinator(val namespace: String,
                           private val groupInfoProvider: GroupInfoProvider,
                           private val downloadProvider: DownloadProvider,
                           private val uiHandler: Handler) {
 
-    private val lock = Any()
-    private val fetchListenerMap = mutableMapOf<Int, MutableSet<WeakReference<FetchListener>>>()
-    private val fetchGroupListenerMap = mutableMapOf<Int, MutableSet<WeakReference<FetchGroupListener>>>()
-    private val fetchNotificationManagerList = mutableListOf<FetchNotificationManager>()
+    private val registryLock = Any()
+    private val registry = AtomicReference(ListenerRegistry.EMPTY)
     private val fetchNotificationHandler = {
         val handlerThread = HandlerThread("FetchNotificationsIO")
         handlerThread.start()
         Handler(handlerThread.looper)
     }()
-    private val downloadsObserverMap = mutableMapOf<Int, MutableList<WeakReference<FetchObserver<Download>>>>()
+    /** Held while progress is dispatched and while a status change drops the pending progress of
+     * its download, so a status change is never followed by progress taken before it.*/
+    private val progressDispatchLock = Any()
+    private val statusEventSequence = AtomicLong()
+    /** Sequence of the last status change per download id. Guarded by progressDispatchLock.*/
+    private val statusEventSequences = HashMap<Int, Long>()
+    /** Latest undispatched progress per download id. Downloader threads replace their own slot
+     * without taking a lock. Typed as MutableMap so keys does not resolve to the KeySetView
+     * overload that older Android versions lack.*/
+    private val pendingProgress: MutableMap<Int, PendingProgress> = ConcurrentHashMap()
+    private val pendingDownloadBlockUpdates: MutableMap<Long, PendingDownloadBlockUpdate> = ConcurrentHashMap()
+    private val progressDispatchScheduled = AtomicBoolean(false)
+    private val progressDispatchRunnable = Runnable {
+        dispatchProgressEvents()
+    }
 
     fun addListener(id: Int, fetchListener: FetchListener) {
-        synchronized(lock) {
-            val set = fetchListenerMap[id] ?: mutableSetOf()
-            set.add(WeakReference(fetchListener))
-            fetchListenerMap[id] = set
-            if (fetchListener is FetchGroupListener) {
-                val groupSet = fetchGroupListenerMap[id] ?: mutableSetOf()
-                groupSet.add(WeakReference(fetchListener))
-                fetchGroupListenerMap[id] = groupSet
+        synchronized(registryLock) {
+            val current = registry.get()
+            val fetchListenerMap = HashMap(current.fetchListenerMap)
+            fetchListenerMap[id] = (fetchListenerMap[id] ?: listOf()) + WeakReference(fetchListener)
+            val fetchGroupListenerMap = if (fetchListener is FetchGroupListener) {
+                val groupListenerMap = HashMap(current.fetchGroupListenerMap)
+                groupListenerMap[id] = (groupListenerMap[id] ?: listOf()) + WeakReference(fetchListener)
+                groupListenerMap
+            } else {
+                current.fetchGroupListenerMap
             }
+            registry.set(ListenerRegistry(fetchListenerMap, fetchGroupListenerMap,
+                    current.fetchNotificationManagers, current.downloadsObserverMap))
         }
     }
 
     fun removeListener(id: Int, fetchListener: FetchListener) {
-        synchronized(lock) {
-            val iterator = fetchListenerMap[id]?.iterator()
-            if (iterator != null) {
-                while (iterator.hasNext()) {
-                    val reference = iterator.next()
-                    if (reference.get() == fetchListener) {
-                        iterator.remove()
-                        break
-                    }
-                }
+        synchronized(registryLock) {
+            val current = registry.get()
+            val fetchListenerMap = HashMap(current.fetchListenerMap)
+            val listeners = fetchListenerMap[id]
+            if (listeners != null) {
+                fetchListenerMap[id] = removeFirstReference(listeners, fetchListener)
             }
-            if (fetchListener is FetchGroupListener) {
-                val groupIterator = fetchGroupListenerMap[id]?.iterator()
-                if (groupIterator != null) {
-                    while (groupIterator.hasNext()) {
-                        val reference = groupIterator.next()
-                        if (reference.get() == fetchListener) {
-                            groupIterator.remove()
-                            break
-                        }
-                    }
-                }
+            val fetchGroupListenerMap = HashMap(current.fetchGroupListenerMap)
+            val groupListeners = fetchGroupListenerMap[id]
+            if (fetchListener is FetchGroupListener && groupListeners != null) {
+                fetchGroupListenerMap[id] = removeFirstReference(groupListeners, fetchListener)
             }
+            registry.set(ListenerRegistry(fetchListenerMap, fetchGroupListenerMap,
+                    current.fetchNotificationManagers, current.downloadsObserverMap))
         }
     }
 
     fun addNotificationManager(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            if (!fetchNotificationManagerList.contains(fetchNotificationManager)) {
-                fetchNotificationManagerList.add(fetchNotificationManager)
+        synchronized(registryLock) {
+            val current = registry.get()
+            if (!current.fetchNotificationManagers.contains(fetchNotificationManager)) {
+                registry.set(ListenerRegistry(current.fetchListenerMap, current.fetchGroupListenerMap,
+                        current.fetchNotificationManagers + fetchNotificationManager, current.downloadsObserverMap))
             }
         }
     }
 
     fun removeNotificationManager(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            fetchNotificationManagerList.remove(fetchNotificationManager)
+        synchronized(registryLock) {
+            val current = registry.get()
+            registry.set(ListenerRegistry(current.fetchListenerMap, current.fetchGroupListenerMap,
+                    current.fetchNotificationManagers - fetchNotificationManager, current.downloadsObserverMap))
         }
     }
 
     fun cancelOnGoingNotifications(fetchNotificationManager: FetchNotificationManager) {
-        synchronized(lock) {
-            fetchNotificationHandler.post {
-                synchronized(lock) {
-                    fetchNotificationManager.cancelOngoingNotifications()
-                }
-            }
+        fetchNotificationHandler.post {
+            fetchNotificationManager.cancelOngoingNotifications()
         }
     }
 
     val mainListener: FetchListener = object : FetchListener {
 
         override fun onAdded(download: Download) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onAdded(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ADDED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                uiHandler.post {
-                                    fetchListener.onAdded(groupId, download, fetchGroup)
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ADDED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_ADDED)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_ADDED, false, true, { fetchListener ->
+                fetchListener.onAdded(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onAdded(groupId, download, fetchGroup)
+            })
         }
 
         override fun onQueued(download: Download, waitingOnNetwork: Boolean) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onQueued(download, waitingOnNetwork)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_QUEUED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onQueued(groupId, download, waitingOnNetwork, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_QUEUED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_QUEUED)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_QUEUED, false, false, { fetchListener ->
+                fetchListener.onQueued(download, waitingOnNetwork)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onQueued(groupId, download, waitingOnNetwork, fetchGroup)
+            })
         }
 
         override fun onWaitingNetwork(download: Download) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onWaitingNetwork(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onWaitingNetwork(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_WAITING_ON_NETWORK)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_WAITING_ON_NETWORK, false, false, { fetchListener ->
+                fetchListener.onWaitingNetwork(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onWaitingNetwork(groupId, download, fetchGroup)
+            })
         }
 
         override fun onCompleted(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onCompleted(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_COMPLETED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onCompleted(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_COMPLETED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_COMPLETED)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_COMPLETED, true, false, { fetchListener ->
+                fetchListener.onCompleted(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onCompleted(groupId, download, fetchGroup)
+            })
         }
 
         override fun onError(download: Download, error: Error, throwable: Throwable?) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onError(download, error, throwable)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_ERROR)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onError(groupId, download, error, throwable, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_ERROR)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_ERROR)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_ERROR, true, false, { fetchListener ->
+                fetchListener.onError(download, error, throwable)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onError(groupId, download, error, throwable, fetchGroup)
+            })
         }
 
         override fun onDownloadBlockUpdated(download: Download, downloadBlock: DownloadBlock, totalBlocks: Int) {
-            synchronized(lock) {
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            fetchListener.onDownloadBlockUpdated(download, downloadBlock, totalBlocks)
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_BLOCK_UPDATED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onDownloadBlockUpdated(groupId, download, downloadBlock, totalBlocks, fetchGroup)
-                            }
-                        }
-                    }
-                }
-            }
+            val sequence = statusEventSequence.get()
+            val key = (download.id.toLong() shl 32) or (downloadBlock.blockPosition.toLong() and 0xFFFFFFFFL)
+            pendingDownloadBlockUpdates[key] = PendingDownloadBlockUpdate(download, downloadBlock, totalBlocks, sequence)
+            scheduleProgressDispatch()
         }
 
         override fun onStarted(download: Download, downloadBlocks: List<DownloadBlock>, totalBlocks: Int) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onStarted(download, downloadBlocks, totalBlocks)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_STARTED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onStarted(groupId, download, downloadBlocks, totalBlocks, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_STARTED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_STARTED)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_STARTED, true, false, { fetchListener ->
+                fetchListener.onStarted(download, downloadBlocks, totalBlocks)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onStarted(groupId, download, downloadBlocks, totalBlocks, fetchGroup)
+            })
         }
 
         override fun onProgress(download: Download, etaInMilliSeconds: Long, downloadedBytesPerSecond: Long) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download, etaInMilliSeconds, downloadedBytesPerSecond)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onProgress(download, etaInMilliSeconds, downloadedBytesPerSecond)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onProgress(groupId, download, etaInMilliSeconds, downloadedBytesPerSecond, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_PROGRESS_CHANGED)
-                        }
-                    }
-                }
-            }
+            val sequence = statusEventSequence.get()
+            pendingProgress[download.id] = PendingProgress(download, etaInMilliSeconds, downloadedBytesPerSecond, sequence)
+            scheduleProgressDispatch()
         }
 
         override fun onPaused(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onPaused(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download,  Reason.DOWNLOAD_PAUSED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onPaused(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PAUSED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_PAUSED)
-                        }
-                    }
-                }
-            }
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_PAUSED, true, false, { fetchListener ->
+                fetchListener.onPaused(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onPaused(groupId, download, fetchGroup)
+            })
         }
 
         override fun onResumed(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onResumed(download)
-                            }
-                        }
-                    }
-                }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_RESUMED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onResumed(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_RESUMED)
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_RESUMED, true, false, { fetchListener ->
+                fetchListener.onResumed(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onResumed(groupId, download, fetchGroup)
+            })
+        }
+
+        override fun onCancelled(download: Download) {
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_CANCELLED, true, false, { fetchListener ->
+                fetchListener.onCancelled(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onCancelled(groupId, download, fetchGroup)
+            })
+        }
+
+        override fun onRemoved(download: Download) {
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_REMOVED, true, false, { fetchListener ->
+                fetchListener.onRemoved(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onRemoved(groupId, download, fetchGroup)
+            })
+        }
+
+        override fun onDeleted(download: Download) {
+            dispatchDownloadEvent(download, Reason.DOWNLOAD_DELETED, true, false, { fetchListener ->
+                fetchListener.onDeleted(download)
+            }, { fetchGroupListener, groupId, fetchGroup ->
+                fetchGroupListener.onDeleted(groupId, download, fetchGroup)
+            })
+        }
+
+    }
+
+    fun clearAll() {
+        synchronized(registryLock) {
+            synchronized(progressDispatchLock) {
+                statusEventSequences.clear()
+                pendingProgress.clear()
+                pendingDownloadBlockUpdates.clear()
+            }
+            registry.set(ListenerRegistry.EMPTY)
+        }
+    }
+
+    fun addFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
+        val addedObservers = mutableListOf<FetchObserver<Download>>()
+        synchronized(registryLock) {
+            val current = registry.get()
+            val observers = current.downloadsObserverMap[downloadId] ?: listOf()
+            val attachedObservers = observers.mapNotNull { it.get() }
+            val newObservers = observers.toMutableList()
+            for (fetchObserver in fetchObservers.distinct()) {
+                if (!attachedObservers.contains(fetchObserver)) {
+                    newObservers.add(WeakReference(fetchObserver))
+                    addedObservers.add(fetchObserver)
                 }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_RESUMED)
-                        }
+            }
+            val downloadsObserverMap = HashMap(current.downloadsObserverMap)
+            downloadsObserverMap[downloadId] = newObservers
+            registry.set(ListenerRegistry(current.fetchListenerMap, current.fetchGroupListenerMap,
+                    current.fetchNotificationManagers, downloadsObserverMap))
+        }
+        if (addedObservers.isNotEmpty()) {
+            val download = downloadProvider.getDownload(downloadId)
+            if (download != null) {
+                uiHandler.post {
+                    for (addedObserver in addedObservers) {
+                        addedObserver.onChanged(download, Reason.OBSERVER_ATTACHED)
                     }
                 }
             }
         }
+    }
 
-        override fun onCancelled(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
+    fun removeFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
+        synchronized(registryLock) {
+            val current = registry.get()
+            var observers = current.downloadsObserverMap[downloadId] ?: return
+            for (fetchObserver in fetchObservers) {
+                observers = removeFirstReference(observers, fetchObserver)
+            }
+            val downloadsObserverMap = HashMap(current.downloadsObserverMap)
+            if (observers.isEmpty()) {
+                downloadsObserverMap.remove(downloadId)
+            } else {
+                downloadsObserverMap[downloadId] = observers
+            }
+            registry.set(ListenerRegistry(current.fetchListenerMap, current.fetchGroupListenerMap,
+                    current.fetchNotificationManagers, downloadsObserverMap))
+        }
+    }
+
+    /** Delivers a download status change. Fetch listeners and download observers are called on the
+     * ui handler, group listeners on the calling thread unless postGroupCallbacks is set and
+     * notification managers on the notification thread. Coalesced progress of the download that
+     * was not dispatched yet is dropped, since this event carries newer information. A progress
+     * dispatch that is running is waited for, so its callbacks come before the callbacks of this event.*/
+    private fun dispatchDownloadEvent(download: Download,
+                                      reason: Reason,
+                                      postNotificationUpdate: Boolean,
+                                      postGroupCallbacks: Boolean,
+                                      fetchListenerCallback: (FetchListener) -> Unit,
+                                      fetchGroupListenerCallback: (FetchGroupListener, Int, FetchGroup) -> Unit) {
+        discardPendingProgressEvents(download.id)
+        val currentRegistry = registry.get()
+        var hasClearedReferences = false
+        if (postNotificationUpdate) {
+            fetchNotificationHandler.post {
+                for (fetchNotificationManager in registry.get().fetchNotificationManagers) {
+                    if (fetchNotificationManager.postNotificationUpdate(download)) break
                 }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onCancelled(download)
-                            }
-                        }
-                    }
+            }
+        }
+        for (reference in currentRegistry.fetchListeners) {
+            val fetchListener = reference.get()
+            if (fetchListener == null) {
+                hasClearedReferences = true
+            } else {
+                uiHandler.post {
+                    fetchListenerCallback(fetchListener)
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_CANCELLED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onCancelled(groupId, download, fetchGroup)
-                            }
-                        }
+            }
+        }
+        if (currentRegistry.fetchGroupListeners.isNotEmpty()) {
+            val groupId = download.group
+            val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, reason)
+            for (reference in currentRegistry.fetchGroupListeners) {
+                val fetchGroupListener = reference.get()
+                if (fetchGroupListener == null) {
+                    hasClearedReferences = true
+                } else if (postGroupCallbacks) {
+                    uiHandler.post {
+                        fetchGroupListenerCallback(fetchGroupListener, groupId, fetchGroup)
                     }
                 } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_CANCELLED)
+                    fetchGroupListenerCallback(fetchGroupListener, groupId, fetchGroup)
                 }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_CANCELLED)
-                        }
+            }
+        } else {
+            groupInfoProvider.postGroupReplace(download.group, download, reason)
+        }
+        val downloadObservers = currentRegistry.downloadsObserverMap[download.id]
+        if (downloadObservers != null) {
+            for (reference in downloadObservers) {
+                val observer = reference.get()
+                if (observer != null) {
+                    uiHandler.post {
+                        observer.onChanged(download, reason)
                     }
                 }
             }
         }
+        if (hasClearedReferences) {
+            removeClearedReferences()
+        }
+    }
 
-        override fun onRemoved(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onRemoved(download)
-                            }
-                        }
+    /** Progress and download block updates are coalesced per download and dispatched together
+     * on the notification thread once per display frame. The latest update of a download wins.*/
+    private fun scheduleProgressDispatch() {
+        if (!progressDispatchScheduled.get() && progressDispatchScheduled.compareAndSet(false, true)) {
+            val interval = DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLISECONDS
+            fetchNotificationHandler.postDelayed(progressDispatchRunnable, interval - SystemClock.uptimeMillis() % interval)
+        }
+    }
+
+    /** Drops coalesced updates of a download that were not dispatched yet, so they are not
+     * delivered after a newer status change of the download. Updates that were reported before
+     * this call but are added to the pending updates after it are dropped by the next dispatch.*/
+    private fun discardPendingProgressEvents(downloadId: Int) {
+        synchronized(progressDispatchLock) {
+            statusEventSequences[downloadId] = statusEventSequence.incrementAndGet()
+            pendingProgress.remove(downloadId)
+            if (pendingDownloadBlockUpdates.isNotEmpty()) {
+                val iterator = pendingDownloadBlockUpdates.values.iterator()
+                while (iterator.hasNext()) {
+                    if (iterator.next().download.id == downloadId) {
+                        iterator.remove()
                     }
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_REMOVED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onRemoved(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
-                } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_REMOVED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
+            }
+        }
+    }
+
+    /** @return true if a status change of the download was dispatched after the update was reported.
+     * Only called while holding progressDispatchLock.*/
+    private fun isStaleNoLock(downloadId: Int, sequence: Long): Boolean {
+        val statusSequence = statusEventSequences[downloadId] ?: return false
+        return sequence < statusSequence
+    }
+
+    /** Runs under progressDispatchLock, so a status change that discards the pending updates of a
+     * download waits until the progress taken here was handed to every listener and is always
+     * delivered after it.*/
+    private fun dispatchProgressEvents() {
+        synchronized(progressDispatchLock) {
+            dispatchProgressEventsNoLock()
+        }
+    }
+
+    private fun dispatchProgressEventsNoLock() {
+        val currentRegistry = registry.get()
+        val progressSnapshots = ArrayList<ProgressSnapshot>()
+        val downloadBlockUpdates = ArrayList<PendingDownloadBlockUpdate>()
+        // Cleared before draining, so an update that lands after its slot was drained schedules
+        // the next dispatch.
+        progressDispatchScheduled.set(false)
+        for (downloadId in pendingProgress.keys) {
+            val progress = pendingProgress.remove(downloadId) ?: continue
+            if (!isStaleNoLock(downloadId, progress.sequence)) {
+                progressSnapshots.add(ProgressSnapshot(progress.download.copy(), progress.etaInMilliSeconds, progress.downloadedBytesPerSecond))
+            }
+        }
+        for (key in pendingDownloadBlockUpdates.keys) {
+            val update = pendingDownloadBlockUpdates.remove(key) ?: continue
+            if (!isStaleNoLock(update.download.id, update.sequence)) {
+                downloadBlockUpdates.add(update)
+            }
+        }
+        if (progressSnapshots.isNotEmpty()) {
+            postProgressSnapshots(currentRegistry, progressSnapshots)
+        }
+        var hasClearedReferences = false
+        for (update in downloadBlockUpdates) {
+            if (dispatchDownloadBlockUpdated(currentRegistry, update.download, update.downloadBlock, update.totalBlocks)) {
+                hasClearedReferences = true
+            }
+        }
+        for (progressSnapshot in progressSnapshots) {
+            for (fetchNotificationManager in currentRegistry.fetchNotificationManagers) {
+                if (fetchNotificationManager.postNotificationUpdate(progressSnapshot.download,
+                                progressSnapshot.etaInMilliSeconds, progressSnapshot.downloadedBytesPerSecond)) break
+            }
+        }
+        for (progressSnapshot in progressSnapshots) {
+            val download = progressSnapshot.download
+            if (currentRegistry.fetchGroupListeners.isNotEmpty()) {
+                val groupId = download.group
+                val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
+                for (reference in currentRegistry.fetchGroupListeners) {
+                    val fetchGroupListener = reference.get()
+                    if (fetchGroupListener == null) {
+                        hasClearedReferences = true
+                    } else {
+                        fetchGroupListener.onProgress(groupId, download, progressSnapshot.etaInMilliSeconds,
+                                progressSnapshot.downloadedBytesPerSecond, fetchGroup)
+                    }
+                }
+            } else {
+                groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_PROGRESS_CHANGED)
+            }
+        }
+        if (hasClearedReferences) {
+            removeClearedReferences()
+        }
+    }
+
+    private fun postProgressSnapshots(currentRegistry: ListenerRegistry, progressSnapshots: List<ProgressSnapshot>) {
+        val downloadObservers = mutableListOf<Pair<FetchObserver<Download>, Download>>()
+        if (currentRegistry.downloadsObserverMap.isNotEmpty()) {
+            for (progressSnapshot in progressSnapshots) {
+                currentRegistry.downloadsObserverMap[progressSnapshot.download.id]?.forEach {
                     val observer = it.get()
                     if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_REMOVED)
-                        }
+                        downloadObservers.add(Pair(observer, progressSnapshot.download))
                     }
                 }
             }
         }
-
-        override fun onDeleted(download: Download) {
-            synchronized(lock) {
-                fetchNotificationHandler.post {
-                    synchronized(lock) {
-                        for (fetchNotificationManager in fetchNotificationManagerList) {
-                            if (fetchNotificationManager.postNotificationUpdate(download)) break
-                        }
-                    }
-                }
-                fetchListenerMap.values.forEach {
-                    val iterator = it.iterator()
-                    while (iterator.hasNext()) {
-                        val fetchListener = iterator.next().get()
-                        if (fetchListener == null) {
-                            iterator.remove()
-                        } else {
-                            uiHandler.post {
-                                fetchListener.onDeleted(download)
-                            }
-                        }
+        if (currentRegistry.fetchListeners.isEmpty() && downloadObservers.isEmpty()) {
+            return
+        }
+        uiHandler.post {
+            for (reference in currentRegistry.fetchListeners) {
+                val fetchListener = reference.get()
+                if (fetchListener is FetchProgressBatchListener) {
+                    fetchListener.onProgressBatch(progressSnapshots)
+                } else if (fetchListener != null) {
+                    for (progressSnapshot in progressSnapshots) {
+                        fetchListener.onProgress(progressSnapshot.download, progressSnapshot.etaInMilliSeconds,
+                                progressSnapshot.downloadedBytesPerSecond)
                     }
                 }
-                if (fetchGroupListenerMap.isNotEmpty()) {
-                    val groupId = download.group
-                    val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_DELETED)
-                    fetchGroupListenerMap.values.forEach {
-                        val iterator = it.iterator()
-                        while (iterator.hasNext()) {
-                            val fetchListener = iterator.next().get()
-                            if (fetchListener == null) {
-                                iterator.remove()
-                            } else {
-                                fetchListener.onDeleted(groupId, download, fetchGroup)
-                            }
-                        }
-                    }
+            }
+            for (downloadObserver in downloadObservers) {
+                downloadObserver.first.onChanged(downloadObserver.second, Reason.DOWNLOAD_PROGRESS_CHANGED)
+            }
+        }
+    }
+
+    /** @return true if a cleared listener reference was found.*/
+    private fun dispatchDownloadBlockUpdated(currentRegistry: ListenerRegistry, download: Download,
+                                             downloadBlock: DownloadBlock, totalBlocks: Int): Boolean {
+        var hasClearedReferences = false
+        for (reference in currentRegistry.fetchListeners) {
+            val fetchListener = reference.get()
+            if (fetchListener == null) {
+                hasClearedReferences = true
+            } else {
+                fetchListener.onDownloadBlockUpdated(download, downloadBlock, totalBlocks)
+            }
+        }
+        if (currentRegistry.fetchGroupListeners.isNotEmpty()) {
+            val groupId = download.group
+            val fetchGroup = groupInfoProvider.getGroupReplace(groupId, download, Reason.DOWNLOAD_BLOCK_UPDATED)
+            for (reference in currentRegistry.fetchGroupListeners) {
+                val fetchGroupListener = reference.get()
+                if (fetchGroupListener == null) {
+                    hasClearedReferences = true
                 } else {
-                    groupInfoProvider.postGroupReplace(download.group, download, Reason.DOWNLOAD_DELETED)
-                }
-                val downloadObserverSet = downloadsObserverMap[download.id]
-                downloadObserverSet?.forEach {
-                    val observer = it.get()
-                    if (observer != null) {
-                        uiHandler.post {
-                            observer.onChanged(download, Reason.DOWNLOAD_DELETED)
-                        }
-                    }
+                    fetchGroupListener.onDownloadBlockUpdated(groupId, download, downloadBlock, totalBlocks, fetchGroup)
                 }
             }
         }
+        return hasClearedReferences
     }
 
-    fun clearAll() {
-        synchronized(lock) {
-            fetchListenerMap.clear()
-            fetchGroupListenerMap.clear()
-            fetchNotificationManagerList.clear()
-            downloadsObserverMap.clear()
+    /** Publishes a registry without the listeners and observers that were garbage collected.*/
+    private fun removeClearedReferences() {
+        synchronized(registryLock) {
+            val current = registry.get()
+            registry.set(ListenerRegistry(
+                    removeClearedReferences(current.fetchListenerMap),
+                    removeClearedReferences(current.fetchGroupListenerMap),
+                    current.fetchNotificationManagers,
+                    removeClearedReferences(current.downloadsObserverMap)))
         }
     }
 
-    fun addFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
-        synchronized(lock) {
-            val newFetchObservers = fetchObservers.distinct()
-            val set = downloadsObserverMap[downloadId] ?: mutableListOf()
-            val attachedObservers = set.mapNotNull { it.get() }
-            val addedObservers = mutableListOf<FetchObserver<Download>>()
-            for (fetchObserver in newFetchObservers) {
-                if (!attachedObservers.contains(fetchObserver)) {
-                    set.add(WeakReference(fetchObserver))
-                    addedObservers.add(fetchObserver)
-                }
-            }
-            val download = downloadProvider.getDownload(downloadId)
-            if (download != null) {
-                uiHandler.post {
-                    for (addedObserver in addedObservers) {
-                        addedObserver.onChanged(download, Reason.OBSERVER_ATTACHED)
-                    }
-                }
+    private fun <T> removeClearedReferences(map: Map<Int, List<WeakReference<T>>>): Map<Int, List<WeakReference<T>>> {
+        val newMap = HashMap<Int, List<WeakReference<T>>>(map.size)
+        for (entry in map) {
+            val references = entry.value.filter { it.get() != null }
+            if (references.isNotEmpty()) {
+                newMap[entry.key] = references
             }
-            downloadsObserverMap[downloadId] = set
         }
+        return newMap
     }
 
-    fun removeFetchObserversForDownload(downloadId: Int, vararg fetchObservers: FetchObserver<Download>) {
-        synchronized(lock) {
-            for (fetchObserver in fetchObservers) {
-                val iterator = downloadsObserverMap[downloadId]?.iterator()
-                if (iterator != null) {
-                    while (iterator.hasNext()) {
-                        val reference = iterator.next()
-                        if (reference.get() == fetchObservers) {
-                            iterator.remove()
-                            break
-                        }
-                    }
-                }
-            }
+    private fun <T> removeFirstReference(references: List<WeakReference<T>>, value: Any): List<WeakReference<T>> {
+        val index = references.indexOfFirst { it.get() == value }
+        return if (index == -1) {
+            references
+        } else {
+            references.filterIndexed { i, _ -> i != index }
         }
     }
 
-}
\ No newline at end of file
+    /** Immutable snapshot of the attached listeners. Never modified after it was published.*/
+    private class ListenerRegistry(val fetchListenerMap: Map<Int, List<WeakReference<FetchListener>>>,
+                                   val fetchGroupListenerMap: Map<Int, List<WeakReference<FetchGroupListener>>>,
+                                   val fetchNotificationManagers: List<FetchNotificationManager>,
+                                   val downloadsObserverMap: Map<Int, List<WeakReference<FetchObserver<Download>>>>) {
+
+        val fetchListeners: List<WeakReference<FetchListener>> = fetchListenerMap.values.flatten()
+        val fetchGroupListeners: List<WeakReference<FetchGroupListener>> = fetchGroupListenerMap.values.flatten()
+
+        companion object {
+            val EMPTY = ListenerRegistry(mapOf(), mapOf(), listOf(), mapOf())
+        }
+
+    }
+
+    /** @param sequence status event sequence when the progress was reported.*/
+    private class PendingProgress(val download: Download,
+                                  val etaInMilliSeconds: Long,
+                                  val downloadedBytesPerSecond: Long,
+                                  val sequence: Long)
+
+    private class PendingDownloadBlockUpdate(val download: Download,
+                                             val downloadBlock: DownloadBlock,
+                                             val totalBlocks: Int,
+                                             val sequence: Long)
+
+}
@@ -10,6 +10,7 @@ interface PriorityListProcessor<out T>: Closeable {
     var globalNetworkType: NetworkType
     val isPaused: Boolean
     val isStopped: Boolean
+    val schedulingLatencyStats: SchedulingLatencyStats
 
     fun start()
     fun stop()
@@ -17,6 +18,8 @@ interface PriorityListProcessor<out T>: Closeable {
     fun resume()
     fun getPriorityList(): List<T>
     fun resetBackOffTime()
-    fun sendBackOffResetSignal()
+
+    /** Runs a pass over the queue right away, e.g. after downloads were enqueued.*/
+    fun wakeUp()
 
 }
\ No newline at end of file
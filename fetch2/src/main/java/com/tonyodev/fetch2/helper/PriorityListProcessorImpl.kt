@@ -1,21 +1,24 @@
 package com.tonyodev.fetch2.helper
 
-import android.content.BroadcastReceiver
-import android.content.Context
-import android.content.Intent
-import android.content.IntentFilter
 import com.tonyodev.fetch2.*
 import com.tonyodev.fetch2.downloader.DownloadManager
 import com.tonyodev.fetch2core.HandlerWrapper
 import com.tonyodev.fetch2.provider.DownloadProvider
 import com.tonyodev.fetch2.provider.NetworkInfoProvider
 import com.tonyodev.fetch2.util.DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS
+import com.tonyodev.fetch2.util.DEFAULT_PRIORITY_QUEUE_MAX_IDLE_INTERVAL_IN_MILLISECONDS
 import com.tonyodev.fetch2.NetworkType
 import com.tonyodev.fetch2.fetch.ListenerCoordinator
 import com.tonyodev.fetch2core.Logger
 import com.tonyodev.fetch2core.isFetchFileServerUrl
-import java.util.concurrent.TimeUnit
 
+/**
+ * Starts queued downloads in priority order. A pass over the queue runs right away when
+ * downloads are enqueued or resumed, when a running download frees its slot and when the network
+ * becomes available. While there is nothing to start, the queue is also polled as a safety net,
+ * backing off from DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS up to
+ * DEFAULT_PRIORITY_QUEUE_MAX_IDLE_INTERVAL_IN_MILLISECONDS.
+ * */
 class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerWrapper,
                                             private val downloadProvider: DownloadProvider,
                                             private val downloadManager: DownloadManager,
@@ -24,7 +27,6 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
                                             private val listenerCoordinator: ListenerCoordinator,
                                             @Volatile
                                             override var downloadConcurrentLimit: Int,
-                                            private val context: Context,
                                             private val namespace: String,
                                             private val prioritySort: PrioritySort)
     : PriorityListProcessor<Download> {
@@ -42,43 +44,37 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
         get() = stopped
     @Volatile
     private var backOffTime = DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS
+    private var wakeUpRequestTime = 0L
+    override val schedulingLatencyStats = SchedulingLatencyStats()
     private val networkChangeListener: NetworkInfoProvider.NetworkChangeListener = object : NetworkInfoProvider.NetworkChangeListener {
         override fun onNetworkChanged() {
-            if (!stopped && !paused && networkInfoProvider.isNetworkAvailable
-                    && backOffTime > DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS) {
-                resetBackOffTime()
+            if (networkInfoProvider.isNetworkAvailable) {
+                wakeUp()
             }
         }
     }
-    private val priorityBackoffResetReceiver: BroadcastReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context?, intent: Intent?) {
-            if (context != null && intent != null) {
-                when (intent.action) {
-                    ACTION_QUEUE_BACKOFF_RESET -> {
-                        if (!stopped && !paused && namespace == intent.getStringExtra(EXTRA_NAMESPACE)) {
-                            resetBackOffTime()
-                        }
-                    }
-                }
-            }
+    private val downloadManagerDelegate = object : DownloadManager.Delegate {
+        override fun onDownloadSlotFreed() {
+            wakeUp()
         }
     }
 
-    init {
-        networkInfoProvider.registerNetworkChangeListener(networkChangeListener)
-        context.registerReceiver(priorityBackoffResetReceiver, IntentFilter(ACTION_QUEUE_BACKOFF_RESET))
-    }
-
     private val priorityIteratorRunnable = Runnable {
+        val wakeUpTime = synchronized(lock) {
+            val requestTime = wakeUpRequestTime
+            wakeUpRequestTime = 0L
+            requestTime
+        }
+        if (wakeUpTime != 0L) {
+            schedulingLatencyStats.record(System.nanoTime() - wakeUpTime)
+        }
         if (canContinueToProcess()) {
             if (downloadManager.canAccommodateNewDownload() && canContinueToProcess()) {
-                val priorityList = getPriorityList()
-                var shouldBackOff = false
-                if (priorityList.isEmpty() || !networkInfoProvider.isNetworkAvailable) {
-                    shouldBackOff = true
-                }
-                if (!shouldBackOff) {
-                    shouldBackOff = true
+                var priorityList = getPriorityList(null)
+                var shouldBackOff = true
+                var hasNextPage = priorityList.isNotEmpty() && networkInfoProvider.isNetworkAvailable
+                while (hasNextPage) {
+                    hasNextPage = priorityList.size == PRIORITY_LIST_PAGE_SIZE
                     for (index in 0..priorityList.lastIndex) {
                         if (downloadManager.canAccommodateNewDownload() && canContinueToProcess()) {
                             val download = priorityList[index]
@@ -100,12 +96,18 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
                                     }
                                 }
                             } else {
+                                hasNextPage = false
                                 break
                             }
                         } else {
+                            hasNextPage = false
                             break
                         }
                     }
+                    if (hasNextPage) {
+                        priorityList = getPriorityList(priorityList.last())
+                        hasNextPage = priorityList.isNotEmpty()
+                    }
                 }
                 if (shouldBackOff) {
                     increaseBackOffTime()
@@ -117,6 +119,11 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
         }
     }
 
+    init {
+        networkInfoProvider.registerNetworkChangeListener(networkChangeListener)
+        downloadManager.delegate = downloadManagerDelegate
+    }
+
     override fun start() {
         synchronized(lock) {
             resetBackOffTime()
@@ -160,7 +167,21 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
     override fun getPriorityList(): List<Download> {
         synchronized(lock) {
             return try {
-                downloadProvider.getPendingDownloadsSorted(prioritySort)
+                downloadProvider.getPendingDownloadsSorted(prioritySort, null, Int.MAX_VALUE)
+            } catch (e: Exception) {
+                logger.d("PriorityIterator failed access database", e)
+                listOf()
+            }
+        }
+    }
+
+    /** Reads one page of the pending queue, so a pass only reads the queued downloads it may start.
+     * @param after last download of the previous page or null for the first page
+     * */
+    private fun getPriorityList(after: Download?): List<Download> {
+        synchronized(lock) {
+            return try {
+                downloadProvider.getPendingDownloadsSorted(prioritySort, after, PRIORITY_LIST_PAGE_SIZE)
             } catch (e: Exception) {
                 logger.d("PriorityIterator failed access database", e)
                 listOf()
@@ -192,31 +213,35 @@ class PriorityListProcessorImpl constructor(private val handlerWrapper: HandlerW
         }
     }
 
-    override fun sendBackOffResetSignal() {
+    override fun wakeUp() {
         synchronized(lock) {
-            val intent = Intent(ACTION_QUEUE_BACKOFF_RESET)
-            intent.putExtra(EXTRA_NAMESPACE, namespace)
-            context.sendBroadcast(intent)
+            if (canContinueToProcess() && downloadConcurrentLimit > 0) {
+                if (wakeUpRequestTime == 0L) {
+                    wakeUpRequestTime = System.nanoTime()
+                }
+                backOffTime = DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS
+                unregisterPriorityIterator()
+                handlerWrapper.postDelayed(priorityIteratorRunnable, 0)
+            }
         }
     }
 
     override fun close() {
         synchronized(lock) {
-            networkInfoProvider.registerNetworkChangeListener(networkChangeListener)
-            context.unregisterReceiver(priorityBackoffResetReceiver)
+            networkInfoProvider.unregisterNetworkChangeListener(networkChangeListener)
+            if (downloadManager.delegate == downloadManagerDelegate) {
+                downloadManager.delegate = null
+            }
+            logger.d("PriorityIterator $namespace ${schedulingLatencyStats.getSchedulingLatency()}")
         }
     }
 
     private fun increaseBackOffTime() {
-        backOffTime = if (backOffTime == DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS) {
-            ONE_MINUTE_IN_MILLISECONDS
-        } else {
-            backOffTime * 2L
-        }
+        backOffTime = Math.min(backOffTime * 2L, DEFAULT_PRIORITY_QUEUE_MAX_IDLE_INTERVAL_IN_MILLISECONDS)
     }
 
     private companion object {
-        private const val ONE_MINUTE_IN_MILLISECONDS = 60000L
+        private const val PRIORITY_LIST_PAGE_SIZE = 32
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.tonyodev.fetch2.helper
+
+import com.tonyodev.fetch2.SchedulingLatency
+
+/**
+ * Records the latency between a wake up signal sent to the PriorityListProcessor, e.g. after
+ * downloads were enqueued or a download slot was freed, and the start of the queue pass that handles it.
+ * */
+class SchedulingLatencyStats {
+
+    private val lock = Any()
+    private var count = 0L
+    private var totalLatencyNanos = 0L
+    private var maxLatencyNanos = 0L
+    private var lastLatencyNanos = 0L
+
+    fun record(latencyNanos: Long) {
+        synchronized(lock) {
+            count += 1
+            totalLatencyNanos += latencyNanos
+            lastLatencyNanos = latencyNanos
+            if (latencyNanos > maxLatencyNanos) {
+                maxLatencyNanos = latencyNanos
+            }
+        }
+    }
+
+    /** @return the latency recorded so far.*/
+    fun getSchedulingLatency(): SchedulingLatency {
+        return synchronized(lock) {
+            SchedulingLatency(
+                    wakeUpCount = count,
+                    averageLatencyMillis = if (count == 0L) 0.0 else totalLatencyNanos / count / 1_000_000.0,
+                    maxLatencyMillis = maxLatencyNanos / 1_000_000.0,
+                    lastLatencyMillis = lastLatencyNanos / 1_000_000.0)
+        }
+    }
+
+}
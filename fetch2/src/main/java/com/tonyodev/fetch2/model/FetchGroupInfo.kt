@@ -7,30 +7,78 @@ import com.tonyodev.fetch2.Status
 import com.tonyodev.fetch2.fetch.FetchModulesBuilder
 import com.tonyodev.fetch2core.FetchObserver
 import com.tonyodev.fetch2core.Reason
+import java.util.*
 
+/**
+ * Group state is kept incrementally. Downloads are indexed by id and by status, and the progress
+ * and byte totals are kept as running sums, so applying the change of one download costs O(1).
+ * The lists returned by the FetchGroup properties are built on first access after a change.
+ * */
 class FetchGroupInfo(override val id: Int = 0,
                      override val namespace: String): FetchGroup {
 
+    private val lock = Any()
     private val observerSet = mutableSetOf<FetchGroupObserver>()
+    private val downloadMap = LinkedHashMap<Int, Entry>()
+    private val statusBuckets = EnumMap<Status, LinkedHashMap<Int, Download>>(Status::class.java)
+    private val statusListCache = EnumMap<Status, List<Download>>(Status::class.java)
+    private var downloadListCache: List<Download>? = null
+    private var progressSum = 0L
+    private var downloadedBytesSum = 0L
+    private var totalBytesSum = 0L
 
-    @Volatile
-    override var downloads: List<Download> = emptyList()
-        set(value) {
-            field = value
-            queuedDownloads = value.filter { it.status == Status.QUEUED }
-            addedDownloads = value.filter { it.status == Status.ADDED }
-            pausedDownloads = value.filter { it.status == Status.PAUSED }
-            downloadingDownloads = value.filter { it.status == Status.DOWNLOADING }
-            completedDownloads = value.filter { it.status == Status.COMPLETED }
-            cancelledDownloads = value.filter { it.status == Status.CANCELLED }
-            failedDownloads = value.filter { it.status == Status.FAILED }
-            deletedDownloads = value.filter { it.status == Status.DELETED }
-            removedDownloads = value.filter { it.status == Status.REMOVED }
+    /** Replaces the group content with the passed in downloads. Used when the group is loaded
+     * from the database.*/
+    fun update(downloads: List<Download>, triggerDownload: Download?, reason: Reason) {
+        synchronized(lock) {
+            clearNoLock()
+            for (download in downloads) {
+                putNoLock(download)
+            }
         }
+        notifyObservers(triggerDownload, reason)
+    }
 
-    fun update(downloads: List<Download>, triggerDownload: Download?, reason: Reason) {
-        this.downloads = downloads
+    /** Applies the change of a single download to the group. Progress is dispatched on another
+     * thread than status changes, so a progress snapshot that would move a download back to
+     * downloading after a status change, or back to fewer downloaded bytes, is ignored.
+     * @param download the changed download. Removed and deleted downloads leave the group.
+     * @param reason reason of the change
+     * */
+    fun update(download: Download, reason: Reason) {
+        synchronized(lock) {
+            if (reason == Reason.DOWNLOAD_REMOVED || reason == Reason.DOWNLOAD_DELETED || download.group != id) {
+                removeNoLock(download.id)
+            } else if (isRegressionNoLock(download, reason)) {
+                return
+            } else {
+                putNoLock(download)
+            }
+        }
+        notifyObservers(download, reason)
+    }
+
+    private fun isRegressionNoLock(download: Download, reason: Reason): Boolean {
+        if (reason != Reason.DOWNLOAD_PROGRESS_CHANGED && reason != Reason.DOWNLOAD_BLOCK_UPDATED) {
+            return false
+        }
+        val oldEntry = downloadMap[download.id] ?: return false
+        return when (oldEntry.status) {
+            Status.NONE, Status.ADDED, Status.QUEUED -> false
+            Status.DOWNLOADING -> download.downloaded < oldEntry.downloaded
+            else -> true
+        }
+    }
+
+    private fun notifyObservers(triggerDownload: Download?, reason: Reason) {
         if (reason != Reason.DOWNLOAD_BLOCK_UPDATED) {
+            val hasObservers = synchronized(observerSet) {
+                observerSet.isNotEmpty()
+            }
+            if (!hasObservers) {
+                return
+            }
+            val downloads = this.downloads
             FetchModulesBuilder.mainUIHandler.post {
                 synchronized(observerSet) {
                     observerSet.iterator().forEach {
@@ -44,30 +92,136 @@ class FetchGroupInfo(override val id: Int = 0,
         }
     }
 
-    override var queuedDownloads: List<Download> = emptyList()
+    private fun putNoLock(download: Download) {
+        val entry = Entry(download)
+        val oldEntry = downloadMap.put(download.id, entry)
+        if (oldEntry != null) {
+            subtractNoLock(oldEntry)
+            if (oldEntry.status != entry.status) {
+                statusBuckets[oldEntry.status]?.remove(download.id)
+                statusListCache.remove(oldEntry.status)
+            }
+        }
+        val bucket = statusBuckets[entry.status] ?: LinkedHashMap()
+        bucket[download.id] = download
+        statusBuckets[entry.status] = bucket
+        statusListCache.remove(entry.status)
+        downloadListCache = null
+        addNoLock(entry)
+    }
 
-    override var addedDownloads: List<Download> = emptyList()
+    private fun removeNoLock(downloadId: Int) {
+        val oldEntry = downloadMap.remove(downloadId) ?: return
+        subtractNoLock(oldEntry)
+        statusBuckets[oldEntry.status]?.remove(downloadId)
+        statusListCache.remove(oldEntry.status)
+        downloadListCache = null
+    }
 
-    override var pausedDownloads: List<Download> = emptyList()
+    private fun addNoLock(entry: Entry) {
+        progressSum += entry.progress
+        downloadedBytesSum += entry.downloaded
+        totalBytesSum += entry.total
+    }
 
-    override var downloadingDownloads: List<Download> = emptyList()
+    private fun subtractNoLock(entry: Entry) {
+        progressSum -= entry.progress
+        downloadedBytesSum -= entry.downloaded
+        totalBytesSum -= entry.total
+    }
 
-    override var completedDownloads: List<Download> = emptyList()
+    private fun clearNoLock() {
+        downloadMap.clear()
+        statusBuckets.clear()
+        statusListCache.clear()
+        downloadListCache = null
+        progressSum = 0L
+        downloadedBytesSum = 0L
+        totalBytesSum = 0L
+    }
 
-    override var cancelledDownloads: List<Download> = emptyList()
+    private fun getDownloadsWithStatus(status: Status): List<Download> {
+        synchronized(lock) {
+            val cachedList = statusListCache[status]
+            if (cachedList != null) {
+                return cachedList
+            }
+            val bucket = statusBuckets[status]
+            val list: List<Download> = if (bucket == null || bucket.isEmpty()) emptyList() else ArrayList(bucket.values)
+            statusListCache[status] = list
+            return list
+        }
+    }
 
-    override var failedDownloads: List<Download> = emptyList()
+    override val downloads: List<Download>
+        get() {
+            synchronized(lock) {
+                val cachedList = downloadListCache
+                if (cachedList != null) {
+                    return cachedList
+                }
+                val list: List<Download> = if (downloadMap.isEmpty()) emptyList() else downloadMap.values.map { it.download }
+                downloadListCache = list
+                return list
+            }
+        }
+
+    override val queuedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.QUEUED)
+
+    override val addedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.ADDED)
+
+    override val pausedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.PAUSED)
+
+    override val downloadingDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.DOWNLOADING)
+
+    override val completedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.COMPLETED)
 
-    override var deletedDownloads: List<Download> = emptyList()
+    override val cancelledDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.CANCELLED)
 
-    override var removedDownloads: List<Download> = emptyList()
+    override val failedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.FAILED)
+
+    override val deletedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.DELETED)
+
+    override val removedDownloads: List<Download>
+        get() = getDownloadsWithStatus(Status.REMOVED)
 
     override val groupDownloadProgress: Int
         get() {
-            val progressSum = downloads.sumBy { it.progress }
-            return  progressSum / downloads.size
+            return synchronized(lock) {
+                if (downloadMap.isEmpty()) 0 else (progressSum / downloadMap.size).toInt()
+            }
         }
 
+    override val groupDownloadedBytes: Long
+        get() {
+            return synchronized(lock) {
+                downloadedBytesSum
+            }
+        }
+
+    override val groupTotalBytes: Long
+        get() {
+            return synchronized(lock) {
+                totalBytesSum
+            }
+        }
+
+    /** Returns the number of downloads in the group with the passed in status without
+     * building the download list.*/
+    fun getDownloadCount(status: Status): Int {
+        return synchronized(lock) {
+            statusBuckets[status]?.size ?: 0
+        }
+    }
+
     override val observers: Set<FetchObserver<List<Download>>>
         get() {
             return synchronized(observerSet) {
@@ -101,4 +255,15 @@ class FetchGroupInfo(override val id: Int = 0,
         }
     }
 
-}
\ No newline at end of file
+    /** The values a download contributed to the group. Download instances are updated in place
+     * while downloading, so the values are copied when the download is added to the group.*/
+    private class Entry(val download: Download) {
+
+        val status = download.status
+        val progress = download.progress
+        val downloaded = download.downloaded
+        val total = if (download.total > 0) download.total else 0L
+
+    }
+
+}
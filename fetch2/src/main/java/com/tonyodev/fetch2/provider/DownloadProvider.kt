@@ -24,15 +24,6 @@ class DownloadProvider(private val fetchDatabaseManagerWrapper: FetchDatabaseMan
         return fetchDatabaseManagerWrapper.getByGroup(group)
     }
 
-    fun getByGroupReplace(group: Int, download: Download): List<Download> {
-        val downloads = getByGroup(group) as ArrayList
-        val index = downloads.indexOfFirst { it.id == download.id }
-        if (index != -1) {
-            downloads[index] = download
-        }
-        return downloads
-    }
-
     fun getByStatus(status: Status): List<Download> {
         return fetchDatabaseManagerWrapper.getByStatus(status)
     }
@@ -41,4 +32,8 @@ class DownloadProvider(private val fetchDatabaseManagerWrapper: FetchDatabaseMan
         return fetchDatabaseManagerWrapper.getPendingDownloadsSorted(prioritySort)
     }
 
+    fun getPendingDownloadsSorted(prioritySort: PrioritySort, after: Download?, limit: Int): List<Download> {
+        return fetchDatabaseManagerWrapper.getPendingDownloadsSorted(prioritySort, after, limit)
+    }
+
 }
\ No newline at end of file
@@ -29,7 +29,7 @@ class GroupInfoProvider(private val namespace: String,
     fun getGroupReplace(id: Int, download: Download, reason: Reason): FetchGroup {
         return synchronized(lock) {
             val groupInfo = getGroupInfo(id, reason)
-            groupInfo.update(downloadProvider.getByGroupReplace(id, download), download, reason)
+            groupInfo.update(download, reason)
             groupInfo
         }
     }
@@ -37,7 +37,7 @@ class GroupInfoProvider(private val namespace: String,
     fun postGroupReplace(id: Int, download: Download, reason: Reason) {
         synchronized(lock) {
             val groupInfo = groupInfoMap[id]?.get()
-            groupInfo?.update(downloadProvider.getByGroupReplace(id, download), download, reason)
+            groupInfo?.update(download, reason)
         }
     }
 
@@ -108,6 +108,26 @@ class NetworkInfoProvider constructor(private val context: Context,
         return false
     }
 
+    /** The network type the device is currently on. NetworkType.WIFI_ONLY while on an unmetered
+     * network, NetworkType.ALL while on a metered network and NetworkType.GLOBAL_OFF while offline.
+     * Before Jelly Bean, where the metered state is not available, Wi-Fi counts as unmetered.*/
+    val currentNetworkType: NetworkType
+        get() {
+            return when {
+                !context.isNetworkAvailable() -> NetworkType.GLOBAL_OFF
+                isOnUnmeteredNetwork() -> NetworkType.WIFI_ONLY
+                else -> NetworkType.ALL
+            }
+        }
+
+    private fun isOnUnmeteredNetwork(): Boolean {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && connectivityManager != null) {
+            !connectivityManager.isActiveNetworkMetered
+        } else {
+            context.isOnWiFi()
+        }
+    }
+
     val isNetworkAvailable: Boolean
         get() {
             val url = internetCheckUrl
@@ -11,11 +11,14 @@ import com.tonyodev.fetch2core.*
 const val DEFAULT_GROUP_ID = 0
 const val DEFAULT_UNIQUE_IDENTIFIER = 0L
 const val DEFAULT_DOWNLOAD_SPEED_REPORTING_INTERVAL_IN_MILLISECONDS = 1_000L
+const val DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLISECONDS = 16L
 const val DEFAULT_HAS_ACTIVE_DOWNLOADS_INTERVAL_IN_MILLISECONDS = 300000L
 const val DEFAULT_CREATE_FILE_ON_ENQUEUE = true
+const val DEFAULT_PREALLOCATE_DOWNLOAD_FILE = false
 const val DEFAULT_CONCURRENT_LIMIT = 1
 const val EMPTY_JSON_OBJECT_STRING = "{}"
 const val DEFAULT_PRIORITY_QUEUE_INTERVAL_IN_MILLISECONDS = 500L
+const val DEFAULT_PRIORITY_QUEUE_MAX_IDLE_INTERVAL_IN_MILLISECONDS = 60_000L
 const val DEFAULT_AUTO_START = true
 const val DEFAULT_RETRY_ON_NETWORK_GAIN = true
 const val DEFAULT_FILE_SLICE_NO_LIMIT_SET = -1
@@ -28,6 +31,23 @@ const val DEFAULT_ENABLE_LISTENER_NOTIFY_ON_ATTACHED = false
 const val DEFAULT_ENABLE_LISTENER_NOTIFY_ON_REQUEST_UPDATED = true
 const val DEFAULT_ENABLE_LISTENER_AUTOSTART_ON_ATTACHED = false
 const val DEFAULT_DOWNLOAD_ON_ENQUEUE = true
+const val DEFAULT_SLICE_CHECKPOINT_BYTES = 1024L * 1024L
+const val DEFAULT_SLICE_CHECKPOINT_INTERVAL_IN_MILLISECONDS = 1_000L
+const val DEFAULT_MAX_TOTAL_CONNECTIONS = 24
+const val DEFAULT_PROGRESS_FLUSH_INTERVAL_IN_MILLISECONDS = 1_000L
+const val DEFAULT_ADAPTIVE_RANGE_BYTES = 4L * 1024L * 1024L
+const val DEFAULT_ADAPTIVE_MAX_RANGES = 1024
+const val DEFAULT_ADAPTIVE_INITIAL_CONNECTIONS = 2
+const val DEFAULT_ADAPTIVE_MAX_CONNECTIONS = 8
+const val DEFAULT_ADAPTIVE_MIN_STEAL_BYTES = 256L * 1024L
+const val DEFAULT_OPENING_RANGE_BYTES = 256L * 1024L
+const val DEFAULT_LEGACY_TEMP_FILE_MAX_AGE_IN_MILLISECONDS = 7L * 24L * 60L * 60L * 1000L
+const val DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND = 0L
+const val HEADER_ETAG = "ETag"
+const val HEADER_LAST_MODIFIED = "Last-Modified"
+const val HEADER_IF_NONE_MATCH = "If-None-Match"
+const val HEADER_IF_MODIFIED_SINCE = "If-Modified-Since"
+const val HEADER_IF_RANGE = "If-Range"
 val defaultNetworkType = NetworkType.ALL
 val defaultGlobalNetworkType = NetworkType.GLOBAL_OFF
 val defaultPriority = Priority.NORMAL
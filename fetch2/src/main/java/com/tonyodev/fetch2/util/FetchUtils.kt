@@ -2,50 +2,46 @@
 
 package com.tonyodev.fetch2.util
 
+import android.content.Context
 import android.os.Looper
 import com.tonyodev.fetch2.Download
 import com.tonyodev.fetch2.Request
 import com.tonyodev.fetch2.Status
+import com.tonyodev.fetch2.database.DownloadInfo
+import com.tonyodev.fetch2.downloader.DownloadTempStore
+import com.tonyodev.fetch2.downloader.SliceCheckpointJournal
 import com.tonyodev.fetch2.exception.FetchException
 import com.tonyodev.fetch2.fetch.FetchHandler
 import com.tonyodev.fetch2core.*
 import com.tonyodev.fetch2core.server.FileRequest
-import java.io.File
 import kotlin.math.ceil
 
+/** Statuses of downloads that can be paused. Used by canPauseDownload and the bulk status updates.*/
+val pausableStatuses = listOf(Status.DOWNLOADING, Status.QUEUED)
+
+/** Statuses of downloads that can be resumed. Used by canResumeDownload and the bulk status updates.*/
+val resumableStatuses = listOf(Status.ADDED, Status.QUEUED, Status.PAUSED)
+
+/** Statuses of downloads that can be retried. Used by canRetryDownload and the bulk status updates.*/
+val retryableStatuses = listOf(Status.ADDED, Status.FAILED, Status.CANCELLED)
+
+/** Statuses of downloads that can be cancelled. Used by canCancelDownload and the bulk status updates.*/
+val cancellableStatuses = Status.values().filter { it != Status.COMPLETED && it != Status.NONE && it != Status.FAILED }
+
 fun canPauseDownload(download: Download): Boolean {
-    return when (download.status) {
-        Status.DOWNLOADING,
-        Status.QUEUED -> true
-        else -> false
-    }
+    return pausableStatuses.contains(download.status)
 }
 
 fun canResumeDownload(download: Download): Boolean {
-    return when (download.status) {
-        Status.ADDED,
-        Status.QUEUED,
-        Status.PAUSED -> true
-        else -> false
-    }
+    return resumableStatuses.contains(download.status)
 }
 
 fun canRetryDownload(download: Download): Boolean {
-    return when (download.status) {
-        Status.ADDED,
-        Status.FAILED,
-        Status.CANCELLED -> true
-        else -> false
-    }
+    return retryableStatuses.contains(download.status)
 }
 
 fun canCancelDownload(download: Download): Boolean {
-    return when (download.status) {
-        Status.COMPLETED,
-        Status.NONE,
-        Status.FAILED -> false
-        else -> true
-    }
+    return cancellableStatuses.contains(download.status)
 }
 
 fun getRequestForDownload(download: Download, requestMethod: String = GET_REQUEST_METHOD): Downloader.ServerRequest {
@@ -74,6 +70,85 @@ fun getRequestForDownload(download: Download,
             redirectUrl = "")
 }
 
+/** True if the download has a saved ETag or Last-Modified date and its file holds the complete
+ * content, so the server can be asked whether the content changed instead of sending it again.*/
+fun canRevalidateDownload(download: Download): Boolean {
+    return (download.etag.isNotEmpty() || download.lastModified.isNotEmpty())
+            && download.total > 0 && download.downloaded >= download.total
+}
+
+/**
+ * Adds the validators saved for the download to the request.
+ * @param revalidate if true, If-None-Match and If-Modified-Since headers are added, so the server
+ * answers 304 Not Modified if the content did not change. Otherwise a ranged request gets an
+ * If-Range header, so the server sends the whole new content instead of a range of it if the
+ * content changed. Weak ETags cannot be used with If-Range, the Last-Modified date is used instead.
+ * */
+fun addValidatorHeaders(request: Downloader.ServerRequest, download: Download, revalidate: Boolean): Downloader.ServerRequest {
+    val headers = request.headers.toMutableMap()
+    if (revalidate) {
+        if (download.etag.isNotEmpty()) {
+            headers[HEADER_IF_NONE_MATCH] = download.etag
+        }
+        if (download.lastModified.isNotEmpty()) {
+            headers[HEADER_IF_MODIFIED_SINCE] = download.lastModified
+        }
+    } else if (headers.containsKey("Range")) {
+        val ifRange = if (download.etag.isNotEmpty() && !download.etag.startsWith("W/")) {
+            download.etag
+        } else {
+            download.lastModified
+        }
+        if (ifRange.isNotEmpty()) {
+            headers[HEADER_IF_RANGE] = ifRange
+        }
+    }
+    if (headers.size == request.headers.size) {
+        return request
+    }
+    return Downloader.ServerRequest(
+            id = request.id,
+            url = request.url,
+            headers = headers,
+            file = request.file,
+            fileUri = request.fileUri,
+            tag = request.tag,
+            identifier = request.identifier,
+            requestMethod = request.requestMethod,
+            extras = request.extras,
+            redirected = request.redirected,
+            redirectUrl = request.redirectUrl)
+}
+
+fun getResponseHeader(response: Downloader.Response, name: String): String? {
+    for ((key, values) in response.responseHeaders) {
+        if (key.equals(name, true)) {
+            return values.firstOrNull()
+        }
+    }
+    return null
+}
+
+/** True if the response carries an ETag or Last-Modified date that differs from the one saved
+ * with the download.*/
+fun hasContentChanged(download: Download, response: Downloader.Response): Boolean {
+    val etag = getResponseHeader(response, HEADER_ETAG) ?: ""
+    if (download.etag.isNotEmpty() && etag.isNotEmpty()) {
+        return download.etag != etag
+    }
+    val lastModified = getResponseHeader(response, HEADER_LAST_MODIFIED) ?: ""
+    if (download.lastModified.isNotEmpty() && lastModified.isNotEmpty()) {
+        return download.lastModified != lastModified
+    }
+    return false
+}
+
+/** Saves the ETag and Last-Modified date of the response with the download.*/
+fun updateDownloadValidators(downloadInfo: DownloadInfo, response: Downloader.Response) {
+    downloadInfo.etag = getResponseHeader(response, HEADER_ETAG) ?: ""
+    downloadInfo.lastModified = getResponseHeader(response, HEADER_LAST_MODIFIED) ?: ""
+}
+
 fun getServerRequestFromRequest(request: Request): Downloader.ServerRequest {
     return Downloader.ServerRequest(
             id = request.id,
@@ -110,85 +185,101 @@ fun getCatalogServerRequestFromRequest(request: Request): Downloader.ServerReque
 }
 
 fun getPreviousSliceCount(id: Int, fileTempDir: String): Int {
-    var sliceCount = -1
-    try {
-        sliceCount = getLongDataFromFile(getMetaFilePath(id, fileTempDir))?.toInt() ?: -1
-    } catch (e: Exception) {
-
-    }
-    return sliceCount
+    val savedDownloaded = SliceCheckpointJournal.readSavedDownloaded(id, fileTempDir)
+    return if (savedDownloaded.isEmpty()) -1 else savedDownloaded.size
 }
 
-fun getMetaFilePath(id: Int, fileTempDir: String): String {
-    return "$fileTempDir/$id.meta.data"
+fun getSliceCheckpointJournalFilePath(id: Int, fileTempDir: String): String {
+    return DownloadTempStore(fileTempDir).getFilePath(id, DownloadTempStore.JOURNAL_FILE_NAME)
 }
 
-fun saveCurrentSliceCount(id: Int, SliceCount: Int, fileTempDir: String) {
-    try {
-        writeLongToFile(getMetaFilePath(id, fileTempDir), SliceCount.toLong())
-    } catch (e: Exception) {
+fun getContentHashStateFilePath(id: Int, fileTempDir: String): String {
+    return DownloadTempStore(fileTempDir).getFilePath(id, DownloadTempStore.HASH_STATE_FILE_NAME)
+}
 
-    }
+fun deleteAllInFolderForId(id: Int, fileTempDir: String) {
+    DownloadTempStore(fileTempDir).delete(id)
 }
 
-fun getDownloadedInfoFilePath(id: Int, position: Int, fileTempDir: String): String {
-    return "$fileTempDir/$id.$position.data"
+/** @return the temp directory of the namespace inside the directory returned by the storage resolver.*/
+fun getNamespaceTempDir(fileTempDir: String, namespace: String): String {
+    return "$fileTempDir/$namespace"
 }
 
-fun deleteAllInFolderForId(id: Int, fileTempDir: String) {
-    try {
-        val dir = File(fileTempDir)
-        if (dir.exists()) {
-            val files = dir.listFiles()
-            if (files != null) {
-                val filteredFilesList = files.filter { file ->
-                    file.nameWithoutExtension.startsWith("$id.")
-                }
-                filteredFilesList.forEach { file ->
-                    if (file.exists()) {
-                        file.delete()
-                    }
-                }
-            }
-        }
+/** Every namespace keeps its downloads in the database <namespace>.db. Any other database may
+ * belong to another namespace, so files shared by all namespaces cannot be attributed to this one.
+ * @return true if the database of the namespace is the only database of the app.*/
+fun isOnlyDatabase(context: Context, namespace: String): Boolean {
+    return try {
+        val databaseName = "$namespace.db"
+        val databaseDir = context.getDatabasePath(databaseName).parentFile ?: return false
+        val fileNames = databaseDir.list() ?: return false
+        fileNames.none { it.endsWith(".db") && it != databaseName }
     } catch (e: Exception) {
+        false
+    }
+}
 
+/** Checks that the storage volume of the output has room for the bytes of the download that are
+ * still missing and reserves the full length of the file. Bytes that are already downloaded or
+ * already allocated to the file, e.g. by the preallocation of an earlier attempt, are not required
+ * again. Does nothing when the total is unknown.
+ * @throws FetchException with INSUFFICIENT_STORAGE if the volume is too full for the download.
+ * */
+fun preallocateOutput(outputResourceWrapper: OutputResourceWrapper, total: Long, downloaded: Long) {
+    if (total < 1 || !outputResourceWrapper.supportsPreallocation) {
+        return
+    }
+    val requiredBytes = total - Math.max(downloaded, outputResourceWrapper.allocatedBytes)
+    val availableBytes = outputResourceWrapper.availableBytes
+    if (requiredBytes > 0 && availableBytes > -1 && availableBytes < requiredBytes) {
+        throw FetchException(INSUFFICIENT_STORAGE)
     }
+    outputResourceWrapper.preallocate(total)
 }
 
 fun getSavedDownloadedInfo(id: Int, position: Int, fileTempDir: String): Long {
-    var downloaded = 0L
-    try {
-        downloaded = getLongDataFromFile(getDownloadedInfoFilePath(id, position, fileTempDir)) ?: 0L
-    } catch (e: Exception) {
-
-    }
-    return downloaded
+    val savedDownloaded = SliceCheckpointJournal.readSavedDownloaded(id, fileTempDir)
+    val index = position - 1
+    return if (index >= 0 && index < savedDownloaded.size) savedDownloaded[index] else 0L
 }
 
 fun getFileSliceInfo(fileSliceSize: Int, totalBytes: Long): FileSliceInfo {
     return if (fileSliceSize == DEFAULT_FILE_SLICE_NO_LIMIT_SET) {
-        val fileSizeInMb = totalBytes.toFloat() / 1024F * 1024F
-        val fileSizeInGb = totalBytes.toFloat() / 1024F * 1024F * 1024F
+        val fileSizeInMb = totalBytes.toFloat() / (1024F * 1024F)
+        val fileSizeInGb = totalBytes.toFloat() / (1024F * 1024F * 1024F)
         when {
             fileSizeInGb >= 1F -> {
                 val slices = 6
-                val bytesPerSlice = ceil((totalBytes.toFloat() / slices.toFloat())).toLong()
+                val bytesPerSlice = ceil((totalBytes.toDouble() / slices.toDouble())).toLong()
                 FileSliceInfo(slices, bytesPerSlice)
             }
             fileSizeInMb >= 1F -> {
                 val slices = 4
-                val bytesPerSlice = ceil((totalBytes.toFloat() / slices.toFloat())).toLong()
+                val bytesPerSlice = ceil((totalBytes.toDouble() / slices.toDouble())).toLong()
+                FileSliceInfo(slices, bytesPerSlice)
+            }
+            else -> {
+                val slices = 2
+                val bytesPerSlice = ceil((totalBytes.toDouble() / slices.toDouble())).toLong()
                 FileSliceInfo(slices, bytesPerSlice)
             }
-            else -> FileSliceInfo(2, totalBytes)
         }
     } else {
-        val bytesPerSlice = ceil((totalBytes.toFloat() / fileSliceSize.toFloat())).toLong()
+        val bytesPerSlice = ceil((totalBytes.toDouble() / fileSliceSize.toDouble())).toLong()
         return FileSliceInfo(fileSliceSize, bytesPerSlice)
     }
 }
 
+fun getAdaptiveRangeCount(totalBytes: Long): Int {
+    if (totalBytes < 1) {
+        return 1
+    }
+    val rangeBytes = Math.max(DEFAULT_ADAPTIVE_RANGE_BYTES,
+            ceil(totalBytes.toDouble() / DEFAULT_ADAPTIVE_MAX_RANGES.toDouble()).toLong())
+    return Math.max(1, ceil(totalBytes.toDouble() / rangeBytes.toDouble()).toInt())
+}
+
 fun awaitFinishOrTimeout(allowTimeInMilliseconds: Long, fetchHandler: FetchHandler) {
     if (Thread.currentThread() == Looper.getMainLooper().thread) {
         throw FetchException(AWAIT_CALL_ON_UI_THREAD)
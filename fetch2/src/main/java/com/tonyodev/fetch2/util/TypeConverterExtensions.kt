@@ -25,6 +25,7 @@ fun Request.toDownloadInfo(): DownloadInfo {
     downloadInfo.extras = extras
     downloadInfo.autoRetryMaxAttempts = autoRetryMaxAttempts
     downloadInfo.autoRetryAttempts = DEFAULT_AUTO_RETRY_ATTEMPTS
+    downloadInfo.bandwidthLimit = bandwidthLimit
     return downloadInfo
 }
 
@@ -50,6 +51,9 @@ fun Download.toDownloadInfo(): DownloadInfo {
     downloadInfo.extras = extras
     downloadInfo.autoRetryMaxAttempts = autoRetryMaxAttempts
     downloadInfo.autoRetryAttempts = autoRetryAttempts
+    downloadInfo.bandwidthLimit = bandwidthLimit
+    downloadInfo.etag = etag
+    downloadInfo.lastModified = lastModified
     return downloadInfo
 }
 
@@ -74,5 +78,6 @@ fun CompletedDownload.toDownloadInfo(): DownloadInfo {
     downloadInfo.extras = extras
     downloadInfo.autoRetryMaxAttempts = DEFAULT_AUTO_RETRY_ATTEMPTS
     downloadInfo.autoRetryAttempts = DEFAULT_AUTO_RETRY_ATTEMPTS
+    downloadInfo.bandwidthLimit = DEFAULT_BANDWIDTH_LIMIT_BYTES_PER_SECOND
     return downloadInfo
 }
\ No newline at end of file
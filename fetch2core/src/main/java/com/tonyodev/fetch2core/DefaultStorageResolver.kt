@@ -4,11 +4,14 @@ import android.content.Context
 
 /** The default Storage Resolver used by Fetch. Extend this class if you want to provide your
  * own implementation.*/
-open class DefaultStorageResolver(
+open class DefaultStorageResolver @JvmOverloads constructor(
         /* Context*/
         protected val context: Context,
         /**The default temp directory used by Fetch for Parallel Downloaders.*/
-        protected val defaultTempDir: String) : StorageResolver {
+        protected val defaultTempDir: String,
+        /**How bytes are written into local files. Content provider uris always fall back to the
+         * stream of their file descriptor. See FileOutputMode.*/
+        protected val fileOutputMode: FileOutputMode = FileOutputMode.FILE_CHANNEL) : StorageResolver {
 
     override fun createFile(file: String, increment: Boolean): String {
         return createFileAtPath(file, increment, context)
@@ -19,7 +22,7 @@ open class DefaultStorageResolver(
     }
 
     override fun getRequestOutputResourceWrapper(request: Downloader.ServerRequest): OutputResourceWrapper {
-        return getOutputResourceWrapper(request.file, context.contentResolver)
+        return getOutputResourceWrapper(request.file, context.contentResolver, fileOutputMode)
     }
 
     override fun getDirectoryForFileDownloaderTypeParallel(request: Downloader.ServerRequest): String {
@@ -53,6 +53,8 @@ interface Downloader<T, R> : Closeable {
      * This method is called by Fetch if the FileDownloaderType.Parallel type was set
      * for the download request. Returns the desired slices that the file will be divided in for parallel downloading.
      * If null is returned, Fetch will automatically select an appropriate slicing size based on the content length.
+     * If getAdaptiveSlicingEnabled returns true for the request, the returned value is the maximum number of
+     * connections used for the download.
      * This method is called on a background thread.
      * @param request the request information for the download.
      * @param contentLength the total content length in bytes.
@@ -69,6 +71,20 @@ interface Downloader<T, R> : Closeable {
      * */
     fun getRequestFileDownloaderType(request: ServerRequest, supportedFileDownloaderTypes: Set<Downloader.FileDownloaderType>): FileDownloaderType
 
+    /** This method is called by Fetch if the FileDownloaderType.PARALLEL type was selected for a
+     * download request. If true is returned, the file is split in many small ranges that are
+     * downloaded in parallel. Idle connections steal the remaining bytes of the slowest connection
+     * and the number of connections grows or shrinks with the measured throughput per connection.
+     * The value returned by getFileSlicingCount is then used as the maximum number of connections.
+     * By default false is returned.
+     * This method is called on a background thread.
+     * @param request the request information for the download.
+     * @return true to download the request with adaptive slicing.
+     * */
+    fun getAdaptiveSlicingEnabled(request: ServerRequest): Boolean {
+        return false
+    }
+
     /**
      * This method should be used to verify that the download file Hash matches the
      * passed in Hash returned by the server for the content.
@@ -93,6 +109,34 @@ interface Downloader<T, R> : Closeable {
      * */
     fun getContentHash(responseHeaders: MutableMap<String, List<String>>): String
 
+    /**
+     * This method is called by Fetch if hash checking is enabled and the server returned a content
+     * hash. If true is returned, Fetch hashes the content while it is written and compares the result
+     * with the hash once the download completed, instead of calling
+     * verifyContentHash(request: ServerRequest, hash: String): Boolean. Only return true if
+     * verifyContentHash does not do more than compare the hash of the file. By default false is returned.
+     * This method is called on a background thread.
+     * @param request the request information for the download.
+     * @return true to hash the content while it is written.
+     * */
+    fun getInlineContentHashEnabled(request: ServerRequest): Boolean {
+        return false
+    }
+
+    /**
+     * Gets the MessageDigest algorithm of the content hash returned by the server. Only called if
+     * getInlineContentHashEnabled(request: ServerRequest) returned true. Supported algorithms are
+     * MD5, SHA-1 and SHA-256. By default the algorithm is picked by the length of the hex encoded hash.
+     * This method is called on a background thread.
+     * @param request the request information for the download.
+     * @param hash Hash returned by the server for the content
+     * @return MD5, SHA-1, SHA-256 or null. If null is returned, Fetch calls verifyContentHash
+     * once the download completed.
+     * */
+    fun getContentHashAlgorithm(request: ServerRequest, hash: String): String? {
+        return getHashAlgorithm(hash)
+    }
+
     /**
      * Notifies the downloader of the server response for a request. This method is called on a background thread.
      * @param request The request information for the download.
@@ -178,7 +222,7 @@ interface Downloader<T, R> : Closeable {
      * A class that contains the server response information used by Fetch
      * to being the download process.
      * */
-    open class Response(
+    open class Response @JvmOverloads constructor(
             /** Server response code.*/
             val code: Int,
 
@@ -204,7 +248,15 @@ interface Downloader<T, R> : Closeable {
             val acceptsRanges: Boolean,
 
             /** Error Response string. May be null*/
-            val errorResponse: String?)
+            val errorResponse: String?,
+
+            /** The protocol negotiated with the server, for example "http/1.1" or "h2".
+             * Null if the downloader does not report it.*/
+            val protocol: String? = null,
+
+            /** True if the response was served over a pooled connection that was opened for an
+             * earlier request.*/
+            val connectionReused: Boolean = false)
 
     /** File Downloading Type used to download each request.*/
     enum class FileDownloaderType {
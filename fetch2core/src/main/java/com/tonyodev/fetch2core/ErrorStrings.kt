@@ -39,4 +39,5 @@ const val ENQUEUE_NOT_SUCCESSFUL = "enqueue_not_successful"
 const val AWAIT_CALL_ON_UI_THREAD = "await_call_on_ui_thread"
 const val BLOCKING_CALL_ON_UI_THREAD = "blocking_call_on_ui_thread"
 const val FILE_CANNOT_BE_RENAMED = "file_cannot_be_renamed"
-const val FAILED_RENAME_FILE_ASSOCIATED_WITH_INCOMPLETE_DOWNLOAD = "cannot rename file associated with incomplete download"
\ No newline at end of file
+const val FAILED_RENAME_FILE_ASSOCIATED_WITH_INCOMPLETE_DOWNLOAD = "cannot rename file associated with incomplete download"
+const val INSUFFICIENT_STORAGE = "insufficient_storage"
\ No newline at end of file
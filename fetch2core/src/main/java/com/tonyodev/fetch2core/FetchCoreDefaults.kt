@@ -6,4 +6,9 @@ const val DEFAULT_TAG = "fetch2"
 const val DEFAULT_LOGGING_ENABLED = false
 const val DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS = 2_000L
 const val DEFAULT_BUFFER_SIZE = 8 * 1024
-const val DEFAULT_PERSISTENT_TIME_OUT_IN_MILLISECONDS = 600000L
\ No newline at end of file
+const val DEFAULT_PERSISTENT_TIME_OUT_IN_MILLISECONDS = 600000L
+const val DEFAULT_FILE_SERVER_MAX_CONNECTIONS = Int.MAX_VALUE
+const val DEFAULT_FILE_SERVER_MAX_BUFFERED_BYTES_PER_CONNECTION = 64 * 1024
+const val DEFAULT_FILE_SERVER_WORKER_COUNT = 4
+const val DEFAULT_FILE_SERVER_DOWNLOADER_MAX_CONNECTIONS_PER_HOST = 8
+const val DEFAULT_FILE_SERVER_DOWNLOADER_IDLE_CONNECTION_TIMEOUT_IN_MILLISECONDS = 30_000L
@@ -8,6 +8,7 @@ import java.io.*
 import java.math.BigInteger
 import java.security.DigestInputStream
 import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import kotlin.math.abs
 import kotlin.math.ceil
@@ -71,7 +72,7 @@ fun getIncrementedFileIfOriginalExists(originalPath: String): File {
 fun createFile(file: File) {
     if (!file.exists()) {
         if (file.parentFile != null && !file.parentFile.exists()) {
-            if (file.parentFile.mkdirs()) {
+            if (file.parentFile.mkdirs() || file.parentFile.exists()) {
                 if (!file.createNewFile()) throw FileNotFoundException("$file $FILE_NOT_FOUND")
             } else {
                 throw FileNotFoundException("$file $FILE_NOT_FOUND")
@@ -201,24 +202,44 @@ fun getMd5String(bytes: ByteArray, start: Int = 0, length: Int = bytes.size): St
 }
 
 fun getFileMd5String(file: String): String? {
+    return getFileHashString(file, ResumableDigest.MD5)
+}
+
+/** @return the lower case hex hash of the file for the passed in MessageDigest algorithm,
+ * or null if the file could not be read.*/
+fun getFileHashString(file: String, algorithm: String): String? {
     val contentFile = File(file)
     return try {
         val buffer = ByteArray(8192)
-        val md = MessageDigest.getInstance("MD5")
+        val md = MessageDigest.getInstance(algorithm)
         val inputStream = DigestInputStream(FileInputStream(contentFile), md)
         inputStream.use { dis ->
             while (dis.read(buffer) != -1);
         }
-        var md5: String = BigInteger(1, md.digest()).toString(16)
-        while (md5.length < 32) {
-            md5 = "0$md5"
+        var hash: String = BigInteger(1, md.digest()).toString(16)
+        while (hash.length < md.digestLength * 2) {
+            hash = "0$hash"
         }
-        md5
+        hash
     } catch (e: Exception) {
         null
     }
 }
 
+/** @return the algorithm of a hex encoded content hash. MD5, SHA-1 or SHA-256 depending on the
+ * hash length, or null if the hash is not a hex encoded hash of one of these algorithms.*/
+fun getHashAlgorithm(hash: String): String? {
+    if (hash.any { Character.digit(it, 16) == -1 }) {
+        return null
+    }
+    return when (hash.length) {
+        32 -> ResumableDigest.MD5
+        40 -> ResumableDigest.SHA_1
+        64 -> ResumableDigest.SHA_256
+        else -> null
+    }
+}
+
 fun isParallelDownloadingSupported(responseHeaders: Map<String, List<String>>): Boolean {
     val transferEncoding = responseHeaders["Transfer-Encoding"]?.firstOrNull()
             ?: responseHeaders["TransferEncoding"]?.firstOrNull()
@@ -229,8 +250,23 @@ fun isParallelDownloadingSupported(responseHeaders: Map<String, List<String>>):
     return transferEncoding != "chunked" && contentLength > -1L
 }
 
+/** Hosts known to honour range requests. Only positive probe results are kept, because a failed
+ * probe cannot be told apart from a server without range support.*/
+private val rangeSupportingHosts = ConcurrentHashMap<String, Boolean>()
+
+/** Probes the server for range support. Hosts that answered a probe with range support before
+ * are not probed again.*/
 fun getRequestSupportedFileDownloaderTypes(request: Downloader.ServerRequest, downloader: Downloader<*, *>): Set<Downloader.FileDownloaderType> {
     val fileDownloaderTypeSet = mutableSetOf(Downloader.FileDownloaderType.SEQUENTIAL)
+    val host = try {
+        Uri.parse(request.url).authority
+    } catch (e: Exception) {
+        null
+    }
+    if (host != null && rangeSupportingHosts[host] == true) {
+        fileDownloaderTypeSet.add(Downloader.FileDownloaderType.PARALLEL)
+        return fileDownloaderTypeSet
+    }
     return try {
         val response = downloader.execute(request, object : InterruptMonitor {
             override val isInterrupted: Boolean
@@ -239,6 +275,9 @@ fun getRequestSupportedFileDownloaderTypes(request: Downloader.ServerRequest, do
         if (response != null) {
             if (isParallelDownloadingSupported(response.responseHeaders)) {
                 fileDownloaderTypeSet.add(Downloader.FileDownloaderType.PARALLEL)
+                if (host != null) {
+                    rangeSupportingHosts[host] = true
+                }
             }
             downloader.disconnect(response)
         }
@@ -288,7 +327,8 @@ fun renameFile(oldFile: File, newFile: File): Boolean {
 
 fun copyDownloadResponseNoStream(response: Downloader.Response): Downloader.Response {
     return Downloader.Response(response.code, response.isSuccessful, response.contentLength, null,
-            response.request, response.hash, response.responseHeaders, response.acceptsRanges, response.errorResponse)
+            response.request, response.hash, response.responseHeaders, response.acceptsRanges, response.errorResponse,
+            response.protocol, response.connectionReused)
 }
 
 fun getDefaultCookieManager(): CookieManager {
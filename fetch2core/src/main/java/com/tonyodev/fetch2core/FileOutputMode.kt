@@ -0,0 +1,27 @@
+package com.tonyodev.fetch2core
+
+/**
+ * How the DefaultStorageResolver writes downloaded bytes into local files. Files behind a
+ * content provider uri are always written through the stream of their file descriptor.
+ * */
+enum class FileOutputMode {
+
+    /** Writes through FileChannel positional writes. Parallel file slices write at their own
+     * offsets without a shared lock. This is the default.*/
+    FILE_CHANNEL,
+
+    /** Writes through RandomAccessFile seek and write. Parallel file slices share the write
+     * offset and are written one at a time.*/
+    RANDOM_ACCESS_FILE,
+
+    /** Maps windows of the file with FileChannel.map(READ_WRITE) and copies bytes into the mapped
+     * windows. Parallel file slices write into their own regions without a lock or a system call per
+     * write. Mapped windows are forced to storage when Fetch flushes the output at slice checkpoints.
+     * Only the preallocated length of the file is mapped. See OutputResourceWrapper.preallocate.
+     * Bytes outside of it are written as in FILE_CHANNEL mode. Windows that are no longer used
+     * stay in the address space until the garbage collector frees them, so 32 bit processes map
+     * fewer windows at once. If a window cannot be mapped, the download continues in
+     * FILE_CHANNEL mode.*/
+    MEMORY_MAPPED;
+
+}
@@ -0,0 +1,232 @@
+package com.tonyodev.fetch2core
+
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * OutputResourceWrapper that copies bytes into windows of the file mapped with
+ * FileChannel.map(READ_WRITE). Windows are mapped on first write and writes into mapped windows
+ * take no lock, so parallel file slices write into their own regions concurrently.
+ * Only the length reserved with preallocate(length) is mapped, because a write into a mapped page
+ * that the file system cannot back crashes the process instead of throwing an IOException. Bytes
+ * outside of the reserved length are written with FileChannel positional writes.
+ * flush() forces the windows written since the last flush to storage. sync() also forces the
+ * bytes written with FileChannel positional writes. If a window cannot be mapped, e.g. because the
+ * address space of the process is used up, the mapped windows are dropped and all further bytes
+ * are written with FileChannel positional writes.
+ * @param randomAccessFile file opened in "rw" mode.
+ * @param windowSize size in bytes of a mapped window.
+ * @param maxMappedWindows number of windows this wrapper keeps referenced at once. Older windows
+ * are forced and dropped. There is no public API to unmap a window, so the address space of a
+ * dropped window is only released once the garbage collector frees it. The limit bounds the
+ * address space in use between collections, not at all times. The default is lower in 32 bit
+ * processes, see getDefaultMaxMappedWindows.
+ * */
+class MemoryMappedOutputResourceWrapper @JvmOverloads constructor(
+        private val randomAccessFile: RandomAccessFile,
+        private val windowSize: Int = DEFAULT_WINDOW_SIZE,
+        private val maxMappedWindows: Int = getDefaultMaxMappedWindows()) : OutputResourceWrapper() {
+
+    private val lock = Any()
+    private val fileChannel = randomAccessFile.channel
+    @Volatile
+    private var mappedRegion = MappedRegion(0, windowSize)
+    private val mappedWindowIndexes = ArrayDeque<Int>()
+    @Volatile
+    private var writeOffset = 0L
+    @Volatile
+    private var closed = false
+    @Volatile
+    private var mappingFailed = false
+
+    init {
+        if (windowSize < 1) {
+            throw IllegalArgumentException("windowSize cannot be less than 1")
+        }
+        if (maxMappedWindows < 1) {
+            throw IllegalArgumentException("maxMappedWindows cannot be less than 1")
+        }
+    }
+
+    override fun write(byteArray: ByteArray, offSet: Int, length: Int) {
+        write(writeOffset, byteArray, offSet, length)
+        writeOffset += length
+    }
+
+    override fun setWriteOffset(offset: Long) {
+        writeOffset = offset
+    }
+
+    override val supportsPositionalWrites: Boolean
+        get() = true
+
+    override fun write(position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+        val region = mappedRegion
+        var writePosition = position
+        var writeOffSet = offSet
+        var remaining = length
+        while (remaining > 0) {
+            if (writePosition >= region.length || mappingFailed) {
+                writeToFileChannel(fileChannel, writePosition, byteArray, writeOffSet, remaining)
+                return
+            }
+            val windowIndex = (writePosition / windowSize).toInt()
+            val mappedWindow = getWindow(region, windowIndex)
+            if (mappedWindow == null) {
+                writeToFileChannel(fileChannel, writePosition, byteArray, writeOffSet, remaining)
+                return
+            }
+            val window = mappedWindow.duplicate()
+            val windowPosition = (writePosition - windowIndex.toLong() * windowSize).toInt()
+            val count = Math.min(remaining, window.capacity() - windowPosition)
+            window.position(windowPosition)
+            window.put(byteArray, writeOffSet, count)
+            region.dirtyWindows.set(windowIndex, 1)
+            if (mappedRegion !== region || region.windows.get(windowIndex) !== mappedWindow) {
+                // The window was dropped while the bytes were put into it. flush() no longer sees
+                // it, so the bytes are forced here.
+                mappedWindow.force()
+            }
+            writePosition += count
+            writeOffSet += count
+            remaining -= count
+        }
+    }
+
+    override val supportsPreallocation: Boolean
+        get() = true
+
+    override val requiresPreallocation: Boolean
+        get() = true
+
+    override fun preallocate(length: Long) {
+        val reserved = preallocateFile(randomAccessFile.fd, fileChannel, length)
+        synchronized(lock) {
+            if (reserved && length > mappedRegion.length) {
+                val region = mappedRegion
+                mappedRegion = MappedRegion(length, windowSize)
+                mappedWindowIndexes.clear()
+                forceDirtyWindows(region)
+            }
+        }
+    }
+
+    override val allocatedBytes: Long
+        get() = getAllocatedBytes(randomAccessFile.fd)
+
+    override val availableBytes: Long
+        get() = getAvailableBytes(randomAccessFile.fd)
+
+    override fun flush() {
+        forceDirtyWindows(mappedRegion)
+    }
+
+    override fun sync() {
+        forceDirtyWindows(mappedRegion)
+        fileChannel.force(false)
+    }
+
+    override fun close() {
+        synchronized(lock) {
+            if (!closed) {
+                closed = true
+                try {
+                    forceDirtyWindows(mappedRegion)
+                } finally {
+                    mappedWindowIndexes.clear()
+                    mappedRegion = MappedRegion(0, windowSize)
+                    randomAccessFile.close()
+                }
+            }
+        }
+    }
+
+    /** @return the mapped window or null if the window could not be mapped. Mapping is not tried
+     * again after it failed once.*/
+    private fun getWindow(region: MappedRegion, windowIndex: Int): MappedByteBuffer? {
+        val window = region.windows.get(windowIndex)
+        if (window != null) {
+            return window
+        }
+        synchronized(lock) {
+            if (closed) {
+                throw IOException("output resource is closed")
+            }
+            if (mappingFailed) {
+                return null
+            }
+            val mappedWindow = region.windows.get(windowIndex)
+            if (mappedWindow != null) {
+                return mappedWindow
+            }
+            if (mappedWindowIndexes.size >= maxMappedWindows) {
+                dropWindow(region, mappedWindowIndexes.removeFirst())
+            }
+            val windowStart = windowIndex.toLong() * windowSize
+            val windowLength = Math.min(windowSize.toLong(), region.length - windowStart)
+            val newWindow = try {
+                fileChannel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowLength)
+            } catch (e: IOException) {
+                // Map failed, usually because the address space is used up. The windows are
+                // dropped so the garbage collector can release their address space.
+                mappingFailed = true
+                while (mappedWindowIndexes.isNotEmpty()) {
+                    dropWindow(region, mappedWindowIndexes.removeFirst())
+                }
+                return null
+            }
+            region.windows.set(windowIndex, newWindow)
+            mappedWindowIndexes.addLast(windowIndex)
+            return newWindow
+        }
+    }
+
+    /** Forces the window if it is dirty and drops it, so the garbage collector can unmap it. A writer
+     * that still puts bytes into the window after this forces them itself. See write.*/
+    private fun dropWindow(region: MappedRegion, windowIndex: Int) {
+        val window = region.windows.getAndSet(windowIndex, null)
+        if (window != null && region.dirtyWindows.getAndSet(windowIndex, 0) == 1) {
+            window.force()
+        }
+    }
+
+    /** A window is marked dirty after bytes are put into it, so a window written while it is forced
+     * stays dirty and is forced again on the next flush.*/
+    private fun forceDirtyWindows(region: MappedRegion) {
+        for (windowIndex in 0 until region.windows.length()) {
+            if (region.dirtyWindows.get(windowIndex) == 1 && region.dirtyWindows.getAndSet(windowIndex, 0) == 1) {
+                region.windows.get(windowIndex)?.force()
+            }
+        }
+    }
+
+    private class MappedRegion(val length: Long, windowSize: Int) {
+
+        val windows = AtomicReferenceArray<MappedByteBuffer?>(((length + windowSize - 1) / windowSize).toInt())
+        val dirtyWindows = AtomicIntegerArray(windows.length())
+
+    }
+
+    companion object {
+
+        const val DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024
+        const val DEFAULT_MAX_MAPPED_WINDOWS = 64
+        /** 64MB of mapped windows. A 32 bit process has a few GB of address space in total.*/
+        const val DEFAULT_MAX_MAPPED_WINDOWS_32_BIT = 4
+
+        /** @return DEFAULT_MAX_MAPPED_WINDOWS in 64 bit processes and
+         * DEFAULT_MAX_MAPPED_WINDOWS_32_BIT otherwise.*/
+        @JvmStatic
+        fun getDefaultMaxMappedWindows(): Int {
+            val arch = System.getProperty("os.arch") ?: ""
+            return if (arch.contains("64")) DEFAULT_MAX_MAPPED_WINDOWS else DEFAULT_MAX_MAPPED_WINDOWS_32_BIT
+        }
+
+    }
+
+}
@@ -22,8 +22,76 @@ abstract class OutputResourceWrapper : Closeable {
     @Throws(IOException::class)
     abstract fun setWriteOffset(offset: Long)
 
+    /** Indicates if this resource supports positional writes via write(position, byteArray, offSet, length).
+     * Positional writes do not move the shared write offset and can be called concurrently
+     * by multiple threads. Defaults to false.
+     * */
+    open val supportsPositionalWrites: Boolean
+        get() = false
+
+    /** Write bytes to resource at the specified absolute position. Resources that return true for
+     * supportsPositionalWrites write without changing the write offset set with setWriteOffset.
+     * The default implementation calls setWriteOffset(position) and write(byteArray, offSet, length),
+     * so callers have to hold the same lock as for other writes to this resource.
+     * @param position absolute position in the resource where the data is written
+     * @param byteArray data
+     * @param offSet offset in the byteArray
+     * @param length data length
+     * */
+    @Throws(IOException::class)
+    open fun write(position: Long, byteArray: ByteArray, offSet: Int = 0, length: Int = byteArray.size) {
+        setWriteOffset(position)
+        write(byteArray, offSet, length)
+    }
+
+    /** Indicates if this resource can reserve storage up front via preallocate(length).
+     * Defaults to false.
+     * */
+    open val supportsPreallocation: Boolean
+        get() = false
+
+    /** Reserves storage for the first length bytes of the resource so that writes at far offsets
+     * do not grow the file piece by piece. The resource is never truncated. The default
+     * implementation does nothing.
+     * @param length length in bytes the resource is expected to reach
+     * @throws IOException if the storage volume does not have room for length bytes
+     * */
+    @Throws(IOException::class)
+    open fun preallocate(length: Long) {
+
+    }
+
+    /** Indicates that this resource only writes efficiently within the length reserved with
+     * preallocate(length), e.g. a memory mapped file. Fetch then preallocates the file once the
+     * total length of a download is known, even if preallocation is not enabled in the
+     * FetchConfiguration. Defaults to false.
+     * */
+    open val requiresPreallocation: Boolean
+        get() = false
+
+    /** Number of bytes of storage already allocated to this resource, e.g. by an earlier
+     * preallocate(length), or -1 if unknown. Defaults to -1.
+     * */
+    open val allocatedBytes: Long
+        get() = -1L
+
+    /** Number of bytes still available on the storage volume of this resource, or -1 if unknown.
+     * Defaults to -1.
+     * */
+    open val availableBytes: Long
+        get() = -1L
+
     /** Flush resource buffer*/
     @Throws(IOException::class)
     abstract fun flush()
 
+    /** Flushes the resource and forces the written bytes to the storage device, so they are not
+     * lost if the device loses power. Fetch calls this before it checkpoints the written bytes of
+     * a download. The default implementation calls flush().
+     * */
+    @Throws(IOException::class)
+    open fun sync() {
+        flush()
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,356 @@
+package com.tonyodev.fetch2core
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * MD5, SHA-1 and SHA-256 message digest whose intermediate state can be saved and restored.
+ * The state of java.security.MessageDigest cannot be persisted, so Fetch uses this digest to hash
+ * a download while it is written and to continue hashing after a paused download resumes, without
+ * reading the bytes that were already hashed again. This class is not thread safe.
+ * */
+abstract class ResumableDigest internal constructor(
+        /** The MessageDigest algorithm name. MD5, SHA-1 or SHA-256*/
+        val algorithm: String,
+        private val algorithmId: Int,
+        private val initialState: IntArray,
+        private val byteOrder: ByteOrder) {
+
+    protected val state: IntArray = initialState.copyOf()
+    private val block = ByteArray(BLOCK_SIZE)
+
+    /** Number of bytes hashed so far.*/
+    var byteCount = 0L
+        private set
+
+    fun update(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size - offset) {
+        var position = offset
+        var remaining = length
+        var blockLength = (byteCount % BLOCK_SIZE).toInt()
+        byteCount += length
+        if (blockLength > 0) {
+            val copyLength = Math.min(BLOCK_SIZE - blockLength, remaining)
+            System.arraycopy(bytes, position, block, blockLength, copyLength)
+            position += copyLength
+            remaining -= copyLength
+            blockLength += copyLength
+            if (blockLength < BLOCK_SIZE) {
+                return
+            }
+            processBlock(block, 0)
+        }
+        while (remaining >= BLOCK_SIZE) {
+            processBlock(bytes, position)
+            position += BLOCK_SIZE
+            remaining -= BLOCK_SIZE
+        }
+        if (remaining > 0) {
+            System.arraycopy(bytes, position, block, 0, remaining)
+        }
+    }
+
+    fun reset() {
+        System.arraycopy(initialState, 0, state, 0, state.size)
+        byteCount = 0L
+    }
+
+    /** @return the digest of the bytes hashed so far. Does not change the state of this digest,
+     * so hashing can continue afterwards.
+     * */
+    fun digest(): ByteArray {
+        val finalDigest = getInstance(algorithm)
+        finalDigest.restoreState(saveState())
+        val blockLength = (finalDigest.byteCount % BLOCK_SIZE).toInt()
+        val paddingLength = if (blockLength < 56) 56 - blockLength else 120 - blockLength
+        val padding = ByteBuffer.allocate(paddingLength + 8).order(byteOrder)
+        padding.put(0, 0x80.toByte())
+        padding.putLong(paddingLength, finalDigest.byteCount * 8)
+        finalDigest.update(padding.array())
+        val digest = ByteBuffer.allocate(state.size * 4).order(byteOrder)
+        finalDigest.state.forEach {
+            digest.putInt(it)
+        }
+        return digest.array()
+    }
+
+    /** @return the digest of the bytes hashed so far as lower case hex string.*/
+    fun digestHex(): String {
+        val stringBuilder = StringBuilder()
+        digest().forEach {
+            stringBuilder.append(HEX_DIGITS[(it.toInt() shr 4) and 0x0F])
+            stringBuilder.append(HEX_DIGITS[it.toInt() and 0x0F])
+        }
+        return stringBuilder.toString()
+    }
+
+    /** @return the current state of this digest. Pass it to restoreState to continue hashing.*/
+    fun saveState(): ByteArray {
+        val blockLength = (byteCount % BLOCK_SIZE).toInt()
+        val byteBuffer = ByteBuffer.allocate(1 + 8 + state.size * 4 + blockLength)
+        byteBuffer.put(algorithmId.toByte())
+        byteBuffer.putLong(byteCount)
+        state.forEach {
+            byteBuffer.putInt(it)
+        }
+        byteBuffer.put(block, 0, blockLength)
+        return byteBuffer.array()
+    }
+
+    /** Restores a state returned by saveState.
+     * @return true if the state was restored. False if the state was written by a digest of
+     * another algorithm or is malformed. In this case the digest is not changed.
+     * */
+    fun restoreState(savedState: ByteArray): Boolean {
+        if (savedState.size < 1 + 8 + state.size * 4) {
+            return false
+        }
+        val byteBuffer = ByteBuffer.wrap(savedState)
+        val savedAlgorithmId = byteBuffer.get().toInt()
+        val savedByteCount = byteBuffer.long
+        if (savedAlgorithmId != algorithmId || savedByteCount < 0
+                || savedState.size != 1 + 8 + state.size * 4 + (savedByteCount % BLOCK_SIZE).toInt()) {
+            return false
+        }
+        for (index in 0 until state.size) {
+            state[index] = byteBuffer.int
+        }
+        byteBuffer.get(block, 0, byteBuffer.remaining())
+        byteCount = savedByteCount
+        return true
+    }
+
+    protected abstract fun processBlock(bytes: ByteArray, offset: Int)
+
+    companion object {
+
+        const val MD5 = "MD5"
+        const val SHA_1 = "SHA-1"
+        const val SHA_256 = "SHA-256"
+
+        private const val BLOCK_SIZE = 64
+        private val HEX_DIGITS = "0123456789abcdef".toCharArray()
+
+        /** @return true if a ResumableDigest exists for the passed in algorithm.*/
+        @JvmStatic
+        fun isSupported(algorithm: String): Boolean {
+            return algorithm == MD5 || algorithm == SHA_1 || algorithm == SHA_256
+        }
+
+        /** @return a new digest for the passed in algorithm.
+         * @throws IllegalArgumentException if the algorithm is not MD5, SHA-1 or SHA-256.
+         * */
+        @JvmStatic
+        fun getInstance(algorithm: String): ResumableDigest {
+            return when (algorithm) {
+                MD5 -> Md5Digest()
+                SHA_1 -> Sha1Digest()
+                SHA_256 -> Sha256Digest()
+                else -> throw IllegalArgumentException("Unsupported digest algorithm: $algorithm")
+            }
+        }
+
+    }
+
+}
+
+private fun getLittleEndianInt(bytes: ByteArray, offset: Int): Int {
+    return (bytes[offset].toInt() and 0xFF) or
+            ((bytes[offset + 1].toInt() and 0xFF) shl 8) or
+            ((bytes[offset + 2].toInt() and 0xFF) shl 16) or
+            ((bytes[offset + 3].toInt() and 0xFF) shl 24)
+}
+
+private fun getBigEndianInt(bytes: ByteArray, offset: Int): Int {
+    return ((bytes[offset].toInt() and 0xFF) shl 24) or
+            ((bytes[offset + 1].toInt() and 0xFF) shl 16) or
+            ((bytes[offset + 2].toInt() and 0xFF) shl 8) or
+            (bytes[offset + 3].toInt() and 0xFF)
+}
+
+private class Md5Digest : ResumableDigest(MD5, 1,
+        longArrayOf(0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476).toIntArray(),
+        ByteOrder.LITTLE_ENDIAN) {
+
+    private val words = IntArray(16)
+
+    override fun processBlock(bytes: ByteArray, offset: Int) {
+        for (index in 0 until 16) {
+            words[index] = getLittleEndianInt(bytes, offset + index * 4)
+        }
+        var a = state[0]
+        var b = state[1]
+        var c = state[2]
+        var d = state[3]
+        for (index in 0 until 64) {
+            var f: Int
+            val wordIndex: Int
+            when (index / 16) {
+                0 -> {
+                    f = (b and c) or (b.inv() and d)
+                    wordIndex = index
+                }
+                1 -> {
+                    f = (d and b) or (d.inv() and c)
+                    wordIndex = (5 * index + 1) % 16
+                }
+                2 -> {
+                    f = b xor c xor d
+                    wordIndex = (3 * index + 5) % 16
+                }
+                else -> {
+                    f = c xor (b or d.inv())
+                    wordIndex = (7 * index) % 16
+                }
+            }
+            f += a + K[index] + words[wordIndex]
+            a = d
+            d = c
+            c = b
+            b += Integer.rotateLeft(f, S[(index / 16) * 4 + index % 4])
+        }
+        state[0] += a
+        state[1] += b
+        state[2] += c
+        state[3] += d
+    }
+
+    companion object {
+        private val S = intArrayOf(7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21)
+        private val K = longArrayOf(
+                0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee, 0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+                0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be, 0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+                0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa, 0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+                0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed, 0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+                0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c, 0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+                0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05, 0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+                0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039, 0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+                0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1, 0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391
+        ).toIntArray()
+    }
+
+}
+
+private class Sha1Digest : ResumableDigest(SHA_1, 2,
+        longArrayOf(0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0).toIntArray(),
+        ByteOrder.BIG_ENDIAN) {
+
+    private val words = IntArray(80)
+
+    override fun processBlock(bytes: ByteArray, offset: Int) {
+        for (index in 0 until 16) {
+            words[index] = getBigEndianInt(bytes, offset + index * 4)
+        }
+        for (index in 16 until 80) {
+            words[index] = Integer.rotateLeft(words[index - 3] xor words[index - 8] xor words[index - 14] xor words[index - 16], 1)
+        }
+        var a = state[0]
+        var b = state[1]
+        var c = state[2]
+        var d = state[3]
+        var e = state[4]
+        for (index in 0 until 80) {
+            val f: Int
+            val k: Int
+            when (index / 20) {
+                0 -> {
+                    f = (b and c) or (b.inv() and d)
+                    k = 0x5A827999
+                }
+                1 -> {
+                    f = b xor c xor d
+                    k = 0x6ED9EBA1
+                }
+                2 -> {
+                    f = (b and c) or (b and d) or (c and d)
+                    k = 0x8F1BBCDC.toInt()
+                }
+                else -> {
+                    f = b xor c xor d
+                    k = 0xCA62C1D6.toInt()
+                }
+            }
+            val temp = Integer.rotateLeft(a, 5) + f + e + k + words[index]
+            e = d
+            d = c
+            c = Integer.rotateLeft(b, 30)
+            b = a
+            a = temp
+        }
+        state[0] += a
+        state[1] += b
+        state[2] += c
+        state[3] += d
+        state[4] += e
+    }
+
+}
+
+private class Sha256Digest : ResumableDigest(SHA_256, 3,
+        longArrayOf(0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19).toIntArray(),
+        ByteOrder.BIG_ENDIAN) {
+
+    private val words = IntArray(64)
+
+    override fun processBlock(bytes: ByteArray, offset: Int) {
+        for (index in 0 until 16) {
+            words[index] = getBigEndianInt(bytes, offset + index * 4)
+        }
+        for (index in 16 until 64) {
+            val w15 = words[index - 15]
+            val w2 = words[index - 2]
+            val s0 = Integer.rotateRight(w15, 7) xor Integer.rotateRight(w15, 18) xor (w15 ushr 3)
+            val s1 = Integer.rotateRight(w2, 17) xor Integer.rotateRight(w2, 19) xor (w2 ushr 10)
+            words[index] = words[index - 16] + s0 + words[index - 7] + s1
+        }
+        var a = state[0]
+        var b = state[1]
+        var c = state[2]
+        var d = state[3]
+        var e = state[4]
+        var f = state[5]
+        var g = state[6]
+        var h = state[7]
+        for (index in 0 until 64) {
+            val s1 = Integer.rotateRight(e, 6) xor Integer.rotateRight(e, 11) xor Integer.rotateRight(e, 25)
+            val ch = (e and f) xor (e.inv() and g)
+            val temp1 = h + s1 + ch + K[index] + words[index]
+            val s0 = Integer.rotateRight(a, 2) xor Integer.rotateRight(a, 13) xor Integer.rotateRight(a, 22)
+            val maj = (a and b) xor (a and c) xor (b and c)
+            val temp2 = s0 + maj
+            h = g
+            g = f
+            f = e
+            e = d + temp1
+            d = c
+            c = b
+            b = a
+            a = temp1 + temp2
+        }
+        state[0] += a
+        state[1] += b
+        state[2] += c
+        state[3] += d
+        state[4] += e
+        state[5] += f
+        state[6] += g
+        state[7] += h
+    }
+
+    companion object {
+        private val K = longArrayOf(
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+        ).toIntArray()
+    }
+
+}
+
+private fun LongArray.toIntArray(): IntArray {
+    return IntArray(size) { this[it].toInt() }
+}
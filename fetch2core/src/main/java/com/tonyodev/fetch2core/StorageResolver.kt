@@ -32,6 +32,8 @@ interface StorageResolver {
      * This method is called on a background thread.
      * Note: If your request.file is a uri that points to a content provider you must override this method
      * and provide the proper OutputResourceWrapper object.
+     * Parallel downloads write each file slice at its own offset without a shared lock when the returned
+     * OutputResourceWrapper supports positional writes. See OutputResourceWrapper.supportsPositionalWrites.
      * @param request The request information for the download.
      * @return OutputResourceWrapper object. Fetch will call the close method automatically
      *         after the Downloader.disconnect(response) method is called. Fetch will provide a default
@@ -9,7 +9,12 @@ import android.net.Uri
 import android.os.Build
 import android.os.ParcelFileDescriptor
 import android.provider.DocumentsContract
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
 import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 
 fun getOutputResourceWrapper(parcelFileDescriptor: ParcelFileDescriptor): OutputResourceWrapper {
     return getOutputResourceWrapper(parcelFileDescriptor.fileDescriptor, parcelFileDescriptor)
@@ -28,9 +33,12 @@ fun getOutputResourceWrapper(fileOutputStream: FileOutputStream,
 
         private val fileOutputStream = fileOutputStream
         private val parcelFileDescriptor = parcelFileDescriptor
+        private val seekable = isSeekable(fileOutputStream.channel)
 
         init {
-            this.fileOutputStream.channel.position(0)
+            if (this.seekable) {
+                this.fileOutputStream.channel.position(0)
+            }
         }
 
         override fun write(byteArray: ByteArray, offSet: Int, length: Int) {
@@ -41,10 +49,43 @@ fun getOutputResourceWrapper(fileOutputStream: FileOutputStream,
             this.fileOutputStream.channel.position(offset)
         }
 
+        override val supportsPositionalWrites: Boolean
+            get() = this.seekable
+
+        override fun write(position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+            if (this.seekable) {
+                writeToFileChannel(this.fileOutputStream.channel, position, byteArray, offSet, length)
+            } else {
+                super.write(position, byteArray, offSet, length)
+            }
+        }
+
+        override val supportsPreallocation: Boolean
+            get() = this.seekable
+
+        override fun preallocate(length: Long) {
+            if (this.seekable) {
+                preallocateFile(this.fileOutputStream.fd, this.fileOutputStream.channel, length)
+            }
+        }
+
+        override val allocatedBytes: Long
+            get() = getAllocatedBytes(this.fileOutputStream.fd)
+
+        override val availableBytes: Long
+            get() = getAvailableBytes(this.fileOutputStream.fd)
+
         override fun flush() {
             this.fileOutputStream.flush()
         }
 
+        override fun sync() {
+            this.fileOutputStream.flush()
+            if (this.seekable) {
+                this.fileOutputStream.fd.sync()
+            }
+        }
+
         override fun close() {
             this.fileOutputStream.close()
         }
@@ -52,15 +93,23 @@ fun getOutputResourceWrapper(fileOutputStream: FileOutputStream,
     }
 }
 
-fun getOutputResourceWrapper(filePath: String, contentResolver: ContentResolver): OutputResourceWrapper {
+@JvmOverloads
+fun getOutputResourceWrapper(filePath: String,
+                             contentResolver: ContentResolver,
+                             fileOutputMode: FileOutputMode = FileOutputMode.FILE_CHANNEL): OutputResourceWrapper {
     return if (isUriPath(filePath)) {
-        getOutputResourceWrapper(Uri.parse(filePath), contentResolver)
+        getOutputResourceWrapper(Uri.parse(filePath), contentResolver, fileOutputMode)
     } else {
-        getOutputResourceWrapper(File(filePath))
+        getOutputResourceWrapper(File(filePath), fileOutputMode)
     }
 }
 
-fun getOutputResourceWrapper(fileUri: Uri, contentResolver: ContentResolver): OutputResourceWrapper {
+/** Content provider uris are always written through the stream of their file descriptor.
+ * The fileOutputMode only applies to files that can be opened directly.*/
+@JvmOverloads
+fun getOutputResourceWrapper(fileUri: Uri,
+                             contentResolver: ContentResolver,
+                             fileOutputMode: FileOutputMode = FileOutputMode.FILE_CHANNEL): OutputResourceWrapper {
     return when {
         fileUri.scheme == "content" -> {
             val parcelFileDescriptor = contentResolver.openFileDescriptor(fileUri, "rw")
@@ -73,7 +122,7 @@ fun getOutputResourceWrapper(fileUri: Uri, contentResolver: ContentResolver): Ou
         fileUri.scheme == "file" -> {
             val file = File(fileUri.path)
             if (file.exists() && file.canWrite()) {
-                getOutputResourceWrapper(file)
+                getOutputResourceWrapper(file, fileOutputMode)
             } else {
                 val parcelFileDescriptor = contentResolver.openFileDescriptor(fileUri, "rw")
                 if (parcelFileDescriptor == null) {
@@ -94,14 +143,23 @@ fun getOutputResourceWrapper(filePath: String): OutputResourceWrapper {
     return if (file.exists()) getOutputResourceWrapper(file) else throw FileNotFoundException("$file $FILE_NOT_FOUND")
 }
 
-fun getOutputResourceWrapper(file: File): OutputResourceWrapper {
-    return getOutputResourceWrapper(RandomAccessFile(file, "rw"))
+@JvmOverloads
+fun getOutputResourceWrapper(file: File, fileOutputMode: FileOutputMode = FileOutputMode.FILE_CHANNEL): OutputResourceWrapper {
+    val randomAccessFile = RandomAccessFile(file, "rw")
+    return when (fileOutputMode) {
+        FileOutputMode.FILE_CHANNEL -> getOutputResourceWrapper(randomAccessFile)
+        FileOutputMode.RANDOM_ACCESS_FILE -> getOutputResourceWrapper(randomAccessFile, false)
+        FileOutputMode.MEMORY_MAPPED -> MemoryMappedOutputResourceWrapper(randomAccessFile)
+    }
 }
 
-fun getOutputResourceWrapper(randomAccessFile: RandomAccessFile): OutputResourceWrapper {
+/** @param positionalWrites if false, the wrapper only supports writes at the shared write offset.*/
+@JvmOverloads
+fun getOutputResourceWrapper(randomAccessFile: RandomAccessFile, positionalWrites: Boolean = true): OutputResourceWrapper {
     return object : OutputResourceWrapper() {
 
         private val randomAccessFile = randomAccessFile
+        private val positionalWrites = positionalWrites
 
         init {
             this.randomAccessFile.seek(0)
@@ -115,16 +173,120 @@ fun getOutputResourceWrapper(randomAccessFile: RandomAccessFile): OutputResource
             this.randomAccessFile.seek(offset)
         }
 
+        override val supportsPositionalWrites: Boolean
+            get() = this.positionalWrites
+
+        override fun write(position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+            writeToFileChannel(this.randomAccessFile.channel, position, byteArray, offSet, length)
+        }
+
+        override val supportsPreallocation: Boolean
+            get() = true
+
+        override fun preallocate(length: Long) {
+            preallocateFile(this.randomAccessFile.fd, this.randomAccessFile.channel, length)
+        }
+
+        override val allocatedBytes: Long
+            get() = getAllocatedBytes(this.randomAccessFile.fd)
+
+        override val availableBytes: Long
+            get() = getAvailableBytes(this.randomAccessFile.fd)
+
         override fun flush() {
 
         }
 
+        override fun sync() {
+            this.randomAccessFile.channel.force(false)
+        }
+
         override fun close() {
             this.randomAccessFile.close()
         }
     }
 }
 
+/** File descriptors of content provider uris can be pipes or sockets, which cannot seek. Positional
+ * writes and preallocation are only possible on descriptors that can.*/
+fun isSeekable(fileChannel: FileChannel): Boolean {
+    return try {
+        fileChannel.position()
+        true
+    } catch (e: IOException) {
+        false
+    }
+}
+
+fun writeToFileChannel(fileChannel: FileChannel, position: Long, byteArray: ByteArray, offSet: Int, length: Int) {
+    val byteBuffer = ByteBuffer.wrap(byteArray, offSet, length)
+    var writePosition = position
+    while (byteBuffer.hasRemaining()) {
+        writePosition += fileChannel.write(byteBuffer, writePosition)
+    }
+}
+
+/** Reserves the blocks for the first length bytes of the file with posix_fallocate where the
+ * platform supports it. If the file system does not support fallocate the file is extended
+ * sparsely by writing its last byte instead, which at least avoids growing the file on every write.
+ * The file is never truncated.
+ * @return true if the blocks were reserved. False if the file was only extended sparsely.
+ * @throws IOException with message INSUFFICIENT_STORAGE if the volume does not have room for the file.
+ * */
+fun preallocateFile(fileDescriptor: FileDescriptor, fileChannel: FileChannel, length: Long): Boolean {
+    if (length < 1) {
+        return false
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        try {
+            Os.posix_fallocate(fileDescriptor, 0, length)
+            return true
+        } catch (e: ErrnoException) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw IOException(INSUFFICIENT_STORAGE, e)
+            }
+        }
+    }
+    try {
+        if (fileChannel.size() < length) {
+            fileChannel.write(ByteBuffer.allocate(1), length - 1)
+        }
+    } catch (e: IOException) {
+        if (e.message?.contains("ENOSPC") == true) {
+            throw IOException(INSUFFICIENT_STORAGE, e)
+        }
+    }
+    return false
+}
+
+/** @return bytes of storage allocated to the file, or -1 if unknown. Holes of a sparse file are
+ * not counted.*/
+fun getAllocatedBytes(fileDescriptor: FileDescriptor): Long {
+    return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        try {
+            Os.fstat(fileDescriptor).st_blocks * 512L
+        } catch (e: Exception) {
+            -1L
+        }
+    } else {
+        -1L
+    }
+}
+
+/** @return bytes available to the app on the volume holding the file, or -1 if unknown.*/
+fun getAvailableBytes(fileDescriptor: FileDescriptor): Long {
+    return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        try {
+            val statVfs = Os.fstatvfs(fileDescriptor)
+            statVfs.f_bavail * statVfs.f_frsize
+        } catch (e: Exception) {
+            -1L
+        }
+    } else {
+        -1L
+    }
+}
+
 fun deleteFile(filePath: String, context: Context): Boolean {
     return if (isUriPath(filePath)) {
         val uri = Uri.parse(filePath)
@@ -1,29 +1,33 @@
 package com.tonyodev.fetch2core.server
 
-import com.tonyodev.fetch2core.Extras
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_CONNECTION
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_CONTENT_LENGTH
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_DATE
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_MD5
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_SESSION_ID
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_STATUS
-import com.tonyodev.fetch2core.server.FileResponse.CREATOR.FIELD_TYPE
-import org.json.JSONObject
 import java.io.DataInputStream
 import java.io.DataOutputStream
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.Socket
 import java.net.SocketAddress
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.channels.WritableByteChannel
 
-class FetchFileResourceTransporter(private val client: Socket = Socket()) : FileResourceTransporter {
+class FetchFileResourceTransporter(private val client: Socket = Socket(),
+                                   /** Highest wire protocol version this transporter offers to the peer.*/
+                                   private val maxProtocolVersion: Int = PROTOCOL_VERSION_BINARY) : FileResourceTransporter {
 
 
     private lateinit var dataInput: DataInputStream
     private lateinit var dataOutput: DataOutputStream
+    private var outputChannel: WritableByteChannel? = null
     private val lock = Any()
     @Volatile
     private var closed = false
+    @Volatile
+    private var negotiatedProtocolVersion = PROTOCOL_VERSION_JSON
+
+    override val protocolVersion: Int
+        get() {
+            return negotiatedProtocolVersion
+        }
 
     override val isClosed: Boolean
         get() {
@@ -32,6 +36,14 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
             }
         }
 
+    /** True if the transporter is connected to a server and not closed.*/
+    val isConnected: Boolean
+        get() {
+            synchronized(lock) {
+                return !closed && client.isConnected
+            }
+        }
+
     init {
         if (client.isConnected && !client.isClosed) {
             dataInput = DataInputStream(client.getInputStream())
@@ -55,49 +67,10 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         return synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            val json = JSONObject(dataInput.readUTF())
-            val requestType = json.getInt(FileRequest.FIELD_TYPE)
-            val fileResourceId = json.getString(FileRequest.FIELD_FILE_RESOURCE_ID)
-            var rangeStart = json.getLong(FileRequest.FIELD_RANGE_START)
-            var rangeEnd = json.getLong(FileRequest.FIELD_RANGE_END)
-            val authorization = json.getString(FileRequest.FIELD_AUTHORIZATION)
-            val client = json.getString(FileRequest.FIELD_CLIENT)
-            val extras = try {
-                val map = mutableMapOf<String, String>()
-                val jsonObject = JSONObject(json.getString(FileRequest.FIELD_EXTRAS))
-                jsonObject.keys().forEach {
-                    map[it] = jsonObject.getString(it)
-                }
-                Extras(map)
-            } catch (e: Exception) {
-                Extras.emptyExtras
-            }
-            var page = json.getInt(FileRequest.FIELD_PAGE)
-            var size = json.getInt(FileRequest.FIELD_SIZE)
-            if ((rangeStart < 0L || rangeStart > rangeEnd) && rangeEnd > -1) {
-                rangeStart = 0L
-            }
-            if (rangeEnd < 0L || rangeEnd < rangeStart) {
-                rangeEnd = -1L
-            }
-            if (page < -1) {
-                page = -1
-            }
-            if (size < -1) {
-                size = -1
-            }
-            val persistConnection = json.getBoolean(FileRequest.FIELD_PERSIST_CONNECTION)
-            FileRequest(
-                    type = requestType,
-                    fileResourceId = fileResourceId,
-                    rangeStart = rangeStart,
-                    rangeEnd = rangeEnd,
-                    authorization = authorization,
-                    client = client,
-                    extras = extras,
-                    page = page,
-                    size = size,
-                    persistConnection = persistConnection)
+            val frame = readFrame(dataInput)
+            val fileRequest = decodeFileRequest(frame)
+            updateProtocolVersion(frame, fileRequest.protocolVersion)
+            fileRequest
         }
     }
 
@@ -105,7 +78,7 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            dataOutput.writeUTF(fileRequest.toJsonString)
+            dataOutput.write(encodeFileRequest(fileRequest.copy(protocolVersion = maxProtocolVersion), protocolVersion))
             dataOutput.flush()
         }
     }
@@ -114,22 +87,10 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         return synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            val json = JSONObject(dataInput.readUTF())
-            val status = json.getInt(FIELD_STATUS)
-            val requestType = json.getInt(FIELD_TYPE)
-            val connection = json.getInt(FIELD_CONNECTION)
-            val date = json.getLong(FIELD_DATE)
-            val contentLength = json.getLong(FIELD_CONTENT_LENGTH)
-            val md5 = json.getString(FIELD_MD5)
-            val sessionId = json.getString(FIELD_SESSION_ID)
-            FileResponse(
-                    status = status,
-                    type = requestType,
-                    connection = connection,
-                    date = date,
-                    contentLength = contentLength,
-                    md5 = md5,
-                    sessionId = sessionId)
+            val frame = readFrame(dataInput)
+            val fileResponse = decodeFileResponse(frame)
+            updateProtocolVersion(frame, fileResponse.protocolVersion)
+            fileResponse
         }
     }
 
@@ -137,7 +98,7 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         synchronized(lock) {
             throwExceptionIfClosed()
             throwIfNotConnected()
-            dataOutput.writeUTF(fileResponse.toJsonString)
+            dataOutput.write(encodeFileResponse(fileResponse.copy(protocolVersion = maxProtocolVersion), protocolVersion))
             dataOutput.flush()
         }
     }
@@ -151,6 +112,35 @@ class FetchFileResourceTransporter(private val client: Socket = Socket()) : File
         }
     }
 
+    override fun sendFileChannelBytes(fileChannel: FileChannel, position: Long, count: Long): Long {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            throwIfNotConnected()
+            dataOutput.flush()
+            fileChannel.transferTo(position, count, getOutputChannel())
+        }
+    }
+
+    /** Switches to the binary protocol once the peer sent a binary frame or announced support for it.*/
+    private fun updateProtocolVersion(frame: ByteArray, peerProtocolVersion: Int) {
+        val peerVersion = if (isBinaryFrame(frame)) PROTOCOL_VERSION_BINARY else peerProtocolVersion
+        negotiatedProtocolVersion = Math.max(PROTOCOL_VERSION_JSON, Math.min(peerVersion, maxProtocolVersion))
+    }
+
+    private fun getOutputChannel(): WritableByteChannel {
+        var channel = outputChannel
+        if (channel == null) {
+            val socketChannel = client.channel
+            channel = if (socketChannel != null && socketChannel.isBlocking) {
+                socketChannel
+            } else {
+                Channels.newChannel(dataOutput)
+            }
+            outputChannel = channel
+        }
+        return channel
+    }
+
     override fun readRawBytes(byteArray: ByteArray, offset: Int, length: Int): Int {
         return synchronized(lock) {
             throwExceptionIfClosed()
@@ -3,11 +3,12 @@ package com.tonyodev.fetch2core.server
 import android.os.Parcel
 import android.os.Parcelable
 import com.tonyodev.fetch2core.Extras
+import org.json.JSONObject
 import java.io.Serializable
 import java.lang.StringBuilder
 
 /**
- * Request object sent to the Fetch File Server as JSON.
+ * Request object sent to the Fetch File Server as JSON or as a binary frame.
  **/
 data class FileRequest(val type: Int = TYPE_INVALID,
                        val fileResourceId: String = CATALOG_ID.toString(),
@@ -18,7 +19,9 @@ data class FileRequest(val type: Int = TYPE_INVALID,
                        val extras: Extras = Extras.emptyExtras,
                        val page: Int = 0,
                        val size: Int = 0,
-                       val persistConnection: Boolean = true) : Parcelable, Serializable {
+                       val persistConnection: Boolean = true,
+                       /** Highest wire protocol version supported by the sender.*/
+                       val protocolVersion: Int = PROTOCOL_VERSION_JSON) : Parcelable, Serializable {
 
     val toJsonString: String
         get() {
@@ -33,7 +36,8 @@ data class FileRequest(val type: Int = TYPE_INVALID,
                     .append("\"Extras\":").append(extras.toJSONString()).append(',')
                     .append("\"Page\":").append(page).append(',')
                     .append("\"Size\":").append(size).append(',')
-                    .append("\"Persist-Connection\":").append(persistConnection)
+                    .append("\"Persist-Connection\":").append(persistConnection).append(',')
+                    .append("\"Protocol-Version\":").append(protocolVersion)
                     .append('}')
             return builder.toString()
         }
@@ -49,6 +53,7 @@ data class FileRequest(val type: Int = TYPE_INVALID,
         dest.writeInt(page)
         dest.writeInt(size)
         dest.writeInt(if (persistConnection) 1 else 0)
+        dest.writeInt(protocolVersion)
     }
 
     override fun describeContents(): Int {
@@ -74,6 +79,57 @@ data class FileRequest(val type: Int = TYPE_INVALID,
         const val FIELD_PAGE = "Page"
         const val FIELD_SIZE = "Size"
         const val FIELD_PERSIST_CONNECTION = "Persist-Connection"
+        const val FIELD_PROTOCOL_VERSION = "Protocol-Version"
+
+        /** Creates a FileRequest from the json string produced by toJsonString.*/
+        @JvmStatic
+        fun fromJsonString(json: String): FileRequest {
+            val jsonObject = JSONObject(json)
+            val requestType = jsonObject.getInt(FIELD_TYPE)
+            val fileResourceId = jsonObject.getString(FIELD_FILE_RESOURCE_ID)
+            var rangeStart = jsonObject.getLong(FIELD_RANGE_START)
+            var rangeEnd = jsonObject.getLong(FIELD_RANGE_END)
+            val authorization = jsonObject.getString(FIELD_AUTHORIZATION)
+            val client = jsonObject.getString(FIELD_CLIENT)
+            val extras = try {
+                val map = mutableMapOf<String, String>()
+                val extrasJsonObject = JSONObject(jsonObject.getString(FIELD_EXTRAS))
+                extrasJsonObject.keys().forEach {
+                    map[it] = extrasJsonObject.getString(it)
+                }
+                Extras(map)
+            } catch (e: Exception) {
+                Extras.emptyExtras
+            }
+            var page = jsonObject.getInt(FIELD_PAGE)
+            var size = jsonObject.getInt(FIELD_SIZE)
+            if ((rangeStart < 0L || rangeStart > rangeEnd) && rangeEnd > -1) {
+                rangeStart = 0L
+            }
+            if (rangeEnd < 0L || rangeEnd < rangeStart) {
+                rangeEnd = -1L
+            }
+            if (page < -1) {
+                page = -1
+            }
+            if (size < -1) {
+                size = -1
+            }
+            val persistConnection = jsonObject.getBoolean(FIELD_PERSIST_CONNECTION)
+            val protocolVersion = jsonObject.optInt(FIELD_PROTOCOL_VERSION, PROTOCOL_VERSION_JSON)
+            return FileRequest(
+                    type = requestType,
+                    fileResourceId = fileResourceId,
+                    rangeStart = rangeStart,
+                    rangeEnd = rangeEnd,
+                    authorization = authorization,
+                    client = client,
+                    extras = extras,
+                    page = page,
+                    size = size,
+                    persistConnection = persistConnection,
+                    protocolVersion = protocolVersion)
+        }
 
         @Suppress("UNCHECKED_CAST")
         override fun createFromParcel(source: Parcel): FileRequest {
@@ -87,7 +143,8 @@ data class FileRequest(val type: Int = TYPE_INVALID,
                     extras = Extras(source.readSerializable() as HashMap<String, String>),
                     page = source.readInt(),
                     size = source.readInt(),
-                    persistConnection = source.readInt() == 1)
+                    persistConnection = source.readInt() == 1,
+                    protocolVersion = source.readInt())
         }
 
         override fun newArray(size: Int): Array<FileRequest?> {
@@ -3,17 +3,31 @@ package com.tonyodev.fetch2core.server
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.SocketAddress
+import java.nio.channels.FileChannel
 
 interface FileResourceTransporter : FileResourceTransporterWriter {
 
     val isClosed: Boolean
 
+    /** The wire protocol version negotiated with the peer. PROTOCOL_VERSION_JSON until the peer
+     * announced support for a newer version.*/
+    val protocolVersion: Int
+
     fun connect(socketAddress: SocketAddress)
 
     fun receiveFileRequest(): FileRequest?
 
     fun receiveFileResponse(): FileResponse?
 
+    /** Transfers bytes of the file channel directly to the connection. When the connection
+     * is backed by a socket channel the bytes are sent without being copied through the heap.
+     * @param fileChannel file channel to read from
+     * @param position position in the file channel to start at
+     * @param count maximum number of bytes to transfer
+     * @return the number of bytes transferred. May be less than count.
+     * */
+    fun sendFileChannelBytes(fileChannel: FileChannel, position: Long, count: Long): Long
+
     fun readRawBytes(byteArray: ByteArray, offset: Int, length: Int): Int
 
     fun getInputStream(): InputStream
@@ -0,0 +1,288 @@
+@file:JvmName("FileResourceTransporterCodec")
+
+package com.tonyodev.fetch2core.server
+
+import com.tonyodev.fetch2core.Extras
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/** Protocol version 1. Every FileRequest and FileResponse is a JSON string written with writeUTF.*/
+const val PROTOCOL_VERSION_JSON = 1
+/** Protocol version 2. FileRequests and FileResponses are compact binary frames.*/
+const val PROTOCOL_VERSION_BINARY = 2
+
+/** The first two bytes of a binary frame. A JSON frame starts with its writeUTF length, which is
+ * never 0xFFFF for a JSON object because the third byte of such a frame would be '{', not a
+ * protocol version.*/
+private const val BINARY_FRAME_MARKER = 0xFFFF
+/** marker(2) + version(1) + payload length(4)*/
+private const val BINARY_FRAME_HEADER_SIZE = 7
+/** Binary frames are never larger than the largest JSON frame writeUTF can produce.*/
+private const val MAX_BINARY_PAYLOAD_SIZE = 0xFFFF
+
+/*
+ * Version negotiation: a peer that supports the binary protocol sends its first FileRequest or
+ * FileResponse as JSON with its highest protocol version in the Protocol-Version field. Peers that
+ * do not know the field ignore it and keep using JSON. Once a peer received a message announcing
+ * version 2 or a binary frame, it sends binary frames on that connection. Receivers detect the
+ * frame type per message, so both frame types can always be read.
+ * */
+
+/** Encodes the request as a complete frame for the passed in protocol version.*/
+fun encodeFileRequest(fileRequest: FileRequest, protocolVersion: Int): ByteArray {
+    return if (protocolVersion >= PROTOCOL_VERSION_BINARY) {
+        val payload = BinaryWriter()
+        payload.writeVarInt(fileRequest.type)
+        payload.writeString(fileRequest.fileResourceId)
+        payload.writeVarLong(fileRequest.rangeStart)
+        payload.writeVarLong(fileRequest.rangeEnd)
+        payload.writeString(fileRequest.authorization)
+        payload.writeString(fileRequest.client)
+        val extras = fileRequest.extras.map
+        payload.writeVarInt(extras.size)
+        for ((key, value) in extras) {
+            payload.writeString(key)
+            payload.writeString(value)
+        }
+        payload.writeVarInt(fileRequest.page)
+        payload.writeVarInt(fileRequest.size)
+        payload.writeVarInt(if (fileRequest.persistConnection) 1 else 0)
+        payload.writeVarInt(fileRequest.protocolVersion)
+        payload.toFrame()
+    } else {
+        encodeUTF(fileRequest.toJsonString)
+    }
+}
+
+/** Encodes the response as a complete frame for the passed in protocol version.*/
+fun encodeFileResponse(fileResponse: FileResponse, protocolVersion: Int): ByteArray {
+    return if (protocolVersion >= PROTOCOL_VERSION_BINARY) {
+        val payload = BinaryWriter()
+        payload.writeVarInt(fileResponse.status)
+        payload.writeVarInt(fileResponse.type)
+        payload.writeVarInt(fileResponse.connection)
+        payload.writeVarLong(fileResponse.date)
+        payload.writeVarLong(fileResponse.contentLength)
+        payload.writeString(fileResponse.md5)
+        payload.writeString(fileResponse.sessionId)
+        payload.writeVarInt(fileResponse.protocolVersion)
+        payload.toFrame()
+    } else {
+        encodeUTF(fileResponse.toJsonString)
+    }
+}
+
+/** @return true if the complete frame is a binary frame.*/
+fun isBinaryFrame(frame: ByteArray): Boolean {
+    return frame.size >= BINARY_FRAME_HEADER_SIZE && ((frame[0].toInt() and 0xFF) shl 8 or (frame[1].toInt() and 0xFF)) == BINARY_FRAME_MARKER
+            && frame[2].toInt() != '{'.toInt()
+}
+
+/** Decodes a complete JSON or binary frame.*/
+fun decodeFileRequest(frame: ByteArray): FileRequest {
+    return if (isBinaryFrame(frame)) {
+        val reader = BinaryReader(frame, BINARY_FRAME_HEADER_SIZE)
+        val type = reader.readVarInt()
+        val fileResourceId = reader.readString()
+        val rangeStart = reader.readVarLong()
+        val rangeEnd = reader.readVarLong()
+        val authorization = reader.readString()
+        val client = reader.readString()
+        val extrasCount = reader.readVarInt()
+        val extras = if (extrasCount > 0) {
+            val map = LinkedHashMap<String, String>(extrasCount)
+            for (index in 0 until extrasCount) {
+                map[reader.readString()] = reader.readString()
+            }
+            Extras(map)
+        } else {
+            Extras.emptyExtras
+        }
+        val page = reader.readVarInt()
+        val size = reader.readVarInt()
+        val persistConnection = reader.readVarInt() == 1
+        val protocolVersion = reader.readVarInt()
+        FileRequest(
+                type = type,
+                fileResourceId = fileResourceId,
+                rangeStart = rangeStart,
+                rangeEnd = rangeEnd,
+                authorization = authorization,
+                client = client,
+                extras = extras,
+                page = page,
+                size = size,
+                persistConnection = persistConnection,
+                protocolVersion = protocolVersion).sanitized()
+    } else {
+        FileRequest.fromJsonString(decodeUTF(frame))
+    }
+}
+
+/** Decodes a complete JSON or binary frame.*/
+fun decodeFileResponse(frame: ByteArray): FileResponse {
+    return if (isBinaryFrame(frame)) {
+        val reader = BinaryReader(frame, BINARY_FRAME_HEADER_SIZE)
+        FileResponse(
+                status = reader.readVarInt(),
+                type = reader.readVarInt(),
+                connection = reader.readVarInt(),
+                date = reader.readVarLong(),
+                contentLength = reader.readVarLong(),
+                md5 = reader.readString(),
+                sessionId = reader.readString(),
+                protocolVersion = reader.readVarInt())
+    } else {
+        FileResponse.fromJsonString(decodeUTF(frame))
+    }
+}
+
+/** Returns the length of the frame at the start of the buffer.
+ * @param byteBuffer buffer in write mode holding the received bytes from index 0 to position.
+ * @return the frame length or -1 if not enough bytes were received to know it yet.
+ * */
+fun getFrameLength(byteBuffer: ByteBuffer): Int {
+    if (byteBuffer.position() < 2) {
+        return -1
+    }
+    val length = byteBuffer.getShort(0).toInt() and 0xFFFF
+    if (length != BINARY_FRAME_MARKER) {
+        return 2 + length
+    }
+    if (byteBuffer.position() < 3) {
+        return -1
+    }
+    if (byteBuffer.get(2).toInt() == '{'.toInt()) {
+        return 2 + length
+    }
+    if (byteBuffer.position() < BINARY_FRAME_HEADER_SIZE) {
+        return -1
+    }
+    return BINARY_FRAME_HEADER_SIZE + byteBuffer.getInt(3)
+}
+
+/** Reads a complete JSON or binary frame from the data input.*/
+fun readFrame(dataInput: DataInput): ByteArray {
+    val length = dataInput.readUnsignedShort()
+    if (length == BINARY_FRAME_MARKER) {
+        val version = dataInput.readByte()
+        if (version.toInt() != '{'.toInt()) {
+            val payloadLength = dataInput.readInt()
+            if (payloadLength < 0 || payloadLength > MAX_BINARY_PAYLOAD_SIZE) {
+                throw IllegalArgumentException("Invalid binary frame length: $payloadLength")
+            }
+            val frame = ByteArray(BINARY_FRAME_HEADER_SIZE + payloadLength)
+            ByteBuffer.wrap(frame).putShort(BINARY_FRAME_MARKER.toShort()).put(version).putInt(payloadLength)
+            dataInput.readFully(frame, BINARY_FRAME_HEADER_SIZE, payloadLength)
+            return frame
+        }
+        val frame = ByteArray(2 + length)
+        ByteBuffer.wrap(frame).putShort(length.toShort()).put(version)
+        dataInput.readFully(frame, 3, length - 1)
+        return frame
+    }
+    val frame = ByteArray(2 + length)
+    ByteBuffer.wrap(frame).putShort(length.toShort())
+    dataInput.readFully(frame, 2, length)
+    return frame
+}
+
+private fun encodeUTF(value: String): ByteArray {
+    val byteArrayOutputStream = ByteArrayOutputStream()
+    val dataOutputStream = DataOutputStream(byteArrayOutputStream)
+    dataOutputStream.writeUTF(value)
+    dataOutputStream.flush()
+    return byteArrayOutputStream.toByteArray()
+}
+
+private fun decodeUTF(frame: ByteArray): String {
+    return DataInputStream(ByteArrayInputStream(frame)).readUTF()
+}
+
+private fun FileRequest.sanitized(): FileRequest {
+    var rangeStart = rangeStart
+    var rangeEnd = rangeEnd
+    if ((rangeStart < 0L || rangeStart > rangeEnd) && rangeEnd > -1) {
+        rangeStart = 0L
+    }
+    if (rangeEnd < 0L || rangeEnd < rangeStart) {
+        rangeEnd = -1L
+    }
+    return copy(rangeStart = rangeStart,
+            rangeEnd = rangeEnd,
+            page = if (page < -1) -1 else page,
+            size = if (size < -1) -1 else size)
+}
+
+/** Writes zig zag varints and length prefixed UTF-8 strings.*/
+private class BinaryWriter {
+
+    private val byteArrayOutputStream = ByteArrayOutputStream(128)
+
+    fun writeVarInt(value: Int) {
+        writeVarLong(value.toLong())
+    }
+
+    fun writeVarLong(value: Long) {
+        var zigZag = (value shl 1) xor (value shr 63)
+        while (zigZag and 0x7FL.inv() != 0L) {
+            byteArrayOutputStream.write(((zigZag and 0x7FL) or 0x80L).toInt())
+            zigZag = zigZag ushr 7
+        }
+        byteArrayOutputStream.write(zigZag.toInt())
+    }
+
+    fun writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeVarInt(bytes.size)
+        byteArrayOutputStream.write(bytes)
+    }
+
+    fun toFrame(): ByteArray {
+        val payload = byteArrayOutputStream.toByteArray()
+        if (payload.size > MAX_BINARY_PAYLOAD_SIZE) {
+            throw IllegalArgumentException("Binary frame too large: ${payload.size}")
+        }
+        val frame = ByteArray(BINARY_FRAME_HEADER_SIZE + payload.size)
+        ByteBuffer.wrap(frame)
+                .putShort(BINARY_FRAME_MARKER.toShort())
+                .put(PROTOCOL_VERSION_BINARY.toByte())
+                .putInt(payload.size)
+                .put(payload)
+        return frame
+    }
+
+}
+
+private class BinaryReader(private val frame: ByteArray, private var position: Int) {
+
+    fun readVarInt(): Int {
+        return readVarLong().toInt()
+    }
+
+    fun readVarLong(): Long {
+        var shift = 0
+        var zigZag = 0L
+        while (shift < 64) {
+            val byte = frame[position++].toLong()
+            zigZag = zigZag or ((byte and 0x7FL) shl shift)
+            if (byte and 0x80L == 0L) {
+                return (zigZag ushr 1) xor -(zigZag and 1L)
+            }
+            shift += 7
+        }
+        throw IllegalArgumentException("Malformed varint in binary frame")
+    }
+
+    fun readString(): String {
+        val length = readVarInt()
+        val value = String(frame, position, length, Charsets.UTF_8)
+        position += length
+        return value
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.tonyodev.fetch2core.server
+
+import com.tonyodev.fetch2core.InterruptMonitor
+import java.net.InetSocketAddress
+import java.util.*
+
+/**
+ * Pool of persistent FetchFileResourceTransporter connections keyed by Fetch File Server address.
+ * Connections released after a completed response are kept idle and handed out again for the next
+ * request to the same server, so range requests of parallel slices and catalog paging do not pay
+ * a TCP handshake each. At most maxConnectionsPerHost connections to one server are open at the
+ * same time, and idle connections are closed after idleTimeoutMillis.
+ * */
+class FileResourceTransporterPool(private val maxConnectionsPerHost: Int,
+                                  private val idleTimeoutMillis: Long) {
+
+    private val lock = Object()
+    private val idleConnections = HashMap<InetSocketAddress, ArrayDeque<IdleConnection>>()
+    private val openConnectionCounts = HashMap<InetSocketAddress, Int>()
+    private val activeConnections = IdentityHashMap<FetchFileResourceTransporter, InetSocketAddress>()
+
+    /** Returns an idle connected transporter for the address, or a new transporter that is not
+     * connected yet. Waits while maxConnectionsPerHost connections to the address are in use.
+     * @param socketAddress Fetch File Server address
+     * @param interruptMonitor stops waiting when interrupted
+     * @return transporter or null if interrupted while waiting.
+     * */
+    fun acquire(socketAddress: InetSocketAddress, interruptMonitor: InterruptMonitor): FetchFileResourceTransporter? {
+        synchronized(lock) {
+            while (!interruptMonitor.isInterrupted) {
+                evictIdleConnectionsNoLock()
+                val idleConnection = idleConnections[socketAddress]?.pollLast()
+                if (idleConnection != null) {
+                    activeConnections[idleConnection.transporter] = socketAddress
+                    return idleConnection.transporter
+                }
+                val openCount = openConnectionCounts[socketAddress] ?: 0
+                if (openCount < maxConnectionsPerHost) {
+                    val transporter = FetchFileResourceTransporter()
+                    openConnectionCounts[socketAddress] = openCount + 1
+                    activeConnections[transporter] = socketAddress
+                    return transporter
+                }
+                lock.wait(WAIT_INTERVAL_IN_MILLISECONDS)
+            }
+            return null
+        }
+    }
+
+    /** Returns a transporter acquired from this pool.
+     * @param transporter transporter
+     * @param reusable true if the last response was read completely and the server keeps the
+     * connection open. Otherwise the transporter is closed.
+     * */
+    fun release(transporter: FetchFileResourceTransporter, reusable: Boolean) {
+        synchronized(lock) {
+            val socketAddress = activeConnections.remove(transporter) ?: return
+            if (reusable && !transporter.isClosed && transporter.isConnected) {
+                val connections = idleConnections[socketAddress] ?: ArrayDeque()
+                connections.add(IdleConnection(transporter, System.nanoTime()))
+                idleConnections[socketAddress] = connections
+            } else {
+                closeNoLock(socketAddress, transporter)
+            }
+            lock.notifyAll()
+        }
+    }
+
+    /** Closes all idle connections. Transporters in use are closed once they are released
+     * without being reusable.*/
+    fun evictAll() {
+        synchronized(lock) {
+            idleConnections.forEach { entry ->
+                entry.value.forEach {
+                    closeNoLock(entry.key, it.transporter)
+                }
+            }
+            idleConnections.clear()
+            lock.notifyAll()
+        }
+    }
+
+    private fun evictIdleConnectionsNoLock() {
+        val now = System.nanoTime()
+        val iterator = idleConnections.entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            val connections = entry.value
+            while (connections.isNotEmpty()) {
+                val idleConnection = connections.peekFirst()
+                if (!idleConnection.transporter.isClosed && (now - idleConnection.idleSince) / 1_000_000L < idleTimeoutMillis) {
+                    break
+                }
+                connections.pollFirst()
+                closeNoLock(entry.key, idleConnection.transporter)
+            }
+            if (connections.isEmpty()) {
+                iterator.remove()
+            }
+        }
+    }
+
+    private fun closeNoLock(socketAddress: InetSocketAddress, transporter: FetchFileResourceTransporter) {
+        transporter.close()
+        val openCount = (openConnectionCounts[socketAddress] ?: 1) - 1
+        if (openCount > 0) {
+            openConnectionCounts[socketAddress] = openCount
+        } else {
+            openConnectionCounts.remove(socketAddress)
+        }
+    }
+
+    private class IdleConnection(val transporter: FetchFileResourceTransporter,
+                                 val idleSince: Long)
+
+    companion object {
+        private const val WAIT_INTERVAL_IN_MILLISECONDS = 500L
+    }
+
+}
@@ -2,13 +2,14 @@ package com.tonyodev.fetch2core.server
 
 import android.os.Parcel
 import android.os.Parcelable
+import org.json.JSONObject
 import java.io.Serializable
 import java.lang.StringBuilder
 import java.net.HttpURLConnection
 import java.util.*
 
 /**
- * Response object sent to the client as JSON.
+ * Response object sent to the client as JSON or as a binary frame.
  * **/
 data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYPE,
                         val type: Int = FileRequest.TYPE_INVALID,
@@ -16,7 +17,9 @@ data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYP
                         val date: Long = Date().time,
                         val contentLength: Long = 0,
                         val md5: String = "",
-                        val sessionId: String = "") : Parcelable, Serializable {
+                        val sessionId: String = "",
+                        /** Highest wire protocol version supported by the sender.*/
+                        val protocolVersion: Int = PROTOCOL_VERSION_JSON) : Parcelable, Serializable {
 
     val toJsonString: String
         get() {
@@ -28,7 +31,8 @@ data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYP
                     .append("\"Date\":").append(date).append(',')
                     .append("\"Content-Length\":").append(contentLength).append(',')
                     .append("\"Type\":").append(type).append(',')
-                    .append("\"SessionId\":").append(sessionId)
+                    .append("\"SessionId\":").append(sessionId).append(',')
+                    .append("\"Protocol-Version\":").append(protocolVersion)
                     .append('}')
             return builder.toString()
         }
@@ -42,6 +46,7 @@ data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYP
         dest.writeLong(contentLength)
         dest.writeString(md5)
         dest.writeString(sessionId)
+        dest.writeInt(protocolVersion)
     }
 
     override fun describeContents(): Int {
@@ -59,8 +64,32 @@ data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYP
         const val FIELD_CONTENT_LENGTH = "Content-Length"
         const val FIELD_MD5 = "Md5"
         const val FIELD_SESSION_ID = "SessionId"
+        const val FIELD_PROTOCOL_VERSION = "Protocol-Version"
 
 
+        /** Creates a FileResponse from the json string produced by toJsonString.*/
+        @JvmStatic
+        fun fromJsonString(json: String): FileResponse {
+            val jsonObject = JSONObject(json)
+            val status = jsonObject.getInt(FIELD_STATUS)
+            val requestType = jsonObject.getInt(FIELD_TYPE)
+            val connection = jsonObject.getInt(FIELD_CONNECTION)
+            val date = jsonObject.getLong(FIELD_DATE)
+            val contentLength = jsonObject.getLong(FIELD_CONTENT_LENGTH)
+            val md5 = jsonObject.getString(FIELD_MD5)
+            val sessionId = jsonObject.getString(FIELD_SESSION_ID)
+            val protocolVersion = jsonObject.optInt(FIELD_PROTOCOL_VERSION, PROTOCOL_VERSION_JSON)
+            return FileResponse(
+                    status = status,
+                    type = requestType,
+                    connection = connection,
+                    date = date,
+                    contentLength = contentLength,
+                    md5 = md5,
+                    sessionId = sessionId,
+                    protocolVersion = protocolVersion)
+        }
+
         override fun createFromParcel(source: Parcel): FileResponse {
             return FileResponse(
                     status = source.readInt(),
@@ -69,7 +98,8 @@ data class FileResponse(val status: Int = HttpURLConnection.HTTP_UNSUPPORTED_TYP
                     date = source.readLong(),
                     contentLength = source.readLong(),
                     md5 = source.readString() ?: "",
-                    sessionId = source.readString() ?: "")
+                    sessionId = source.readString() ?: "",
+                    protocolVersion = source.readInt())
         }
 
         override fun newArray(size: Int): Array<FileResponse?> {
@@ -0,0 +1,106 @@
+package com.tonyodev.fetch2fileserver;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tonyodev.fetch2core.Extras;
+import com.tonyodev.fetch2core.server.FileRequest;
+import com.tonyodev.fetch2core.server.FileResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.tonyodev.fetch2core.server.FileResourceTransporterCodec.decodeFileRequest;
+import static com.tonyodev.fetch2core.server.FileResourceTransporterCodec.decodeFileResponse;
+import static com.tonyodev.fetch2core.server.FileResourceTransporterCodec.encodeFileRequest;
+import static com.tonyodev.fetch2core.server.FileResourceTransporterCodec.encodeFileResponse;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares encode and decode cost of the JSON and binary FileRequest/FileResponse codecs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileResourceCodecBenchmarkTest {
+
+    private static final String TAG = "FileResourceCodecBenchmark";
+    private static final int WARM_UP_ITERATIONS = 2_000;
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void requestCodecRoundTrip() {
+        final FileRequest fileRequest = getFileRequest();
+        for (final int protocolVersion : new int[]{1, 2}) {
+            final FileRequest decoded = decodeFileRequest(encodeFileRequest(fileRequest, protocolVersion));
+            assertEquals(fileRequest, decoded);
+        }
+    }
+
+    @Test
+    public void responseCodecRoundTrip() {
+        final FileResponse fileResponse = getFileResponse();
+        for (final int protocolVersion : new int[]{1, 2}) {
+            final FileResponse decoded = decodeFileResponse(encodeFileResponse(fileResponse, protocolVersion));
+            assertEquals(fileResponse, decoded);
+        }
+    }
+
+    @Test
+    public void requestCodecThroughput() {
+        final FileRequest fileRequest = getFileRequest();
+        for (final int protocolVersion : new int[]{1, 2}) {
+            runRequestCodec(fileRequest, protocolVersion, WARM_UP_ITERATIONS);
+            final long startTime = System.nanoTime();
+            runRequestCodec(fileRequest, protocolVersion, ITERATIONS);
+            report("FileRequest", protocolVersion, System.nanoTime() - startTime,
+                    encodeFileRequest(fileRequest, protocolVersion).length);
+        }
+    }
+
+    @Test
+    public void responseCodecThroughput() {
+        final FileResponse fileResponse = getFileResponse();
+        for (final int protocolVersion : new int[]{1, 2}) {
+            runResponseCodec(fileResponse, protocolVersion, WARM_UP_ITERATIONS);
+            final long startTime = System.nanoTime();
+            runResponseCodec(fileResponse, protocolVersion, ITERATIONS);
+            report("FileResponse", protocolVersion, System.nanoTime() - startTime,
+                    encodeFileResponse(fileResponse, protocolVersion).length);
+        }
+    }
+
+    private void runRequestCodec(FileRequest fileRequest, int protocolVersion, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            decodeFileRequest(encodeFileRequest(fileRequest, protocolVersion));
+        }
+    }
+
+    private void runResponseCodec(FileResponse fileResponse, int protocolVersion, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            decodeFileResponse(encodeFileResponse(fileResponse, protocolVersion));
+        }
+    }
+
+    private void report(String name, int protocolVersion, long elapsedNanos, int frameSize) {
+        Log.i(TAG, String.format("%s v%d: %d ns per round trip, %d bytes per frame",
+                name, protocolVersion, elapsedNanos / ITERATIONS, frameSize));
+    }
+
+    private FileRequest getFileRequest() {
+        final Map<String, String> extras = new HashMap<>();
+        extras.put("deviceName", "Pixel");
+        extras.put("appVersion", "3.1.4");
+        return new FileRequest(FileRequest.TYPE_FILE, "1045", 1048576L, 2097152L,
+                "Bearer 7f3c1e2a", "ba31b2f6-5f57-4d42-9a3c-3b1fbc3d1ce1", new Extras(extras),
+                0, 0, true, 2);
+    }
+
+    private FileResponse getFileResponse() {
+        return new FileResponse(206, FileRequest.TYPE_FILE, FileResponse.OPEN_CONNECTION,
+                1571246400000L, 1048576L, "9e107d9d372bb6826bd81d3542a419d6",
+                "c0ffee00-1234-4b1d-8a2b-0a1b2c3d4e5f", 2);
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.tonyodev.fetch2fileserver;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.Extras;
+import com.tonyodev.fetch2core.FetchLogger;
+import com.tonyodev.fetch2core.FileResource;
+import com.tonyodev.fetch2core.InputResourceWrapper;
+import com.tonyodev.fetch2core.InterruptMonitor;
+import com.tonyodev.fetch2core.server.FetchFileResourceTransporter;
+import com.tonyodev.fetch2core.server.FileRequest;
+import com.tonyodev.fetch2core.server.FileResourceTransporterWriter;
+import com.tonyodev.fetch2core.server.FileResponse;
+import com.tonyodev.fetch2fileserver.provider.FileResourceProvider;
+import com.tonyodev.fetch2fileserver.provider.FileResourceProviderDelegate;
+import com.tonyodev.fetch2fileserver.provider.SelectorFileResourceServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SelectorFileResourceServerTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int CUSTOM_REQUEST_TYPE = 100;
+    private static final int TIMEOUT_IN_MILLISECONDS = 5000;
+
+    private File file;
+    private byte[] data;
+    private ServerSocketChannel serverSocketChannel;
+    private SelectorFileResourceServer server;
+    private TestDelegate delegate;
+    private final List<FetchFileResourceTransporter> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("selectorFileResourceServerTest", ".data");
+        data = new byte[FILE_SIZE];
+        new Random(11).nextBytes(data);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.write(data);
+        } finally {
+            randomAccessFile.close();
+        }
+        delegate = new TestDelegate();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        for (FetchFileResourceTransporter client : clients) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void servesRangesOnPersistentConnectionOfFetchFileServerClient() throws Exception {
+        startServer(Integer.MAX_VALUE, 1);
+        delegate.addFileResource(1, FILE_SIZE);
+        final FetchFileResourceTransporter client = connect();
+        client.sendFileRequest(getFileRequest(FileRequest.TYPE_FILE, 0, 1024));
+        FileResponse response = client.receiveFileResponse();
+        assertNotNull(response);
+        assertEquals(206, response.getStatus());
+        assertEquals(FileResponse.OPEN_CONNECTION, response.getConnection());
+        assertEquals(1024, response.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 1024), readBytes(client, 1024));
+        // The first response announces the binary protocol, so the second request uses it.
+        assertEquals(2, client.getProtocolVersion());
+        client.sendFileRequest(getFileRequest(FileRequest.TYPE_FILE, 1024, FILE_SIZE));
+        response = client.receiveFileResponse();
+        assertNotNull(response);
+        assertEquals(FILE_SIZE - 1024, response.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(data, 1024, FILE_SIZE), readBytes(client, FILE_SIZE - 1024));
+    }
+
+    @Test
+    public void connectionClosesWhenFileIsShorterThanContentLength() throws Exception {
+        startServer(Integer.MAX_VALUE, 1);
+        delegate.addFileResource(1, FILE_SIZE * 2);
+        final FetchFileResourceTransporter client = connect();
+        client.sendFileRequest(getFileRequest(FileRequest.TYPE_FILE, 0, -1));
+        final FileResponse response = client.receiveFileResponse();
+        assertNotNull(response);
+        assertEquals(FILE_SIZE * 2, response.getContentLength());
+        assertArrayEquals(data, readBytes(client, FILE_SIZE));
+        // A persistent connection would keep the client waiting for the missing bytes until the timeout.
+        assertEquals(-1, client.readRawBytes(new byte[1], 0, 1));
+    }
+
+    @Test
+    public void clientsBeyondMaxConnectionsWaitUntilAConnectionCloses() throws Exception {
+        startServer(1, 1);
+        final FetchFileResourceTransporter firstClient = connect();
+        firstClient.sendFileRequest(getFileRequest(FileRequest.TYPE_PING, 0, -1));
+        assertEquals(200, firstClient.receiveFileResponse().getStatus());
+        final FetchFileResourceTransporter secondClient = connect();
+        final CountDownLatch pingLatch = ping(secondClient);
+        assertFalse(pingLatch.await(500, TimeUnit.MILLISECONDS));
+        firstClient.close();
+        assertTrue(pingLatch.await(TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void customRequestWaitingOnSlowClientDoesNotBlockOtherClients() throws Exception {
+        startServer(Integer.MAX_VALUE, 1);
+        final FetchFileResourceTransporter slowClient = connect();
+        slowClient.sendFileRequest(getFileRequest(CUSTOM_REQUEST_TYPE, 0, -1));
+        assertTrue(delegate.customRequestStarted.await(TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS));
+        final FetchFileResourceTransporter client = connect();
+        assertTrue(ping(client).await(TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS));
+    }
+
+    private void startServer(int maxConnections, int workerCount) throws Exception {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server = new SelectorFileResourceServer(serverSocketChannel, delegate,
+                new FetchLogger(false, "SelectorServerTest"), 1000, 60_000, maxConnections,
+                16 * 1024, workerCount, new Function1<FileResourceProvider, Unit>() {
+            @Override
+            public Unit invoke(FileResourceProvider fileResourceProvider) {
+                return Unit.INSTANCE;
+            }
+        });
+        server.start();
+    }
+
+    private FetchFileResourceTransporter connect() throws Exception {
+        final Socket socket = new Socket();
+        socket.setSoTimeout(TIMEOUT_IN_MILLISECONDS);
+        final FetchFileResourceTransporter client = new FetchFileResourceTransporter(socket, 2);
+        client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocketChannel.socket().getLocalPort()));
+        clients.add(client);
+        return client;
+    }
+
+    /** Sends a ping on a background thread. The returned latch opens once the response arrived.*/
+    private CountDownLatch ping(final FetchFileResourceTransporter client) {
+        final CountDownLatch pingLatch = new CountDownLatch(1);
+        final AtomicReference<FileResponse> response = new AtomicReference<>();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    client.sendFileRequest(getFileRequest(FileRequest.TYPE_PING, 0, -1));
+                    response.set(client.receiveFileResponse());
+                    if (response.get() != null && response.get().getStatus() == 200) {
+                        pingLatch.countDown();
+                    }
+                } catch (Exception e) {
+                    // The latch stays closed.
+                }
+            }
+        }.start();
+        return pingLatch;
+    }
+
+    private byte[] readBytes(FetchFileResourceTransporter client, int length) {
+        final byte[] byteArray = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = client.readRawBytes(byteArray, offset, length - offset);
+            if (read == -1) {
+                break;
+            }
+            offset += read;
+        }
+        return Arrays.copyOf(byteArray, offset);
+    }
+
+    private FileRequest getFileRequest(int type, long rangeStart, long rangeEnd) {
+        return new FileRequest(type, "1", rangeStart, rangeEnd, "", "selectorFileResourceServerTest",
+                Extras.getEmptyExtras(), 0, 0, true, 1);
+    }
+
+    private class TestDelegate implements FileResourceProviderDelegate {
+
+        private final CountDownLatch customRequestStarted = new CountDownLatch(1);
+        private volatile FileResource fileResource;
+
+        void addFileResource(long id, long length) {
+            final FileResource fileResource = new FileResource();
+            fileResource.setId(id);
+            fileResource.setLength(length);
+            fileResource.setFile(file.getAbsolutePath());
+            fileResource.setName(file.getName());
+            fileResource.setMd5("md5");
+            this.fileResource = fileResource;
+        }
+
+        @Override
+        public FileResource getFileResource(String fileResourceIdentifier) {
+            return fileResource;
+        }
+
+        @Override
+        public void onFinished(String providerId) {
+
+        }
+
+        @Override
+        public boolean acceptAuthorization(String sessionId, String authorization, FileRequest fileRequest) {
+            return true;
+        }
+
+        @Override
+        public void onClientDidProvideExtras(String sessionId, Extras extras, FileRequest fileRequest) {
+
+        }
+
+        @Override
+        public void onClientConnected(String sessionId, FileRequest fileRequest) {
+
+        }
+
+        @Override
+        public void onClientDisconnected(String sessionId, FileRequest fileRequest) {
+
+        }
+
+        @Override
+        public void onStarted(String sessionId, FileRequest fileRequest, FileResource fileResource) {
+
+        }
+
+        @Override
+        public void onProgress(String sessionId, FileRequest fileRequest, FileResource fileResource, int progress) {
+
+        }
+
+        @Override
+        public void onComplete(String sessionId, FileRequest fileRequest, FileResource fileResource) {
+
+        }
+
+        @Override
+        public void onError(String sessionId, FileRequest fileRequest, FileResource fileResource, Throwable throwable) {
+
+        }
+
+        @Override
+        public String getCatalog(int page, int size) {
+            return "{}";
+        }
+
+        @Override
+        public InputResourceWrapper getFileInputResourceWrapper(String sessionId, FileRequest fileRequest,
+                                                                FileResource fileResource, long fileOffset) {
+            return null;
+        }
+
+        /** Writes until the client stops reading and the writer waits for the client.*/
+        @Override
+        public void onCustomRequest(String sessionId, FileRequest fileRequest,
+                                    FileResourceTransporterWriter fileResourceTransporterWriter,
+                                    InterruptMonitor interruptMonitor) {
+            customRequestStarted.countDown();
+            final byte[] byteArray = new byte[8192];
+            while (!interruptMonitor.isInterrupted()) {
+                fileResourceTransporterWriter.sendRawBytes(byteArray, 0, byteArray.length);
+            }
+        }
+
+    }
+
+}
@@ -2,7 +2,9 @@ package com.tonyodev.fetch2fileserver
 
 import android.content.Context
 import com.tonyodev.fetch2core.*
+import java.net.InetSocketAddress
 import java.net.ServerSocket
+import java.nio.channels.ServerSocketChannel
 
 /** A lightweight TCP File Server that acts like an HTTP file server
  * designed specifically for Android to distribute files from on device to another.
@@ -86,7 +88,7 @@ interface FetchFileServer {
             /** context*/
             private val context: Context) {
 
-        private var serverSocket = ServerSocket(0)
+        private var serverSocket: ServerSocket = ServerSocketChannel.open().socket().apply { bind(InetSocketAddress(0)) }
         private var clearDatabaseOnShutdown = false
         private var logger = FetchFileServerLogger()
         private var fileServerAuthenticator: FetchFileServerAuthenticator? = null
@@ -95,8 +97,13 @@ interface FetchFileServer {
         private var fileResourceDatabaseName = "LibFetchFileServerDatabaseLib.db"
         private var progressReportingInMillis = DEFAULT_PROGRESS_REPORTING_INTERVAL_IN_MILLISECONDS
         private var persistentConnectionTimeout = DEFAULT_PERSISTENT_TIME_OUT_IN_MILLISECONDS
+        private var serverEngine = FetchFileServerEngine.THREAD_PER_CLIENT
+        private var workerCount = DEFAULT_FILE_SERVER_WORKER_COUNT
+        private var maxConnections = DEFAULT_FILE_SERVER_MAX_CONNECTIONS
+        private var maxBufferedBytesPerConnection = DEFAULT_FILE_SERVER_MAX_BUFFERED_BYTES_PER_CONNECTION
 
-        /** Set Custom Server Socket
+        /** Set Custom Server Socket. File resources are only streamed with zero-copy transfers
+         * when the server socket was opened from a ServerSocketChannel.
          * @param serverSocket
          * @return builder
          * */
@@ -194,10 +201,60 @@ interface FetchFileServer {
             return this
         }
 
+        /** Set the engine used to serve connected clients.
+         * @param serverEngine Default is FetchFileServerEngine.THREAD_PER_CLIENT
+         * @param workerCount Number of worker threads the SELECTOR engine keeps for
+         * blocking work like authorization, database lookups and custom requests. More threads
+         * are started while every worker is busy. Default is 4.
+         * @throws IllegalArgumentException if workerCount is less than 1.
+         * @return Builder
+         * */
+        fun setServerEngine(serverEngine: FetchFileServerEngine, workerCount: Int): Builder {
+            if (workerCount < 1) {
+                throw IllegalArgumentException("workerCount cannot be less than 1")
+            }
+            this.serverEngine = serverEngine
+            this.workerCount = workerCount
+            return this
+        }
+
+        /** Set the maximum number of clients served at the same time. When the limit is reached
+         * the File Server stops accepting connections until a client disconnects. New clients
+         * wait in the server socket backlog instead of being rejected.
+         * @param maxConnections Default is no limit
+         * @throws IllegalArgumentException if maxConnections is less than 1.
+         * @return Builder
+         * */
+        fun setMaxConnections(maxConnections: Int): Builder {
+            if (maxConnections < 1) {
+                throw IllegalArgumentException("maxConnections cannot be less than 1")
+            }
+            this.maxConnections = maxConnections
+            return this
+        }
+
+        /** Set the maximum number of response bytes the SELECTOR engine holds in memory for a
+         * single client. Data is only read from custom InputResourceWrappers and custom request
+         * writers once the client has read the buffered data, so slow clients cannot grow memory.
+         * @param maxBufferedBytes Default is 64KB
+         * @throws IllegalArgumentException if maxBufferedBytes is less than 1.
+         * @return Builder
+         * */
+        fun setMaxBufferedBytesPerConnection(maxBufferedBytes: Int): Builder {
+            if (maxBufferedBytes < 1) {
+                throw IllegalArgumentException("maxBufferedBytes cannot be less than 1")
+            }
+            this.maxBufferedBytesPerConnection = maxBufferedBytes
+            return this
+        }
+
         /** Build the FetchFileServer Instance.
          * @return new Fetch File Server instance.
          * */
         fun build(): FetchFileServer {
+            if (serverEngine == FetchFileServerEngine.SELECTOR && serverSocket.channel == null) {
+                throw IllegalArgumentException("The SELECTOR engine requires a ServerSocket opened from a ServerSocketChannel")
+            }
             return FetchFileServerImpl(context = context.applicationContext,
                     serverSocket = serverSocket,
                     clearFileResourcesDatabaseOnShutdown = clearDatabaseOnShutdown,
@@ -207,7 +264,11 @@ interface FetchFileServer {
                     fetchFileServerDelegate = fileServerDelegate,
                     fetchTransferListener = transferListener,
                     progressReportingInMillis = progressReportingInMillis,
-                    persistentTimeoutInMillis = persistentConnectionTimeout)
+                    persistentTimeoutInMillis = persistentConnectionTimeout,
+                    serverEngine = serverEngine,
+                    workerCount = workerCount,
+                    maxConnections = maxConnections,
+                    maxBufferedBytesPerConnection = maxBufferedBytesPerConnection)
         }
 
     }
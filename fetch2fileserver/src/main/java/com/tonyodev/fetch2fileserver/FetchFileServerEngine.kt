@@ -0,0 +1,16 @@
+package com.tonyodev.fetch2fileserver
+
+/** The engine a FetchFileServer uses to serve connected clients. Both engines speak the same
+ * FileRequest/FileResponse protocol.*/
+enum class FetchFileServerEngine {
+
+    /** Each connected client is served on its own thread using blocking sockets. Default.*/
+    THREAD_PER_CLIENT,
+
+    /** All clients are served from a single selector thread using non blocking socket channels.
+     * Blocking work such as authorization, database lookups and custom requests runs on a small
+     * worker pool, so the number of threads does not grow with the number of clients.
+     * Requires a server socket opened from a ServerSocketChannel.*/
+    SELECTOR;
+
+}
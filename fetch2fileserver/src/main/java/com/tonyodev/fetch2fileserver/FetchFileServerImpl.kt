@@ -13,6 +13,7 @@ import com.tonyodev.fetch2fileserver.database.toFileResourceInfo
 import com.tonyodev.fetch2fileserver.provider.FileResourceProvider
 import com.tonyodev.fetch2fileserver.provider.FileResourceProviderDelegate
 import com.tonyodev.fetch2fileserver.provider.FetchFileResourceProvider
+import com.tonyodev.fetch2fileserver.provider.SelectorFileResourceServer
 import com.tonyodev.fetch2core.server.FileRequest
 import com.tonyodev.fetch2core.server.FileResourceTransporterWriter
 import org.json.JSONObject
@@ -30,9 +31,15 @@ class FetchFileServerImpl(context: Context,
                           private val fetchFileServerDelegate: FetchFileServerDelegate?,
                           private val fetchTransferListener: FetchTransferListener?,
                           private val progressReportingInMillis: Long,
-                          private val persistentTimeoutInMillis: Long) : FetchFileServer {
+                          private val persistentTimeoutInMillis: Long,
+                          private val serverEngine: FetchFileServerEngine,
+                          private val workerCount: Int,
+                          private val maxConnections: Int,
+                          private val maxBufferedBytesPerConnection: Int) : FetchFileServer {
 
     private val lock = Any()
+    private val connectionLock = Object()
+    private var selectorFileResourceServer: SelectorFileResourceServer? = null
     private val uuid = UUID.randomUUID().toString()
     override val id: String
         get() {
@@ -79,9 +86,14 @@ class FetchFileServerImpl(context: Context,
             throwIfTerminated()
             if (!isStarted && !isTerminated) {
                 isStarted = true
+                if (serverEngine == FetchFileServerEngine.SELECTOR) {
+                    startSelectorServer()
+                    return
+                }
                 Thread {
                     while (!isTerminated) {
                         try {
+                            waitForAvailableConnection()
                             val client = serverSocket.accept()
                             if (!isTerminated) {
                                 processClient(client)
@@ -98,6 +110,33 @@ class FetchFileServerImpl(context: Context,
         }
     }
 
+    private fun startSelectorServer() {
+        val selectorServer = SelectorFileResourceServer(
+                serverSocketChannel = serverSocket.channel,
+                fileResourceProviderDelegate = fileResourceProviderDelegate,
+                logger = logger,
+                progressReportingInMillis = progressReportingInMillis,
+                persistentTimeoutInMillis = persistentTimeoutInMillis,
+                maxConnections = maxConnections,
+                maxBufferedBytesPerConnection = maxBufferedBytesPerConnection,
+                workerCount = workerCount,
+                onClientAccepted = { fileResourceProvider ->
+                    fileResourceProviderMap[fileResourceProvider.id] = fileResourceProvider
+                })
+        selectorFileResourceServer = selectorServer
+        selectorServer.start()
+    }
+
+    /** Blocks the accept loop while maxConnections clients are served, so new clients wait in
+     * the server socket backlog.*/
+    private fun waitForAvailableConnection() {
+        synchronized(connectionLock) {
+            while (!isTerminated && fileResourceProviderMap.size >= maxConnections) {
+                connectionLock.wait(CONNECTION_WAIT_INTERVAL_IN_MILLISECONDS)
+            }
+        }
+    }
+
     private fun processClient(clientSocket: Socket) {
         if (!isTerminated) {
             val fileResourceProvider = FetchFileResourceProvider(
@@ -125,6 +164,9 @@ class FetchFileServerImpl(context: Context,
             } catch (e: Exception) {
                 logger.e(TAG + "- ${e.message}")
             }
+            synchronized(connectionLock) {
+                connectionLock.notifyAll()
+            }
             if (fileResourceProviderMap.isEmpty() && isTerminated) {
                 cleanUpServer()
             }
@@ -224,6 +266,8 @@ class FetchFileServerImpl(context: Context,
     }
 
     private fun cleanUpServer() {
+        selectorFileResourceServer?.close()
+        selectorFileResourceServer = null
         try {
             if (!serverSocket.isClosed) {
                 serverSocket.close()
@@ -450,6 +494,7 @@ class FetchFileServerImpl(context: Context,
 
     companion object {
         const val TAG = "FetchFileServer"
+        private const val CONNECTION_WAIT_INTERVAL_IN_MILLISECONDS = 500L
     }
 
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ import java.io.ByteArrayInputStream
 import java.io.RandomAccessFile
 import java.net.HttpURLConnection
 import java.net.Socket
+import java.nio.channels.FileChannel
 import java.util.*
 
 
@@ -28,6 +29,7 @@ class FetchFileResourceProvider(private val client: Socket,
     @Volatile
     private var interrupted: Boolean = false
     private var inputResourceWrapper: InputResourceWrapper? = null
+    private var randomAccessFile: RandomAccessFile? = null
     private var clientRequest: FileRequest? = null
     private var persistConnection = true
     private val persistentRunnable = Runnable {
@@ -98,26 +100,20 @@ class FetchFileResourceProvider(private val client: Socket,
                                                         }
                                                     }
                                                 } else {
-                                                    inputResourceWrapper = object : InputResourceWrapper() {
-
-                                                        val randomAccessFile = RandomAccessFile(fileResource.file, "r")
-
-                                                        override fun read(byteArray: ByteArray, offSet: Int, length: Int): Int {
-                                                            return randomAccessFile.read(byteArray, offSet, length)
-                                                        }
-
-                                                        override fun setReadOffset(offset: Long) {
-                                                            randomAccessFile.seek(offset)
-                                                        }
-
-                                                        override fun close() {
-                                                            randomAccessFile.close()
-                                                        }
-                                                    }
-                                                    inputResourceWrapper?.setReadOffset(request.rangeStart)
+                                                    randomAccessFile = RandomAccessFile(fileResource.file, "r")
                                                 }
                                             }
-                                            if (!interrupted) {
+                                            val fileChannel = randomAccessFile?.channel
+                                            if (fileChannel != null && !interrupted) {
+                                                val contentLength = (if (request.rangeEnd == -1L) fileResource.length else request.rangeEnd) - request.rangeStart
+                                                sendFileResourceResponse(contentLength, fileResource.md5)
+                                                fileResourceProviderDelegate.onStarted(sessionId, request, fileResource)
+                                                val remainderBytes = transferFileChannelBytes(fileChannel, request, fileResource, contentLength)
+                                                if (remainderBytes == 0L && !interrupted) {
+                                                    fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, 100)
+                                                    fileResourceProviderDelegate.onComplete(sessionId, request, fileResource)
+                                                }
+                                            } else if (!interrupted) {
                                                 var reportingStopTime: Long
                                                 val byteArray = ByteArray(FileResourceTransporter.BUFFER_SIZE)
                                                 val contentLength = (if (request.rangeEnd == -1L) fileResource.length else request.rangeEnd) - request.rangeStart
@@ -179,6 +175,7 @@ class FetchFileResourceProvider(private val client: Socket,
                         sendInvalidResponse(HttpURLConnection.HTTP_BAD_REQUEST)
                     }
                     clientRequest = null
+                    this.fileResource = null
                 }
             } catch (e: Exception) {
                 logger.e("FetchFileServerProvider - ${e.message}")
@@ -211,6 +208,36 @@ class FetchFileResourceProvider(private val client: Socket,
         }.start()
     }
 
+    /** Streams the requested range of a file backed resource straight from the file channel
+     * to the client connection without copying it through a heap buffer.
+     * @return the number of bytes that were not sent.
+     * */
+    private fun transferFileChannelBytes(fileChannel: FileChannel, request: FileRequest,
+                                         fileResource: FileResource, contentLength: Long): Long {
+        var reportingStopTime: Long
+        var reportingStartTime = System.nanoTime()
+        var position = request.rangeStart
+        var remainderBytes = minOf(contentLength, fileChannel.size() - position)
+        val missingBytes = contentLength - remainderBytes
+        while (remainderBytes > 0L && !interrupted) {
+            val transferred = transporter.sendFileChannelBytes(fileChannel, position, minOf(remainderBytes, TRANSFER_SIZE))
+            if (transferred <= 0L) {
+                break
+            }
+            position += transferred
+            remainderBytes -= transferred
+            reportingStopTime = System.nanoTime()
+            val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                    reportingStopTime, progressReportingInMillis)
+            if (hasReportingTimeElapsed && !interrupted) {
+                val progress = calculateProgress(contentLength - remainderBytes, contentLength)
+                fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, progress)
+                reportingStartTime = System.nanoTime()
+            }
+        }
+        return remainderBytes + missingBytes
+    }
+
     private fun cleanFileStreams() {
         try {
             inputResourceWrapper?.close()
@@ -218,6 +245,12 @@ class FetchFileResourceProvider(private val client: Socket,
             logger.e("FetchFileServerProvider - ${e.message}")
         }
         inputResourceWrapper = null
+        try {
+            randomAccessFile?.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        randomAccessFile = null
     }
 
     private val interruptMonitor = object : InterruptMonitor {
@@ -290,4 +323,10 @@ class FetchFileResourceProvider(private val client: Socket,
         return this.fileResource?.equals(fileResource) ?: false
     }
 
+    companion object {
+        /** Maximum number of bytes handed to a single transferTo call so progress and
+         * interruptions are still checked while large ranges are streamed.*/
+        private const val TRANSFER_SIZE = 512 * 1024L
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,638 @@
+package com.tonyodev.fetch2fileserver.provider
+
+import com.tonyodev.fetch2core.*
+import com.tonyodev.fetch2core.server.FileRequest
+import com.tonyodev.fetch2core.server.FileResourceTransporter
+import com.tonyodev.fetch2core.server.FileResourceTransporterWriter
+import com.tonyodev.fetch2core.server.FileResponse
+import com.tonyodev.fetch2core.server.FileResponse.CREATOR.CLOSE_CONNECTION
+import com.tonyodev.fetch2core.server.FileResponse.CREATOR.OPEN_CONNECTION
+import com.tonyodev.fetch2core.server.PROTOCOL_VERSION_BINARY
+import com.tonyodev.fetch2core.server.PROTOCOL_VERSION_JSON
+import com.tonyodev.fetch2core.server.decodeFileRequest
+import com.tonyodev.fetch2core.server.encodeFileRequest
+import com.tonyodev.fetch2core.server.encodeFileResponse
+import com.tonyodev.fetch2core.server.getFrameLength
+import com.tonyodev.fetch2core.server.isBinaryFrame
+import java.io.ByteArrayInputStream
+import java.io.RandomAccessFile
+import java.net.HttpURLConnection
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.SocketChannel
+import java.util.*
+
+/**
+ * A client connection served by SelectorFileResourceServer. Requests are read and responses are
+ * written by the selector thread without blocking. Each request is handled on the worker pool,
+ * which queues the response header and the response body for the selector thread to send.
+ * At most maxBufferedBytes of response data are held in memory per connection. Custom request
+ * writers block until the client has read enough of the queued data.
+ * */
+class SelectorFileResourceProvider(private val server: SelectorFileResourceServer,
+                                   private val socketChannel: SocketChannel,
+                                   private val fileResourceProviderDelegate: FileResourceProviderDelegate,
+                                   private val logger: FetchLogger,
+                                   private val progressReportingInMillis: Long,
+                                   private val maxBufferedBytes: Int) : FileResourceProvider {
+
+    override val id = UUID.randomUUID().toString()
+    private val lock = Object()
+    private val sessionId = UUID.randomUUID().toString()
+    private var key: SelectionKey? = null
+    private var readBuffer = ByteBuffer.allocate(FileResourceTransporter.BUFFER_SIZE)
+    private val outboundBuffers = ArrayDeque<ByteBuffer>()
+    private var queuedBytes = 0L
+    private var responseBody: ResponseBody? = null
+    private var handlingRequest = false
+    private var requestHandled = false
+    private var connectedRequest: FileRequest? = null
+    private var persistConnection = true
+    private var closeAfterResponse = false
+    private var lastActivityTime = System.nanoTime()
+    @Volatile
+    private var fileResource: FileResource? = null
+    @Volatile
+    private var interrupted = false
+    @Volatile
+    private var closed = false
+    @Volatile
+    private var protocolVersion = PROTOCOL_VERSION_JSON
+
+    private val enableWriteRunnable = Runnable {
+        if (!closed) {
+            setInterest(SelectionKey.OP_WRITE)
+        }
+    }
+
+    private val interruptMonitor = object : InterruptMonitor {
+        override val isInterrupted: Boolean
+            get() {
+                return interrupted || closed
+            }
+    }
+
+    private val fileResourceTransporterWriter = object : FileResourceTransporterWriter {
+
+        override fun sendFileRequest(fileRequest: FileRequest) {
+            queueBytes(ByteBuffer.wrap(encodeFileRequest(fileRequest.copy(protocolVersion = PROTOCOL_VERSION_BINARY), protocolVersion)), true)
+        }
+
+        override fun sendFileResponse(fileResponse: FileResponse) {
+            queueBytes(encodeResponse(fileResponse), true)
+        }
+
+        override fun sendRawBytes(byteArray: ByteArray, offset: Int, length: Int) {
+            queueBytes(ByteBuffer.wrap(byteArray.copyOfRange(offset, offset + length)), true)
+        }
+
+    }
+
+    /** Registers the connection with the selector and starts reading requests.
+     * Only call on the selector thread.*/
+    fun register(selector: Selector) {
+        key = socketChannel.register(selector, SelectionKey.OP_READ, this)
+        logger.d("FetchFileServerProvider - Client Connected - $socketChannel")
+    }
+
+    /** Called on the selector thread when the connection is readable or writable.*/
+    fun onReady(selectionKey: SelectionKey) {
+        try {
+            if (selectionKey.isReadable) {
+                readRequest()
+            }
+            if (selectionKey.isValid && selectionKey.isWritable) {
+                writeResponse()
+            }
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+            close()
+        }
+    }
+
+    /** @return true if the connection waited for a request longer than the persistent timeout.*/
+    fun isIdle(now: Long, persistentTimeoutInMillis: Long): Boolean {
+        return !handlingRequest && (now - lastActivityTime) / 1_000_000L >= persistentTimeoutInMillis
+    }
+
+    override fun execute() {
+        // Connections are driven by the selector thread of SelectorFileResourceServer.
+    }
+
+    override fun interrupt() {
+        interrupted = true
+        synchronized(lock) {
+            lock.notifyAll()
+        }
+        server.runOnSelector(Runnable {
+            if (!closed) {
+                try {
+                    socketChannel.write(encodeResponse(getInvalidResponse(HttpURLConnection.HTTP_INTERNAL_ERROR)))
+                } catch (e: Exception) {
+                    logger.e("FetchFileServerProvider - ${e.message}")
+                }
+                close()
+            }
+        })
+    }
+
+    override fun isServingFileResource(fileResource: FileResource): Boolean {
+        return this.fileResource?.equals(fileResource) ?: false
+    }
+
+    /** Closes the connection and releases the response resources. Only call on the selector thread.*/
+    fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        synchronized(lock) {
+            outboundBuffers.clear()
+            queuedBytes = 0
+            lock.notifyAll()
+        }
+        try {
+            key?.cancel()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        try {
+            socketChannel.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        if (!handlingRequest || requestHandled) {
+            closeResponseBody()
+        }
+        val request = connectedRequest
+        if (request != null) {
+            connectedRequest = null
+            logger.d("FetchFileServerProvider - Client Disconnected - $socketChannel")
+            fileResourceProviderDelegate.onClientDisconnected(sessionId, request)
+        }
+        fileResource = null
+        server.onConnectionClosed(this)
+    }
+
+    private fun readRequest() {
+        if (handlingRequest) {
+            return
+        }
+        val read = socketChannel.read(readBuffer)
+        if (read == -1) {
+            close()
+            return
+        }
+        lastActivityTime = System.nanoTime()
+        startNextRequest()
+    }
+
+    private fun startNextRequest() {
+        if (readBuffer.position() < 2) {
+            return
+        }
+        val frameLength = getFrameLength(readBuffer)
+        if (frameLength == -1) {
+            return
+        }
+        if (frameLength < 0 || frameLength > MAX_FRAME_SIZE) {
+            throw Exception("Invalid request frame length: $frameLength")
+        }
+        if (readBuffer.capacity() < frameLength) {
+            readBuffer.flip()
+            readBuffer = ByteBuffer.allocate(frameLength).put(readBuffer)
+        }
+        if (readBuffer.position() < frameLength) {
+            return
+        }
+        readBuffer.flip()
+        val frame = ByteArray(frameLength)
+        readBuffer.get(frame)
+        readBuffer.compact()
+        handlingRequest = true
+        requestHandled = false
+        setInterest(0)
+        server.runOnWorker(Runnable {
+            handleRequest(frame)
+        })
+    }
+
+    private fun handleRequest(frame: ByteArray) {
+        var request: FileRequest? = null
+        var body: ResponseBody? = null
+        try {
+            request = decodeFileRequest(frame)
+            val peerProtocolVersion = if (isBinaryFrame(frame)) PROTOCOL_VERSION_BINARY else request.protocolVersion
+            protocolVersion = Math.max(PROTOCOL_VERSION_JSON, Math.min(peerProtocolVersion, PROTOCOL_VERSION_BINARY))
+            persistConnection = request.persistConnection
+            if (interrupted) {
+                return
+            }
+            if (fileResourceProviderDelegate.acceptAuthorization(sessionId, request.authorization, request)) {
+                logger.d("FetchFileServerProvider - ClientRequestAccepted - ${request.toJsonString}")
+                connectedRequest = request
+                fileResourceProviderDelegate.onClientConnected(sessionId, request)
+                if (request.extras.isNotEmpty()) {
+                    fileResourceProviderDelegate.onClientDidProvideExtras(sessionId, request.extras, request)
+                }
+                body = when (request.type) {
+                    FileRequest.TYPE_PING -> {
+                        queueBytes(encodeResponse(getResponse(HttpURLConnection.HTTP_OK, FileRequest.TYPE_PING, 0, "")), false)
+                        null
+                    }
+                    FileRequest.TYPE_CATALOG -> getCatalogResponseBody(request)
+                    FileRequest.TYPE_FILE -> getFileResourceResponseBody(request)
+                    FileRequest.TYPE_INVALID -> null
+                    else -> {
+                        if (!interrupted) {
+                            fileResourceProviderDelegate.onCustomRequest(sessionId, request,
+                                    fileResourceTransporterWriter, interruptMonitor)
+                        }
+                        null
+                    }
+                }
+            } else {
+                logger.d("FetchFileServerProvider - ClientRequestRejected - ${request.toJsonString}")
+                queueInvalidResponse(HttpURLConnection.HTTP_FORBIDDEN)
+            }
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+            body?.close()
+            body = null
+            try {
+                queueInvalidResponse(HttpURLConnection.HTTP_INTERNAL_ERROR)
+            } catch (e: Exception) {
+                logger.e("FetchFileServerProvider - ${e.message}")
+            }
+            val fileResource = this.fileResource
+            if (fileResource != null && request != null) {
+                fileResourceProviderDelegate.onError(sessionId, request, fileResource, e)
+            }
+        } finally {
+            val handledBody = body
+            server.runOnSelector(Runnable {
+                responseBody = handledBody
+                requestHandled = true
+                if (closed) {
+                    closeResponseBody()
+                    val connectedRequest = this.connectedRequest
+                    if (connectedRequest != null) {
+                        this.connectedRequest = null
+                        fileResourceProviderDelegate.onClientDisconnected(sessionId, connectedRequest)
+                    }
+                } else {
+                    setInterest(SelectionKey.OP_WRITE)
+                }
+            })
+        }
+    }
+
+    private fun getCatalogResponseBody(request: FileRequest): ResponseBody? {
+        if (interrupted) {
+            return null
+        }
+        val catalog = fileResourceProviderDelegate.getCatalog(request.page, request.size)
+        val data = catalog.toByteArray(Charsets.UTF_8)
+        val contentLength = (if (request.rangeEnd == -1L) data.size.toLong() else request.rangeEnd) - request.rangeStart
+        queueBytes(encodeResponse(getResponse(HttpURLConnection.HTTP_OK, FileRequest.TYPE_CATALOG,
+                contentLength, getMd5String(data))), false)
+        return ByteArrayResponseBody(ByteBuffer.wrap(data, request.rangeStart.toInt(), contentLength.toInt()))
+    }
+
+    private fun getFileResourceResponseBody(request: FileRequest): ResponseBody? {
+        val fileResource = fileResourceProviderDelegate.getFileResource(request.fileResourceId)
+        if (interrupted) {
+            return null
+        }
+        if (fileResource == null) {
+            queueInvalidResponse(HttpURLConnection.HTTP_NO_CONTENT)
+            return null
+        }
+        this.fileResource = fileResource
+        var inputResourceWrapper = fileResourceProviderDelegate.getFileInputResourceWrapper(sessionId, request, fileResource, request.rangeStart)
+        var randomAccessFile: RandomAccessFile? = null
+        if (inputResourceWrapper == null) {
+            if (fileResource.id == FileRequest.CATALOG_ID) {
+                val catalog = fileResource.extras.getString("data", "{}").toByteArray(Charsets.UTF_8)
+                fileResource.length = if (request.rangeEnd == -1L) catalog.size.toLong() else request.rangeEnd
+                fileResource.md5 = getMd5String(catalog)
+                val inputStream = ByteArrayInputStream(catalog, request.rangeStart.toInt(), fileResource.length.toInt())
+                inputResourceWrapper = object : InputResourceWrapper() {
+
+                    override fun read(byteArray: ByteArray, offSet: Int, length: Int): Int {
+                        return inputStream.read(byteArray, offSet, length)
+                    }
+
+                    override fun setReadOffset(offset: Long) {
+                        inputStream.skip(offset)
+                    }
+
+                    override fun close() {
+                        inputStream.close()
+                    }
+                }
+            } else {
+                randomAccessFile = RandomAccessFile(fileResource.file, "r")
+            }
+        }
+        val contentLength = (if (request.rangeEnd == -1L) fileResource.length else request.rangeEnd) - request.rangeStart
+        val body = if (randomAccessFile != null) {
+            FileChannelResponseBody(request, fileResource, contentLength, randomAccessFile, request.rangeStart)
+        } else {
+            InputResourceResponseBody(request, fileResource, contentLength, inputResourceWrapper!!)
+        }
+        if (interrupted) {
+            body.close()
+            return null
+        }
+        queueBytes(encodeResponse(getResponse(HttpURLConnection.HTTP_PARTIAL, FileRequest.TYPE_FILE,
+                contentLength, fileResource.md5)), false)
+        fileResourceProviderDelegate.onStarted(sessionId, request, fileResource)
+        return body
+    }
+
+    private fun writeResponse() {
+        while (true) {
+            val byteBuffer = synchronized(lock) { outboundBuffers.peek() } ?: break
+            val written = socketChannel.write(byteBuffer)
+            synchronized(lock) {
+                queuedBytes -= written
+                if (!byteBuffer.hasRemaining()) {
+                    outboundBuffers.poll()
+                }
+                lock.notifyAll()
+            }
+            if (byteBuffer.hasRemaining()) {
+                return
+            }
+        }
+        val body = responseBody
+        if (body != null) {
+            if (!body.write()) {
+                return
+            }
+            body.close()
+            responseBody = null
+        }
+        if (requestHandled) {
+            finishRequest()
+        } else {
+            setInterest(0)
+        }
+    }
+
+    private fun finishRequest() {
+        handlingRequest = false
+        requestHandled = false
+        lastActivityTime = System.nanoTime()
+        val request = connectedRequest
+        if (request != null) {
+            connectedRequest = null
+            fileResourceProviderDelegate.onClientDisconnected(sessionId, request)
+        }
+        fileResource = null
+        if (!persistConnection || closeAfterResponse || interrupted) {
+            logger.d("FetchFileServerProvider - Client Disconnected - $socketChannel")
+            close()
+        } else {
+            setInterest(SelectionKey.OP_READ)
+            startNextRequest()
+        }
+    }
+
+    private fun closeResponseBody() {
+        try {
+            responseBody?.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerProvider - ${e.message}")
+        }
+        responseBody = null
+    }
+
+    private fun setInterest(interestOps: Int) {
+        val selectionKey = key
+        if (selectionKey != null && selectionKey.isValid) {
+            selectionKey.interestOps(interestOps)
+        }
+    }
+
+    /** Queues bytes for the selector thread to send. If block is true the caller waits while the
+     * connection already holds maxBufferedBytes of unsent data.
+     * */
+    private fun queueBytes(byteBuffer: ByteBuffer, block: Boolean) {
+        synchronized(lock) {
+            while (block && !closed && !interrupted && queuedBytes > 0
+                    && queuedBytes + byteBuffer.remaining() > maxBufferedBytes) {
+                lock.wait(WAIT_INTERVAL_IN_MILLISECONDS)
+            }
+            if (closed || interrupted) {
+                throw Exception("Client connection is already closed.")
+            }
+            outboundBuffers.add(byteBuffer)
+            queuedBytes += byteBuffer.remaining()
+        }
+        server.runOnSelector(enableWriteRunnable)
+    }
+
+    private fun queueInvalidResponse(status: Int) {
+        closeAfterResponse = true
+        queueBytes(encodeResponse(getInvalidResponse(status)), false)
+    }
+
+    private fun getInvalidResponse(status: Int): FileResponse {
+        return FileResponse(status = status,
+                type = FileRequest.TYPE_INVALID,
+                connection = CLOSE_CONNECTION,
+                date = Date().time,
+                contentLength = 0,
+                sessionId = sessionId)
+    }
+
+    private fun getResponse(status: Int, type: Int, contentLength: Long, md5: String): FileResponse {
+        return FileResponse(status = status,
+                type = type,
+                connection = OPEN_CONNECTION,
+                date = Date().time,
+                contentLength = contentLength,
+                md5 = md5,
+                sessionId = sessionId)
+    }
+
+    /** Encodes the response with the protocol version negotiated with the client. JSON
+     * responses announce binary support so the client can switch for its next request.*/
+    private fun encodeResponse(fileResponse: FileResponse): ByteBuffer {
+        return ByteBuffer.wrap(encodeFileResponse(fileResponse.copy(protocolVersion = PROTOCOL_VERSION_BINARY), protocolVersion))
+    }
+
+    /** Response data sent by the selector thread after the queued header.*/
+    private abstract inner class ResponseBody {
+
+        /** Writes as much data as the socket accepts.
+         * @return true once the body was completely sent or cannot send more data.*/
+        abstract fun write(): Boolean
+
+        open fun close() {
+
+        }
+
+    }
+
+    private inner class ByteArrayResponseBody(private val byteBuffer: ByteBuffer) : ResponseBody() {
+
+        override fun write(): Boolean {
+            socketChannel.write(byteBuffer)
+            return !byteBuffer.hasRemaining()
+        }
+
+    }
+
+    /** Body of a file resource range. Tracks progress and reports it to the delegate.*/
+    private abstract inner class FileResourceResponseBody(protected val request: FileRequest,
+                                                          protected val fileResource: FileResource,
+                                                          protected val contentLength: Long) : ResponseBody() {
+
+        protected var remainderBytes = contentLength
+        private var reportingStartTime = System.nanoTime()
+
+        protected fun onBytesSent(sentBytes: Long) {
+            remainderBytes -= sentBytes
+            lastActivityTime = System.nanoTime()
+            val hasReportingTimeElapsed = hasIntervalTimeElapsed(reportingStartTime,
+                    lastActivityTime, progressReportingInMillis)
+            if (hasReportingTimeElapsed && !interrupted) {
+                val progress = calculateProgress(contentLength - remainderBytes, contentLength)
+                fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, progress)
+                reportingStartTime = System.nanoTime()
+            }
+        }
+
+        /** Called once the body cannot send more data. If fewer bytes than the announced content
+         * length were sent, the client would read the next response as content, so the
+         * connection is closed after the body.*/
+        protected fun onSendComplete(): Boolean {
+            if (remainderBytes == 0L && !interrupted) {
+                fileResourceProviderDelegate.onProgress(sessionId, request, fileResource, 100)
+                fileResourceProviderDelegate.onComplete(sessionId, request, fileResource)
+            } else if (remainderBytes > 0L) {
+                closeAfterResponse = true
+            }
+            return true
+        }
+
+    }
+
+    /** Streams a file range straight from the file channel to the socket channel.*/
+    private inner class FileChannelResponseBody(request: FileRequest,
+                                                fileResource: FileResource,
+                                                contentLength: Long,
+                                                private val randomAccessFile: RandomAccessFile,
+                                                private var position: Long)
+        : FileResourceResponseBody(request, fileResource, contentLength) {
+
+        private val fileChannel = randomAccessFile.channel
+        private var missingBytes = -1L
+
+        override fun write(): Boolean {
+            if (missingBytes == -1L) {
+                val availableBytes = Math.min(remainderBytes, fileChannel.size() - position)
+                missingBytes = remainderBytes - availableBytes
+                remainderBytes = availableBytes
+            }
+            while (remainderBytes > 0L && !interrupted) {
+                val transferred = fileChannel.transferTo(position, Math.min(remainderBytes, TRANSFER_SIZE), socketChannel)
+                if (transferred <= 0L) {
+                    return false
+                }
+                position += transferred
+                onBytesSent(transferred)
+            }
+            remainderBytes += missingBytes
+            missingBytes = 0L
+            return onSendComplete()
+        }
+
+        override fun close() {
+            randomAccessFile.close()
+        }
+
+    }
+
+    /** Streams a custom InputResourceWrapper. The wrapper is read on the worker pool because
+     * reads may block. The selector thread only sends the bytes that were already read.*/
+    private inner class InputResourceResponseBody(request: FileRequest,
+                                                  fileResource: FileResource,
+                                                  contentLength: Long,
+                                                  private val inputResourceWrapper: InputResourceWrapper)
+        : FileResourceResponseBody(request, fileResource, contentLength) {
+
+        private val byteArray = ByteArray(Math.max(FileResourceTransporter.BUFFER_SIZE, maxBufferedBytes))
+        private val byteBuffer = ByteBuffer.wrap(byteArray).apply { limit(0) }
+        private var reading = false
+        private var endOfInput = false
+
+        override fun write(): Boolean {
+            while (!interrupted) {
+                if (byteBuffer.hasRemaining()) {
+                    val written = socketChannel.write(byteBuffer)
+                    if (written > 0) {
+                        onBytesSent(written.toLong())
+                    }
+                    if (byteBuffer.hasRemaining()) {
+                        return false
+                    }
+                }
+                if (remainderBytes <= 0L || endOfInput) {
+                    break
+                }
+                if (!reading) {
+                    reading = true
+                    setInterest(0)
+                    server.runOnWorker(Runnable {
+                        readNextBytes()
+                    })
+                }
+                return false
+            }
+            return onSendComplete()
+        }
+
+        private fun readNextBytes() {
+            var read = -1
+            try {
+                read = inputResourceWrapper.read(byteArray, 0, Math.min(remainderBytes, byteArray.size.toLong()).toInt())
+            } catch (e: Exception) {
+                logger.e("FetchFileServerProvider - ${e.message}")
+            }
+            server.runOnSelector(Runnable {
+                reading = false
+                if (closed) {
+                    close()
+                    return@Runnable
+                }
+                if (read == -1) {
+                    endOfInput = true
+                    byteBuffer.limit(0)
+                } else {
+                    byteBuffer.position(0)
+                    byteBuffer.limit(read)
+                }
+                setInterest(SelectionKey.OP_WRITE)
+            })
+        }
+
+        override fun close() {
+            if (!reading) {
+                inputResourceWrapper.close()
+            }
+        }
+
+    }
+
+    companion object {
+        private const val TRANSFER_SIZE = 512 * 1024L
+        private const val WAIT_INTERVAL_IN_MILLISECONDS = 500L
+        private const val MAX_FRAME_SIZE = 0xFFFF + 7
+    }
+
+}
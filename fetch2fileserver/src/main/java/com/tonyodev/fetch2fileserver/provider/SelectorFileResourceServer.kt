@@ -0,0 +1,162 @@
+package com.tonyodev.fetch2fileserver.provider
+
+import com.tonyodev.fetch2core.FetchLogger
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Serves all clients of a Fetch File Server from a single selector thread. Socket reads and
+ * writes never block the selector thread. Work that can block, such as authorization, database
+ * lookups, custom InputResourceWrapper reads and custom requests, runs on a worker pool that keeps
+ * workerCount threads. Custom requests wait while their connection holds too much unsent data, so
+ * the pool starts extra threads when every worker is busy instead of queueing the work of other
+ * connections behind a slow client. Each connection runs at most one task at a time.
+ * When maxConnections clients are connected the server stops accepting, so new clients wait in
+ * the socket backlog until a connection closes.
+ * */
+class SelectorFileResourceServer(private val serverSocketChannel: ServerSocketChannel,
+                                 private val fileResourceProviderDelegate: FileResourceProviderDelegate,
+                                 private val logger: FetchLogger,
+                                 private val progressReportingInMillis: Long,
+                                 private val persistentTimeoutInMillis: Long,
+                                 private val maxConnections: Int,
+                                 private val maxBufferedBytesPerConnection: Int,
+                                 workerCount: Int,
+                                 private val onClientAccepted: (FileResourceProvider) -> Unit) {
+
+    private val selector = Selector.open()
+    private val workerExecutor: ExecutorService = ThreadPoolExecutor(workerCount, Int.MAX_VALUE,
+            WORKER_KEEP_ALIVE_IN_MILLISECONDS, TimeUnit.MILLISECONDS, SynchronousQueue<Runnable>())
+    private val pendingTasks = ConcurrentLinkedQueue<Runnable>()
+    private val connections = mutableSetOf<SelectorFileResourceProvider>()
+    private var acceptKey: SelectionKey? = null
+    @Volatile
+    private var closed = false
+
+    fun start() {
+        serverSocketChannel.configureBlocking(false)
+        acceptKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT)
+        Thread({ runSelectorLoop() }, "FetchFileServer - Selector").start()
+    }
+
+    /** Stops accepting clients and closes all connections. Safe to call from any thread.*/
+    fun close() {
+        closed = true
+        selector.wakeup()
+    }
+
+    /** Runs the task on the selector thread. Connection state is only changed on that thread.*/
+    fun runOnSelector(task: Runnable) {
+        pendingTasks.add(task)
+        selector.wakeup()
+    }
+
+    /** Runs the task on the worker pool.*/
+    fun runOnWorker(task: Runnable) {
+        try {
+            workerExecutor.execute(task)
+        } catch (e: Exception) {
+            logger.e("FetchFileServerSelector - ${e.message}")
+        }
+    }
+
+    /** Called on the selector thread once a connection closed.*/
+    fun onConnectionClosed(provider: SelectorFileResourceProvider) {
+        if (connections.remove(provider)) {
+            updateAcceptInterest()
+            fileResourceProviderDelegate.onFinished(provider.id)
+        }
+    }
+
+    private fun runSelectorLoop() {
+        while (!closed) {
+            try {
+                selector.select(SELECT_TIMEOUT_IN_MILLISECONDS)
+                runPendingTasks()
+                val iterator = selector.selectedKeys().iterator()
+                while (iterator.hasNext()) {
+                    val key = iterator.next()
+                    iterator.remove()
+                    if (!key.isValid) {
+                        continue
+                    }
+                    if (key.isAcceptable) {
+                        acceptClients()
+                    } else {
+                        (key.attachment() as SelectorFileResourceProvider).onReady(key)
+                    }
+                }
+                closeIdleConnections()
+            } catch (e: Exception) {
+                logger.e("FetchFileServerSelector - ${e.message}")
+            }
+        }
+        runPendingTasks()
+        connections.toList().forEach {
+            it.close()
+        }
+        try {
+            selector.close()
+        } catch (e: Exception) {
+            logger.e("FetchFileServerSelector - ${e.message}")
+        }
+        workerExecutor.shutdownNow()
+    }
+
+    private fun runPendingTasks() {
+        var task = pendingTasks.poll()
+        while (task != null) {
+            try {
+                task.run()
+            } catch (e: Exception) {
+                logger.e("FetchFileServerSelector - ${e.message}")
+            }
+            task = pendingTasks.poll()
+        }
+    }
+
+    private fun acceptClients() {
+        while (connections.size < maxConnections) {
+            val socketChannel = serverSocketChannel.accept() ?: break
+            socketChannel.configureBlocking(false)
+            val provider = SelectorFileResourceProvider(
+                    server = this,
+                    socketChannel = socketChannel,
+                    fileResourceProviderDelegate = fileResourceProviderDelegate,
+                    logger = logger,
+                    progressReportingInMillis = progressReportingInMillis,
+                    maxBufferedBytes = maxBufferedBytesPerConnection)
+            connections.add(provider)
+            onClientAccepted(provider)
+            provider.register(selector)
+        }
+        updateAcceptInterest()
+    }
+
+    private fun updateAcceptInterest() {
+        val key = acceptKey
+        if (key != null && key.isValid) {
+            key.interestOps(if (connections.size < maxConnections) SelectionKey.OP_ACCEPT else 0)
+        }
+    }
+
+    private fun closeIdleConnections() {
+        val now = System.nanoTime()
+        connections.filter { it.isIdle(now, persistentTimeoutInMillis) }.forEach {
+            logger.d("FetchFileServerSelector - Closing idle client - ${it.id}")
+            it.close()
+        }
+    }
+
+    companion object {
+        private const val SELECT_TIMEOUT_IN_MILLISECONDS = 1000L
+        private const val WORKER_KEEP_ALIVE_IN_MILLISECONDS = 60_000L
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.tonyodev.fetch2fileserver;
+
+import com.tonyodev.fetch2core.server.FetchFileResourceTransporter;
+import com.tonyodev.fetch2core.server.FileResourceTransporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loopback throughput comparison between the buffered sendRawBytes path and the
+ * zero-copy sendFileChannelBytes path used to serve file backed resources.
+ */
+public class FileTransferBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FileTransferBenchmark");
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final long TRANSFER_SIZE = 512 * 1024L;
+
+    private File file;
+    private ServerSocketChannel serverSocketChannel;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fetch-transfer-benchmark", ".data");
+        final byte[] data = new byte[1024 * 1024];
+        new Random(7).nextBytes(data);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            for (int i = 0; i < FILE_SIZE / data.length; i++) {
+                randomAccessFile.write(data);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        serverSocketChannel.close();
+        file.delete();
+    }
+
+    @Test
+    public void bufferedTransferThroughput() throws Exception {
+        final long elapsed = measure(new Sender() {
+            @Override
+            public void send(FileResourceTransporter transporter) throws Exception {
+                final byte[] byteArray = new byte[FileResourceTransporter.BUFFER_SIZE];
+                final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                try {
+                    int read = randomAccessFile.read(byteArray);
+                    while (read != -1) {
+                        transporter.sendRawBytes(byteArray, 0, read);
+                        read = randomAccessFile.read(byteArray);
+                    }
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+        });
+        report("buffered", elapsed);
+    }
+
+    @Test
+    public void zeroCopyTransferThroughput() throws Exception {
+        final long elapsed = measure(new Sender() {
+            @Override
+            public void send(FileResourceTransporter transporter) throws Exception {
+                final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                try {
+                    final FileChannel fileChannel = randomAccessFile.getChannel();
+                    long position = 0;
+                    while (position < FILE_SIZE) {
+                        final long transferred = transporter.sendFileChannelBytes(fileChannel, position,
+                                Math.min(FILE_SIZE - position, TRANSFER_SIZE));
+                        if (transferred <= 0) {
+                            break;
+                        }
+                        position += transferred;
+                    }
+                } finally {
+                    randomAccessFile.close();
+                }
+            }
+        });
+        report("zero-copy", elapsed);
+    }
+
+    private long measure(final Sender sender) throws Exception {
+        final Future<Long> received = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                final Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                        serverSocketChannel.socket().getLocalPort());
+                try {
+                    final InputStream inputStream = socket.getInputStream();
+                    final byte[] byteArray = new byte[64 * 1024];
+                    long total = 0;
+                    int read = inputStream.read(byteArray);
+                    while (read != -1) {
+                        total += read;
+                        read = inputStream.read(byteArray);
+                    }
+                    return total;
+                } finally {
+                    socket.close();
+                }
+            }
+        });
+        final Socket client = serverSocketChannel.socket().accept();
+        final FileResourceTransporter transporter = new FetchFileResourceTransporter(client);
+        final long startTime = System.nanoTime();
+        try {
+            sender.send(transporter);
+        } finally {
+            transporter.close();
+        }
+        final long totalReceived = received.get();
+        final long elapsed = System.nanoTime() - startTime;
+        assertEquals(FILE_SIZE, totalReceived);
+        return elapsed;
+    }
+
+    private void report(String name, long elapsedNanos) {
+        final double seconds = elapsedNanos / 1_000_000_000.0;
+        final double megabytes = FILE_SIZE / (1024.0 * 1024.0);
+        LOGGER.info(String.format("%s: %.1f MB/s", name, megabytes / seconds));
+    }
+
+    private interface Sender {
+        void send(FileResourceTransporter transporter) throws Exception;
+    }
+
+}
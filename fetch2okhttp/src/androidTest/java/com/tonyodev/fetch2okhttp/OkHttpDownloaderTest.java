@@ -0,0 +1,120 @@
+package com.tonyodev.fetch2okhttp;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tonyodev.fetch2core.Downloader;
+import com.tonyodev.fetch2core.Extras;
+import com.tonyodev.fetch2core.InterruptMonitor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class OkHttpDownloaderTest {
+
+    private static final long FILE_SIZE = 16 * 1024 * 1024;
+
+    private final InterruptMonitor interruptMonitor = new InterruptMonitor() {
+        @Override
+        public boolean isInterrupted() {
+            return false;
+        }
+    };
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void h2cSlicesShareOnePooledConnection() throws Exception {
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.enqueue(getRangeResponse());
+        server.enqueue(getRangeResponse());
+        server.start();
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .build();
+        final OkHttpDownloader downloader = new OkHttpDownloader(client, Downloader.FileDownloaderType.PARALLEL, true);
+        final Downloader.ServerRequest request = getServerRequest(server.url("/file").toString());
+        assertNull(downloader.getFileSlicingCount(request, FILE_SIZE));
+
+        final Downloader.Response first = downloader.execute(request, interruptMonitor);
+        final Downloader.Response second = downloader.execute(request, interruptMonitor);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(Protocol.H2_PRIOR_KNOWLEDGE.toString(), first.getProtocol());
+        assertFalse(first.getConnectionReused());
+        assertTrue(second.getConnectionReused());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(Integer.valueOf(16), downloader.getFileSlicingCount(request, FILE_SIZE));
+        downloader.close();
+    }
+
+    @Test
+    public void http1HostKeepsDefaultSlicing() throws Exception {
+        server.enqueue(getRangeResponse());
+        server.enqueue(getRangeResponse());
+        server.start();
+        final OkHttpDownloader downloader = new OkHttpDownloader(null, Downloader.FileDownloaderType.PARALLEL, true);
+        final Downloader.ServerRequest request = getServerRequest(server.url("/file").toString());
+
+        final Downloader.Response first = downloader.execute(request, interruptMonitor);
+        assertNotNull(first);
+        readFully(first.getByteStream());
+        downloader.disconnect(first);
+        final Downloader.Response second = downloader.execute(request, interruptMonitor);
+        assertNotNull(second);
+        assertEquals(Protocol.HTTP_1_1.toString(), first.getProtocol());
+        assertFalse(first.getConnectionReused());
+        assertTrue(second.getConnectionReused());
+        assertNull(downloader.getFileSlicingCount(request, FILE_SIZE));
+        downloader.close();
+    }
+
+    private MockResponse getRangeResponse() {
+        return new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Accept-Ranges", "bytes")
+                .setBody("data");
+    }
+
+    private Downloader.ServerRequest getServerRequest(String url) {
+        return new Downloader.ServerRequest(1, url, Collections.singletonMap("Range", "bytes=0-"),
+                "/tmp/file", Uri.parse("/tmp/file"), null, 0, "GET",
+                new Extras(Collections.<String, String>emptyMap()), false, "");
+    }
+
+    private void readFully(InputStream inputStream) throws Exception {
+        final byte[] buffer = new byte[1024];
+        while (inputStream.read(buffer) != -1) {
+            // Drain the body so the connection goes back to the pool.
+        }
+    }
+
+}
@@ -1,13 +1,20 @@
 package com.tonyodev.fetch2okhttp
 
 import com.tonyodev.fetch2core.*
+import okhttp3.Connection
+import okhttp3.ConnectionPool
 import okhttp3.Headers
+import okhttp3.HttpUrl
+import okhttp3.Interceptor
 import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.Response
 import java.io.InputStream
 import java.net.HttpURLConnection
 import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 /**
@@ -22,7 +29,14 @@ open class OkHttpDownloader @JvmOverloads constructor(
          * The SEQUENTIAL type downloads bytes in sequence.
          * The PARALLEL type downloads bytes in parallel.
          * */
-        private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL)
+        private val fileDownloaderType: Downloader.FileDownloaderType = Downloader.FileDownloaderType.SEQUENTIAL,
+        /** When true the number of slices of a parallel download is sized by the protocol
+         * negotiated with the host. HTTP/2 hosts multiplex the slices as streams over one pooled
+         * connection, so they get more and smaller slices. HTTP/1.x hosts keep the default slicing
+         * because every slice needs its own connection. The default client also keeps more idle
+         * connections alive so slices and later downloads of the same host reuse them.
+         * */
+        private val protocolAwareSlicing: Boolean = false)
     : Downloader<OkHttpClient, Request> {
 
     constructor(fileDownloaderType: Downloader.FileDownloaderType) : this(null, fileDownloaderType)
@@ -30,15 +44,75 @@ open class OkHttpDownloader @JvmOverloads constructor(
     protected val connections: MutableMap<Downloader.Response, Response> = Collections.synchronizedMap(HashMap<Downloader.Response, Response>())
 
     @Volatile
-    var client: OkHttpClient = okHttpClient ?: OkHttpClient.Builder()
-            .readTimeout(20_000L, TimeUnit.MILLISECONDS)
-            .connectTimeout(15_000L, TimeUnit.MILLISECONDS)
-            .cache(null)
-            .followRedirects(true)
-            .followSslRedirects(true)
-            .retryOnConnectionFailure(false)
-            .cookieJar(getDefaultCookieJar())
-            .build()
+    var client: OkHttpClient = okHttpClient ?: createDefaultClient()
+
+    private val lock = Any()
+    private var trackedClient: OkHttpClient? = null
+    private var trackingClient: OkHttpClient? = null
+    private val hostProtocols = ConcurrentHashMap<String, Protocol>()
+    private val seenConnections = Collections.newSetFromMap(WeakHashMap<Connection, Boolean>())
+
+    /** Marks responses that were served over a connection an earlier request already used.*/
+    private val connectionTracker = Interceptor { chain ->
+        val connectionInfo = chain.request().tag(ConnectionInfo::class.java)
+        val connection = chain.connection()
+        if (connectionInfo != null && connection != null) {
+            connectionInfo.reused = synchronized(seenConnections) {
+                !seenConnections.add(connection)
+            }
+        }
+        chain.proceed(chain.request())
+    }
+
+    private fun createDefaultClient(): OkHttpClient {
+        val builder = OkHttpClient.Builder()
+                .readTimeout(20_000L, TimeUnit.MILLISECONDS)
+                .connectTimeout(15_000L, TimeUnit.MILLISECONDS)
+                .cache(null)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .retryOnConnectionFailure(false)
+                .cookieJar(getDefaultCookieJar())
+        if (protocolAwareSlicing) {
+            builder.protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .connectionPool(ConnectionPool(PROTOCOL_AWARE_MAX_IDLE_CONNECTIONS,
+                            PROTOCOL_AWARE_KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        }
+        return builder.build()
+    }
+
+    /** Returns the client used to execute calls. It shares the connection pool and dispatcher
+     * of the client property and adds the connection tracker. It is rebuilt when the client
+     * property is replaced.*/
+    private fun getTrackingClient(): OkHttpClient {
+        val currentClient = client
+        synchronized(lock) {
+            val tracking = trackingClient
+            if (tracking != null && trackedClient === currentClient) {
+                return tracking
+            }
+            val newTracking = currentClient.newBuilder()
+                    .addNetworkInterceptor(connectionTracker)
+                    .build()
+            trackingClient = newTracking
+            trackedClient = currentClient
+            return newTracking
+        }
+    }
+
+    private fun executeCall(okHttpRequest: Request, connectionInfo: ConnectionInfo): Response {
+        val trackedRequest = okHttpRequest.newBuilder()
+                .tag(ConnectionInfo::class.java, connectionInfo)
+                .build()
+        return getTrackingClient().newCall(trackedRequest).execute()
+    }
+
+    /** @return the protocol last negotiated with the host of the url or null if this downloader
+     * has not connected to the host yet.*/
+    fun getHostProtocol(url: String): Protocol? {
+        val host = HttpUrl.parse(url)?.host() ?: return null
+        return hostProtocols[host]
+    }
 
     override fun onPreClientExecute(client: OkHttpClient, request: Downloader.ServerRequest): Request {
         val okHttpRequestBuilder = Request.Builder()
@@ -83,7 +157,8 @@ open class OkHttpDownloader @JvmOverloads constructor(
                     .addHeader("Referer", referer)
                     .build()
         }
-        var okHttpResponse = client.newCall(okHttpRequest).execute()
+        var connectionInfo = ConnectionInfo()
+        var okHttpResponse = executeCall(okHttpRequest, connectionInfo)
         var responseHeaders = getResponseHeaders(okHttpResponse.headers())
         var code = okHttpResponse.code()
         if ((code == HttpURLConnection.HTTP_MOVED_TEMP
@@ -97,7 +172,8 @@ open class OkHttpDownloader @JvmOverloads constructor(
                         .addHeader("Referer", referer)
                         .build()
             }
-            okHttpResponse = client.newCall(okHttpRequest).execute()
+            connectionInfo = ConnectionInfo()
+            okHttpResponse = executeCall(okHttpRequest, connectionInfo)
             responseHeaders = getResponseHeaders(okHttpResponse.headers())
             code = okHttpResponse.code()
         }
@@ -119,6 +195,12 @@ open class OkHttpDownloader @JvmOverloads constructor(
         val acceptsRanges = code == HttpURLConnection.HTTP_PARTIAL ||
                 responseHeaders["Accept-Ranges"]?.firstOrNull() == "bytes"
 
+        val protocol = okHttpResponse.protocol()
+        val host = HttpUrl.parse(request.url)?.host()
+        if (host != null) {
+            hostProtocols[host] = protocol
+        }
+
         onServerResponse(request, Downloader.Response(
                 code = code,
                 isSuccessful = success,
@@ -128,7 +210,9 @@ open class OkHttpDownloader @JvmOverloads constructor(
                 hash = hash,
                 responseHeaders = responseHeaders,
                 acceptsRanges = acceptsRanges,
-                errorResponse = errorResponseString))
+                errorResponse = errorResponseString,
+                protocol = protocol.toString(),
+                connectionReused = connectionInfo.reused))
 
         val response = Downloader.Response(
                 code = code,
@@ -139,7 +223,9 @@ open class OkHttpDownloader @JvmOverloads constructor(
                 hash = hash,
                 responseHeaders = responseHeaders,
                 acceptsRanges = acceptsRanges,
-                errorResponse = errorResponseString)
+                errorResponse = errorResponseString,
+                protocol = protocol.toString(),
+                connectionReused = connectionInfo.reused)
 
         connections[response] = okHttpResponse
         return response
@@ -173,7 +259,16 @@ open class OkHttpDownloader @JvmOverloads constructor(
     }
 
     override fun getFileSlicingCount(request: Downloader.ServerRequest, contentLength: Long): Int? {
-        return null
+        if (!protocolAwareSlicing || contentLength < 1) {
+            return null
+        }
+        return when (getHostProtocol(request.url)) {
+            Protocol.HTTP_2, Protocol.H2_PRIOR_KNOWLEDGE -> {
+                Math.max(MIN_MULTIPLEXED_SLICES.toLong(), Math.min(MAX_MULTIPLEXED_SLICES.toLong(),
+                        contentLength / MIN_MULTIPLEXED_SLICE_BYTES)).toInt()
+            }
+            else -> null
+        }
     }
 
     override fun getRequestFileDownloaderType(request: Downloader.ServerRequest, supportedFileDownloaderTypes: Set<Downloader.FileDownloaderType>): Downloader.FileDownloaderType {
@@ -184,8 +279,8 @@ open class OkHttpDownloader @JvmOverloads constructor(
         if (hash.isEmpty()) {
             return true
         }
-        val fileMd5 = getFileMd5String(request.file)
-        return fileMd5?.contentEquals(hash) ?: true
+        val fileHash = getFileHashString(request.file, getHashAlgorithm(hash) ?: ResumableDigest.MD5)
+        return fileHash?.equals(hash, true) ?: true
     }
 
     override fun onServerResponse(request: Downloader.ServerRequest, response: Downloader.Response) {
@@ -204,6 +299,8 @@ open class OkHttpDownloader @JvmOverloads constructor(
         return getRequestContentLength(request, this)
     }
 
+    /** The range probe made here opens the pooled connection to the host and records the
+     * negotiated protocol before the slices of the download are planned.*/
     override fun getRequestSupportedFileDownloaderTypes(request: Downloader.ServerRequest): Set<Downloader.FileDownloaderType> {
         return try {
             getRequestSupportedFileDownloaderTypes(request, this)
@@ -212,4 +309,21 @@ open class OkHttpDownloader @JvmOverloads constructor(
         }
     }
 
+    private class ConnectionInfo {
+
+        @Volatile
+        var reused = false
+
+    }
+
+    companion object {
+
+        private const val PROTOCOL_AWARE_MAX_IDLE_CONNECTIONS = 16
+        private const val PROTOCOL_AWARE_KEEP_ALIVE_MINUTES = 5L
+        private const val MIN_MULTIPLEXED_SLICES = 2
+        private const val MAX_MULTIPLEXED_SLICES = 16
+        private const val MIN_MULTIPLEXED_SLICE_BYTES = 256L * 1024L
+
+    }
+
 }
\ No newline at end of file
@@ -784,6 +784,39 @@ open class RxFetchImpl(override val namespace: String,
         }
     }
 
+    override fun setDownloadBandwidthLimit(id: Int, bytesPerSecond: Long): Convertible<Download> {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            Flowable.just(Pair(id, bytesPerSecond))
+                    .subscribeOn(scheduler)
+                    .flatMap {
+                        throwExceptionIfClosed()
+                        val download = fetchHandler.setDownloadBandwidthLimit(it.first, it.second)
+                        Flowable.just(download)
+                    }
+                    .observeOn(uiScheduler)
+                    .toConvertible()
+        }
+    }
+
+    override fun getSchedulingLatency(): Convertible<SchedulingLatency> {
+        return synchronized(lock) {
+            throwExceptionIfClosed()
+            Flowable.just(Any())
+                    .subscribeOn(scheduler)
+                    .flatMap {
+                        throwExceptionIfClosed()
+                        val schedulingLatency = fetchHandler.getSchedulingLatency()
+                        Flowable.just(schedulingLatency)
+                    }
+                    .observeOn(uiScheduler)
+                    .toConvertible()
+        }
+    }
+
     override fun getDownloads(): Convertible<List<Download>> {
         return synchronized(lock) {
             throwExceptionIfClosed()
@@ -1050,6 +1083,35 @@ open class RxFetchImpl(override val namespace: String,
         }
     }
 
+    override fun setGlobalBandwidthLimit(bytesPerSecond: Long): RxFetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            handlerWrapper.post {
+                fetchHandler.setGlobalBandwidthLimit(bytesPerSecond)
+            }
+            return this
+        }
+    }
+
+    override fun setNetworkTypeBandwidthLimit(networkType: NetworkType, bytesPerSecond: Long): RxFetch {
+        synchronized(lock) {
+            throwExceptionIfClosed()
+            if (networkType == NetworkType.GLOBAL_OFF) {
+                throw FetchException("bandwidth limit cannot be set for NetworkType.GLOBAL_OFF")
+            }
+            if (bytesPerSecond < 0) {
+                throw FetchException("bandwidth limit cannot be less than 0")
+            }
+            handlerWrapper.post {
+                fetchHandler.setNetworkTypeBandwidthLimit(networkType, bytesPerSecond)
+            }
+            return this
+        }
+    }
+
     override fun close() {
         synchronized(lock) {
             if (closed) {